@@ -0,0 +1,190 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sampletvinput.player;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A process-wide estimate of the available bandwidth, kept separately for each network and
+ * persisted across restarts. Players use it until they have measured the bandwidth themselves,
+ * so that the first segments after a tune are requested at a suitable quality.
+ * <p>
+ * Samples are combined into a moving average, weighted by the square root of the bytes they
+ * measured, like the {@link com.google.android.exoplayer.upstream.DefaultBandwidthMeter} of a
+ * player, so that the throughput of small transfers, which is mostly their latency, barely moves
+ * the estimate. The weight of the previous estimate halves with every {@link #HALF_LIFE_MS} since
+ * it was last updated, and is capped so that new samples keep moving it. Estimates which have not
+ * been updated for {@link #MAX_AGE_MS} are ignored. This class is thread safe.
+ * <p>
+ * The current network is looked up when connectivity changes rather than on every call, since
+ * players ask for the estimate often.
+ */
+public final class BandwidthEstimator {
+    private static final String TAG = "BandwidthEstimator";
+    private static final boolean DEBUG = false;
+
+    private static final String PREFS_NAME = "bandwidth_estimates";
+    private static final String KEY_BITRATE_SUFFIX = ".bitrate";
+    private static final String KEY_UPDATE_TIME_SUFFIX = ".update_time";
+
+    private static final long HALF_LIFE_MS = TimeUnit.HOURS.toMillis(1);
+    private static final long MAX_AGE_MS = TimeUnit.DAYS.toMillis(3);
+    // A sample of REFERENCE_SAMPLE_BYTES has a weight of SAMPLE_WEIGHT against an estimate which
+    // has just been updated and is at its maximum weight.
+    private static final long REFERENCE_SAMPLE_BYTES = 1024 * 1024;
+    private static final double SAMPLE_WEIGHT = 0.3;
+    private static final double MAX_WEIGHT =
+            Math.sqrt(REFERENCE_SAMPLE_BYTES) * (1 - SAMPLE_WEIGHT) / SAMPLE_WEIGHT;
+    private static final long PERSIST_INTERVAL_MS = TimeUnit.SECONDS.toMillis(30);
+
+    private static BandwidthEstimator sInstance;
+
+    private final ConnectivityManager mConnectivityManager;
+    private final SharedPreferences mPreferences;
+    // The key of the current network, or null if there is none.
+    private volatile String mCurrentNetworkKey;
+
+    // The network the estimate below is for.
+    private String mNetworkKey;
+    private long mBitrate = BandwidthMeter.NO_ESTIMATE;
+    // The weight of the estimate when it was last updated.
+    private double mWeight;
+    private long mUpdateTimeMs;
+    private long mPersistTimeMs;
+
+    /** @return The estimator shared by all players of this process. */
+    public static synchronized BandwidthEstimator getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BandwidthEstimator(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    BandwidthEstimator(Context context) {
+        mConnectivityManager =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        mPreferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mCurrentNetworkKey = getNetworkKey();
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                mCurrentNetworkKey = getNetworkKey();
+            }
+        }, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+
+    /**
+     * @return The estimated bitrate of the current network in bits per second, or
+     *     {@link BandwidthMeter#NO_ESTIMATE} if there is no recent estimate for it.
+     */
+    public long getBitrateEstimate() {
+        return getBitrateEstimate(System.currentTimeMillis());
+    }
+
+    @VisibleForTesting
+    synchronized long getBitrateEstimate(long nowMs) {
+        if (!updateNetwork() || mBitrate == BandwidthMeter.NO_ESTIMATE
+                || nowMs - mUpdateTimeMs > MAX_AGE_MS) {
+            return BandwidthMeter.NO_ESTIMATE;
+        }
+        return mBitrate;
+    }
+
+    /**
+     * Adds a bitrate measured by a player to the estimate of the current network.
+     *
+     * @param bitrate The measured bitrate in bits per second.
+     * @param bytes The number of bytes the bitrate was measured over.
+     */
+    public void addSample(long bitrate, long bytes) {
+        addSample(bitrate, bytes, System.currentTimeMillis());
+    }
+
+    @VisibleForTesting
+    synchronized void addSample(long bitrate, long bytes, long nowMs) {
+        if (bitrate <= 0 || bytes <= 0 || !updateNetwork()) {
+            return;
+        }
+        double sampleWeight = Math.sqrt(bytes);
+        long ageMs = nowMs - mUpdateTimeMs;
+        if (mBitrate == BandwidthMeter.NO_ESTIMATE || ageMs > MAX_AGE_MS || ageMs < 0) {
+            mBitrate = bitrate;
+            mWeight = Math.min(sampleWeight, MAX_WEIGHT);
+        } else {
+            double previousWeight = mWeight * Math.pow(0.5, (double) ageMs / HALF_LIFE_MS);
+            mBitrate = (long) ((mBitrate * previousWeight + bitrate * sampleWeight)
+                    / (previousWeight + sampleWeight));
+            mWeight = Math.min(previousWeight + sampleWeight, MAX_WEIGHT);
+        }
+        mUpdateTimeMs = nowMs;
+        if (nowMs - mPersistTimeMs >= PERSIST_INTERVAL_MS) {
+            mPersistTimeMs = nowMs;
+            mPreferences.edit()
+                    .putLong(mNetworkKey + KEY_BITRATE_SUFFIX, mBitrate)
+                    .putLong(mNetworkKey + KEY_UPDATE_TIME_SUFFIX, mUpdateTimeMs)
+                    .apply();
+            if (DEBUG) {
+                Log.d(TAG, "Estimate for " + mNetworkKey + " is " + mBitrate + "bps");
+            }
+        }
+    }
+
+    /**
+     * Switches to the estimate of the current network, if it has changed.
+     *
+     * @return Whether there is a connected network.
+     */
+    private boolean updateNetwork() {
+        String networkKey = mCurrentNetworkKey;
+        if (networkKey == null) {
+            return false;
+        }
+        if (!networkKey.equals(mNetworkKey)) {
+            mNetworkKey = networkKey;
+            mBitrate = mPreferences.getLong(
+                    networkKey + KEY_BITRATE_SUFFIX, BandwidthMeter.NO_ESTIMATE);
+            mUpdateTimeMs = mPreferences.getLong(networkKey + KEY_UPDATE_TIME_SUFFIX, 0);
+            // A persisted estimate was built from many samples.
+            mWeight = MAX_WEIGHT;
+            mPersistTimeMs = 0;
+        }
+        return true;
+    }
+
+    /** @return A key identifying the current network, or {@code null} if there is none. */
+    private String getNetworkKey() {
+        NetworkInfo networkInfo = mConnectivityManager.getActiveNetworkInfo();
+        if (networkInfo == null || !networkInfo.isConnected()) {
+            return null;
+        }
+        // The extra info names the Wi-Fi network or the APN. Only its hash is stored.
+        String extraInfo = networkInfo.getExtraInfo();
+        return networkInfo.getTypeName() + ":"
+                + (extraInfo == null ? "" : Integer.toHexString(extraInfo.hashCode()));
+    }
+}
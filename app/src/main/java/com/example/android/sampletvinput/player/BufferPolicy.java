@@ -0,0 +1,275 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sampletvinput.player;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.util.Log;
+import com.google.android.exoplayer.DefaultLoadControl;
+import com.google.android.exoplayer.LoadControl;
+import com.google.android.exoplayer.upstream.Allocator;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DefaultAllocator;
+import com.google.android.media.tv.companionlibrary.model.InternalProviderData;
+
+/**
+ * How much media a player buffers, and how far behind the live edge it plays live streams.
+ * <p>
+ * A channel picks a policy with hints in the custom data of its {@link InternalProviderData}:
+ * {@link #KEY_BUFFER_POLICY} names one of the presets, and {@link #KEY_BUFFER_SIZE_BYTES} and
+ * {@link #KEY_LIVE_EDGE_LATENCY_MS} override the total buffer size and the live edge latency of
+ * that preset. A program can set the same hints to override the ones of its channel, such as to
+ * play a sports event with {@link #LOW_LATENCY_LIVE}. Content without hints uses {@link #VOD}, or
+ * {@link #MEMORY_CONSTRAINED} on devices with little memory.
+ */
+public final class BufferPolicy {
+    private static final String TAG = "BufferPolicy";
+
+    /** The key of the name of the preset, such as {@code "lowLatencyLive"}. */
+    public static final String KEY_BUFFER_POLICY = "bufferPolicy";
+    /** The key of the number of bytes of audio and video to buffer. */
+    public static final String KEY_BUFFER_SIZE_BYTES = "bufferSizeBytes";
+    /** The key of how far behind the live edge to play DASH and SmoothStreaming streams. */
+    public static final String KEY_LIVE_EDGE_LATENCY_MS = "liveEdgeLatencyMs";
+
+    private static final String NAME_VOD = "vod";
+    private static final String NAME_LOW_LATENCY_LIVE = "lowLatencyLive";
+    private static final String NAME_MEMORY_CONSTRAINED = "memoryConstrained";
+
+    // Devices with less memory than this use the memory constrained preset by default.
+    private static final long LOW_MEMORY_THRESHOLD_BYTES = 1536L * 1024 * 1024;
+
+    private static final int KB = 1024;
+
+    /** Buffers half a minute of content, for video on demand and live streams alike. */
+    public static final BufferPolicy VOD = new BufferPolicy(64 * KB, 200 * 64 * KB, 54 * 64 * KB,
+            2 * 64 * KB, 30000, DefaultLoadControl.DEFAULT_LOW_WATERMARK_MS,
+            DefaultLoadControl.DEFAULT_HIGH_WATERMARK_MS, false);
+
+    /**
+     * Plays live streams a few seconds behind the live edge, such as for sports, at the cost of
+     * stalling more often when the network slows down. Players which fall behind the target
+     * latency catch up with a {@link LiveLatencyController}.
+     */
+    public static final BufferPolicy LOW_LATENCY_LIVE = new BufferPolicy(64 * KB, 100 * 64 * KB,
+            27 * 64 * KB, 2 * 64 * KB, 5000, 2500, 5000, true);
+
+    /** Keeps about 5 MB of media per player, for devices with 1 GB of memory or less. */
+    public static final BufferPolicy MEMORY_CONSTRAINED = new BufferPolicy(32 * KB,
+            128 * 32 * KB, 32 * 32 * KB, 2 * 32 * KB, 30000, 10000, 20000, false);
+
+    private final int mAllocationSize;
+    private final int mVideoBufferSize;
+    private final int mAudioBufferSize;
+    private final int mTextBufferSize;
+    private final long mLiveEdgeLatencyMs;
+    private final int mLowWatermarkMs;
+    private final int mHighWatermarkMs;
+    private final boolean mCatchUpToLiveEdge;
+    private final PreloadLimit mPreloadLimit;
+
+    private BufferPolicy(int allocationSize, int videoBufferSize, int audioBufferSize,
+            int textBufferSize, long liveEdgeLatencyMs, int lowWatermarkMs, int highWatermarkMs,
+            boolean catchUpToLiveEdge) {
+        this(allocationSize, videoBufferSize, audioBufferSize, textBufferSize, liveEdgeLatencyMs,
+                lowWatermarkMs, highWatermarkMs, catchUpToLiveEdge, null);
+    }
+
+    private BufferPolicy(int allocationSize, int videoBufferSize, int audioBufferSize,
+            int textBufferSize, long liveEdgeLatencyMs, int lowWatermarkMs, int highWatermarkMs,
+            boolean catchUpToLiveEdge, PreloadLimit preloadLimit) {
+        mAllocationSize = allocationSize;
+        mVideoBufferSize = videoBufferSize;
+        mAudioBufferSize = audioBufferSize;
+        mTextBufferSize = textBufferSize;
+        mLiveEdgeLatencyMs = liveEdgeLatencyMs;
+        mLowWatermarkMs = lowWatermarkMs;
+        mHighWatermarkMs = highWatermarkMs;
+        mCatchUpToLiveEdge = catchUpToLiveEdge;
+        mPreloadLimit = preloadLimit;
+    }
+
+    /**
+     * @param context The {@link Context} to use.
+     * @return The policy for content without hints on this device.
+     */
+    public static BufferPolicy getDefault(Context context) {
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+        activityManager.getMemoryInfo(memoryInfo);
+        if (activityManager.isLowRamDevice()
+                || memoryInfo.totalMem < LOW_MEMORY_THRESHOLD_BYTES) {
+            return MEMORY_CONSTRAINED;
+        }
+        return VOD;
+    }
+
+    /**
+     * Returns the policy a channel asks for in its internal provider data.
+     *
+     * @param context The {@link Context} to use.
+     * @param data The internal provider data of the channel, or {@code null}.
+     * @return The policy of the channel, or the default one if it has no valid hints.
+     */
+    public static BufferPolicy fromInternalProviderData(Context context,
+            InternalProviderData data) {
+        return applyHints(getDefault(context), data);
+    }
+
+    /**
+     * Returns the policy a program asks for in its internal provider data, or else its channel.
+     *
+     * @param context The {@link Context} to use.
+     * @param channelData The internal provider data of the channel, or {@code null}.
+     * @param programData The internal provider data of the program, or {@code null}.
+     * @return The policy of the program.
+     */
+    public static BufferPolicy fromInternalProviderData(Context context,
+            InternalProviderData channelData, InternalProviderData programData) {
+        return applyHints(fromInternalProviderData(context, channelData), programData);
+    }
+
+    private static BufferPolicy applyHints(BufferPolicy policy, InternalProviderData data) {
+        if (data == null) {
+            return policy;
+        }
+        try {
+            Object name = data.get(KEY_BUFFER_POLICY);
+            if (NAME_VOD.equals(name)) {
+                policy = VOD;
+            } else if (NAME_LOW_LATENCY_LIVE.equals(name)) {
+                policy = LOW_LATENCY_LIVE;
+            } else if (NAME_MEMORY_CONSTRAINED.equals(name)) {
+                policy = MEMORY_CONSTRAINED;
+            } else if (name != null) {
+                Log.w(TAG, "Unknown buffer policy " + name);
+            }
+            if (data.has(KEY_BUFFER_SIZE_BYTES)) {
+                policy = policy.withBufferSize(
+                        Integer.parseInt(String.valueOf(data.get(KEY_BUFFER_SIZE_BYTES))));
+            }
+            if (data.has(KEY_LIVE_EDGE_LATENCY_MS)) {
+                policy = policy.withLiveEdgeLatencyMs(
+                        Long.parseLong(String.valueOf(data.get(KEY_LIVE_EDGE_LATENCY_MS))));
+            }
+        } catch (InternalProviderData.ParseException | NumberFormatException e) {
+            Log.w(TAG, "Invalid buffer hints in " + data, e);
+        }
+        return policy;
+    }
+
+    /**
+     * Returns a copy of this policy which buffers the given number of bytes of audio and video,
+     * shared between them in the same proportions as this policy.
+     */
+    private BufferPolicy withBufferSize(int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new NumberFormatException("Buffer size must be positive: " + bufferSize);
+        }
+        int videoBufferSize = (int) ((long) bufferSize * mVideoBufferSize / getMainBufferSize());
+        return new BufferPolicy(mAllocationSize, videoBufferSize, bufferSize - videoBufferSize,
+                mTextBufferSize, mLiveEdgeLatencyMs, mLowWatermarkMs, mHighWatermarkMs,
+                mCatchUpToLiveEdge, mPreloadLimit);
+    }
+
+    private BufferPolicy withLiveEdgeLatencyMs(long liveEdgeLatencyMs) {
+        if (liveEdgeLatencyMs < 0) {
+            throw new NumberFormatException("Latency must not be negative: " + liveEdgeLatencyMs);
+        }
+        return new BufferPolicy(mAllocationSize, mVideoBufferSize, mAudioBufferSize,
+                mTextBufferSize, liveEdgeLatencyMs, mLowWatermarkMs, mHighWatermarkMs,
+                mCatchUpToLiveEdge, mPreloadLimit);
+    }
+
+    /**
+     * @param preloadLimit The limit of what players load while they are paused in a
+     *     {@link PlayerPool}.
+     * @return A copy of this policy whose players also keep to the given limit.
+     */
+    public BufferPolicy withPreloadLimit(PreloadLimit preloadLimit) {
+        return new BufferPolicy(mAllocationSize, mVideoBufferSize, mAudioBufferSize,
+                mTextBufferSize, mLiveEdgeLatencyMs, mLowWatermarkMs, mHighWatermarkMs,
+                mCatchUpToLiveEdge, preloadLimit);
+    }
+
+    /** @return A new allocator for the buffers of a player. */
+    public Allocator createAllocator() {
+        return new DefaultAllocator(mAllocationSize);
+    }
+
+    /**
+     * @param allocator The allocator of the buffers of the player.
+     * @return A new load control for a player which loads its streams separately.
+     */
+    public LoadControl createLoadControl(Allocator allocator) {
+        LoadControl loadControl = new DefaultLoadControl(allocator, null, null, mLowWatermarkMs,
+                mHighWatermarkMs, DefaultLoadControl.DEFAULT_LOW_BUFFER_LOAD,
+                DefaultLoadControl.DEFAULT_HIGH_BUFFER_LOAD);
+        return mPreloadLimit != null ? mPreloadLimit.wrap(loadControl) : loadControl;
+    }
+
+    /**
+     * @param dataSource The data source of a player which loads a single stream.
+     * @return A data source which keeps to the preload limit of this policy, if it has one.
+     */
+    public DataSource createDataSource(DataSource dataSource) {
+        return mPreloadLimit != null ? mPreloadLimit.wrap(dataSource) : dataSource;
+    }
+
+    /** @return The size of the video buffer, in bytes. */
+    public int getVideoBufferSize() {
+        return mVideoBufferSize;
+    }
+
+    /** @return The size of the audio buffer, in bytes. */
+    public int getAudioBufferSize() {
+        return mAudioBufferSize;
+    }
+
+    /** @return The size of the text buffer, in bytes. */
+    public int getTextBufferSize() {
+        return mTextBufferSize;
+    }
+
+    /** @return The size of the buffer of streams which hold both audio and video, in bytes. */
+    public int getMainBufferSize() {
+        return mVideoBufferSize + mAudioBufferSize;
+    }
+
+    /** @return How far behind the live edge to play live streams. */
+    public long getLiveEdgeLatencyMs() {
+        return mLiveEdgeLatencyMs;
+    }
+
+    /**
+     * @return Whether players of live streams should keep close to the live edge latency, by
+     *     playing faster or seeking when they fall behind.
+     */
+    public boolean shouldCatchUpToLiveEdge() {
+        return mCatchUpToLiveEdge;
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPolicy{allocationSize=" + mAllocationSize
+                + ", videoBufferSize=" + mVideoBufferSize
+                + ", audioBufferSize=" + mAudioBufferSize
+                + ", liveEdgeLatencyMs=" + mLiveEdgeLatencyMs
+                + ", catchUpToLiveEdge=" + mCatchUpToLiveEdge + "}";
+    }
+}
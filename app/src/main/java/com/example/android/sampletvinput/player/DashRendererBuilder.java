@@ -20,7 +20,6 @@ import android.media.AudioManager;
 import android.media.MediaCodec;
 import android.os.Handler;
 import android.util.Log;
-import com.google.android.exoplayer.DefaultLoadControl;
 import com.google.android.exoplayer.LoadControl;
 import com.google.android.exoplayer.MediaCodecAudioTrackRenderer;
 import com.google.android.exoplayer.MediaCodecSelector;
@@ -44,10 +43,9 @@ import com.google.android.exoplayer.drm.StreamingDrmSessionManager;
 import com.google.android.exoplayer.drm.UnsupportedDrmException;
 import com.google.android.exoplayer.text.TextTrackRenderer;
 import com.google.android.exoplayer.upstream.DataSource;
-import com.google.android.exoplayer.upstream.DefaultAllocator;
-import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
 import com.google.android.exoplayer.upstream.DefaultUriDataSource;
 import com.google.android.exoplayer.upstream.UriDataSource;
+import com.google.android.exoplayer.upstream.cache.Cache;
 import com.google.android.exoplayer.util.ManifestFetcher;
 import com.google.android.exoplayer.util.Util;
 import java.io.IOException;
@@ -60,35 +58,51 @@ import java.io.IOException;
 public class DashRendererBuilder implements DemoPlayer.RendererBuilder {
     private static final String TAG = "DashRendererBuilder";
 
-    private static final int BUFFER_SEGMENT_SIZE = 64 * 1024;
-    private static final int VIDEO_BUFFER_SEGMENTS = 200;
-    private static final int AUDIO_BUFFER_SEGMENTS = 54;
-    private static final int TEXT_BUFFER_SEGMENTS = 2;
-    private static final int LIVE_EDGE_LATENCY_MS = 30000;
-
     private static final int SECURITY_LEVEL_UNKNOWN = -1;
     private static final int SECURITY_LEVEL_1 = 1;
     private static final int SECURITY_LEVEL_3 = 3;
 
+    // Static manifests are reused until evicted, and dynamic ones until they are due an update.
+    private static final ManifestCache.ExpiryPolicy<MediaPresentationDescription> EXPIRY_POLICY =
+            new ManifestCache.ExpiryPolicy<MediaPresentationDescription>() {
+                @Override
+                public long getMaxAgeMs(MediaPresentationDescription manifest) {
+                    if (!manifest.dynamic) {
+                        return Long.MAX_VALUE;
+                    }
+                    return Math.max(0, manifest.minUpdatePeriod);
+                }
+            };
+
     private final Context context;
     private final String userAgent;
     private final String url;
     private final MediaDrmCallback drmCallback;
+    private final Cache cache;
+    private final BufferPolicy bufferPolicy;
 
     private AsyncRendererBuilder currentAsyncBuilder;
 
+    /**
+     * @param cache The cache to read segments through, or {@code null} to read them from the
+     *     network.
+     * @param bufferPolicy The sizes of the buffers, and the latency of live streams.
+     */
     public DashRendererBuilder(Context context, String userAgent, String url,
-                               MediaDrmCallback drmCallback) {
+                               MediaDrmCallback drmCallback, Cache cache,
+                               BufferPolicy bufferPolicy) {
         this.context = context;
         this.userAgent = userAgent;
         this.url = url;
         this.drmCallback = drmCallback;
+        this.cache = cache;
+        this.bufferPolicy = bufferPolicy;
     }
 
     @Override
     public void buildRenderers(DemoPlayer player) {
         currentAsyncBuilder = new AsyncRendererBuilder(context, userAgent, url, drmCallback,
-                player);
+                cache, bufferPolicy, player);
         currentAsyncBuilder.init();
     }
 
@@ -107,6 +121,8 @@ public class DashRendererBuilder implements DemoPlayer.RendererBuilder {
         private final Context context;
         private final String userAgent;
         private final MediaDrmCallback drmCallback;
+        private final Cache cache;
+        private final BufferPolicy bufferPolicy;
         private final DemoPlayer player;
         private final ManifestFetcher<MediaPresentationDescription> manifestFetcher;
         private final UriDataSource manifestDataSource;
@@ -116,22 +132,28 @@ public class DashRendererBuilder implements DemoPlayer.RendererBuilder {
         private long elapsedRealtimeOffset;
 
         public AsyncRendererBuilder(Context context, String userAgent, String url,
-                                    MediaDrmCallback drmCallback, DemoPlayer player) {
+                                    MediaDrmCallback drmCallback, Cache cache,
+                                    BufferPolicy bufferPolicy, DemoPlayer player) {
             this.context = context;
             this.userAgent = userAgent;
             this.drmCallback = drmCallback;
+            this.cache = cache;
+            this.bufferPolicy = bufferPolicy;
             this.player = player;
             MediaPresentationDescriptionParser parser = new MediaPresentationDescriptionParser();
             manifestDataSource = new DefaultUriDataSource(context, userAgent);
-            manifestFetcher = new ManifestFetcher<>(url, manifestDataSource, parser);
+            manifestFetcher = ManifestCache.getFetcher(url,
+                    new DefaultUriDataSource(context.getApplicationContext(), userAgent), parser);
         }
 
         public void init() {
-            manifestFetcher.singleLoad(player.getMainHandler().getLooper(), this);
+            ManifestCache.load(manifestFetcher, EXPIRY_POLICY, player.getMainHandler().getLooper(),
+                    this);
         }
 
         public void cancel() {
             canceled = true;
+            ManifestCache.releaseFetcher(manifestFetcher);
         }
 
         @Override
@@ -183,9 +205,11 @@ public class DashRendererBuilder implements DemoPlayer.RendererBuilder {
         private void buildRenderers() {
             Period period = manifest.getPeriod(0);
             Handler mainHandler = player.getMainHandler();
-            LoadControl loadControl = new DefaultLoadControl(new DefaultAllocator(
-                    BUFFER_SEGMENT_SIZE));
-            DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter(mainHandler, player);
+            LoadControl loadControl =
+                    bufferPolicy.createLoadControl(bufferPolicy.createAllocator());
+            long liveEdgeLatencyMs = bufferPolicy.getLiveEdgeLatencyMs();
+            PersistentBandwidthMeter bandwidthMeter =
+                    new PersistentBandwidthMeter(context, mainHandler, player);
 
             boolean hasContentProtection = false;
             for (int i = 0; i < period.adaptationSets.size(); i++) {
@@ -218,15 +242,15 @@ public class DashRendererBuilder implements DemoPlayer.RendererBuilder {
             }
 
             // Build the video renderer.
-            DataSource videoDataSource =
-                    new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+            DataSource videoDataSource = SegmentCache.wrap(cache,
+                    new DefaultUriDataSource(context, bandwidthMeter, userAgent));
             ChunkSource videoChunkSource = new DashChunkSource(manifestFetcher,
                     DefaultDashTrackSelector.newVideoInstance(context, true, filterHdContent),
-                    videoDataSource, new AdaptiveEvaluator(bandwidthMeter), LIVE_EDGE_LATENCY_MS,
+                    videoDataSource, new AdaptiveEvaluator(bandwidthMeter), liveEdgeLatencyMs,
                     elapsedRealtimeOffset, mainHandler, player, DemoPlayer.TYPE_VIDEO);
             ChunkSampleSource videoSampleSource =
                     new ChunkSampleSource(videoChunkSource, loadControl,
-                            VIDEO_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE, mainHandler, player,
+                            bufferPolicy.getVideoBufferSize(), mainHandler, player,
                             DemoPlayer.TYPE_VIDEO);
             TrackRenderer videoRenderer =
                     new MediaCodecVideoTrackRenderer(context, videoSampleSource,
@@ -235,29 +259,29 @@ public class DashRendererBuilder implements DemoPlayer.RendererBuilder {
                             drmSessionManager, true, mainHandler, player, 50);
 
             // Build the audio renderer.
-            DataSource audioDataSource =
-                    new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+            DataSource audioDataSource = SegmentCache.wrap(cache,
+                    new DefaultUriDataSource(context, bandwidthMeter, userAgent));
             ChunkSource audioChunkSource = new DashChunkSource(manifestFetcher,
                     DefaultDashTrackSelector.newAudioInstance(), audioDataSource, null,
-                    LIVE_EDGE_LATENCY_MS,
+                    liveEdgeLatencyMs,
                     elapsedRealtimeOffset, mainHandler, player, DemoPlayer.TYPE_AUDIO);
             ChunkSampleSource audioSampleSource =
                     new ChunkSampleSource(audioChunkSource, loadControl,
-                            AUDIO_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE, mainHandler, player,
+                            bufferPolicy.getAudioBufferSize(), mainHandler, player,
                             DemoPlayer.TYPE_AUDIO);
             TrackRenderer audioRenderer = new MediaCodecAudioTrackRenderer(audioSampleSource,
                     MediaCodecSelector.DEFAULT, drmSessionManager, true, mainHandler, player,
                     AudioCapabilities.getCapabilities(context), AudioManager.STREAM_MUSIC);
 
             // Build the text renderer.
-            DataSource textDataSource =
-                    new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+            DataSource textDataSource = SegmentCache.wrap(cache,
+                    new DefaultUriDataSource(context, bandwidthMeter, userAgent));
             ChunkSource textChunkSource = new DashChunkSource(manifestFetcher,
                     DefaultDashTrackSelector.newTextInstance(), textDataSource, null,
-                    LIVE_EDGE_LATENCY_MS,
+                    liveEdgeLatencyMs,
                     elapsedRealtimeOffset, mainHandler, player, DemoPlayer.TYPE_TEXT);
             ChunkSampleSource textSampleSource = new ChunkSampleSource(textChunkSource, loadControl,
-                    TEXT_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE, mainHandler, player,
+                    bufferPolicy.getTextBufferSize(), mainHandler, player,
                     DemoPlayer.TYPE_TEXT);
             TrackRenderer textRenderer = new TextTrackRenderer(textSampleSource, player,
                     mainHandler.getLooper());
@@ -86,7 +86,9 @@ public class DemoPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventLi
          * Cancels the current build operation, if there is one. Else does nothing.
          * <p/>
          * A canceled build operation must not invoke {@link DemoPlayer#onRenderers} or {@link
-         * DemoPlayer#onRenderersError} on the player, which may have been released.
+         * DemoPlayer#onRenderersError} on the player, which may have been released. It is also
+         * invoked when the player is prepared again or released, once the renderers it built are
+         * no longer used, so that it can release what it shared with them.
          */
         void cancel();
     }
@@ -189,6 +191,9 @@ public class DemoPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventLi
     private static final int RENDERER_BUILDING_STATE_BUILT = 3;
 
     private static final float DEFAULT_PLAYBACK_SPEED = 1.0f;
+    // The fastest speed the audio renderer is asked to play at. Faster speeds and rewinding are
+    // handled by the TrickplayController.
+    private static final float MAX_NATIVE_PLAYBACK_SPEED = 2.0f;
 
     private final RendererBuilder rendererBuilder;
     private final ExoPlayer player;
@@ -206,6 +211,7 @@ public class DemoPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventLi
     private TrackRenderer audioRenderer;
     private CodecCounters codecCounters;
     private Format videoFormat;
+    private TimeRange availableRange;
     private int videoTrackToRestore;
 
     private BandwidthMeter bandwidthMeter;
@@ -216,8 +222,8 @@ public class DemoPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventLi
     private InternalErrorListener internalErrorListener;
     private InfoListener infoListener;
 
-    private ExoPlayer.Listener playbackParamsListener = null;
-    private FakeTrickplayRunnable fakeTrickplayRunnable;
+    private TrickplayController trickplayController;
+    private boolean nativePlaybackParamsUnsupported;
     private PlaybackParams playbackParams;
 
     public DemoPlayer(RendererBuilder rendererBuilder) {
@@ -329,6 +335,7 @@ public class DemoPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventLi
         }
         rendererBuilder.cancel();
         videoFormat = null;
+        availableRange = null;
         videoRenderer = null;
         rendererBuildingState = RENDERER_BUILDING_STATE_BUILDING;
         maybeReportPlayerState();
@@ -385,14 +392,23 @@ public class DemoPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventLi
     }
 
     public void seekTo(long positionMs) {
+        if (trickplayController != null && trickplayController.isActive()) {
+            trickplayController.seekTo(positionMs);
+            return;
+        }
         player.seekTo(positionMs);
     }
 
     public void release() {
-        rendererBuilder.cancel();
+        if (trickplayController != null) {
+            trickplayController.stop();
+        }
         rendererBuildingState = RENDERER_BUILDING_STATE_IDLE;
         surface = null;
+        // Blocks until the playback thread is done, after which the renderer builder can let go of
+        // anything the renderers used, such as a shared manifest fetcher.
         player.release();
+        rendererBuilder.cancel();
     }
 
     public int getPlaybackState() {
@@ -423,53 +439,79 @@ public class DemoPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventLi
         return codecCounters;
     }
 
+    /**
+     * @return The range of positions which can be played, as last reported by the video source,
+     *     or {@code null} if it does not report one.
+     */
+    public TimeRange getAvailableRange() {
+        return availableRange;
+    }
+
     @Override
     @RequiresApi(api = Build.VERSION_CODES.M)
     public void setPlaybackParams(PlaybackParams params) {
         playbackParams = params;
-        if (playbackParamsListener == null) {
-            playbackParamsListener = new ExoPlayer.Listener() {
-                @Override
-                public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
-                }
-
-                @Override
-                public void onPlayWhenReadyCommitted() {
-                }
-
-                @Override
-                public void onPlayerError(ExoPlaybackException error) {
-                    // Check if there is an error setting PlaybackParams
-                    if (error.getCause() instanceof IllegalArgumentException
-                            && error.getCause().getStackTrace()[0].getMethodName()
-                            .equals("native_set_playback_params")) {
-                        // Make sure the error is related to PlaybackParams
-                        if (playbackParams != null
-                                && Math.abs(playbackParams.getSpeed() - 1f) > 0.1) {
-                            if (fakeTrickplayRunnable == null) {
-                                fakeTrickplayRunnable = new FakeTrickplayRunnable(DemoPlayer.this);
-                            }
-                            fakeTrickplayRunnable.setPlaybackParams(playbackParams);
-                            prepare();
-                            play();
-                        }
-                    }
-                }
-            };
-            player.addListener(playbackParamsListener);
-        }
-
+        float speed = params.getSpeed();
         // Check if our speed is close to or equal to 1
-        if (Math.abs(params.getSpeed() - 1f) < 0.1 && fakeTrickplayRunnable != null) {
-            // Stop the fake trickplay
-            fakeTrickplayRunnable.setPlaybackParams(params);
-            prepare();
-            play();
+        if (Math.abs(speed - 1f) < 0.1) {
+            if (trickplayController != null) {
+                trickplayController.stop();
+            }
+            if (nativePlaybackParamsUnsupported) {
+                // Trickplay cannot show speeds this close to normal, so play at normal speed.
+                playbackParams = new PlaybackParams().setSpeed(DEFAULT_PLAYBACK_SPEED);
+                return;
+            }
+        } else if (speed < 0 || speed > MAX_NATIVE_PLAYBACK_SPEED
+                || nativePlaybackParamsUnsupported) {
+            startTrickplay(speed);
+            return;
+        } else if (trickplayController != null) {
+            trickplayController.stop();
         }
         player.sendMessage(audioRenderer, MediaCodecAudioTrackRenderer.MSG_SET_PLAYBACK_PARAMS,
                 params);
     }
 
+    /**
+     * @return Whether the audio renderer plays at the speed set by {@link #setPlaybackParams}.
+     *     Once it rejected a speed, speeds are shown with trickplay, and speeds close to normal
+     *     are played at normal speed.
+     */
+    public boolean isNativePlaybackSpeedSupported() {
+        return !nativePlaybackParamsUnsupported;
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private boolean isPlaybackParamsError(ExoPlaybackException error) {
+        if (playbackParams == null || playbackParams.getSpeed() == DEFAULT_PLAYBACK_SPEED) {
+            return false;
+        }
+        Throwable cause = error.getCause();
+        return cause instanceof IllegalArgumentException
+                && cause.getStackTrace().length > 0
+                && cause.getStackTrace()[0].getMethodName().equals("native_set_playback_params");
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private void fallBackFromNativePlaybackParams() {
+        // The audio renderer failed, so rebuild the renderers and show the speed with trickplay
+        // from now on.
+        nativePlaybackParamsUnsupported = true;
+        long positionMs = player.getCurrentPosition();
+        prepare();
+        player.seekTo(positionMs);
+        play();
+        setPlaybackParams(playbackParams);
+    }
+
+    private void startTrickplay(float speed) {
+        if (trickplayController == null) {
+            trickplayController = new TrickplayController(player, mainHandler);
+        }
+        trickplayController.start(speed);
+    }
+
     @TargetApi(Build.VERSION_CODES.M)
     public float getPlaybackSpeed() {
         return playbackParams == null ? DEFAULT_PLAYBACK_SPEED : playbackParams.getSpeed();
@@ -507,10 +549,16 @@ public class DemoPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventLi
     }
 
     public void play() {
+        if (trickplayController != null) {
+            trickplayController.stop();
+        }
         player.setPlayWhenReady(true);
     }
 
     public void pause() {
+        if (trickplayController != null) {
+            trickplayController.stop();
+        }
         player.setPlayWhenReady(false);
     }
 
@@ -528,14 +576,17 @@ public class DemoPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventLi
 
     @Override
     public void onPlayerError(ExoPlaybackException exception) {
+        if (isPlaybackParamsError(exception)) {
+            // Recovered from without the listeners, which would treat it as fatal.
+            fallBackFromNativePlaybackParams();
+            return;
+        }
         for (Callback tvCallback : mTvPlayerCallbacks) {
             tvCallback.onError(exception);
         }
         rendererBuildingState = RENDERER_BUILDING_STATE_IDLE;
         for (Listener listener : listeners) {
-            if (!listener.equals(playbackParamsListener)) {
-                listener.onError(exception);
-            }
+            listener.onError(exception);
         }
     }
 
@@ -657,6 +708,9 @@ public class DemoPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventLi
 
     @Override
     public void onAvailableRangeChanged(int sourceId, TimeRange availableRange) {
+        if (sourceId == TYPE_VIDEO) {
+            this.availableRange = availableRange;
+        }
         if (infoListener != null) {
             infoListener.onAvailableRangeChanged(sourceId, availableRange);
         }
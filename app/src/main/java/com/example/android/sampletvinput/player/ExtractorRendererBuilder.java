@@ -30,9 +30,9 @@ import com.google.android.exoplayer.extractor.ExtractorSampleSource;
 import com.google.android.exoplayer.text.TextTrackRenderer;
 import com.google.android.exoplayer.upstream.Allocator;
 import com.google.android.exoplayer.upstream.DataSource;
-import com.google.android.exoplayer.upstream.DefaultAllocator;
 import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
 import com.google.android.exoplayer.upstream.DefaultUriDataSource;
+import com.google.android.exoplayer.upstream.cache.Cache;
 
 /**
  * A {@link DemoPlayer.RendererBuilder} for streams that can be read using an {@link Extractor}.
@@ -40,29 +40,55 @@ import com.google.android.exoplayer.upstream.DefaultUriDataSource;
  * This code was originally taken from the ExoPlayer demo application.
  */
 public class ExtractorRendererBuilder implements DemoPlayer.RendererBuilder {
-    private static final int BUFFER_SEGMENT_SIZE = 64 * 1024;
-    private static final int BUFFER_SEGMENT_COUNT = 256;
-
     private final Context context;
     private final String userAgent;
     private final Uri uri;
+    private final Cache cache;
+    private final BufferPolicy bufferPolicy;
+    private final DataSource dataSource;
 
-    public ExtractorRendererBuilder(Context context, String userAgent, Uri uri) {
+    /**
+     * @param cache The cache to read the stream through, or {@code null} to read it from the
+     *     network.
+     * @param bufferPolicy The size of the buffer.
+     */
+    public ExtractorRendererBuilder(Context context, String userAgent, Uri uri, Cache cache,
+            BufferPolicy bufferPolicy) {
         this.context = context;
         this.userAgent = userAgent;
         this.uri = uri;
+        this.cache = cache;
+        this.bufferPolicy = bufferPolicy;
+        this.dataSource = null;
+    }
+
+    /**
+     * @param dataSource The data source to read the stream from, such as a
+     *     {@link TimeShiftDataSource}.
+     * @param bufferPolicy The size of the buffer.
+     */
+    public ExtractorRendererBuilder(Context context, Uri uri, DataSource dataSource,
+            BufferPolicy bufferPolicy) {
+        this.context = context;
+        this.userAgent = null;
+        this.uri = uri;
+        this.cache = null;
+        this.bufferPolicy = bufferPolicy;
+        this.dataSource = dataSource;
     }
 
     @Override
     public void buildRenderers(DemoPlayer player) {
-        Allocator allocator = new DefaultAllocator(BUFFER_SEGMENT_SIZE);
+        Allocator allocator = bufferPolicy.createAllocator();
 
         // Build the video and audio renderers.
         DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter(player.getMainHandler(),
                 null);
-        DataSource dataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+        DataSource dataSource = this.dataSource != null ? this.dataSource
+                : bufferPolicy.createDataSource(SegmentCache.wrap(cache,
+                        new DefaultUriDataSource(context, bandwidthMeter, userAgent)));
         ExtractorSampleSource sampleSource = new ExtractorSampleSource(uri, dataSource, allocator,
-                BUFFER_SEGMENT_COUNT * BUFFER_SEGMENT_SIZE);
+                bufferPolicy.getMainBufferSize());
         MediaCodecVideoTrackRenderer videoRenderer = new MediaCodecVideoTrackRenderer(context,
                 sampleSource, MediaCodecSelector.DEFAULT,
                 MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT, 5000,
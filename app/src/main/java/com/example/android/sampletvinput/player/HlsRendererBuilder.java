@@ -20,7 +20,6 @@ import android.content.Context;
 import android.media.AudioManager;
 import android.media.MediaCodec;
 import android.os.Handler;
-import com.google.android.exoplayer.DefaultLoadControl;
 import com.google.android.exoplayer.LoadControl;
 import com.google.android.exoplayer.MediaCodecAudioTrackRenderer;
 import com.google.android.exoplayer.MediaCodecSelector;
@@ -30,6 +29,7 @@ import com.google.android.exoplayer.audio.AudioCapabilities;
 import com.google.android.exoplayer.hls.DefaultHlsTrackSelector;
 import com.google.android.exoplayer.hls.HlsChunkSource;
 import com.google.android.exoplayer.hls.HlsMasterPlaylist;
+import com.google.android.exoplayer.hls.HlsMediaPlaylist;
 import com.google.android.exoplayer.hls.HlsPlaylist;
 import com.google.android.exoplayer.hls.HlsPlaylistParser;
 import com.google.android.exoplayer.hls.HlsSampleSource;
@@ -40,9 +40,8 @@ import com.google.android.exoplayer.metadata.id3.Id3Parser;
 import com.google.android.exoplayer.text.TextTrackRenderer;
 import com.google.android.exoplayer.text.eia608.Eia608TrackRenderer;
 import com.google.android.exoplayer.upstream.DataSource;
-import com.google.android.exoplayer.upstream.DefaultAllocator;
-import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
 import com.google.android.exoplayer.upstream.DefaultUriDataSource;
+import com.google.android.exoplayer.upstream.cache.Cache;
 import com.google.android.exoplayer.util.ManifestFetcher;
 import com.google.android.exoplayer.util.ManifestFetcher.ManifestCallback;
 import java.io.IOException;
@@ -55,25 +54,50 @@ import java.util.List;
  */
 public class HlsRendererBuilder implements DemoPlayer.RendererBuilder {
 
-    private static final int BUFFER_SEGMENT_SIZE = 64 * 1024;
-    private static final int MAIN_BUFFER_SEGMENTS = 256;
-    private static final int TEXT_BUFFER_SEGMENTS = 2;
+    // Master and finished playlists are reused until evicted. The chunk source reloads the media
+    // playlists of a master playlist itself, so only a live media playlist expires, after its
+    // target duration.
+    private static final ManifestCache.ExpiryPolicy<HlsPlaylist> EXPIRY_POLICY =
+            new ManifestCache.ExpiryPolicy<HlsPlaylist>() {
+                @Override
+                public long getMaxAgeMs(HlsPlaylist playlist) {
+                    if (playlist instanceof HlsMediaPlaylist) {
+                        HlsMediaPlaylist mediaPlaylist = (HlsMediaPlaylist) playlist;
+                        if (mediaPlaylist.live) {
+                            return mediaPlaylist.targetDurationSecs * 1000L;
+                        }
+                    }
+                    return Long.MAX_VALUE;
+                }
+            };
 
     private final Context context;
     private final String userAgent;
     private final String url;
+    private final Cache cache;
+    private final BufferPolicy bufferPolicy;
 
     private AsyncRendererBuilder currentAsyncBuilder;
 
-    public HlsRendererBuilder(Context context, String userAgent, String url) {
+    /**
+     * @param cache The cache to read segments and media playlists through, or {@code null} to
+     *     read them from the network.
+     * @param bufferPolicy The sizes of the buffers. The HLS chunk source picks the live start
+     *     position itself, so the live edge latency of the policy is not used.
+     */
+    public HlsRendererBuilder(Context context, String userAgent, String url, Cache cache,
+            BufferPolicy bufferPolicy) {
         this.context = context;
         this.userAgent = userAgent;
         this.url = url;
+        this.cache = cache;
+        this.bufferPolicy = bufferPolicy;
     }
 
     @Override
     public void buildRenderers(DemoPlayer player) {
-        currentAsyncBuilder = new AsyncRendererBuilder(context, userAgent, url, player);
+        currentAsyncBuilder =
+                new AsyncRendererBuilder(context, userAgent, url, cache, bufferPolicy, player);
         currentAsyncBuilder.init();
     }
 
@@ -89,27 +113,33 @@ public class HlsRendererBuilder implements DemoPlayer.RendererBuilder {
 
         private final Context context;
         private final String userAgent;
+        private final Cache cache;
+        private final BufferPolicy bufferPolicy;
         private final DemoPlayer player;
         private final ManifestFetcher<HlsPlaylist> playlistFetcher;
 
         private boolean canceled;
 
-        public AsyncRendererBuilder(Context context, String userAgent, String url,
-                DemoPlayer player) {
+        public AsyncRendererBuilder(Context context, String userAgent, String url, Cache cache,
+                BufferPolicy bufferPolicy, DemoPlayer player) {
             this.context = context;
             this.userAgent = userAgent;
+            this.cache = cache;
+            this.bufferPolicy = bufferPolicy;
             this.player = player;
             HlsPlaylistParser parser = new HlsPlaylistParser();
-            playlistFetcher = new ManifestFetcher<>(url,
-                    new DefaultUriDataSource(context, userAgent), parser);
+            playlistFetcher = ManifestCache.getFetcher(url,
+                    new DefaultUriDataSource(context.getApplicationContext(), userAgent), parser);
         }
 
         public void init() {
-            playlistFetcher.singleLoad(player.getMainHandler().getLooper(), this);
+            ManifestCache.load(playlistFetcher, EXPIRY_POLICY, player.getMainHandler().getLooper(),
+                    this);
         }
 
         public void cancel() {
             canceled = true;
+            ManifestCache.releaseFetcher(playlistFetcher);
         }
 
         @Override
@@ -129,19 +159,21 @@ public class HlsRendererBuilder implements DemoPlayer.RendererBuilder {
 
             Handler mainHandler = player.getMainHandler();
             LoadControl loadControl =
-                    new DefaultLoadControl(new DefaultAllocator(BUFFER_SEGMENT_SIZE));
-            DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter();
+                    bufferPolicy.createLoadControl(bufferPolicy.createAllocator());
+            PersistentBandwidthMeter bandwidthMeter =
+                    new PersistentBandwidthMeter(context, null, null);
             PtsTimestampAdjusterProvider timestampAdjusterProvider =
                     new PtsTimestampAdjusterProvider();
 
             // Build the video/audio/metadata renderers.
-            DataSource dataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+            DataSource dataSource = SegmentCache.wrap(cache,
+                    new DefaultUriDataSource(context, bandwidthMeter, userAgent));
             HlsChunkSource chunkSource = new HlsChunkSource(true /* isMaster */, dataSource,
                     manifest, DefaultHlsTrackSelector.newDefaultInstance(context), bandwidthMeter,
                     timestampAdjusterProvider);
             HlsSampleSource sampleSource = new HlsSampleSource(chunkSource,
                     loadControl,
-                    MAIN_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE,
+                    bufferPolicy.getMainBufferSize(),
                     mainHandler,
                     player,
                     DemoPlayer.TYPE_VIDEO);
@@ -161,15 +193,15 @@ public class HlsRendererBuilder implements DemoPlayer.RendererBuilder {
             }
             TrackRenderer textRenderer;
             if (preferWebvtt) {
-                DataSource textDataSource =
-                        new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+                DataSource textDataSource = SegmentCache.wrap(cache,
+                        new DefaultUriDataSource(context, bandwidthMeter, userAgent));
                 HlsChunkSource textChunkSource =
                         new HlsChunkSource(false /* isMaster */, textDataSource,
                                manifest, DefaultHlsTrackSelector.newSubtitleInstance(),
                                 bandwidthMeter,
                                 timestampAdjusterProvider);
                 HlsSampleSource textSampleSource = new HlsSampleSource(textChunkSource, loadControl,
-                        TEXT_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE, mainHandler, player,
+                        bufferPolicy.getTextBufferSize(), mainHandler, player,
                         DemoPlayer.TYPE_TEXT);
                 textRenderer = new TextTrackRenderer(textSampleSource, player,
                         mainHandler.getLooper());
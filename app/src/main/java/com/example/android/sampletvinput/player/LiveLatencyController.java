@@ -0,0 +1,175 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sampletvinput.player;
+
+import android.media.PlaybackParams;
+import android.os.Build;
+import android.os.Handler;
+import android.util.Log;
+import com.google.android.exoplayer.TimeRange;
+
+/**
+ * Keeps a player of a live stream close to a target distance behind the live edge.
+ * <p>
+ * Once a second, the latency is measured as the distance between the end of the available range
+ * of the stream and the playback position. A player which drifted a little behind the target
+ * plays slightly faster until it is back on target, which is barely noticeable. A player which
+ * drifted far behind, such as after a long stall, seeks to the target instead. Playing faster
+ * needs {@link PlaybackParams}, so before Android M, or once the audio renderer of the player
+ * rejected the catch-up speed, drift is only corrected by seeking.
+ * <p>
+ * Once the user pauses or changes the playback speed, they are time-shifting, so the controller
+ * stops.
+ */
+public class LiveLatencyController {
+    private static final String TAG = "LiveLatencyController";
+    private static final boolean DEBUG = false;
+
+    private static final long CHECK_INTERVAL_MS = 1000;
+    // How far behind the target the player may drift before it plays faster to catch up.
+    private static final long SPEED_UP_DRIFT_MS = 1000;
+    // How far behind the target the player may drift before it seeks back to the target.
+    private static final long SEEK_DRIFT_MS = 6000;
+    private static final float CATCH_UP_SPEED = 1.08f;
+    private static final float SPEED_TOLERANCE = 0.01f;
+
+    /** Receives the latency of the player behind the live edge. */
+    public interface Listener {
+        /**
+         * Called once a second while the player plays a live stream.
+         *
+         * @param latencyMs How far behind the live edge the player is.
+         */
+        void onLiveLatencyMeasured(long latencyMs);
+    }
+
+    private final DemoPlayer mPlayer;
+    private final long mTargetLatencyMs;
+    private final Listener mListener;
+    private final Handler mHandler;
+    private final long[] mBoundsMs = new long[2];
+    private final Runnable mCheckRunnable = new Runnable() {
+        @Override
+        public void run() {
+            checkLatency();
+        }
+    };
+
+    private boolean mActive;
+    private boolean mHasPlayed;
+    private boolean mCatchingUp;
+
+    /**
+     * @param player The player of the live stream.
+     * @param targetLatencyMs How far behind the live edge to keep the player.
+     * @param listener The listener of the latency measurements, or {@code null}.
+     */
+    public LiveLatencyController(DemoPlayer player, long targetLatencyMs, Listener listener) {
+        mPlayer = player;
+        mTargetLatencyMs = targetLatencyMs;
+        mListener = listener;
+        mHandler = player.getMainHandler();
+    }
+
+    /** Starts measuring and correcting the latency. */
+    public void start() {
+        if (mActive) {
+            return;
+        }
+        mActive = true;
+        mHandler.postDelayed(mCheckRunnable, CHECK_INTERVAL_MS);
+    }
+
+    /** Stops correcting the latency, and returns to normal speed if the player was catching up. */
+    public void stop() {
+        if (!mActive) {
+            return;
+        }
+        mActive = false;
+        mHandler.removeCallbacks(mCheckRunnable);
+        setCatchingUp(false);
+    }
+
+    private void checkLatency() {
+        if (!mPlayer.getPlayWhenReady()) {
+            if (mHasPlayed) {
+                if (DEBUG) {
+                    Log.d(TAG, "Paused, stop correcting the live latency");
+                }
+                stop();
+                return;
+            }
+            mHandler.postDelayed(mCheckRunnable, CHECK_INTERVAL_MS);
+            return;
+        }
+        mHasPlayed = true;
+        if (mCatchingUp && !mPlayer.isNativePlaybackSpeedSupported()) {
+            if (DEBUG) {
+                Log.d(TAG, "Catch-up speed rejected, only seek from now on");
+            }
+            // The player recovered at normal speed.
+            mCatchingUp = false;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            float expectedSpeed = mCatchingUp ? CATCH_UP_SPEED : 1f;
+            if (Math.abs(mPlayer.getPlaybackSpeed() - expectedSpeed) > SPEED_TOLERANCE) {
+                if (DEBUG) {
+                    Log.d(TAG, "Speed changed, stop correcting the live latency");
+                }
+                // Leave the speed the user asked for.
+                mCatchingUp = false;
+                stop();
+                return;
+            }
+        }
+        TimeRange availableRange = mPlayer.getAvailableRange();
+        if (availableRange != null && !availableRange.isStatic()
+                && mPlayer.getPlaybackState() == DemoPlayer.STATE_READY) {
+            availableRange.getCurrentBoundsMs(mBoundsMs);
+            long liveEdgeMs = mBoundsMs[1];
+            long latencyMs = liveEdgeMs - mPlayer.getCurrentPosition();
+            if (mListener != null) {
+                mListener.onLiveLatencyMeasured(latencyMs);
+            }
+            long driftMs = latencyMs - mTargetLatencyMs;
+            if (driftMs > SEEK_DRIFT_MS) {
+                if (DEBUG) {
+                    Log.d(TAG, "Latency " + latencyMs + " ms, seek back to the target");
+                }
+                setCatchingUp(false);
+                mPlayer.seekTo(liveEdgeMs - mTargetLatencyMs);
+            } else if (driftMs > SPEED_UP_DRIFT_MS) {
+                setCatchingUp(true);
+            } else if (driftMs <= 0) {
+                setCatchingUp(false);
+            }
+        }
+        mHandler.postDelayed(mCheckRunnable, CHECK_INTERVAL_MS);
+    }
+
+    private void setCatchingUp(boolean catchingUp) {
+        if (catchingUp == mCatchingUp || Build.VERSION.SDK_INT < Build.VERSION_CODES.M
+                || !mPlayer.isNativePlaybackSpeedSupported()) {
+            return;
+        }
+        if (DEBUG) {
+            Log.d(TAG, catchingUp ? "Catch up with the live edge" : "Back on target latency");
+        }
+        mCatchingUp = catchingUp;
+        mPlayer.setPlaybackParams(new PlaybackParams().setSpeed(catchingUp ? CATCH_UP_SPEED : 1f));
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sampletvinput.player;
+
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.LruCache;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import com.google.android.exoplayer.upstream.UriDataSource;
+import com.google.android.exoplayer.upstream.UriLoadable;
+import com.google.android.exoplayer.util.ManifestFetcher;
+import com.google.android.exoplayer.util.ManifestFetcher.ManifestCallback;
+
+/**
+ * Keeps the {@link ManifestFetcher}s of recently played streams, so that playing a stream again,
+ * such as when re-tuning to a channel or resuming a program after an ad, can reuse its manifest
+ * instead of loading it from the network.
+ * <p>
+ * Fetchers rather than manifests are kept, since DASH and SmoothStreaming chunk sources refresh
+ * live manifests through the fetcher they were built with. A fetcher is not thread-safe, and a
+ * chunk source enables, refreshes and disables it on the playback thread of its player, so a
+ * fetcher is only ever held by one player at a time: while a player holds the cached fetcher of a
+ * manifest, other players get a fetcher of their own. This class must only be used from the main
+ * thread.
+ */
+public final class ManifestCache {
+    private static final String TAG = "ManifestCache";
+    private static final boolean DEBUG = false;
+
+    private static final int MAX_ENTRIES = 8;
+
+    private static final LruCache<String, ManifestFetcher<?>> sFetchers =
+            new LruCache<>(MAX_ENTRIES);
+    private static final Set<ManifestFetcher<?>> sHeldFetchers =
+            Collections.newSetFromMap(new IdentityHashMap<ManifestFetcher<?>, Boolean>());
+
+    /**
+     * Decides how long a loaded manifest may be reused.
+     *
+     * @param <T> The type of the manifest.
+     */
+    public interface ExpiryPolicy<T> {
+        /**
+         * @param manifest A loaded manifest.
+         * @return How long after it was loaded the manifest may be reused, in milliseconds.
+         *     {@link Long#MAX_VALUE} keeps it until it is evicted, and 0 never reuses it.
+         */
+        long getMaxAgeMs(T manifest);
+    }
+
+    /**
+     * Returns the cached fetcher of a manifest, or creates one. The fetcher is held by the caller
+     * until it passes it to {@link #releaseFetcher}, and if another player holds the cached
+     * fetcher, a new one which is not cached is returned.
+     *
+     * @param url The URL of the manifest.
+     * @param dataSource The data source used to load the manifest, if a new fetcher is created.
+     *     It is kept by the cache, so it must not refer to a short-lived context.
+     * @param parser The parser of the manifest.
+     * @param <T> The type of the manifest.
+     * @return The fetcher of the manifest.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ManifestFetcher<T> getFetcher(String url, UriDataSource dataSource,
+            UriLoadable.Parser<T> parser) {
+        String key = parser.getClass().getName() + "|" + url;
+        ManifestFetcher<T> fetcher = (ManifestFetcher<T>) sFetchers.get(key);
+        if (fetcher == null) {
+            fetcher = new ManifestFetcher<>(url, dataSource, parser);
+            sFetchers.put(key, fetcher);
+        } else if (sHeldFetchers.contains(fetcher)) {
+            if (DEBUG) {
+                Log.d(TAG, "Manifest fetcher of " + url + " is held by another player");
+            }
+            fetcher = new ManifestFetcher<>(url, dataSource, parser);
+        }
+        sHeldFetchers.add(fetcher);
+        return fetcher;
+    }
+
+    /**
+     * Lets other players use a fetcher returned by {@link #getFetcher}, once the player which
+     * held it was released and no longer uses it from its playback thread.
+     *
+     * @param fetcher The fetcher to release.
+     */
+    public static void releaseFetcher(ManifestFetcher<?> fetcher) {
+        sHeldFetchers.remove(fetcher);
+    }
+
+    /**
+     * Passes the manifest of the given fetcher to the callback, loading it first unless the one
+     * already loaded may be reused. A reused manifest is passed before this method returns.
+     *
+     * @param fetcher A fetcher returned by {@link #getFetcher}.
+     * @param expiryPolicy Decides whether an already loaded manifest may be reused.
+     * @param callbackLooper The looper of the thread on which a loaded manifest is passed.
+     * @param callback The callback to receive the manifest.
+     * @param <T> The type of the manifest.
+     */
+    public static <T> void load(ManifestFetcher<T> fetcher, ExpiryPolicy<T> expiryPolicy,
+            Looper callbackLooper, ManifestCallback<T> callback) {
+        T manifest = fetcher.getManifest();
+        if (manifest != null) {
+            long ageMs = SystemClock.elapsedRealtime()
+                    - fetcher.getManifestLoadCompleteTimestamp();
+            if (ageMs < expiryPolicy.getMaxAgeMs(manifest)) {
+                if (DEBUG) {
+                    Log.d(TAG, "Reusing manifest loaded " + ageMs + "ms ago");
+                }
+                callback.onSingleManifest(manifest);
+                return;
+            }
+        }
+        fetcher.singleLoad(callbackLooper, callback);
+    }
+
+    private ManifestCache() {}
+}
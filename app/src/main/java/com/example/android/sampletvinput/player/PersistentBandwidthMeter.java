@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sampletvinput.player;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.SystemClock;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
+
+/**
+ * A {@link BandwidthMeter} for a single player, which falls back to the estimate of the
+ * {@link BandwidthEstimator} until it has measured the bandwidth itself, and reports its own
+ * measurements back to it.
+ * <p>
+ * The estimator gets the throughput of each transfer, rather than the estimate of this meter,
+ * which is already averaged over the previous transfers.
+ */
+public class PersistentBandwidthMeter implements BandwidthMeter {
+    private final DefaultBandwidthMeter mBandwidthMeter;
+    private final BandwidthEstimator mEstimator;
+
+    // The transfers in progress, and what they transferred since the last sample.
+    private int mStreamCount;
+    private long mSampleStartTimeMs;
+    private long mSampleBytes;
+
+    /**
+     * @param context The {@link Context}.
+     * @param eventHandler A handler for events. May be null if delivery of events is not
+     *     required.
+     * @param eventListener A listener of events. May be null if delivery of events is not
+     *     required.
+     */
+    public PersistentBandwidthMeter(Context context, Handler eventHandler,
+            DefaultBandwidthMeter.EventListener eventListener) {
+        mBandwidthMeter = new DefaultBandwidthMeter(eventHandler, eventListener);
+        mEstimator = BandwidthEstimator.getInstance(context);
+    }
+
+    @Override
+    public long getBitrateEstimate() {
+        long bitrateEstimate = mBandwidthMeter.getBitrateEstimate();
+        if (bitrateEstimate == NO_ESTIMATE) {
+            bitrateEstimate = mEstimator.getBitrateEstimate();
+        }
+        return bitrateEstimate;
+    }
+
+    @Override
+    public synchronized void onTransferStart() {
+        mBandwidthMeter.onTransferStart();
+        if (mStreamCount++ == 0) {
+            mSampleStartTimeMs = SystemClock.elapsedRealtime();
+        }
+    }
+
+    @Override
+    public synchronized void onBytesTransferred(int bytes) {
+        mBandwidthMeter.onBytesTransferred(bytes);
+        mSampleBytes += bytes;
+    }
+
+    @Override
+    public synchronized void onTransferEnd() {
+        mBandwidthMeter.onTransferEnd();
+        long nowMs = SystemClock.elapsedRealtime();
+        long elapsedMs = nowMs - mSampleStartTimeMs;
+        if (elapsedMs > 0 && mSampleBytes > 0) {
+            mEstimator.addSample(mSampleBytes * 8000 / elapsedMs, mSampleBytes);
+        }
+        mSampleBytes = 0;
+        if (--mStreamCount > 0) {
+            mSampleStartTimeMs = nowMs;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sampletvinput.player;
+
+import android.content.Context;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.net.Uri;
+import android.os.Build;
+import android.support.annotation.RequiresApi;
+import android.util.Log;
+import com.google.android.exoplayer.util.MimeTypes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Keeps a few prepared but paused {@link DemoPlayer}s, so that tuning to a channel whose video is
+ * already loaded can start playback without building and preparing a new player. Players are
+ * prepared ahead of time for the channels the user is likely to tune to next, and players of
+ * channels the user tunes away from are kept for a quick return.
+ * <p>
+ * Paused players keep to a {@link PreloadLimit}, so that they load a few seconds of media at most
+ * while the player on screen plays. Each of them still holds decoders, so the pool should be sized
+ * with {@link #getMaxSize}.
+ * <p>
+ * This class must only be used from the main thread.
+ */
+public class PlayerPool {
+    private static final String TAG = "PlayerPool";
+    private static final boolean DEBUG = false;
+
+    private final Context mContext;
+    private final int mMaxSize;
+    // Players by video, least recently used first.
+    private final LinkedHashMap<String, DemoPlayer> mPlayers = new LinkedHashMap<>(8, 0.75f, true);
+    // The preload limits of the players built by the pool, which live as long as their players.
+    private final WeakHashMap<DemoPlayer, PreloadLimit> mPreloadLimits = new WeakHashMap<>();
+
+    /**
+     * @param context The {@link Context} used to build players.
+     * @param maxSize The maximum number of players to keep, or 0 to keep none.
+     */
+    public PlayerPool(Context context, int maxSize) {
+        mContext = context;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Returns how many players a pool may keep on this device: none on devices with little
+     * memory, and otherwise no more than the video decoders left over by the player on screen and
+     * the player of the next program.
+     *
+     * @param context The {@link Context} to use.
+     * @param maxSize The number of players to keep on devices with plenty of resources.
+     * @return The maximum number of players to keep, which may be 0.
+     */
+    public static int getMaxSize(Context context, int maxSize) {
+        if (BufferPolicy.getDefault(context) == BufferPolicy.MEMORY_CONSTRAINED) {
+            return 0;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            maxSize = Math.min(maxSize,
+                    Math.max(0, getMaxDecoderInstances(MimeTypes.VIDEO_H264) - 2));
+        }
+        if (DEBUG) {
+            Log.d(TAG, "Keeping up to " + maxSize + " players");
+        }
+        return maxSize;
+    }
+
+    // Returns how many instances of the first decoder of the given type can be used at once,
+    // which is the decoder players use.
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    private static int getMaxDecoderInstances(String mimeType) {
+        for (MediaCodecInfo info : new MediaCodecList(MediaCodecList.REGULAR_CODECS)
+                .getCodecInfos()) {
+            if (info.isEncoder()) {
+                continue;
+            }
+            for (String type : info.getSupportedTypes()) {
+                if (type.equalsIgnoreCase(mimeType)) {
+                    try {
+                        return info.getCapabilitiesForType(type).getMaxSupportedInstances();
+                    } catch (IllegalArgumentException e) {
+                        Log.w(TAG, "Failed to get the capabilities of " + info.getName(), e);
+                        return Integer.MAX_VALUE;
+                    }
+                }
+            }
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Builds a player which can later be handed over to the pool with {@link #recycle}.
+     *
+     * @param videoType The type of the video, as used by {@link RendererBuilderFactory}.
+     * @param videoUrl The URI of the video.
+     * @param cacheSegments Whether to keep the media of the video in the {@link SegmentCache}.
+     * @param bufferPolicy The buffer policy of the video.
+     * @return The player, which is not prepared yet.
+     */
+    public DemoPlayer createPlayer(int videoType, Uri videoUrl, boolean cacheSegments,
+            BufferPolicy bufferPolicy) {
+        PreloadLimit preloadLimit = new PreloadLimit();
+        DemoPlayer player = new DemoPlayer(RendererBuilderFactory.createRendererBuilder(
+                mContext, videoType, videoUrl, cacheSegments,
+                bufferPolicy.withPreloadLimit(preloadLimit)));
+        mPreloadLimits.put(player, preloadLimit);
+        return player;
+    }
+
+    /**
+     * Takes a prepared player for the given video out of the pool.
+     *
+     * @param videoType The type of the video, as used by {@link RendererBuilderFactory}.
+     * @param videoUrl The URI of the video.
+     * @return The paused player, or {@code null} if there is no usable player for the video.
+     */
+    public DemoPlayer acquire(int videoType, Uri videoUrl) {
+        DemoPlayer player = mPlayers.remove(getKey(videoType, videoUrl));
+        if (player != null && player.getPlaybackState() == DemoPlayer.STATE_IDLE) {
+            // The player failed while it was in the pool.
+            player.release();
+            return null;
+        }
+        if (player != null) {
+            if (DEBUG) {
+                Log.d(TAG, "Reusing player for " + videoUrl);
+            }
+            // The player is about to be shown, so let it fill its buffer.
+            PreloadLimit preloadLimit = mPreloadLimits.get(player);
+            if (preloadLimit != null) {
+                preloadLimit.lift();
+            }
+        }
+        return player;
+    }
+
+    /**
+     * Builds and prepares a paused player for the given video, unless the pool already has one.
+     *
+     * @param videoType The type of the video, as used by {@link RendererBuilderFactory}.
+     * @param videoUrl The URI of the video.
+     * @param cacheSegments Whether to keep the media of the video in the {@link SegmentCache}.
+     * @param bufferPolicy The buffer policy of the channel of the video.
+     */
+    public void prepare(int videoType, Uri videoUrl, boolean cacheSegments,
+            BufferPolicy bufferPolicy) {
+        String key = getKey(videoType, videoUrl);
+        if (mMaxSize == 0 || mPlayers.get(key) != null) {
+            return;
+        }
+        if (DEBUG) {
+            Log.d(TAG, "Preparing player for " + videoUrl);
+        }
+        DemoPlayer player = createPlayer(videoType, videoUrl, cacheSegments, bufferPolicy);
+        mPreloadLimits.get(player).limit();
+        player.setPlayWhenReady(false);
+        player.prepare();
+        mPlayers.put(key, player);
+        trimToSize();
+    }
+
+    /**
+     * Pauses a player that is no longer shown and keeps it for later use.
+     *
+     * @param videoType The type of the video the player was built for.
+     * @param videoUrl The URI of the video the player was built for.
+     * @param player The player, which must have been built with {@link #createPlayer} and have
+     *     no listeners or surface attached.
+     */
+    public void recycle(int videoType, Uri videoUrl, DemoPlayer player) {
+        player.setPlayWhenReady(false);
+        PreloadLimit preloadLimit = mPreloadLimits.get(player);
+        if (preloadLimit != null) {
+            preloadLimit.limit();
+        }
+        DemoPlayer previousPlayer = mPlayers.put(getKey(videoType, videoUrl), player);
+        if (previousPlayer != null && previousPlayer != player) {
+            previousPlayer.release();
+        }
+        trimToSize();
+    }
+
+    /** Releases all players in the pool. */
+    public void clear() {
+        for (DemoPlayer player : mPlayers.values()) {
+            player.release();
+        }
+        mPlayers.clear();
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, DemoPlayer>> iterator = mPlayers.entrySet().iterator();
+        while (mPlayers.size() > mMaxSize && iterator.hasNext()) {
+            iterator.next().getValue().release();
+            iterator.remove();
+        }
+    }
+
+    private static String getKey(int videoType, Uri videoUrl) {
+        return videoType + "|" + videoUrl;
+    }
+}
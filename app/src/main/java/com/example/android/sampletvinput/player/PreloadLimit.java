@@ -0,0 +1,147 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sampletvinput.player;
+
+import com.google.android.exoplayer.LoadControl;
+import com.google.android.exoplayer.upstream.Allocator;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Limits how much media a player loads while it is paused in a {@link PlayerPool}, so that it
+ * does not compete with the player on screen for bandwidth and memory.
+ * <p>
+ * While the limit is in place, adaptive streams stop loading {@link #PRELOAD_DURATION_MS} ahead
+ * of the playback position, and progressive streams stop reading after {@link #PRELOAD_BYTES}.
+ * Once the limit is lifted, the player loads as much as its {@link BufferPolicy} allows.
+ */
+public final class PreloadLimit {
+    /** How far ahead of the playback position a paused adaptive stream loads. */
+    public static final long PRELOAD_DURATION_MS = 3000;
+    /** How many bytes a paused progressive stream reads, about 3 seconds of HD video. */
+    public static final long PRELOAD_BYTES = 2 * 1024 * 1024;
+
+    private static final long PRELOAD_DURATION_US = PRELOAD_DURATION_MS * 1000;
+
+    private final Object mLock = new Object();
+    private boolean mLimited;
+    // Bytes read by progressive streams since the limit was put in place.
+    private long mBytesRead;
+
+    /** Puts the limit in place. */
+    public void limit() {
+        synchronized (mLock) {
+            mLimited = true;
+            mBytesRead = 0;
+        }
+    }
+
+    /** Lifts the limit, and lets the player carry on loading. */
+    public void lift() {
+        synchronized (mLock) {
+            mLimited = false;
+            mLock.notifyAll();
+        }
+    }
+
+    /** @return Whether the limit is in place. */
+    public boolean isLimited() {
+        synchronized (mLock) {
+            return mLimited;
+        }
+    }
+
+    /**
+     * @param loadControl The load control of an adaptive stream.
+     * @return A load control which also stops loading ahead while the limit is in place.
+     */
+    LoadControl wrap(final LoadControl loadControl) {
+        return new LoadControl() {
+            @Override
+            public void register(Object loader, int bufferSizeContribution) {
+                loadControl.register(loader, bufferSizeContribution);
+            }
+
+            @Override
+            public void unregister(Object loader) {
+                loadControl.unregister(loader);
+            }
+
+            @Override
+            public Allocator getAllocator() {
+                return loadControl.getAllocator();
+            }
+
+            @Override
+            public void trimAllocator() {
+                loadControl.trimAllocator();
+            }
+
+            @Override
+            public boolean update(Object loader, long playbackPositionUs,
+                    long nextLoadPositionUs, boolean loading) {
+                boolean shouldLoad = loadControl.update(loader, playbackPositionUs,
+                        nextLoadPositionUs, loading);
+                // Loaders with nothing left to load have no next load position.
+                return shouldLoad && (nextLoadPositionUs == -1 || !isLimited()
+                        || nextLoadPositionUs - playbackPositionUs < PRELOAD_DURATION_US);
+            }
+        };
+    }
+
+    /**
+     * @param dataSource The data source of a progressive stream.
+     * @return A data source whose reads wait while the limit is in place and reached.
+     */
+    DataSource wrap(final DataSource dataSource) {
+        return new DataSource() {
+            @Override
+            public long open(DataSpec dataSpec) throws IOException {
+                return dataSource.open(dataSpec);
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int readLength) throws IOException {
+                synchronized (mLock) {
+                    while (mLimited && mBytesRead >= PRELOAD_BYTES) {
+                        try {
+                            mLock.wait();
+                        } catch (InterruptedException e) {
+                            // The load was canceled, such as when the player was released.
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException();
+                        }
+                    }
+                }
+                int bytesRead = dataSource.read(buffer, offset, readLength);
+                if (bytesRead > 0) {
+                    synchronized (mLock) {
+                        mBytesRead += bytesRead;
+                    }
+                }
+                return bytesRead;
+            }
+
+            @Override
+            public void close() throws IOException {
+                dataSource.close();
+            }
+        };
+    }
+}
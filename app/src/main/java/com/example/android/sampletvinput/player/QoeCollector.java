@@ -0,0 +1,533 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sampletvinput.player;
+
+import android.media.MediaCodec.CryptoException;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.VisibleForTesting;
+import com.google.android.exoplayer.MediaCodecTrackRenderer.DecoderInitializationException;
+import com.google.android.exoplayer.TimeRange;
+import com.google.android.exoplayer.audio.AudioTrack;
+import com.google.android.exoplayer.chunk.Format;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects quality of experience metrics from the listeners of {@link DemoPlayer}s: startup time,
+ * rebuffering, video bitrate and its switches, dropped frames, errors and, for live streams kept
+ * close to the live edge, the latency behind it. The metrics are added up per channel and per
+ * program with atomic counters, so players never wait on each other, and are handed out as
+ * {@link Snapshot}s of each reporting interval.
+ * <p>
+ * A player is followed from {@link #track} until {@link Tracker#stop()}. Buffering after the
+ * player was first ready counts as rebuffering, which includes buffering after seeks. The time a
+ * player has spent in its current state is added up at the end of each interval, so long
+ * playbacks are spread over the intervals they played in. The counters of channels and programs
+ * which are no longer played are dropped once an interval passes without them.
+ */
+public final class QoeCollector {
+    private static final long MS_PER_MINUTE = 60 * 1000;
+
+    private static QoeCollector sInstance;
+
+    private final ConcurrentHashMap<String, Counters> mCounters = new ConcurrentHashMap<>();
+    private final Set<Tracker> mTrackers =
+            Collections.newSetFromMap(new ConcurrentHashMap<Tracker, Boolean>());
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private Runnable mReportRunnable;
+
+    /** Receives the metrics of each reporting interval. */
+    public interface SnapshotListener {
+        /**
+         * Called on the main thread at the end of each reporting interval.
+         *
+         * @param snapshots The metrics of the channels and programs played during the interval.
+         */
+        void onSnapshots(List<Snapshot> snapshots);
+    }
+
+    /** @return The collector shared by all players of the process. */
+    public static synchronized QoeCollector getInstance() {
+        if (sInstance == null) {
+            sInstance = new QoeCollector();
+        }
+        return sInstance;
+    }
+
+    private QoeCollector() {}
+
+    /**
+     * Starts following a player which is about to play, or was just prepared to play, a program.
+     * The collector becomes the info and internal error listener of the player. This must be
+     * called on the main thread.
+     *
+     * @param player The player.
+     * @param channelKey The key the metrics are added up under for the channel.
+     * @param programKey The key the metrics are added up under for the program.
+     * @return The tracker, to be stopped when the player stops playing the program.
+     */
+    public Tracker track(DemoPlayer player, String channelKey, String programKey) {
+        return new Tracker(mTrackers, player, getCounters(channelKey), getCounters(programKey));
+    }
+
+    /**
+     * Reports the metrics at a fixed interval until {@link #stopReporting()} is called.
+     *
+     * @param intervalMs The reporting interval.
+     * @param listener The listener of the snapshots.
+     */
+    public void startReporting(final long intervalMs, final SnapshotListener listener) {
+        stopReporting();
+        mReportRunnable = new Runnable() {
+            @Override
+            public void run() {
+                List<Snapshot> snapshots = takeSnapshots(intervalMs);
+                if (!snapshots.isEmpty()) {
+                    listener.onSnapshots(snapshots);
+                }
+                mHandler.postDelayed(this, intervalMs);
+            }
+        };
+        mHandler.postDelayed(mReportRunnable, intervalMs);
+    }
+
+    /** Stops reporting the metrics. */
+    public void stopReporting() {
+        if (mReportRunnable != null) {
+            mHandler.removeCallbacks(mReportRunnable);
+            mReportRunnable = null;
+        }
+    }
+
+    private List<Snapshot> takeSnapshots(long intervalMs) {
+        Set<Counters> trackedCounters = new HashSet<>();
+        for (Tracker tracker : mTrackers) {
+            // Add up the time spent in the current state, so that it counts in this interval.
+            tracker.updateState(tracker.mPlaying, tracker.mRebuffering);
+            Collections.addAll(trackedCounters, tracker.mCounters);
+        }
+        List<Snapshot> snapshots = new ArrayList<>();
+        for (Map.Entry<String, Counters> entry : mCounters.entrySet()) {
+            Snapshot snapshot = entry.getValue().takeSnapshot(entry.getKey(), intervalMs);
+            if (snapshot != null) {
+                snapshots.add(snapshot);
+            } else if (!trackedCounters.contains(entry.getValue())) {
+                mCounters.remove(entry.getKey(), entry.getValue());
+            }
+        }
+        return snapshots;
+    }
+
+    private Counters getCounters(String key) {
+        Counters counters = mCounters.get(key);
+        if (counters == null) {
+            counters = new Counters();
+            Counters previous = mCounters.putIfAbsent(key, counters);
+            if (previous != null) {
+                counters = previous;
+            }
+        }
+        return counters;
+    }
+
+    /** The counters of a channel or program, which are reset by each snapshot. */
+    @VisibleForTesting
+    static class Counters {
+        final AtomicLong playbacks = new AtomicLong();
+        final AtomicLong startups = new AtomicLong();
+        final AtomicLong startupTimeMs = new AtomicLong();
+        final AtomicLong rebuffers = new AtomicLong();
+        final AtomicLong rebufferTimeMs = new AtomicLong();
+        final AtomicLong playTimeMs = new AtomicLong();
+        // The sum of the video bitrate multiplied by the time it was played at, in bits.
+        final AtomicLong playedBitrateMs = new AtomicLong();
+        final AtomicLong bitrateTimeMs = new AtomicLong();
+        final AtomicLong bitrateSwitches = new AtomicLong();
+        final AtomicLong droppedFrames = new AtomicLong();
+        final AtomicLong fatalErrors = new AtomicLong();
+        final AtomicLong internalErrors = new AtomicLong();
+        final AtomicLong liveLatencySamples = new AtomicLong();
+        final AtomicLong liveLatencyMs = new AtomicLong();
+
+        Snapshot takeSnapshot(String key, long intervalMs) {
+            long playbacks = this.playbacks.getAndSet(0);
+            long playTimeMs = this.playTimeMs.getAndSet(0);
+            long rebufferTimeMs = this.rebufferTimeMs.getAndSet(0);
+            if (playbacks == 0 && playTimeMs == 0 && rebufferTimeMs == 0) {
+                return null;
+            }
+            long startups = this.startups.getAndSet(0);
+            long startupTimeMs = this.startupTimeMs.getAndSet(0);
+            long bitrateTimeMs = this.bitrateTimeMs.getAndSet(0);
+            long playedBitrateMs = this.playedBitrateMs.getAndSet(0);
+            long liveLatencySamples = this.liveLatencySamples.getAndSet(0);
+            long liveLatencyMs = this.liveLatencyMs.getAndSet(0);
+            return new Snapshot(key, intervalMs, playbacks,
+                    startups == 0 ? 0 : startupTimeMs / startups,
+                    rebuffers.getAndSet(0), rebufferTimeMs, playTimeMs,
+                    bitrateTimeMs == 0 ? 0 : playedBitrateMs / bitrateTimeMs,
+                    bitrateSwitches.getAndSet(0), droppedFrames.getAndSet(0),
+                    fatalErrors.getAndSet(0), internalErrors.getAndSet(0),
+                    liveLatencySamples == 0 ? -1 : liveLatencyMs / liveLatencySamples);
+        }
+    }
+
+    /** The metrics of a channel or program over a reporting interval. */
+    public static final class Snapshot {
+        private final String mKey;
+        private final long mIntervalMs;
+        private final long mPlaybacks;
+        private final long mAverageStartupTimeMs;
+        private final long mRebuffers;
+        private final long mRebufferTimeMs;
+        private final long mPlayTimeMs;
+        private final long mAverageBitrate;
+        private final long mBitrateSwitches;
+        private final long mDroppedFrames;
+        private final long mFatalErrors;
+        private final long mInternalErrors;
+        private final long mAverageLiveLatencyMs;
+
+        @VisibleForTesting
+        Snapshot(String key, long intervalMs, long playbacks, long averageStartupTimeMs,
+                long rebuffers, long rebufferTimeMs, long playTimeMs, long averageBitrate,
+                long bitrateSwitches, long droppedFrames, long fatalErrors, long internalErrors,
+                long averageLiveLatencyMs) {
+            mKey = key;
+            mIntervalMs = intervalMs;
+            mPlaybacks = playbacks;
+            mAverageStartupTimeMs = averageStartupTimeMs;
+            mRebuffers = rebuffers;
+            mRebufferTimeMs = rebufferTimeMs;
+            mPlayTimeMs = playTimeMs;
+            mAverageBitrate = averageBitrate;
+            mBitrateSwitches = bitrateSwitches;
+            mDroppedFrames = droppedFrames;
+            mFatalErrors = fatalErrors;
+            mInternalErrors = internalErrors;
+            mAverageLiveLatencyMs = averageLiveLatencyMs;
+        }
+
+        /** @return The channel or program key given to {@link QoeCollector#track}. */
+        public String getKey() {
+            return mKey;
+        }
+
+        /** @return The length of the reporting interval. */
+        public long getIntervalMs() {
+            return mIntervalMs;
+        }
+
+        /** @return How many playbacks started during the interval. */
+        public long getPlaybacks() {
+            return mPlaybacks;
+        }
+
+        /** @return The average time from the start of a playback until it was first ready. */
+        public long getAverageStartupTimeMs() {
+            return mAverageStartupTimeMs;
+        }
+
+        /** @return How many times playback stalled to buffer after it had started. */
+        public long getRebuffers() {
+            return mRebuffers;
+        }
+
+        /** @return The share of the time spent rebuffering, out of the time meant to be playing. */
+        public float getRebufferRatio() {
+            long totalTimeMs = mPlayTimeMs + mRebufferTimeMs;
+            return totalTimeMs == 0 ? 0 : (float) mRebufferTimeMs / totalTimeMs;
+        }
+
+        /** @return The time spent playing. */
+        public long getPlayTimeMs() {
+            return mPlayTimeMs;
+        }
+
+        /** @return The video bitrate averaged over the time played, in bits per second. */
+        public long getAverageBitrate() {
+            return mAverageBitrate;
+        }
+
+        /** @return How many times the video format changed during a playback. */
+        public long getBitrateSwitches() {
+            return mBitrateSwitches;
+        }
+
+        /** @return The number of dropped video frames per minute played. */
+        public float getDroppedFramesPerMinute() {
+            return mPlayTimeMs == 0 ? 0 : (float) mDroppedFrames * MS_PER_MINUTE / mPlayTimeMs;
+        }
+
+        /** @return The share of playbacks which failed. */
+        public float getFatalErrorRate() {
+            return mPlaybacks == 0 ? 0 : (float) mFatalErrors / mPlaybacks;
+        }
+
+        /** @return The number of errors the players recovered from, per minute played. */
+        public float getInternalErrorsPerMinute() {
+            return mPlayTimeMs == 0 ? 0 : (float) mInternalErrors * MS_PER_MINUTE / mPlayTimeMs;
+        }
+
+        /**
+         * @return The average latency behind the live edge, or -1 if it was not measured, such
+         *     as for content which is not live.
+         */
+        public long getAverageLiveLatencyMs() {
+            return mAverageLiveLatencyMs;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot{key=" + mKey
+                    + ", playbacks=" + mPlaybacks
+                    + ", startupMs=" + mAverageStartupTimeMs
+                    + ", rebuffers=" + mRebuffers
+                    + ", rebufferRatio=" + getRebufferRatio()
+                    + ", bitrate=" + mAverageBitrate
+                    + ", switches=" + mBitrateSwitches
+                    + ", droppedPerMin=" + getDroppedFramesPerMinute()
+                    + ", fatalErrorRate=" + getFatalErrorRate()
+                    + ", internalErrorsPerMin=" + getInternalErrorsPerMinute()
+                    + ", liveLatencyMs=" + mAverageLiveLatencyMs + "}";
+        }
+    }
+
+    /**
+     * Follows a single player. Its callbacks all arrive on the main thread, so only the counters
+     * it writes to are shared.
+     */
+    public static final class Tracker implements DemoPlayer.Listener, DemoPlayer.InfoListener,
+            DemoPlayer.InternalErrorListener {
+        private final Set<Tracker> mTrackers;
+        private final DemoPlayer mPlayer;
+        private final Counters[] mCounters;
+        private final long mStartRealtimeMs;
+
+        private boolean mStarted;
+        private boolean mStopped;
+        private boolean mPlaying;
+        private boolean mRebuffering;
+        // When the player last started or stopped playing or rebuffering.
+        private long mStateRealtimeMs;
+        private int mVideoBitrate = Format.NO_VALUE;
+
+        private Tracker(Set<Tracker> trackers, DemoPlayer player, Counters... counters) {
+            mTrackers = trackers;
+            mPlayer = player;
+            mCounters = counters;
+            mStartRealtimeMs = SystemClock.elapsedRealtime();
+            mStateRealtimeMs = mStartRealtimeMs;
+            for (Counters c : mCounters) {
+                c.playbacks.incrementAndGet();
+            }
+            player.addListener(this);
+            player.setInfoListener(this);
+            player.setInternalErrorListener(this);
+            onStateChanged(player.getPlayWhenReady(), player.getPlaybackState());
+            mTrackers.add(this);
+        }
+
+        /** Stops following the player, and adds up the time it spent in its current state. */
+        public void stop() {
+            if (mStopped) {
+                return;
+            }
+            updateState(false, false);
+            mStopped = true;
+            mTrackers.remove(this);
+            mPlayer.removeListener(this);
+            mPlayer.setInfoListener(null);
+            mPlayer.setInternalErrorListener(null);
+        }
+
+        /**
+         * Adds a measurement of the latency of a live stream behind its live edge.
+         *
+         * @param latencyMs The latency.
+         */
+        public void addLiveLatencySample(long latencyMs) {
+            if (mStopped) {
+                return;
+            }
+            for (Counters c : mCounters) {
+                c.liveLatencySamples.incrementAndGet();
+                c.liveLatencyMs.addAndGet(latencyMs);
+            }
+        }
+
+        private void updateState(boolean playing, boolean rebuffering) {
+            long nowMs = SystemClock.elapsedRealtime();
+            long elapsedMs = nowMs - mStateRealtimeMs;
+            for (Counters c : mCounters) {
+                if (mPlaying) {
+                    c.playTimeMs.addAndGet(elapsedMs);
+                    if (mVideoBitrate != Format.NO_VALUE) {
+                        c.playedBitrateMs.addAndGet(mVideoBitrate * elapsedMs);
+                        c.bitrateTimeMs.addAndGet(elapsedMs);
+                    }
+                } else if (mRebuffering) {
+                    c.rebufferTimeMs.addAndGet(elapsedMs);
+                }
+                if (rebuffering && !mRebuffering) {
+                    c.rebuffers.incrementAndGet();
+                }
+            }
+            mPlaying = playing;
+            mRebuffering = rebuffering;
+            mStateRealtimeMs = nowMs;
+        }
+
+        private void addError(boolean fatal) {
+            for (Counters c : mCounters) {
+                (fatal ? c.fatalErrors : c.internalErrors).incrementAndGet();
+            }
+        }
+
+        @Override
+        public void onStateChanged(boolean playWhenReady, int playbackState) {
+            if (mStopped) {
+                return;
+            }
+            boolean ready = playbackState == DemoPlayer.STATE_READY;
+            if (ready && playWhenReady && !mStarted) {
+                mStarted = true;
+                long startupTimeMs = SystemClock.elapsedRealtime() - mStartRealtimeMs;
+                for (Counters c : mCounters) {
+                    c.startups.incrementAndGet();
+                    c.startupTimeMs.addAndGet(startupTimeMs);
+                }
+            }
+            updateState(ready && playWhenReady,
+                    mStarted && playWhenReady && playbackState == DemoPlayer.STATE_BUFFERING);
+        }
+
+        @Override
+        public void onError(Exception e) {
+            addError(true);
+        }
+
+        @Override
+        public void onVideoSizeChanged(int width, int height, int unappliedRotationDegrees,
+                float pixelWidthHeightRatio) {
+            // Do nothing.
+        }
+
+        @Override
+        public void onVideoFormatEnabled(Format format, int trigger, long mediaTimeMs) {
+            if (mVideoBitrate != Format.NO_VALUE && format.bitrate != mVideoBitrate) {
+                for (Counters c : mCounters) {
+                    c.bitrateSwitches.incrementAndGet();
+                }
+            }
+            // Add up the time played at the previous bitrate.
+            updateState(mPlaying, mRebuffering);
+            mVideoBitrate = format.bitrate;
+        }
+
+        @Override
+        public void onAudioFormatEnabled(Format format, int trigger, long mediaTimeMs) {
+            // Do nothing.
+        }
+
+        @Override
+        public void onDroppedFrames(int count, long elapsed) {
+            for (Counters c : mCounters) {
+                c.droppedFrames.addAndGet(count);
+            }
+        }
+
+        @Override
+        public void onBandwidthSample(int elapsedMs, long bytes, long bitrateEstimate) {
+            // Do nothing.
+        }
+
+        @Override
+        public void onLoadStarted(int sourceId, long length, int type, int trigger, Format format,
+                long mediaStartTimeMs, long mediaEndTimeMs) {
+            // Do nothing.
+        }
+
+        @Override
+        public void onLoadCompleted(int sourceId, long bytesLoaded, int type, int trigger,
+                Format format, long mediaStartTimeMs, long mediaEndTimeMs,
+                long elapsedRealtimeMs, long loadDurationMs) {
+            // Do nothing.
+        }
+
+        @Override
+        public void onDecoderInitialized(String decoderName, long elapsedRealtimeMs,
+                long initializationDurationMs) {
+            // Do nothing.
+        }
+
+        @Override
+        public void onAvailableRangeChanged(int sourceId, TimeRange availableRange) {
+            // Do nothing.
+        }
+
+        @Override
+        public void onRendererInitializationError(Exception e) {
+            addError(false);
+        }
+
+        @Override
+        public void onAudioTrackInitializationError(AudioTrack.InitializationException e) {
+            addError(false);
+        }
+
+        @Override
+        public void onAudioTrackWriteError(AudioTrack.WriteException e) {
+            addError(false);
+        }
+
+        @Override
+        public void onAudioTrackUnderrun(int bufferSize, long bufferSizeMs,
+                long elapsedSinceLastFeedMs) {
+            addError(false);
+        }
+
+        @Override
+        public void onDecoderInitializationError(DecoderInitializationException e) {
+            addError(false);
+        }
+
+        @Override
+        public void onCryptoError(CryptoException e) {
+            addError(false);
+        }
+
+        @Override
+        public void onLoadError(int sourceId, IOException e) {
+            addError(false);
+        }
+
+        @Override
+        public void onDrmSessionManagerError(Exception e) {
+            addError(false);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sampletvinput.player;
+
+import android.net.Uri;
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.UriDataSource;
+import com.google.android.media.tv.companionlibrary.recording.RecordingIndex;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+/**
+ * Reads a recording made by a {@link
+ * com.google.android.media.tv.companionlibrary.recording.RecordingEngine} as a single stream, by
+ * reading its segment files one after the other. The URI of data specs is the URI of the index of
+ * the recording.
+ */
+public class RecordingDataSource implements UriDataSource {
+    private Uri mUri;
+    private RecordingIndex mIndex;
+    private int mSegmentIndex;
+    private RandomAccessFile mSegmentFile;
+    private long mBytesRemaining;
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        mUri = dataSpec.uri;
+        mIndex = RecordingIndex.read(new File(dataSpec.uri.getPath()));
+        List<RecordingIndex.Segment> segments = mIndex.getSegments();
+        long position = dataSpec.position;
+        mSegmentIndex = 0;
+        while (mSegmentIndex < segments.size()
+                && position >= segments.get(mSegmentIndex).getLength()) {
+            position -= segments.get(mSegmentIndex).getLength();
+            mSegmentIndex++;
+        }
+        long length = mIndex.getLength() - dataSpec.position;
+        if (length < 0) {
+            throw new IOException("Position " + dataSpec.position + " is past the end of "
+                    + dataSpec.uri);
+        }
+        if (dataSpec.length != C.LENGTH_UNBOUNDED) {
+            length = Math.min(length, dataSpec.length);
+        }
+        mBytesRemaining = length;
+        if (mSegmentIndex < segments.size()) {
+            openSegment(position);
+        }
+        return length;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        while (mBytesRemaining > 0) {
+            int bytesRead = mSegmentFile.read(buffer, offset,
+                    (int) Math.min(readLength, mBytesRemaining));
+            if (bytesRead > 0) {
+                mBytesRemaining -= bytesRead;
+                return bytesRead;
+            }
+            // Carry on with the next segment.
+            mSegmentIndex++;
+            if (mSegmentIndex >= mIndex.getSegments().size()) {
+                throw new IOException("Segments of " + mUri + " are shorter than indexed");
+            }
+            openSegment(0);
+        }
+        return C.RESULT_END_OF_INPUT;
+    }
+
+    private void openSegment(long position) throws IOException {
+        closeSegment();
+        mSegmentFile = new RandomAccessFile(
+                mIndex.getFile(mIndex.getSegments().get(mSegmentIndex)), "r");
+        mSegmentFile.seek(position);
+    }
+
+    private void closeSegment() throws IOException {
+        if (mSegmentFile != null) {
+            mSegmentFile.close();
+            mSegmentFile = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mUri = null;
+        mIndex = null;
+        closeSegment();
+    }
+
+    @Override
+    public String getUri() {
+        return mUri == null ? null : mUri.toString();
+    }
+}
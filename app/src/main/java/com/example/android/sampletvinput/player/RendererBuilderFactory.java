@@ -19,6 +19,7 @@ package com.example.android.sampletvinput.player;
 import android.content.Context;
 import android.net.Uri;
 import com.google.android.exoplayer.drm.MediaDrmCallback;
+import com.google.android.exoplayer.upstream.cache.Cache;
 import com.google.android.exoplayer.util.Util;
 import com.google.android.media.tv.companionlibrary.utils.TvContractUtils;
 
@@ -37,26 +38,63 @@ public class RendererBuilderFactory {
      */
     public static DemoPlayer.RendererBuilder createRendererBuilder(
             Context context, int contentType, Uri contentUri) {
+        return createRendererBuilder(context, contentType, contentUri, false);
+    }
+
+    /**
+     * Create new instance of {@link DemoPlayer.RendererBuilder}.
+     *
+     * @param context The {@link Context} to use.
+     * @param contentType The type of the video content: {@link Util#TYPE_SS},
+     * {@link Util#TYPE_DASH}, {@link Util#TYPE_HLS} or {@link Util#TYPE_OTHER}.
+     * @param contentUri The URI of the video content.
+     * @param cacheSegments Whether to keep the media of the content in the {@link SegmentCache},
+     * for content which is played repeatedly and does not change.
+     * @return A {@link DemoPlayer.RendererBuilder} instance.
+     */
+    public static DemoPlayer.RendererBuilder createRendererBuilder(
+            Context context, int contentType, Uri contentUri, boolean cacheSegments) {
+        return createRendererBuilder(context, contentType, contentUri, cacheSegments,
+                BufferPolicy.getDefault(context));
+    }
+
+    /**
+     * Create new instance of {@link DemoPlayer.RendererBuilder}.
+     *
+     * @param context The {@link Context} to use.
+     * @param contentType The type of the video content: {@link Util#TYPE_SS},
+     * {@link Util#TYPE_DASH}, {@link Util#TYPE_HLS} or {@link Util#TYPE_OTHER}.
+     * @param contentUri The URI of the video content.
+     * @param cacheSegments Whether to keep the media of the content in the {@link SegmentCache},
+     * for content which is played repeatedly and does not change.
+     * @param bufferPolicy How much media to buffer, and how far behind the live edge to play.
+     * @return A {@link DemoPlayer.RendererBuilder} instance.
+     */
+    public static DemoPlayer.RendererBuilder createRendererBuilder(Context context,
+            int contentType, Uri contentUri, boolean cacheSegments, BufferPolicy bufferPolicy) {
         String userAgent = Util.getUserAgent(context, "ExoVideoPlayer");
+        Cache cache = cacheSegments ? SegmentCache.getInstance(context) : null;
 
         switch (contentType) {
             case TvContractUtils.SOURCE_TYPE_MPEG_DASH: {
                 // Implement your own DRM callback here.
                 MediaDrmCallback drmCallback = new WidevineTestMediaDrmCallback(null, null);
                 return new DashRendererBuilder(context, userAgent, contentUri.toString(),
-                        drmCallback);
+                        drmCallback, cache, bufferPolicy);
             }
             case TvContractUtils.SOURCE_TYPE_SS: {
                 // Implement your own DRM callback here.
                 MediaDrmCallback drmCallback = new SmoothStreamingTestMediaDrmCallback();
                 return new SmoothStreamingRendererBuilder(context, userAgent,
-                        contentUri.toString(), drmCallback);
+                        contentUri.toString(), drmCallback, cache, bufferPolicy);
             }
             case TvContractUtils.SOURCE_TYPE_HLS: {
-                return new HlsRendererBuilder(context, userAgent, contentUri.toString());
+                return new HlsRendererBuilder(context, userAgent, contentUri.toString(), cache,
+                        bufferPolicy);
             }
             case TvContractUtils.SOURCE_TYPE_HTTP_PROGRESSIVE: {
-                return new ExtractorRendererBuilder(context, userAgent, contentUri);
+                return new ExtractorRendererBuilder(context, userAgent, contentUri, cache,
+                        bufferPolicy);
             }
             default: {
                 throw new IllegalStateException("Unsupported type: " + contentType);
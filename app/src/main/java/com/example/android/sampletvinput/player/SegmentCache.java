@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sampletvinput.player;
+
+import android.content.Context;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.cache.Cache;
+import com.google.android.exoplayer.upstream.cache.CacheDataSource;
+import com.google.android.exoplayer.upstream.cache.LeastRecentlyUsedCacheEvictor;
+import com.google.android.exoplayer.upstream.cache.SimpleCache;
+import java.io.File;
+
+/**
+ * A bounded on-disk cache of media segments, shared by all players of the process. Content which
+ * is played over and over, such as the VOD assets looped by repeatable channels and recorded
+ * programs, can be read through it so that it is mostly served from local storage. The least
+ * recently used segments are evicted once the cache is full.
+ * <p>
+ * The cache is only meant for content whose segments never change at the same URL, so live
+ * streams should not use it.
+ */
+public final class SegmentCache {
+    private static final String CACHE_DIRECTORY = "segments";
+    private static final long MAX_CACHE_SIZE_BYTES = 512 * 1024 * 1024;
+
+    private static Cache sCache;
+
+    /**
+     * Returns the shared cache, creating it on first use. Creating the cache scans the files it
+     * holds, so the first call should preferably not be made on the main thread.
+     *
+     * @param context The {@link Context} to use.
+     * @return The shared cache.
+     */
+    public static synchronized Cache getInstance(Context context) {
+        if (sCache == null) {
+            sCache = new SimpleCache(new File(context.getCacheDir(), CACHE_DIRECTORY),
+                    new LeastRecentlyUsedCacheEvictor(MAX_CACHE_SIZE_BYTES));
+        }
+        return sCache;
+    }
+
+    /**
+     * Reads segments from the cache where possible, and writes the ones read from the given data
+     * source to it.
+     *
+     * @param cache The cache to use, or {@code null} to not cache segments.
+     * @param upstream The data source used to read segments which are not cached.
+     * @return A data source which reads through the cache, or {@code upstream} if there is no
+     *     cache.
+     */
+    public static DataSource wrap(Cache cache, DataSource upstream) {
+        if (cache == null) {
+            return upstream;
+        }
+        // Fall back to the network instead of failing playback if the cache cannot be read.
+        return new CacheDataSource(cache, upstream, false /* blockOnCache */,
+                true /* ignoreCacheOnError */);
+    }
+
+    private SegmentCache() {}
+}
@@ -19,7 +19,6 @@ import android.content.Context;
 import android.media.AudioManager;
 import android.media.MediaCodec;
 import android.os.Handler;
-import com.google.android.exoplayer.DefaultLoadControl;
 import com.google.android.exoplayer.LoadControl;
 import com.google.android.exoplayer.MediaCodecAudioTrackRenderer;
 import com.google.android.exoplayer.MediaCodecSelector;
@@ -39,10 +38,9 @@ import com.google.android.exoplayer.smoothstreaming.SmoothStreamingManifest;
 import com.google.android.exoplayer.smoothstreaming.SmoothStreamingManifestParser;
 import com.google.android.exoplayer.text.TextTrackRenderer;
 import com.google.android.exoplayer.upstream.DataSource;
-import com.google.android.exoplayer.upstream.DefaultAllocator;
-import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
 import com.google.android.exoplayer.upstream.DefaultHttpDataSource;
 import com.google.android.exoplayer.upstream.DefaultUriDataSource;
+import com.google.android.exoplayer.upstream.cache.Cache;
 import com.google.android.exoplayer.util.ManifestFetcher;
 import com.google.android.exoplayer.util.Util;
 import java.io.IOException;
@@ -54,31 +52,43 @@ import java.io.IOException;
  */
 public class SmoothStreamingRendererBuilder implements DemoPlayer.RendererBuilder {
 
-    private static final int BUFFER_SEGMENT_SIZE = 64 * 1024;
-    private static final int VIDEO_BUFFER_SEGMENTS = 200;
-    private static final int AUDIO_BUFFER_SEGMENTS = 54;
-    private static final int TEXT_BUFFER_SEGMENTS = 2;
-    private static final int LIVE_EDGE_LATENCY_MS = 30000;
+    // SmoothStreaming manifests carry no update period, so live manifests are always reloaded.
+    private static final ManifestCache.ExpiryPolicy<SmoothStreamingManifest> EXPIRY_POLICY =
+            new ManifestCache.ExpiryPolicy<SmoothStreamingManifest>() {
+                @Override
+                public long getMaxAgeMs(SmoothStreamingManifest manifest) {
+                    return manifest.isLive ? 0 : Long.MAX_VALUE;
+                }
+            };
 
     private final Context context;
     private final String userAgent;
     private final String url;
     private final MediaDrmCallback drmCallback;
+    private final Cache cache;
+    private final BufferPolicy bufferPolicy;
 
     private AsyncRendererBuilder currentAsyncBuilder;
 
+    /**
+     * @param cache The cache to read segments through, or {@code null} to read them from the
+     *     network.
+     * @param bufferPolicy The sizes of the buffers, and the latency of live streams.
+     */
     public SmoothStreamingRendererBuilder(Context context, String userAgent, String url,
-            MediaDrmCallback drmCallback) {
+            MediaDrmCallback drmCallback, Cache cache, BufferPolicy bufferPolicy) {
         this.context = context;
         this.userAgent = userAgent;
         this.url = Util.toLowerInvariant(url).endsWith("/manifest") ? url : url + "/Manifest";
         this.drmCallback = drmCallback;
+        this.cache = cache;
+        this.bufferPolicy = bufferPolicy;
     }
 
     @Override
     public void buildRenderers(DemoPlayer player) {
-        currentAsyncBuilder =
-                new AsyncRendererBuilder(context, userAgent, url, drmCallback, player);
+        currentAsyncBuilder = new AsyncRendererBuilder(context, userAgent, url, drmCallback,
+                cache, bufferPolicy, player);
         currentAsyncBuilder.init();
     }
 
@@ -96,28 +106,35 @@ public class SmoothStreamingRendererBuilder implements DemoPlayer.RendererBuilde
         private final Context context;
         private final String userAgent;
         private final MediaDrmCallback drmCallback;
+        private final Cache cache;
+        private final BufferPolicy bufferPolicy;
         private final DemoPlayer player;
         private final ManifestFetcher<SmoothStreamingManifest> manifestFetcher;
 
         private boolean canceled;
 
         public AsyncRendererBuilder(Context context, String userAgent, String url,
-                MediaDrmCallback drmCallback, DemoPlayer player) {
+                MediaDrmCallback drmCallback, Cache cache, BufferPolicy bufferPolicy,
+                DemoPlayer player) {
             this.context = context;
             this.userAgent = userAgent;
             this.drmCallback = drmCallback;
+            this.cache = cache;
+            this.bufferPolicy = bufferPolicy;
             this.player = player;
             SmoothStreamingManifestParser parser = new SmoothStreamingManifestParser();
-            manifestFetcher = new ManifestFetcher<>(url, new DefaultHttpDataSource(userAgent, null),
-                    parser);
+            manifestFetcher = ManifestCache.getFetcher(url,
+                    new DefaultHttpDataSource(userAgent, null), parser);
         }
 
         public void init() {
-            manifestFetcher.singleLoad(player.getMainHandler().getLooper(), this);
+            ManifestCache.load(manifestFetcher, EXPIRY_POLICY, player.getMainHandler().getLooper(),
+                    this);
         }
 
         public void cancel() {
             canceled = true;
+            ManifestCache.releaseFetcher(manifestFetcher);
         }
 
         @Override
@@ -137,8 +154,10 @@ public class SmoothStreamingRendererBuilder implements DemoPlayer.RendererBuilde
 
             Handler mainHandler = player.getMainHandler();
             LoadControl loadControl =
-                    new DefaultLoadControl(new DefaultAllocator(BUFFER_SEGMENT_SIZE));
-            DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter(mainHandler, player);
+                    bufferPolicy.createLoadControl(bufferPolicy.createAllocator());
+            long liveEdgeLatencyMs = bufferPolicy.getLiveEdgeLatencyMs();
+            PersistentBandwidthMeter bandwidthMeter =
+                    new PersistentBandwidthMeter(context, mainHandler, player);
 
             // Check drm support if necessary.
             DrmSessionManager drmSessionManager = null;
@@ -159,14 +178,14 @@ public class SmoothStreamingRendererBuilder implements DemoPlayer.RendererBuilde
             }
 
             // Build the video renderer.
-            DataSource videoDataSource =
-                    new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+            DataSource videoDataSource = SegmentCache.wrap(cache,
+                    new DefaultUriDataSource(context, bandwidthMeter, userAgent));
             ChunkSource videoChunkSource = new SmoothStreamingChunkSource(manifestFetcher,
                     DefaultSmoothStreamingTrackSelector.newVideoInstance(context, true, false),
-                    videoDataSource, new AdaptiveEvaluator(bandwidthMeter), LIVE_EDGE_LATENCY_MS);
+                    videoDataSource, new AdaptiveEvaluator(bandwidthMeter), liveEdgeLatencyMs);
             ChunkSampleSource videoSampleSource =
                     new ChunkSampleSource(videoChunkSource, loadControl,
-                            VIDEO_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE, mainHandler, player,
+                            bufferPolicy.getVideoBufferSize(), mainHandler, player,
                             DemoPlayer.TYPE_VIDEO);
             TrackRenderer videoRenderer =
                     new MediaCodecVideoTrackRenderer(context, videoSampleSource,
@@ -174,27 +193,27 @@ public class SmoothStreamingRendererBuilder implements DemoPlayer.RendererBuilde
                             5000, drmSessionManager, true, mainHandler, player, 50);
 
             // Build the audio renderer.
-            DataSource audioDataSource =
-                    new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+            DataSource audioDataSource = SegmentCache.wrap(cache,
+                    new DefaultUriDataSource(context, bandwidthMeter, userAgent));
             ChunkSource audioChunkSource = new SmoothStreamingChunkSource(manifestFetcher,
                     DefaultSmoothStreamingTrackSelector.newAudioInstance(),
-                    audioDataSource, null, LIVE_EDGE_LATENCY_MS);
+                    audioDataSource, null, liveEdgeLatencyMs);
             ChunkSampleSource audioSampleSource =
                     new ChunkSampleSource(audioChunkSource, loadControl,
-                            AUDIO_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE, mainHandler, player,
+                            bufferPolicy.getAudioBufferSize(), mainHandler, player,
                             DemoPlayer.TYPE_AUDIO);
             TrackRenderer audioRenderer = new MediaCodecAudioTrackRenderer(audioSampleSource,
                     MediaCodecSelector.DEFAULT, drmSessionManager, true, mainHandler, player,
                     AudioCapabilities.getCapabilities(context), AudioManager.STREAM_MUSIC);
 
             // Build the text renderer.
-            DataSource textDataSource =
-                    new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+            DataSource textDataSource = SegmentCache.wrap(cache,
+                    new DefaultUriDataSource(context, bandwidthMeter, userAgent));
             ChunkSource textChunkSource = new SmoothStreamingChunkSource(manifestFetcher,
                     DefaultSmoothStreamingTrackSelector.newTextInstance(),
-                    textDataSource, null, LIVE_EDGE_LATENCY_MS);
+                    textDataSource, null, liveEdgeLatencyMs);
             ChunkSampleSource textSampleSource = new ChunkSampleSource(textChunkSource, loadControl,
-                    TEXT_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE, mainHandler, player,
+                    bufferPolicy.getTextBufferSize(), mainHandler, player,
                     DemoPlayer.TYPE_TEXT);
             TrackRenderer textRenderer = new TextTrackRenderer(textSampleSource, player,
                     mainHandler.getLooper());
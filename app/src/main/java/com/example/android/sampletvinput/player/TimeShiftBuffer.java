@@ -0,0 +1,496 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sampletvinput.player;
+
+import android.util.Log;
+import com.google.android.media.tv.companionlibrary.model.InternalProviderData;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A bounded on-disk ring buffer of the most recent minutes of a live byte stream, such as an
+ * MPEG-TS stream, so it can be paused and played back from any point of the buffered window.
+ * <p>
+ * The stream is cut into segments of about {@link #SEGMENT_DURATION_MS} of wall-clock time, each
+ * stored in its own file. Once the buffer holds its configured duration, each new segment reuses
+ * the file of the oldest one. Players start reading at the start of a segment, so the segments of
+ * an MPEG-TS stream start on a packet boundary, at a program association table where possible, so
+ * that the extractor can find the programs of the stream right away. Other streams are cut
+ * wherever a segment is due, and can only be played from the start.
+ * <p>
+ * Segments are numbered by an ever increasing sequence number, and a memory-mapped index holds the
+ * sequence number, start time, stream offset and length of the segment in each file, so that
+ * readers can find a position without touching the disk.
+ * <p>
+ * A single writer appends to the buffer with {@link #write}, while any number of readers read
+ * from it with {@link #read}, waiting for the writer when they reach the end of the stream.
+ * Readers address the stream by its offset from the start of the capture, which stays valid as
+ * older segments are evicted, so a reader which keeps up with the writer can read for as long as
+ * the stream lasts.
+ * <p>
+ * A channel asks for its live stream to be buffered with {@link #KEY_TIME_SHIFT_BUFFER_MS} in the
+ * custom data of its {@link InternalProviderData}, which a program can override.
+ */
+public class TimeShiftBuffer {
+    private static final String TAG = "TimeShiftBuffer";
+
+    /** The key of how much of a live stream to buffer for time-shifting, in milliseconds. */
+    public static final String KEY_TIME_SHIFT_BUFFER_MS = "timeShiftBufferMs";
+
+    /**
+     * The wall-clock time covered by each segment, give or take the time to the next program
+     * association table of an MPEG-TS stream, which is also the precision of seeks.
+     */
+    public static final long SEGMENT_DURATION_MS = 2000;
+
+    /** Returned by time queries when the buffer holds no data yet. */
+    public static final long TIME_UNSET = -1;
+
+    /** Returned by {@link #read} at the end of the stream, once the writer has finished. */
+    public static final int END_OF_STREAM = -1;
+
+    private static final String INDEX_FILE = "index";
+    private static final String SEGMENT_FILE_PREFIX = "segment-";
+    // Sequence number, start time, stream offset and length of a segment.
+    private static final int INDEX_ENTRY_SIZE = 4 * 8;
+    private static final int SEQUENCE_OFFSET = 0;
+    private static final int START_TIME_OFFSET = 8;
+    private static final int STREAM_OFFSET_OFFSET = 16;
+    private static final int LENGTH_OFFSET = 24;
+
+    private static final int TS_PACKET_SIZE = 188;
+    private static final int TS_SYNC_BYTE = 0x47;
+    // How long a segment of an MPEG-TS stream may wait for a program association table before it
+    // is cut at any packet boundary.
+    private static final long MAX_SEGMENT_DURATION_MS = 2 * SEGMENT_DURATION_MS;
+
+    /**
+     * Thrown by {@link #read} when the data to read was evicted, such as when playback was paused
+     * for longer than the buffer holds.
+     */
+    public static class SegmentEvictedException extends IOException {
+        public SegmentEvictedException(String message) {
+            super(message);
+        }
+    }
+
+    private final File mDirectory;
+    private final int mSegmentCount;
+    private final RandomAccessFile mIndexFile;
+    private final MappedByteBuffer mIndex;
+    private final RandomAccessFile[] mSegmentFiles;
+    private final FileChannel[] mSegmentChannels;
+
+    // Sequence numbers of the oldest segment and of the segment being written, which is -1
+    // before the first write.
+    private long mFirstSequence;
+    private long mLastSequence = -1;
+    private long mLastWriteTimeMs = TIME_UNSET;
+    // Whether the stream is an MPEG-TS stream, which is known after the first write, and the
+    // trailing partial packet of the last write, held back until the rest of it arrives.
+    private boolean mTransportStream;
+    private final byte[] mPartialPacket = new byte[TS_PACKET_SIZE];
+    private int mPartialPacketLength;
+    private boolean mFinished;
+    private boolean mReleased;
+
+    /**
+     * Creates an empty buffer.
+     *
+     * @param directory The directory for the files of the buffer, which is emptied first.
+     * @param durationMs How much of the stream to keep.
+     * @throws IOException If the files of the buffer cannot be created.
+     */
+    public TimeShiftBuffer(File directory, long durationMs) throws IOException {
+        mDirectory = directory;
+        // One more segment than the duration needs, for the one being written.
+        mSegmentCount = (int) Math.max(2,
+                (durationMs + SEGMENT_DURATION_MS - 1) / SEGMENT_DURATION_MS + 1);
+        deleteFiles();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        mIndexFile = new RandomAccessFile(new File(directory, INDEX_FILE), "rw");
+        mIndexFile.setLength((long) mSegmentCount * INDEX_ENTRY_SIZE);
+        mIndex = mIndexFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                (long) mSegmentCount * INDEX_ENTRY_SIZE);
+        mSegmentFiles = new RandomAccessFile[mSegmentCount];
+        mSegmentChannels = new FileChannel[mSegmentCount];
+        for (int i = 0; i < mSegmentCount; i++) {
+            mSegmentFiles[i] = new RandomAccessFile(new File(directory, SEGMENT_FILE_PREFIX + i),
+                    "rw");
+            mSegmentChannels[i] = mSegmentFiles[i].getChannel();
+        }
+    }
+
+    /**
+     * Returns how much of the stream of a program to buffer, as asked for by the program, or else
+     * by its channel.
+     *
+     * @param channelData The internal provider data of the channel, or {@code null}.
+     * @param programData The internal provider data of the program, or {@code null}.
+     * @return The duration to buffer, or 0 if the stream should not be buffered.
+     */
+    public static long getDurationMs(InternalProviderData channelData,
+            InternalProviderData programData) {
+        long durationMs = getDurationMs(programData);
+        return durationMs >= 0 ? durationMs : Math.max(0, getDurationMs(channelData));
+    }
+
+    // Returns the duration in the given data, or -1 if it has none.
+    private static long getDurationMs(InternalProviderData data) {
+        if (data == null) {
+            return -1;
+        }
+        try {
+            if (!data.has(KEY_TIME_SHIFT_BUFFER_MS)) {
+                return -1;
+            }
+            return Math.max(0,
+                    Long.parseLong(String.valueOf(data.get(KEY_TIME_SHIFT_BUFFER_MS))));
+        } catch (InternalProviderData.ParseException | NumberFormatException e) {
+            Log.w(TAG, "Invalid time shift buffer duration in " + data, e);
+            return -1;
+        }
+    }
+
+    /**
+     * Appends data to the stream, starting a new segment if the current one is full. The trailing
+     * partial packet of an MPEG-TS stream is held back until the next write completes it.
+     *
+     * @param data The data.
+     * @param offset The offset of the data in the array.
+     * @param length The length of the data.
+     * @param nowMs The wall-clock time at which the data was received.
+     * @throws IOException If the data cannot be written.
+     */
+    public synchronized void write(byte[] data, int offset, int length, long nowMs)
+            throws IOException {
+        if (mReleased || mFinished) {
+            throw new IOException("The buffer is closed");
+        }
+        if (mLastSequence == -1) {
+            mTransportStream = isTransportStream(data, offset, length);
+            startSegment(nowMs);
+        }
+        if (!mTransportStream) {
+            if (nowMs - getLong(mLastSequence, START_TIME_OFFSET) >= SEGMENT_DURATION_MS) {
+                startSegment(nowMs);
+            }
+            append(data, offset, length);
+        } else {
+            int end = offset + length;
+            if (mPartialPacketLength > 0) {
+                int partLength = Math.min(TS_PACKET_SIZE - mPartialPacketLength, length);
+                System.arraycopy(data, offset, mPartialPacket, mPartialPacketLength, partLength);
+                mPartialPacketLength += partLength;
+                offset += partLength;
+                if (mPartialPacketLength == TS_PACKET_SIZE) {
+                    appendPackets(mPartialPacket, 0, TS_PACKET_SIZE, nowMs);
+                    mPartialPacketLength = 0;
+                }
+            }
+            int packetsLength = (end - offset) / TS_PACKET_SIZE * TS_PACKET_SIZE;
+            appendPackets(data, offset, packetsLength, nowMs);
+            offset += packetsLength;
+            System.arraycopy(data, offset, mPartialPacket, mPartialPacketLength, end - offset);
+            mPartialPacketLength += end - offset;
+        }
+        mLastWriteTimeMs = nowMs;
+        notifyAll();
+    }
+
+    // Appends whole MPEG-TS packets, starting a new segment at the first packet which may start
+    // one once the current segment is due.
+    private void appendPackets(byte[] data, int offset, int length, long nowMs)
+            throws IOException {
+        long segmentDurationMs = nowMs - getLong(mLastSequence, START_TIME_OFFSET);
+        if (segmentDurationMs >= SEGMENT_DURATION_MS) {
+            boolean overdue = segmentDurationMs >= MAX_SEGMENT_DURATION_MS;
+            for (int packet = offset; packet < offset + length; packet += TS_PACKET_SIZE) {
+                if (overdue || isProgramAssociationTable(data, packet)) {
+                    append(data, offset, packet - offset);
+                    startSegment(nowMs);
+                    length -= packet - offset;
+                    offset = packet;
+                    break;
+                }
+            }
+        }
+        append(data, offset, length);
+    }
+
+    private void append(byte[] data, int offset, int length) throws IOException {
+        int slot = getSlot(mLastSequence);
+        long segmentLength = getLong(mLastSequence, LENGTH_OFFSET);
+        ByteBuffer byteBuffer = ByteBuffer.wrap(data, offset, length);
+        while (byteBuffer.hasRemaining()) {
+            segmentLength += mSegmentChannels[slot].write(byteBuffer, segmentLength);
+        }
+        putLong(mLastSequence, LENGTH_OFFSET, segmentLength);
+    }
+
+    private static boolean isTransportStream(byte[] data, int offset, int length) {
+        return length > 0 && (data[offset] & 0xFF) == TS_SYNC_BYTE
+                && (length <= TS_PACKET_SIZE
+                        || (data[offset + TS_PACKET_SIZE] & 0xFF) == TS_SYNC_BYTE);
+    }
+
+    // Returns whether the packet at the given offset starts a program association table, which
+    // is carried on PID 0.
+    private static boolean isProgramAssociationTable(byte[] data, int offset) {
+        boolean payloadUnitStart = (data[offset + 1] & 0x40) != 0;
+        int pid = ((data[offset + 1] & 0x1F) << 8) | (data[offset + 2] & 0xFF);
+        return (data[offset] & 0xFF) == TS_SYNC_BYTE && payloadUnitStart && pid == 0;
+    }
+
+    private void startSegment(long nowMs) throws IOException {
+        long streamOffset = 0;
+        if (mLastSequence != -1) {
+            streamOffset = getLong(mLastSequence, STREAM_OFFSET_OFFSET)
+                    + getLong(mLastSequence, LENGTH_OFFSET);
+        }
+        long sequence = mLastSequence + 1;
+        if (sequence - mFirstSequence >= mSegmentCount) {
+            // Evict the oldest segment, whose file is reused.
+            mFirstSequence = sequence - mSegmentCount + 1;
+        }
+        mSegmentChannels[getSlot(sequence)].truncate(0);
+        putLong(sequence, SEQUENCE_OFFSET, sequence);
+        putLong(sequence, START_TIME_OFFSET, nowMs);
+        putLong(sequence, STREAM_OFFSET_OFFSET, streamOffset);
+        putLong(sequence, LENGTH_OFFSET, 0);
+        mLastSequence = sequence;
+    }
+
+    /**
+     * Drops the partial packet of an MPEG-TS stream held back from the last write, such as when
+     * the source of the stream reconnects and the rest of the packet will never arrive.
+     */
+    public synchronized void discardPartialPacket() {
+        mPartialPacketLength = 0;
+    }
+
+    /**
+     * Marks the end of the stream, such as when the source of the stream closed. Readers which
+     * reach the end of the buffer then get {@link #END_OF_STREAM} instead of waiting. A partial
+     * packet at the end of an MPEG-TS stream is dropped, as players could not use it.
+     */
+    public synchronized void finish() {
+        mFinished = true;
+        notifyAll();
+    }
+
+    /** Releases the buffer and deletes its files. Readers get {@link #END_OF_STREAM}. */
+    public synchronized void release() {
+        if (mReleased) {
+            return;
+        }
+        mReleased = true;
+        notifyAll();
+        try {
+            for (RandomAccessFile segmentFile : mSegmentFiles) {
+                segmentFile.close();
+            }
+            mIndexFile.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to close the buffer files", e);
+        }
+        deleteFiles();
+        if (!mDirectory.delete()) {
+            Log.w(TAG, "Failed to delete " + mDirectory);
+        }
+    }
+
+    /** @return The start time of the oldest segment, or {@link #TIME_UNSET} if there is none. */
+    public synchronized long getStartTimeMs() {
+        return mLastSequence == -1 ? TIME_UNSET : getLong(mFirstSequence, START_TIME_OFFSET);
+    }
+
+    /** @return The time of the last write, or {@link #TIME_UNSET} if there was none. */
+    public synchronized long getEndTimeMs() {
+        return mLastWriteTimeMs;
+    }
+
+    /**
+     * @param timeMs A wall-clock time.
+     * @return The sequence number of the segment holding the stream at the given time, clamped to
+     *     the buffered window. Before the first write, this is the number of the first segment.
+     */
+    public synchronized long getSequenceForTime(long timeMs) {
+        if (mLastSequence == -1) {
+            return 0;
+        }
+        for (long sequence = mLastSequence; sequence > mFirstSequence; sequence--) {
+            if (getLong(sequence, START_TIME_OFFSET) <= timeMs) {
+                return sequence;
+            }
+        }
+        return mFirstSequence;
+    }
+
+    /**
+     * @param sequence The sequence number of a segment.
+     * @return The start time of the segment, or {@link #TIME_UNSET} if it has not been written
+     *     yet or was evicted.
+     */
+    public synchronized long getSegmentStartTimeMs(long sequence) {
+        if (sequence < mFirstSequence || sequence > mLastSequence) {
+            return TIME_UNSET;
+        }
+        return getLong(sequence, START_TIME_OFFSET);
+    }
+
+    /**
+     * Returns the offset of the start of a segment in the stream, waiting for the writer to start
+     * the segment if it has not yet.
+     *
+     * @param sequence The sequence number of the segment.
+     * @return The offset to pass to {@link #read}, or {@link #END_OF_STREAM} if the stream ended
+     *     before the segment.
+     * @throws SegmentEvictedException If the segment was evicted.
+     * @throws IOException If the wait was interrupted.
+     */
+    public synchronized long getStreamOffset(long sequence) throws IOException {
+        while (true) {
+            if (mReleased) {
+                return END_OF_STREAM;
+            }
+            if (sequence > mLastSequence) {
+                if (mFinished) {
+                    return END_OF_STREAM;
+                }
+                waitForWriter();
+                continue;
+            }
+            if (sequence < mFirstSequence) {
+                throw new SegmentEvictedException("Segment " + sequence + " was evicted");
+            }
+            return getLong(sequence, STREAM_OFFSET_OFFSET);
+        }
+    }
+
+    /**
+     * Reads the stream from a position onwards, waiting for the writer if the end of the buffer
+     * is reached.
+     *
+     * @param streamPosition The read position, as an offset in the stream, such as the offset of
+     *     a segment from {@link #getStreamOffset} plus a position in the segment.
+     * @param buffer The buffer to read into.
+     * @param offset The offset in the buffer to read into.
+     * @param length The maximum number of bytes to read.
+     * @return The number of bytes read, or {@link #END_OF_STREAM}.
+     * @throws SegmentEvictedException If the data was evicted before it could be read.
+     * @throws IOException If the data cannot be read.
+     */
+    public int read(long streamPosition, byte[] buffer, int offset, int length)
+            throws IOException {
+        long readSequence;
+        long segmentPosition;
+        int readLength;
+        FileChannel channel;
+        synchronized (this) {
+            while (true) {
+                if (mReleased) {
+                    return END_OF_STREAM;
+                }
+                if (mLastSequence == -1 || streamPosition >= getLong(mLastSequence,
+                        STREAM_OFFSET_OFFSET) + getLong(mLastSequence, LENGTH_OFFSET)) {
+                    if (mFinished) {
+                        return END_OF_STREAM;
+                    }
+                    waitForWriter();
+                    continue;
+                }
+                if (streamPosition < getLong(mFirstSequence, STREAM_OFFSET_OFFSET)) {
+                    throw new SegmentEvictedException(
+                            "Stream position " + streamPosition + " was evicted");
+                }
+                readSequence = findSequence(streamPosition);
+                segmentPosition = streamPosition - getLong(readSequence, STREAM_OFFSET_OFFSET);
+                readLength = (int) Math.min(length,
+                        getLong(readSequence, LENGTH_OFFSET) - segmentPosition);
+                channel = mSegmentChannels[getSlot(readSequence)];
+                break;
+            }
+        }
+        // Read outside of the lock, so that the writer is not held up by the disk.
+        int bytesRead = channel.read(ByteBuffer.wrap(buffer, offset, readLength), segmentPosition);
+        synchronized (this) {
+            if (readSequence < mFirstSequence) {
+                // The file was reused while it was read.
+                throw new SegmentEvictedException(
+                        "Stream position " + streamPosition + " was evicted while read");
+            }
+        }
+        return bytesRead == -1 ? 0 : bytesRead;
+    }
+
+    // Returns the sequence number of the last segment which starts at or before a stream position
+    // in the buffered window, which is the segment holding it.
+    private long findSequence(long streamPosition) {
+        long low = mFirstSequence;
+        long high = mLastSequence;
+        while (low < high) {
+            long mid = (low + high + 1) >>> 1;
+            if (getLong(mid, STREAM_OFFSET_OFFSET) <= streamPosition) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private void waitForWriter() throws InterruptedIOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            // The loader of the reader was canceled.
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private int getSlot(long sequence) {
+        return (int) (sequence % mSegmentCount);
+    }
+
+    private long getLong(long sequence, int fieldOffset) {
+        return mIndex.getLong(getSlot(sequence) * INDEX_ENTRY_SIZE + fieldOffset);
+    }
+
+    private void putLong(long sequence, int fieldOffset, long value) {
+        mIndex.putLong(getSlot(sequence) * INDEX_ENTRY_SIZE + fieldOffset, value);
+    }
+
+    private void deleteFiles() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.delete()) {
+                    Log.w(TAG, "Failed to delete " + file);
+                }
+            }
+        }
+    }
+}
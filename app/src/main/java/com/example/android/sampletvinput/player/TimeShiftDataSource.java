@@ -0,0 +1,87 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sampletvinput.player;
+
+import android.net.Uri;
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.UriDataSource;
+import java.io.IOException;
+
+/**
+ * Reads a live stream from a {@link TimeShiftBuffer}, starting at one of its segments. Positions
+ * in data specs are relative to the start of that segment, and reads at the end of the buffer
+ * wait for the live stream to be captured.
+ * <p>
+ * The segment is only used to find where in the stream to start. Reads fail once the data they
+ * read was evicted, but not merely because the starting segment was, so a player which keeps up
+ * with the live stream can play it for as long as it lasts.
+ */
+public class TimeShiftDataSource implements UriDataSource {
+    private static final long OFFSET_UNSET = -2;
+
+    private final TimeShiftBuffer mBuffer;
+    private final long mStartSequence;
+    // The offset of the starting segment in the stream, once it is known.
+    private long mStartStreamOffset = OFFSET_UNSET;
+
+    private Uri mUri;
+    private long mStreamPosition;
+
+    /**
+     * @param buffer The buffer to read from.
+     * @param startSequence The sequence number of the segment to start reading at.
+     */
+    public TimeShiftDataSource(TimeShiftBuffer buffer, long startSequence) {
+        mBuffer = buffer;
+        mStartSequence = startSequence;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        mUri = dataSpec.uri;
+        if (mStartStreamOffset == OFFSET_UNSET) {
+            mStartStreamOffset = mBuffer.getStreamOffset(mStartSequence);
+        }
+        mStreamPosition = mStartStreamOffset + dataSpec.position;
+        // The stream grows for as long as it is captured.
+        return C.LENGTH_UNBOUNDED;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        if (mStartStreamOffset == TimeShiftBuffer.END_OF_STREAM) {
+            return C.RESULT_END_OF_INPUT;
+        }
+        int bytesRead = mBuffer.read(mStreamPosition, buffer, offset, readLength);
+        if (bytesRead == TimeShiftBuffer.END_OF_STREAM) {
+            return C.RESULT_END_OF_INPUT;
+        }
+        mStreamPosition += bytesRead;
+        return bytesRead;
+    }
+
+    @Override
+    public void close() {
+        mUri = null;
+    }
+
+    @Override
+    public String getUri() {
+        return mUri == null ? null : mUri.toString();
+    }
+}
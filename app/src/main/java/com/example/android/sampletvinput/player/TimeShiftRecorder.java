@@ -0,0 +1,137 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sampletvinput.player;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.DefaultUriDataSource;
+import com.google.android.exoplayer.util.Util;
+import java.io.IOException;
+
+/**
+ * Captures a live stream into a {@link TimeShiftBuffer} on a background thread, for as long as the
+ * stream lasts or until it is canceled.
+ * <p>
+ * When the connection fails, the recorder reconnects a few times, backing off between attempts,
+ * before it gives up and ends the buffer. A live stream carries on while the recorder reconnects,
+ * so the content broadcast in the meantime is missing from the buffer.
+ */
+public class TimeShiftRecorder extends Thread {
+    private static final String TAG = "TimeShiftRecorder";
+    private static final boolean DEBUG = false;
+
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    // The number of times to reconnect after failures without any data read in between.
+    private static final int MAX_RETRY_COUNT = 5;
+    private static final long RETRY_DELAY_MS = 1000;
+
+    private final DataSource mDataSource;
+    private final Uri mUri;
+    private final TimeShiftBuffer mBuffer;
+    private volatile boolean mCanceled;
+
+    /**
+     * @param context The {@link Context} to use.
+     * @param uri The URI of the live stream.
+     * @param buffer The buffer to capture the stream into.
+     */
+    public TimeShiftRecorder(Context context, Uri uri, TimeShiftBuffer buffer) {
+        super(TAG);
+        mDataSource = new DefaultUriDataSource(context,
+                Util.getUserAgent(context, "ExoVideoPlayer"));
+        mUri = uri;
+        mBuffer = buffer;
+    }
+
+    @Override
+    public void run() {
+        byte[] data = new byte[READ_BUFFER_SIZE];
+        int retryCount = 0;
+        try {
+            while (!mCanceled) {
+                try {
+                    if (capture(data)) {
+                        break;
+                    }
+                    // Data was read, so the connection was good until it failed.
+                    retryCount = 0;
+                } catch (IOException e) {
+                    if (mCanceled) {
+                        break;
+                    }
+                    if (retryCount == MAX_RETRY_COUNT) {
+                        Log.w(TAG, "Failed to capture " + mUri, e);
+                        break;
+                    }
+                    Log.w(TAG, "Failed to connect to " + mUri + ", retrying", e);
+                }
+                retryCount++;
+                // The rest of the last packet was lost with the connection.
+                mBuffer.discardPartialPacket();
+                Thread.sleep(RETRY_DELAY_MS * retryCount);
+            }
+        } catch (InterruptedException e) {
+            // Canceled while waiting to reconnect.
+        } finally {
+            // Let the player play the rest of the buffer, then end.
+            mBuffer.finish();
+        }
+    }
+
+    // Captures the stream until it ends, the recorder is canceled or the connection fails after
+    // some data was read. Returns whether to stop capturing, or throws if no data could be read.
+    private boolean capture(byte[] data) throws IOException {
+        boolean dataRead = false;
+        try {
+            mDataSource.open(new DataSpec(mUri));
+            while (!mCanceled) {
+                int bytesRead = mDataSource.read(data, 0, data.length);
+                if (bytesRead == C.RESULT_END_OF_INPUT) {
+                    if (DEBUG) {
+                        Log.d(TAG, "End of " + mUri);
+                    }
+                    return true;
+                }
+                mBuffer.write(data, 0, bytesRead, System.currentTimeMillis());
+                dataRead = true;
+            }
+            return true;
+        } catch (IOException e) {
+            if (!dataRead || mCanceled) {
+                throw e;
+            }
+            Log.w(TAG, "Lost connection to " + mUri + ", reconnecting", e);
+            return false;
+        } finally {
+            try {
+                mDataSource.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close " + mUri, e);
+            }
+        }
+    }
+
+    /** Stops capturing the stream, once the read in progress returns. */
+    public void cancel() {
+        mCanceled = true;
+        interrupt();
+    }
+}
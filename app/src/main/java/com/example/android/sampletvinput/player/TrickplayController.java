@@ -0,0 +1,173 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sampletvinput.player;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+import com.google.android.exoplayer.ExoPlaybackException;
+import com.google.android.exoplayer.ExoPlayer;
+
+/**
+ * Fast-forwards and rewinds an {@link ExoPlayer} at speeds it cannot play at, by pausing it and
+ * showing a frame at a time.
+ * <p>
+ * The position of each frame follows the wall clock, so the content moves at the requested speed
+ * however long each frame takes to show. A new seek is only issued once the previous one has been
+ * decoded and the player is ready again, so seeks never queue up behind a busy decoder. Since
+ * ExoPlayer starts decoding from the key frame before a seek position, each seek costs at most one
+ * group of pictures, and at high speeds whole groups are skipped.
+ */
+class TrickplayController implements ExoPlayer.Listener {
+    private static final String TAG = "TrickplayController";
+    private static final boolean DEBUG = false;
+
+    // The shortest time between two seeks, which caps the frame rate of trickplay.
+    private static final long MIN_SEEK_INTERVAL_MS = 250;
+    // How long to wait for a seek to be decoded before issuing the next one anyway.
+    private static final long SEEK_TIMEOUT_MS = 2000;
+
+    private final ExoPlayer mPlayer;
+    private final Handler mHandler;
+    private final Runnable mSeekRunnable = new Runnable() {
+        @Override
+        public void run() {
+            seekToTarget();
+        }
+    };
+
+    private boolean mActive;
+    private float mSpeed;
+    private boolean mPlayWhenReadyToRestore;
+    // The position shown when the current speed was set, and the time it was set.
+    private long mAnchorPositionMs;
+    private long mAnchorRealtimeMs;
+    private boolean mSeekPending;
+    private long mLastSeekRealtimeMs;
+    private boolean mReachedEnd;
+
+    /**
+     * @param player The player to control.
+     * @param handler A handler on the thread the player is controlled from.
+     */
+    TrickplayController(ExoPlayer player, Handler handler) {
+        mPlayer = player;
+        mHandler = handler;
+    }
+
+    /** @return Whether the player is fast-forwarding or rewinding. */
+    boolean isActive() {
+        return mActive;
+    }
+
+    /**
+     * Starts trickplay, or changes its speed.
+     *
+     * @param speed The playback speed. Negative speeds rewind.
+     */
+    void start(float speed) {
+        if (DEBUG) {
+            Log.d(TAG, "Start trickplay at " + speed + "x");
+        }
+        if (!mActive) {
+            mActive = true;
+            mPlayWhenReadyToRestore = mPlayer.getPlayWhenReady();
+            mPlayer.setPlayWhenReady(false);
+            mPlayer.addListener(this);
+        }
+        mSpeed = speed;
+        seekTo(mPlayer.getCurrentPosition());
+    }
+
+    /**
+     * Continues trickplay from a new position.
+     *
+     * @param positionMs The position to continue from.
+     */
+    void seekTo(long positionMs) {
+        mAnchorPositionMs = positionMs;
+        mAnchorRealtimeMs = SystemClock.elapsedRealtime();
+        mReachedEnd = false;
+        mHandler.removeCallbacks(mSeekRunnable);
+        seekToTarget();
+    }
+
+    /** Stops trickplay and resumes normal playback if the player was playing before. */
+    void stop() {
+        if (!mActive) {
+            return;
+        }
+        if (DEBUG) {
+            Log.d(TAG, "Stop trickplay at " + mPlayer.getCurrentPosition());
+        }
+        mActive = false;
+        mSeekPending = false;
+        mHandler.removeCallbacks(mSeekRunnable);
+        mPlayer.removeListener(this);
+        mPlayer.setPlayWhenReady(mPlayWhenReadyToRestore);
+    }
+
+    private void seekToTarget() {
+        if (!mActive) {
+            return;
+        }
+        long nowMs = SystemClock.elapsedRealtime();
+        long targetMs = mAnchorPositionMs + (long) (mSpeed * (nowMs - mAnchorRealtimeMs));
+        long durationMs = mPlayer.getDuration();
+        if (targetMs <= 0) {
+            targetMs = 0;
+            mReachedEnd = true;
+        } else if (durationMs != ExoPlayer.UNKNOWN_TIME && targetMs >= durationMs) {
+            targetMs = durationMs;
+            mReachedEnd = true;
+        }
+        if (DEBUG) {
+            Log.d(TAG, "Seek to " + targetMs);
+        }
+        mSeekPending = true;
+        mLastSeekRealtimeMs = nowMs;
+        mPlayer.seekTo(targetMs);
+        if (!mReachedEnd) {
+            // Keep going even if the seek never becomes ready, such as at a load error.
+            mHandler.postDelayed(mSeekRunnable, SEEK_TIMEOUT_MS);
+        }
+    }
+
+    @Override
+    public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+        if (!mActive || !mSeekPending || playbackState != ExoPlayer.STATE_READY) {
+            return;
+        }
+        // The frame of the last seek has been decoded, so the decoder can take the next one.
+        mSeekPending = false;
+        mHandler.removeCallbacks(mSeekRunnable);
+        if (!mReachedEnd) {
+            long elapsedMs = SystemClock.elapsedRealtime() - mLastSeekRealtimeMs;
+            mHandler.postDelayed(mSeekRunnable, Math.max(0, MIN_SEEK_INTERVAL_MS - elapsedMs));
+        }
+    }
+
+    @Override
+    public void onPlayWhenReadyCommitted() {
+        // Do nothing.
+    }
+
+    @Override
+    public void onPlayerError(ExoPlaybackException error) {
+        stop();
+    }
+}
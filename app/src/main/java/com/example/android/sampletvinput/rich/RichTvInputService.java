@@ -17,28 +17,44 @@
 package com.example.android.sampletvinput.rich;
 
 import android.content.ComponentName;
+import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.Context;
 import android.graphics.Point;
+import android.media.PlaybackParams;
 import android.media.tv.TvContentRating;
+import android.media.tv.TvContract;
 import android.media.tv.TvInputManager;
 import android.media.tv.TvInputService;
 import android.media.tv.TvTrackInfo;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.support.annotation.Nullable;
 import android.support.annotation.RequiresApi;
 import android.util.Log;
+import android.util.LongSparseArray;
+import android.util.Pair;
 import android.view.Display;
 import android.view.LayoutInflater;
+import android.view.Surface;
 import android.view.View;
 import android.view.WindowManager;
 import android.view.accessibility.CaptioningManager;
 import com.example.android.sampletvinput.R;
 import com.example.android.sampletvinput.SampleJobService;
+import com.example.android.sampletvinput.player.BufferPolicy;
 import com.example.android.sampletvinput.player.DemoPlayer;
-import com.example.android.sampletvinput.player.RendererBuilderFactory;
+import com.example.android.sampletvinput.player.ExtractorRendererBuilder;
+import com.example.android.sampletvinput.player.LiveLatencyController;
+import com.example.android.sampletvinput.player.PlayerPool;
+import com.example.android.sampletvinput.player.QoeCollector;
+import com.example.android.sampletvinput.player.RecordingDataSource;
+import com.example.android.sampletvinput.player.TimeShiftBuffer;
+import com.example.android.sampletvinput.player.TimeShiftDataSource;
+import com.example.android.sampletvinput.player.TimeShiftRecorder;
 import com.google.android.exoplayer.ExoPlayer;
 import com.google.android.exoplayer.MediaFormat;
 import com.google.android.exoplayer.text.CaptionStyleCompat;
@@ -49,11 +65,19 @@ import com.google.android.media.tv.companionlibrary.TvPlayer;
 import com.google.android.media.tv.companionlibrary.model.Advertisement;
 import com.google.android.media.tv.companionlibrary.model.Channel;
 import com.google.android.media.tv.companionlibrary.model.InternalProviderData;
+import com.google.android.media.tv.companionlibrary.model.ModelUtils;
 import com.google.android.media.tv.companionlibrary.model.Program;
 import com.google.android.media.tv.companionlibrary.model.RecordedProgram;
+import com.google.android.media.tv.companionlibrary.recording.RecordingEngine;
+import com.google.android.media.tv.companionlibrary.recording.RecordingIndex;
+import com.google.android.media.tv.companionlibrary.recording.RecordingStorageManager;
 import com.google.android.media.tv.companionlibrary.sync.EpgSyncJobService;
 import com.google.android.media.tv.companionlibrary.utils.TvContractUtils;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 /**
@@ -64,8 +88,42 @@ public class RichTvInputService extends BaseTvInputService {
     private static final String TAG = "RichTvInputService";
     private static final boolean DEBUG = false;
     private static final long EPG_SYNC_DELAYED_PERIOD_MS = 1000 * 2; // 2 Seconds
+    // A prepared next program is started from where it is instead of being seeked, if that is
+    // this close to the requested position, so its buffer is kept.
+    private static final long NEXT_PROGRAM_SEEK_TOLERANCE_MS = 1000;
+    // Players of the channels around the current one, plus the one just tuned away from.
+    private static final int MAX_POOLED_PLAYERS = 3;
+    // How long after the first frame of a channel the players of the channels around it are
+    // prepared, so that they neither hold up the start of the channel nor follow rapid zapping.
+    private static final long PREPARE_ADJACENT_CHANNELS_DELAY_MS = 2000;
+    private static final long QOE_REPORT_INTERVAL_MS = 5 * 60 * 1000;
+    private static final String TIME_SHIFT_DIRECTORY = "timeshift";
+
+    // Orders channels by display number, comparing numbers such as "5-1" part by part.
+    private static final Comparator<Channel> DISPLAY_NUMBER_COMPARATOR =
+            new Comparator<Channel>() {
+                @Override
+                public int compare(Channel a, Channel b) {
+                    String[] aParts = getDisplayNumberParts(a);
+                    String[] bParts = getDisplayNumberParts(b);
+                    for (int i = 0; i < Math.min(aParts.length, bParts.length); i++) {
+                        int result;
+                        try {
+                            result = Long.compare(
+                                    Long.parseLong(aParts[i]), Long.parseLong(bParts[i]));
+                        } catch (NumberFormatException e) {
+                            result = aParts[i].compareTo(bParts[i]);
+                        }
+                        if (result != 0) {
+                            return result;
+                        }
+                    }
+                    return aParts.length - bParts.length;
+                }
+            };
 
     private CaptioningManager mCaptioningManager;
+    private PlayerPool mPlayerPool;
 
     /**
      * Gets the track id of the track type and track index.
@@ -88,10 +146,36 @@ public class RichTvInputService extends BaseTvInputService {
         return Integer.parseInt(trackId.split("-")[1]);
     }
 
+    private static String[] getDisplayNumberParts(Channel channel) {
+        String displayNumber = channel.getDisplayNumber();
+        return displayNumber == null ? new String[0] : displayNumber.trim().split("[^0-9]+");
+    }
+
     @Override
     public void onCreate() {
         super.onCreate();
         mCaptioningManager = (CaptioningManager) getSystemService(Context.CAPTIONING_SERVICE);
+        mPlayerPool = new PlayerPool(this, PlayerPool.getMaxSize(this, MAX_POOLED_PLAYERS));
+        QoeCollector.getInstance().startReporting(QOE_REPORT_INTERVAL_MS,
+                new QoeCollector.SnapshotListener() {
+                    @Override
+                    public void onSnapshots(List<QoeCollector.Snapshot> snapshots) {
+                        // Reporting also drops the counters of channels which are no longer
+                        // played, so it runs even when the snapshots are not logged.
+                        if (DEBUG) {
+                            for (QoeCollector.Snapshot snapshot : snapshots) {
+                                Log.d(TAG, snapshot.toString());
+                            }
+                        }
+                    }
+                });
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mPlayerPool.clear();
+        QoeCollector.getInstance().stopReporting();
     }
 
     @Override
@@ -117,6 +201,45 @@ public class RichTvInputService extends BaseTvInputService {
         private int mSelectedSubtitleTrackIndex;
         private SubtitleLayout mSubtitleView;
         private DemoPlayer mPlayer;
+        // The video mPlayer plays, so it can be pooled when the user tunes away. The URL is null
+        // for players which must not be reused, such as ad players.
+        private int mPlayerVideoType;
+        private Uri mPlayerVideoUrl;
+        // Follows mPlayer while it plays a program or recording, but not ads.
+        private QoeCollector.Tracker mQoeTracker;
+        // The recorded program mPlayer plays, which must not be evicted, or -1.
+        private long mPlayingRecordingId = -1;
+        // Keeps mPlayer near the live edge, for programs with a low latency buffer policy.
+        private LiveLatencyController mLiveLatencyController;
+        private PrepareAdjacentChannelsTask mPrepareAdjacentChannelsTask;
+        // The tuned channel, until the players of the channels around it are being prepared.
+        private Uri mAdjacentChannelsUri;
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+        private final Runnable mPrepareAdjacentChannelsRunnable = new Runnable() {
+            @Override
+            public void run() {
+                mPrepareAdjacentChannelsTask =
+                        new PrepareAdjacentChannelsTask(mAdjacentChannelsUri);
+                mAdjacentChannelsUri = null;
+                mPrepareAdjacentChannelsTask.execute();
+            }
+        };
+        // Captures the live stream of mTimeShiftUrl while the session is tuned to a channel which
+        // asks for time-shifting.
+        private TimeShiftBuffer mTimeShiftBuffer;
+        private TimeShiftRecorder mTimeShiftRecorder;
+        private Uri mTimeShiftUrl;
+        // The program mPlayer plays from mTimeShiftBuffer, the segment it started at, and the
+        // start time of that segment once it is known.
+        private Program mTimeShiftProgram;
+        private long mTimeShiftSequence;
+        private long mTimeShiftSegmentStartMs;
+        private boolean mTimeShiftPaused;
+        private Surface mSurface;
+        private float mVolume = 1.0f;
+        // Player loading the next program in the background, and the program it loads.
+        private DemoPlayer mNextPlayer;
+        private Program mNextProgram;
         private boolean mCaptionEnabled;
         private String mInputId;
         private Context mContext;
@@ -201,33 +324,334 @@ public class RichTvInputService extends BaseTvInputService {
                 notifyVideoUnavailable(TvInputManager.VIDEO_UNAVAILABLE_REASON_TUNING);
                 return false;
             }
-            createPlayer(program.getInternalProviderData().getVideoType(),
-                    Uri.parse(program.getInternalProviderData().getVideoUrl()));
-            if (startPosMs > 0) {
-                mPlayer.seekTo(startPosMs);
+            int videoType = program.getInternalProviderData().getVideoType();
+            Uri videoUrl = Uri.parse(program.getInternalProviderData().getVideoUrl());
+            BufferPolicy bufferPolicy = getBufferPolicy(program);
+            if (DEBUG) {
+                Log.d(TAG, "Play " + program.getTitle() + " with " + bufferPolicy);
+            }
+            if (videoType == TvContractUtils.SOURCE_TYPE_HTTP_PROGRESSIVE
+                    && startTimeShiftBuffer(videoUrl, getTimeShiftBufferMs(program))) {
+                // A live stream has no position within the program, so start at the live edge,
+                // unless the previous program of the stream is still playing.
+                mTimeShiftPaused = false;
+                releaseNextPlayer();
+                if (isPlayingTimeShiftBuffer()) {
+                    mTimeShiftProgram = program;
+                } else {
+                    createTimeShiftPlayer(program,
+                            mTimeShiftBuffer.getSequenceForTime(System.currentTimeMillis()));
+                }
+            } else if (useNextPlayer(program) || canKeepPlayer(videoType, videoUrl)
+                    || usePooledPlayer(videoType, videoUrl)) {
+                releaseTimeShiftBuffer();
+                markPlayerPrepared();
+                if (Math.abs(mPlayer.getCurrentPosition() - startPosMs)
+                        > NEXT_PROGRAM_SEEK_TOLERANCE_MS) {
+                    mPlayer.seekTo(startPosMs);
+                }
+            } else {
+                releaseTimeShiftBuffer();
+                createPlayer(videoType, videoUrl,
+                        program.getInternalProviderData().isRepeatable(), bufferPolicy);
+                if (startPosMs > 0) {
+                    mPlayer.seekTo(startPosMs);
+                }
             }
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
                 notifyTimeShiftStatusChanged(TvInputManager.TIME_SHIFT_STATUS_AVAILABLE);
             }
             mPlayer.setPlayWhenReady(true);
+            trackQoe(program.getChannelId(), "program/" + program.getId());
+            if (bufferPolicy.shouldCatchUpToLiveEdge() && !isPlayingTimeShiftBuffer()) {
+                startLiveLatencyControl(bufferPolicy.getLiveEdgeLatencyMs());
+            }
+            return true;
+        }
+
+        @Override
+        public void onPrepareNextProgram(Program nextProgram) {
+            releaseNextPlayer();
+            if (nextProgram == null || nextProgram.getInternalProviderData() == null) {
+                return;
+            }
+            if (mTimeShiftBuffer != null && mTimeShiftUrl.toString().equals(
+                    nextProgram.getInternalProviderData().getVideoUrl())) {
+                // The next program is on the live stream which is already played.
+                return;
+            }
+            if (canKeepPlayer(nextProgram.getInternalProviderData().getVideoType(),
+                    Uri.parse(nextProgram.getInternalProviderData().getVideoUrl()))) {
+                // The next program carries on the video which is already played, so the current
+                // player is kept for it.
+                return;
+            }
+            if (DEBUG) {
+                Log.d(TAG, "Prepare next program " + nextProgram.getTitle());
+            }
+            // Buffer the next program while paused, without a surface, so it is ready to be
+            // shown as soon as the current program ends.
+            mNextProgram = nextProgram;
+            mNextPlayer = mPlayerPool.createPlayer(
+                    nextProgram.getInternalProviderData().getVideoType(),
+                    Uri.parse(nextProgram.getInternalProviderData().getVideoUrl()),
+                    nextProgram.getInternalProviderData().isRepeatable(),
+                    getBufferPolicy(nextProgram));
+            mNextPlayer.setPlayWhenReady(false);
+            mNextPlayer.prepare();
+        }
+
+        /**
+         * Switches to the player prepared by {@link #onPrepareNextProgram(Program)}, if it was
+         * prepared for the given program.
+         *
+         * @return Whether the prepared player is now the current player.
+         */
+        private boolean useNextPlayer(Program program) {
+            if (mNextPlayer == null || !program.equals(mNextProgram)) {
+                releaseNextPlayer();
+                return false;
+            }
+            releasePlayer();
+            mPlayer = mNextPlayer;
+            mPlayerVideoType = program.getInternalProviderData().getVideoType();
+            mPlayerVideoUrl = Uri.parse(program.getInternalProviderData().getVideoUrl());
+            mNextPlayer = null;
+            mNextProgram = null;
+            mPlayer.addListener(this);
+            mPlayer.setCaptionListener(this);
+            return true;
+        }
+
+        /**
+         * @return Whether the current player plays the given video, so that it can be kept for
+         *     the next program instead of preparing another player.
+         */
+        private boolean canKeepPlayer(int videoType, Uri videoUrl) {
+            return mPlayer != null && mPlayerVideoType == videoType
+                    && videoUrl.equals(mPlayerVideoUrl)
+                    && mPlayer.getPlaybackState() != ExoPlayer.STATE_IDLE;
+        }
+
+        /**
+         * Switches to a player from the pool of prepared players, if there is one for the given
+         * video.
+         *
+         * @return Whether the pooled player is now the current player.
+         */
+        private boolean usePooledPlayer(int videoType, Uri videoUrl) {
+            DemoPlayer player = mPlayerPool.acquire(videoType, videoUrl);
+            if (player == null) {
+                return false;
+            }
+            releasePlayer();
+            mPlayer = player;
+            mPlayerVideoType = videoType;
+            mPlayerVideoUrl = videoUrl;
+            mPlayer.addListener(this);
+            mPlayer.setCaptionListener(this);
             return true;
         }
 
         @RequiresApi(api = Build.VERSION_CODES.N)
         public boolean onPlayRecordedProgram(RecordedProgram recordedProgram) {
-            createPlayer(recordedProgram.getInternalProviderData().getVideoType(),
-                    Uri.parse(recordedProgram.getInternalProviderData().getVideoUrl()));
+            releaseTimeShiftBuffer();
+            Uri dataUri = recordedProgram.getRecordingDataUri() == null ? null
+                    : Uri.parse(recordedProgram.getRecordingDataUri());
+            if (RecordingIndex.isIndexUri(dataUri)) {
+                // The stream was captured from the start of the recording, so it starts at 0.
+                createRecordingPlayer(dataUri);
+            } else {
+                // Recordings are likely to be watched more than once, so their media is cached.
+                createPlayer(recordedProgram.getInternalProviderData().getVideoType(),
+                        Uri.parse(recordedProgram.getInternalProviderData().getVideoUrl()), true,
+                        BufferPolicy.getDefault(mContext));
 
-            long recordingStartTime = recordedProgram.getInternalProviderData()
-                    .getRecordedProgramStartTime();
-            mPlayer.seekTo(recordingStartTime - recordedProgram.getStartTimeUtcMillis());
+                long recordingStartTime = recordedProgram.getInternalProviderData()
+                        .getRecordedProgramStartTime();
+                mPlayer.seekTo(recordingStartTime - recordedProgram.getStartTimeUtcMillis());
+            }
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
                 notifyTimeShiftStatusChanged(TvInputManager.TIME_SHIFT_STATUS_AVAILABLE);
             }
             mPlayer.setPlayWhenReady(true);
+            trackQoe(recordedProgram.getChannelId(), "recording/" + recordedProgram.getId());
+            // Watched recordings are the first to go when storage runs short, but not while they
+            // are played.
+            RecordingStorageManager storageManager = RecordingStorageManager.getInstance(mContext);
+            storageManager.markWatched(recordedProgram.getId());
+            storageManager.onPlaybackStarted(recordedProgram.getId());
+            mPlayingRecordingId = recordedProgram.getId();
             return true;
         }
 
+        /**
+         * Starts collecting the quality of experience metrics of mPlayer, for the given channel
+         * and program.
+         */
+        private void trackQoe(long channelId, String programKey) {
+            stopQoeTracking();
+            mQoeTracker = QoeCollector.getInstance().track(mPlayer, "channel/" + channelId,
+                    programKey);
+        }
+
+        /**
+         * @return The buffer policy a program of the current channel asks for in its provider
+         *     data, or else the one of the channel.
+         */
+        private BufferPolicy getBufferPolicy(Program program) {
+            Channel channel = getCurrentChannel();
+            return BufferPolicy.fromInternalProviderData(mContext,
+                    channel == null ? null : channel.getInternalProviderData(),
+                    program.getInternalProviderData());
+        }
+
+        /**
+         * @return How much of the live stream of a program of the current channel to buffer for
+         *     time-shifting, or 0 if it should not be buffered.
+         */
+        private long getTimeShiftBufferMs(Program program) {
+            Channel channel = getCurrentChannel();
+            return TimeShiftBuffer.getDurationMs(
+                    channel == null ? null : channel.getInternalProviderData(),
+                    program.getInternalProviderData());
+        }
+
+        /**
+         * Starts capturing a live stream into mTimeShiftBuffer, unless it is captured already.
+         *
+         * @param durationMs How much of the stream to keep, or 0 to not capture it.
+         * @return Whether the stream is captured.
+         */
+        private boolean startTimeShiftBuffer(Uri videoUrl, long durationMs) {
+            if (durationMs <= 0) {
+                return false;
+            }
+            if (mTimeShiftBuffer != null && videoUrl.equals(mTimeShiftUrl)) {
+                return true;
+            }
+            releaseTimeShiftBuffer();
+            File directory = new File(new File(getCacheDir(), TIME_SHIFT_DIRECTORY),
+                    String.valueOf(System.identityHashCode(this)));
+            try {
+                mTimeShiftBuffer = new TimeShiftBuffer(directory, durationMs);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to create the time shift buffer, play the stream directly", e);
+                return false;
+            }
+            if (DEBUG) {
+                Log.d(TAG, "Buffer " + durationMs + " ms of " + videoUrl);
+            }
+            mTimeShiftUrl = videoUrl;
+            mTimeShiftRecorder = new TimeShiftRecorder(mContext, videoUrl, mTimeShiftBuffer);
+            mTimeShiftRecorder.start();
+            return true;
+        }
+
+        private void releaseTimeShiftBuffer() {
+            if (mTimeShiftRecorder != null) {
+                mTimeShiftRecorder.cancel();
+                mTimeShiftRecorder = null;
+            }
+            if (mTimeShiftBuffer != null) {
+                if (isPlayingTimeShiftBuffer()) {
+                    releasePlayer();
+                }
+                mTimeShiftBuffer.release();
+                mTimeShiftBuffer = null;
+            }
+            mTimeShiftUrl = null;
+        }
+
+        /**
+         * Creates a player of a program which plays mTimeShiftBuffer from the start of the given
+         * segment.
+         */
+        private void createTimeShiftPlayer(Program program, long sequence) {
+            releasePlayer();
+            mPlayer = new DemoPlayer(new ExtractorRendererBuilder(mContext, mTimeShiftUrl,
+                    new TimeShiftDataSource(mTimeShiftBuffer, sequence),
+                    getBufferPolicy(program)));
+            mPlayerVideoType = TvContractUtils.SOURCE_TYPE_HTTP_PROGRESSIVE;
+            // The buffer is released with the session, so its players are not pooled.
+            mPlayerVideoUrl = null;
+            mTimeShiftProgram = program;
+            mTimeShiftSequence = sequence;
+            mTimeShiftSegmentStartMs = TimeShiftBuffer.TIME_UNSET;
+            mPlayer.addListener(this);
+            mPlayer.setCaptionListener(this);
+            mPlayer.prepare();
+            markPlayerPrepared();
+        }
+
+        /** Creates a player of a recording captured by the {@link RecordingEngine}. */
+        private void createRecordingPlayer(Uri indexUri) {
+            releasePlayer();
+            mPlayer = new DemoPlayer(new ExtractorRendererBuilder(mContext, indexUri,
+                    new RecordingDataSource(), BufferPolicy.getDefault(mContext)));
+            mPlayerVideoType = TvContractUtils.SOURCE_TYPE_HTTP_PROGRESSIVE;
+            mPlayerVideoUrl = indexUri;
+            mPlayer.addListener(this);
+            mPlayer.setCaptionListener(this);
+            mPlayer.prepare();
+            markPlayerPrepared();
+        }
+
+        private boolean isPlayingTimeShiftBuffer() {
+            return mPlayer != null && mTimeShiftProgram != null;
+        }
+
+        /** Plays mTimeShiftBuffer from the segment holding the given time. */
+        private void seekTimeShiftBuffer(long timeMs) {
+            Program program = mTimeShiftProgram;
+            createTimeShiftPlayer(program, mTimeShiftBuffer.getSequenceForTime(timeMs));
+            mPlayer.setSurface(mSurface);
+            mPlayer.setVolume(mVolume);
+            mPlayer.setPlayWhenReady(!mTimeShiftPaused);
+            trackQoe(program.getChannelId(), "program/" + program.getId());
+        }
+
+        private void stopQoeTracking() {
+            if (mQoeTracker != null) {
+                mQoeTracker.stop();
+                mQoeTracker = null;
+            }
+        }
+
+        /** Lets the recording mPlayer played be evicted again. */
+        private void stopPlayingRecording() {
+            if (mPlayingRecordingId != -1 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                RecordingStorageManager.getInstance(mContext)
+                        .onPlaybackStopped(mPlayingRecordingId);
+            }
+            mPlayingRecordingId = -1;
+        }
+
+        /**
+         * Keeps mPlayer close to the given latency behind the live edge, and reports the latency
+         * it achieves with the other quality of experience metrics.
+         */
+        private void startLiveLatencyControl(long targetLatencyMs) {
+            stopLiveLatencyControl();
+            mLiveLatencyController = new LiveLatencyController(mPlayer, targetLatencyMs,
+                    new LiveLatencyController.Listener() {
+                        @Override
+                        public void onLiveLatencyMeasured(long latencyMs) {
+                            if (mQoeTracker != null) {
+                                mQoeTracker.addLiveLatencySample(latencyMs);
+                            }
+                        }
+                    });
+            mLiveLatencyController.start();
+        }
+
+        private void stopLiveLatencyControl() {
+            if (mLiveLatencyController != null) {
+                mLiveLatencyController.stop();
+                mLiveLatencyController = null;
+            }
+        }
+
         public TvPlayer getTvPlayer() {
             return mPlayer;
         }
@@ -238,23 +662,43 @@ public class RichTvInputService extends BaseTvInputService {
                 Log.d(TAG, "Tune to " + channelUri.toString());
             }
             notifyVideoUnavailable(TvInputManager.VIDEO_UNAVAILABLE_REASON_TUNING);
-            releasePlayer();
-            return super.onTune(channelUri);
+            // Keep the player of the previous channel, in case the user zaps back to it.
+            recyclePlayer();
+            releaseTimeShiftBuffer();
+            releaseNextPlayer();
+            cancelPrepareAdjacentChannels();
+            boolean tuned = super.onTune(channelUri);
+            if (tuned) {
+                // Prepared once the channel shows its first frame.
+                mAdjacentChannelsUri = channelUri;
+            }
+            return tuned;
         }
 
         @Override
         public void onPlayAdvertisement(Advertisement advertisement) {
             createPlayer(TvContractUtils.SOURCE_TYPE_HTTP_PROGRESSIVE,
-                    Uri.parse(advertisement.getRequestUrl()));
+                    Uri.parse(advertisement.getRequestUrl()), false,
+                    BufferPolicy.getDefault(mContext));
+            // Ads are not worth keeping once they have been shown.
+            mPlayerVideoUrl = null;
         }
 
-        private void createPlayer(int videoType, Uri videoUrl) {
+        /**
+         * @param cacheSegments Whether to keep the media in the disk cache, for content which is
+         *     played repeatedly, such as the looped videos of repeatable channels.
+         * @param bufferPolicy How much media to buffer, and how far behind the live edge to play.
+         */
+        private void createPlayer(int videoType, Uri videoUrl, boolean cacheSegments,
+                BufferPolicy bufferPolicy) {
             releasePlayer();
-            mPlayer = new DemoPlayer(RendererBuilderFactory.createRendererBuilder(
-                    mContext, videoType, videoUrl));
+            mPlayer = mPlayerPool.createPlayer(videoType, videoUrl, cacheSegments, bufferPolicy);
+            mPlayerVideoType = videoType;
+            mPlayerVideoUrl = videoUrl;
             mPlayer.addListener(this);
             mPlayer.setCaptionListener(this);
             mPlayer.prepare();
+            markPlayerPrepared();
         }
 
         @Override
@@ -293,6 +737,10 @@ public class RichTvInputService extends BaseTvInputService {
         }
 
         private void releasePlayer() {
+            stopQoeTracking();
+            stopPlayingRecording();
+            stopLiveLatencyControl();
+            mTimeShiftProgram = null;
             if (mPlayer != null) {
                 mPlayer.removeListener(this);
                 mPlayer.setSurface(null);
@@ -302,16 +750,132 @@ public class RichTvInputService extends BaseTvInputService {
             }
         }
 
+        /** Hands the current player over to the player pool instead of releasing it. */
+        private void recyclePlayer() {
+            stopQoeTracking();
+            stopPlayingRecording();
+            stopLiveLatencyControl();
+            mTimeShiftProgram = null;
+            if (mPlayer == null || mPlayerVideoUrl == null
+                    || mPlayer.getPlaybackState() == ExoPlayer.STATE_IDLE) {
+                releasePlayer();
+                return;
+            }
+            mPlayer.removeListener(this);
+            mPlayer.setCaptionListener(null);
+            mPlayer.setSurface(null);
+            mPlayerPool.recycle(mPlayerVideoType, mPlayerVideoUrl, mPlayer);
+            mPlayer = null;
+        }
+
+        private void cancelPrepareAdjacentChannels() {
+            mHandler.removeCallbacks(mPrepareAdjacentChannelsRunnable);
+            mAdjacentChannelsUri = null;
+            if (mPrepareAdjacentChannelsTask != null) {
+                mPrepareAdjacentChannelsTask.cancel(true);
+                mPrepareAdjacentChannelsTask = null;
+            }
+        }
+
+        private void releaseNextPlayer() {
+            if (mNextPlayer != null) {
+                mNextPlayer.release();
+                mNextPlayer = null;
+            }
+            mNextProgram = null;
+        }
+
         @Override
         public void onRelease() {
             super.onRelease();
+            cancelPrepareAdjacentChannels();
             releasePlayer();
+            releaseNextPlayer();
+            releaseTimeShiftBuffer();
         }
 
         @Override
         public void onBlockContent(TvContentRating rating) {
             super.onBlockContent(rating);
             releasePlayer();
+            releaseNextPlayer();
+            releaseTimeShiftBuffer();
+        }
+
+        @Override
+        public boolean onSetSurface(Surface surface) {
+            mSurface = surface;
+            return super.onSetSurface(surface);
+        }
+
+        @Override
+        public void onSetStreamVolume(float volume) {
+            mVolume = volume;
+            super.onSetStreamVolume(volume);
+        }
+
+        @Override
+        public void onTimeShiftPause() {
+            mTimeShiftPaused = true;
+            super.onTimeShiftPause();
+        }
+
+        @Override
+        public void onTimeShiftResume() {
+            mTimeShiftPaused = false;
+            if (!isPlayingTimeShiftBuffer()) {
+                super.onTimeShiftResume();
+                return;
+            }
+            // Positions in the buffer are not relative to the program, so the program and ad
+            // schedule of the base class does not apply to them.
+            mPlayer.play();
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                onTimeShiftSetPlaybackParams(new PlaybackParams().setSpeed(1));
+            }
+        }
+
+        @Override
+        public void onTimeShiftSeekTo(long timeMs) {
+            if (!isPlayingTimeShiftBuffer()) {
+                super.onTimeShiftSeekTo(timeMs);
+                return;
+            }
+            if (DEBUG) {
+                Log.d(TAG, "Seek the time shift buffer to " + timeMs);
+            }
+            seekTimeShiftBuffer(timeMs);
+        }
+
+        @RequiresApi(api = Build.VERSION_CODES.M)
+        @Override
+        public long onTimeShiftGetStartPosition() {
+            if (!isPlayingTimeShiftBuffer()) {
+                return super.onTimeShiftGetStartPosition();
+            }
+            long startTimeMs = mTimeShiftBuffer.getStartTimeMs();
+            return startTimeMs == TimeShiftBuffer.TIME_UNSET
+                    ? System.currentTimeMillis() : startTimeMs;
+        }
+
+        @RequiresApi(api = Build.VERSION_CODES.M)
+        @Override
+        public long onTimeShiftGetCurrentPosition() {
+            if (!isPlayingTimeShiftBuffer()) {
+                return super.onTimeShiftGetCurrentPosition();
+            }
+            long nowMs = System.currentTimeMillis();
+            if (mTimeShiftSegmentStartMs == TimeShiftBuffer.TIME_UNSET) {
+                mTimeShiftSegmentStartMs =
+                        mTimeShiftBuffer.getSegmentStartTimeMs(mTimeShiftSequence);
+                if (mTimeShiftSegmentStartMs == TimeShiftBuffer.TIME_UNSET) {
+                    // The player waits for the live stream.
+                    return nowMs;
+                }
+            }
+            // The stream is captured in real time, so playback positions map to wall-clock time.
+            long positionMs = mTimeShiftSegmentStartMs + mPlayer.getCurrentPosition();
+            return Math.max(onTimeShiftGetStartPosition(), Math.min(positionMs, nowMs));
         }
 
         private float getCaptionFontSize() {
@@ -342,6 +906,11 @@ public class RichTvInputService extends BaseTvInputService {
                 notifyTrackSelected(TvTrackInfo.TYPE_VIDEO, videoId);
                 notifyTrackSelected(TvTrackInfo.TYPE_SUBTITLE, textId);
                 notifyVideoAvailable();
+                if (mAdjacentChannelsUri != null) {
+                    mHandler.removeCallbacks(mPrepareAdjacentChannelsRunnable);
+                    mHandler.postDelayed(mPrepareAdjacentChannelsRunnable,
+                            PREPARE_ADJACENT_CHANNELS_DELAY_MS);
+                }
             } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M &&
                     Math.abs(mPlayer.getPlaybackSpeed() - 1) < 0.1 &&
                     playWhenReady && playbackState == ExoPlayer.STATE_BUFFERING) {
@@ -358,6 +927,17 @@ public class RichTvInputService extends BaseTvInputService {
         @Override
         public void onError(Exception e) {
             Log.e(TAG, e.getMessage());
+            if (isPlayingTimeShiftBuffer()) {
+                for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                    if (cause instanceof TimeShiftBuffer.SegmentEvictedException) {
+                        // Playback fell behind the buffer, such as after a long pause, so carry
+                        // on from the oldest content which is left, with a segment to spare.
+                        seekTimeShiftBuffer(mTimeShiftBuffer.getStartTimeMs()
+                                + TimeShiftBuffer.SEGMENT_DURATION_MS);
+                        return;
+                    }
+                }
+            }
         }
 
         @Override
@@ -377,6 +957,82 @@ public class RichTvInputService extends BaseTvInputService {
                 }
             }, EPG_SYNC_DELAYED_PERIOD_MS);
         }
+
+        /**
+         * Looks up the current programs of the channels next to a tuned channel by display
+         * number, and prepares players for them so that zapping to either one starts quickly.
+         */
+        private class PrepareAdjacentChannelsTask
+                extends AsyncTask<Void, Void, List<Pair<Program, BufferPolicy>>> {
+            private final Uri mChannelUri;
+
+            PrepareAdjacentChannelsTask(Uri channelUri) {
+                mChannelUri = channelUri;
+            }
+
+            @Override
+            protected List<Pair<Program, BufferPolicy>> doInBackground(Void... params) {
+                List<Pair<Program, BufferPolicy>> programs = new ArrayList<>();
+                ContentResolver resolver = mContext.getContentResolver();
+                LongSparseArray<Channel> channelMap =
+                        ModelUtils.buildChannelMap(resolver, mInputId);
+                if (channelMap == null || channelMap.size() < 2) {
+                    return programs;
+                }
+                List<Channel> channels = new ArrayList<>(channelMap.size());
+                for (int i = 0; i < channelMap.size(); i++) {
+                    channels.add(channelMap.valueAt(i));
+                }
+                Collections.sort(channels, DISPLAY_NUMBER_COMPARATOR);
+                long channelId = ContentUris.parseId(mChannelUri);
+                int index = -1;
+                for (int i = 0; i < channels.size(); i++) {
+                    if (channels.get(i).getId() == channelId) {
+                        index = i;
+                        break;
+                    }
+                }
+                if (index == -1) {
+                    return programs;
+                }
+                int count = channels.size();
+                List<Channel> adjacentChannels = new ArrayList<>();
+                adjacentChannels.add(channels.get((index + 1) % count));
+                if (count > 2) {
+                    adjacentChannels.add(channels.get((index + count - 1) % count));
+                }
+                for (Channel channel : adjacentChannels) {
+                    if (isCancelled()) {
+                        break;
+                    }
+                    Program program = ModelUtils.getCurrentProgram(resolver,
+                            TvContract.buildChannelUri(channel.getId()));
+                    if (program != null && program.getInternalProviderData() != null) {
+                        programs.add(Pair.create(program, BufferPolicy.fromInternalProviderData(
+                                mContext, channel.getInternalProviderData(),
+                                program.getInternalProviderData())));
+                    }
+                }
+                return programs;
+            }
+
+            @Override
+            protected void onPostExecute(List<Pair<Program, BufferPolicy>> programs) {
+                mPrepareAdjacentChannelsTask = null;
+                if (!mChannelUri.equals(getCurrentChannelUri())) {
+                    return;
+                }
+                for (Pair<Program, BufferPolicy> pair : programs) {
+                    Program program = pair.first;
+                    if (DEBUG) {
+                        Log.d(TAG, "Prepare adjacent program " + program.getTitle());
+                    }
+                    mPlayerPool.prepare(program.getInternalProviderData().getVideoType(),
+                            Uri.parse(program.getInternalProviderData().getVideoUrl()),
+                            program.getInternalProviderData().isRepeatable(), pair.second);
+                }
+            }
+        }
     }
 
     @RequiresApi(api = Build.VERSION_CODES.N)
@@ -384,6 +1040,9 @@ public class RichTvInputService extends BaseTvInputService {
         private static final String TAG = "RecordingSession";
         private String mInputId;
         private long mStartTimeMs;
+        // Captures the stream of the program to record, for live programs.
+        private volatile RecordingEngine.Recording mRecording;
+        private volatile Program mCapturedProgram;
 
         public RichRecordingSession(Context context, String inputId) {
             super(context, inputId);
@@ -414,17 +1073,42 @@ public class RichTvInputService extends BaseTvInputService {
             mStartTimeMs = System.currentTimeMillis();
         }
 
+        @Override
+        public void onStartRecording(Program programToRecord) {
+            if (programToRecord == null || !isLive(programToRecord)) {
+                return;
+            }
+            // Make room for the recording before it starts.
+            RecordingStorageManager.getInstance(RichTvInputService.this).enforce();
+            mCapturedProgram = programToRecord;
+            mRecording = RecordingEngine.getInstance(RichTvInputService.this).startRecording(
+                    mInputId, Uri.parse(programToRecord.getInternalProviderData().getVideoUrl()));
+            if (mRecording == null) {
+                notifyError(TvInputManager.RECORDING_ERROR_RESOURCE_BUSY);
+            }
+        }
+
+        /**
+         * @return Whether the program is a live stream, which must be captured to be recorded,
+         *     rather than a video on demand, which can be played again later.
+         */
+        private boolean isLive(Program program) {
+            InternalProviderData data = program.getInternalProviderData();
+            return data != null && !data.isRepeatable()
+                    && data.getVideoType() == TvContractUtils.SOURCE_TYPE_HTTP_PROGRESSIVE;
+        }
+
         @Override
         public void onStopRecording(Program programToRecord) {
             if (DEBUG) {
                 Log.d(TAG, "onStopRecording");
             }
-            // In this sample app, since all of the content is VOD, the video URL is stored.
-            // If the video was live, the start and stop times should be noted using
-            // RecordedProgram.Builder.setStartTimeUtcMillis and .setEndTimeUtcMillis.
-            // The recordingstart time will be saved in the InternalProviderData.
-            // Additionally, the stream should be recorded and saved as
-            // a new file.
+            if (mRecording != null) {
+                stopCapture(programToRecord);
+                return;
+            }
+            // Videos on demand are not captured, but their URL is stored, along with the
+            // recording start time in the InternalProviderData.
             long currentTime = System.currentTimeMillis();
             InternalProviderData internalProviderData = programToRecord.getInternalProviderData();
             internalProviderData.setRecordingStartTime(mStartTimeMs);
@@ -438,11 +1122,52 @@ public class RichTvInputService extends BaseTvInputService {
             notifyRecordingStopped(recordedProgram);
         }
 
+        /** Stops capturing the stream, and saves the captured stream as the recorded program. */
+        private void stopCapture(Program programToRecord) {
+            RecordingEngine.Recording recording = mRecording;
+            mRecording = null;
+            mCapturedProgram = null;
+            if (!recording.stop()) {
+                // The capture is still writing the files, so what it captured is incomplete.
+                Log.e(TAG, "The capture did not stop in time");
+                recording.discard();
+                notifyError(TvInputManager.RECORDING_ERROR_UNKNOWN);
+                return;
+            }
+            if (recording.getBytes() == 0) {
+                Log.e(TAG, "Nothing was captured", recording.getError());
+                recording.discard();
+                notifyError(TvInputManager.RECORDING_ERROR_UNKNOWN);
+                return;
+            }
+            // The captured stream starts at the start of the recording, rather than at the start
+            // of the program.
+            InternalProviderData internalProviderData = programToRecord.getInternalProviderData();
+            internalProviderData.setRecordingStartTime(recording.getStartTimeMs());
+            RecordedProgram recordedProgram = new RecordedProgram.Builder(programToRecord)
+                    .setInputId(mInputId)
+                    .setStartTimeUtcMillis(recording.getStartTimeMs())
+                    .setEndTimeUtcMillis(recording.getStopTimeMs())
+                    .setRecordingDataUri(recording.getDataUri().toString())
+                    .setRecordingDataBytes(recording.getBytes())
+                    .setRecordingDurationMillis(
+                            recording.getStopTimeMs() - recording.getStartTimeMs())
+                    .setInternalProviderData(internalProviderData)
+                    .build();
+            notifyRecordingStopped(recordedProgram);
+        }
+
         @Override
         public void onStopRecordingChannel(Channel channelToRecord) {
             if (DEBUG) {
                 Log.d(TAG, "onStopRecording");
             }
+            if (mRecording != null) {
+                // The stream of the channel was captured, so save it as the program which was
+                // on when the recording started.
+                stopCapture(mCapturedProgram);
+                return;
+            }
             // Program sources in this sample always include program info, so execution here
             // indicates an error.
             notifyError(TvInputManager.RECORDING_ERROR_UNKNOWN);
@@ -454,6 +1179,25 @@ public class RichTvInputService extends BaseTvInputService {
             if (DEBUG) {
                 Log.d(TAG, "onRelease");
             }
+            // Stopping the recording blocks, so it is discarded in the background.
+            super.onRelease();
+        }
+
+        @Override
+        public void onRecordingSaved(long recordedProgramId, RecordedProgram recordedProgram) {
+            RecordingStorageManager storageManager =
+                    RecordingStorageManager.getInstance(RichTvInputService.this);
+            storageManager.onRecordingSaved(recordedProgramId, recordedProgram);
+            storageManager.enforce();
+        }
+
+        @Override
+        public void onReleaseResources() {
+            if (mRecording != null) {
+                // The recording was not stopped, so it will not be saved.
+                mRecording.discard();
+                mRecording = null;
+            }
         }
     }
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sampletvinput.player;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.example.android.sampletvinput.BuildConfig;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/** Tests how samples of different sizes and ages are combined by {@link BandwidthEstimator}. */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23,
+    manifest = "src/main/AndroidManifest.xml")
+public class BandwidthEstimatorTest {
+    private static final long START_TIME_MS = TimeUnit.DAYS.toMillis(10000);
+    private static final long SEGMENT_BYTES = 1024 * 1024;
+    private static final long FAST_BITRATE = 10000000;
+    private static final long SLOW_BITRATE = 1000000;
+
+    private BandwidthEstimator mEstimator;
+
+    @Before
+    public void setUp() {
+        mEstimator = new BandwidthEstimator(RuntimeEnvironment.application);
+        // Enough segments for the estimate to reach its maximum weight.
+        for (int i = 0; i < 3; i++) {
+            mEstimator.addSample(FAST_BITRATE, SEGMENT_BYTES, START_TIME_MS);
+        }
+    }
+
+    @Test
+    public void testFirstSampleIsEstimate() {
+        BandwidthEstimator estimator = new BandwidthEstimator(RuntimeEnvironment.application);
+        assertEquals(BandwidthMeter.NO_ESTIMATE, estimator.getBitrateEstimate(START_TIME_MS));
+
+        estimator.addSample(SLOW_BITRATE, 1024, START_TIME_MS);
+        assertEquals(SLOW_BITRATE, estimator.getBitrateEstimate(START_TIME_MS));
+    }
+
+    @Test
+    public void testSegmentSampleWeight() {
+        mEstimator.addSample(SLOW_BITRATE, SEGMENT_BYTES, START_TIME_MS);
+
+        // A segment weighs 0.3 against a fresh estimate.
+        assertEquals(0.7 * FAST_BITRATE + 0.3 * SLOW_BITRATE,
+                mEstimator.getBitrateEstimate(START_TIME_MS), 1000);
+    }
+
+    @Test
+    public void testSmallSamplesBarelyMoveEstimate() {
+        // A 1 kB transfer weighs a thirty-second of a 1 MB segment.
+        mEstimator.addSample(SLOW_BITRATE, 1024, START_TIME_MS);
+
+        long bitrate = mEstimator.getBitrateEstimate(START_TIME_MS);
+        assertTrue(bitrate < FAST_BITRATE);
+        assertTrue(bitrate > 0.98 * FAST_BITRATE);
+    }
+
+    @Test
+    public void testEstimateDecays() {
+        // After an hour the estimate has half its weight, so a segment weighs more against it.
+        long nowMs = START_TIME_MS + TimeUnit.HOURS.toMillis(1);
+        mEstimator.addSample(SLOW_BITRATE, SEGMENT_BYTES, nowMs);
+
+        double previousWeight = 1024 * 0.7 / 0.3 / 2;
+        double expectedBitrate = (FAST_BITRATE * previousWeight + SLOW_BITRATE * 1024)
+                / (previousWeight + 1024);
+        assertEquals(expectedBitrate, mEstimator.getBitrateEstimate(nowMs), 1000);
+    }
+
+    @Test
+    public void testEstimateExpires() {
+        long maxAgeMs = TimeUnit.DAYS.toMillis(3);
+        assertEquals(FAST_BITRATE, mEstimator.getBitrateEstimate(START_TIME_MS + maxAgeMs));
+        assertEquals(BandwidthMeter.NO_ESTIMATE,
+                mEstimator.getBitrateEstimate(START_TIME_MS + maxAgeMs + 1));
+
+        // A sample after the estimate expired replaces it.
+        mEstimator.addSample(SLOW_BITRATE, SEGMENT_BYTES, START_TIME_MS + maxAgeMs + 1);
+        assertEquals(SLOW_BITRATE, mEstimator.getBitrateEstimate(START_TIME_MS + maxAgeMs + 1));
+    }
+}
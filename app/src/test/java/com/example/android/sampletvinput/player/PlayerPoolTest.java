@@ -0,0 +1,138 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sampletvinput.player;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.net.Uri;
+import com.example.android.sampletvinput.BuildConfig;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/** Tests which players a {@link PlayerPool} keeps, hands out and releases. */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23,
+    manifest = "src/main/AndroidManifest.xml")
+public class PlayerPoolTest {
+    private static final int VIDEO_TYPE = 1;
+    private static final int OTHER_VIDEO_TYPE = 2;
+    private static final Uri VIDEO_URL_1 = Uri.parse("http://example.com/1.m3u8");
+    private static final Uri VIDEO_URL_2 = Uri.parse("http://example.com/2.m3u8");
+    private static final Uri VIDEO_URL_3 = Uri.parse("http://example.com/3.m3u8");
+
+    private PlayerPool mPlayerPool;
+
+    @Before
+    public void setUp() {
+        mPlayerPool = new PlayerPool(RuntimeEnvironment.application, 2);
+    }
+
+    @Test
+    public void testRecycledPlayerReused() {
+        DemoPlayer player = createPlayer();
+        mPlayerPool.recycle(VIDEO_TYPE, VIDEO_URL_1, player);
+        verify(player).setPlayWhenReady(false);
+
+        assertSame(player, mPlayerPool.acquire(VIDEO_TYPE, VIDEO_URL_1));
+        // The player was taken out of the pool.
+        assertNull(mPlayerPool.acquire(VIDEO_TYPE, VIDEO_URL_1));
+        verify(player, never()).release();
+    }
+
+    @Test
+    public void testPlayerOnlyReusedForSameVideo() {
+        mPlayerPool.recycle(VIDEO_TYPE, VIDEO_URL_1, createPlayer());
+
+        assertNull(mPlayerPool.acquire(VIDEO_TYPE, VIDEO_URL_2));
+        assertNull(mPlayerPool.acquire(OTHER_VIDEO_TYPE, VIDEO_URL_1));
+    }
+
+    @Test
+    public void testFailedPlayerReleased() {
+        DemoPlayer player = createPlayer();
+        mPlayerPool.recycle(VIDEO_TYPE, VIDEO_URL_1, player);
+        // The player failed while it was in the pool.
+        when(player.getPlaybackState()).thenReturn(DemoPlayer.STATE_IDLE);
+
+        assertNull(mPlayerPool.acquire(VIDEO_TYPE, VIDEO_URL_1));
+        verify(player).release();
+    }
+
+    @Test
+    public void testOldestPlayerReleasedBeyondMaxSize() {
+        DemoPlayer player1 = createPlayer();
+        DemoPlayer player2 = createPlayer();
+        DemoPlayer player3 = createPlayer();
+        mPlayerPool.recycle(VIDEO_TYPE, VIDEO_URL_1, player1);
+        mPlayerPool.recycle(VIDEO_TYPE, VIDEO_URL_2, player2);
+        mPlayerPool.recycle(VIDEO_TYPE, VIDEO_URL_3, player3);
+
+        verify(player1).release();
+        assertNull(mPlayerPool.acquire(VIDEO_TYPE, VIDEO_URL_1));
+        assertSame(player2, mPlayerPool.acquire(VIDEO_TYPE, VIDEO_URL_2));
+        assertSame(player3, mPlayerPool.acquire(VIDEO_TYPE, VIDEO_URL_3));
+    }
+
+    @Test
+    public void testRecycledPlayerReplacesPlayerOfSameVideo() {
+        DemoPlayer oldPlayer = createPlayer();
+        DemoPlayer newPlayer = createPlayer();
+        mPlayerPool.recycle(VIDEO_TYPE, VIDEO_URL_1, oldPlayer);
+        mPlayerPool.recycle(VIDEO_TYPE, VIDEO_URL_1, newPlayer);
+
+        verify(oldPlayer).release();
+        assertSame(newPlayer, mPlayerPool.acquire(VIDEO_TYPE, VIDEO_URL_1));
+    }
+
+    @Test
+    public void testEmptyPoolReleasesRecycledPlayers() {
+        PlayerPool playerPool = new PlayerPool(RuntimeEnvironment.application, 0);
+        DemoPlayer player = createPlayer();
+        playerPool.recycle(VIDEO_TYPE, VIDEO_URL_1, player);
+
+        verify(player).release();
+        assertNull(playerPool.acquire(VIDEO_TYPE, VIDEO_URL_1));
+    }
+
+    @Test
+    public void testClearReleasesPlayers() {
+        DemoPlayer player1 = createPlayer();
+        DemoPlayer player2 = createPlayer();
+        mPlayerPool.recycle(VIDEO_TYPE, VIDEO_URL_1, player1);
+        mPlayerPool.recycle(VIDEO_TYPE, VIDEO_URL_2, player2);
+
+        mPlayerPool.clear();
+        verify(player1).release();
+        verify(player2).release();
+        assertNull(mPlayerPool.acquire(VIDEO_TYPE, VIDEO_URL_1));
+    }
+
+    private static DemoPlayer createPlayer() {
+        DemoPlayer player = mock(DemoPlayer.class);
+        when(player.getPlaybackState()).thenReturn(DemoPlayer.STATE_READY);
+        return player;
+    }
+}
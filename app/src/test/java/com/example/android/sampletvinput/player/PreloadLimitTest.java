@@ -0,0 +1,198 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sampletvinput.player;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.example.android.sampletvinput.BuildConfig;
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.LoadControl;
+import com.google.android.exoplayer.upstream.Allocator;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/** Tests that a {@link PreloadLimit} holds back the loads of paused players until it is lifted. */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23,
+    manifest = "src/main/AndroidManifest.xml")
+public class PreloadLimitTest {
+    private static final int READ_SIZE = 64 * 1024;
+    private static final long TIMEOUT_MS = 5000;
+
+    private PreloadLimit mPreloadLimit;
+    private DataSource mDataSource;
+    private final byte[] mBuffer = new byte[READ_SIZE];
+
+    @Before
+    public void setUp() {
+        mPreloadLimit = new PreloadLimit();
+        mDataSource = mPreloadLimit.wrap(new EndlessDataSource());
+    }
+
+    @Test
+    public void testReadsFreelyWithoutLimit() throws IOException {
+        readBytes(2 * PreloadLimit.PRELOAD_BYTES);
+    }
+
+    @Test
+    public void testLimitedReadBlocksUntilLifted() throws Exception {
+        mPreloadLimit.limit();
+        readBytes(PreloadLimit.PRELOAD_BYTES);
+
+        ReadThread thread = new ReadThread();
+        thread.start();
+        waitUntilBlocked(thread);
+        assertFalse(thread.mDone);
+
+        mPreloadLimit.lift();
+        thread.join(TIMEOUT_MS);
+        assertTrue(thread.mDone);
+        assertNull(thread.mError.get());
+    }
+
+    @Test
+    public void testLimitResetsBytesRead() throws IOException {
+        mPreloadLimit.limit();
+        readBytes(PreloadLimit.PRELOAD_BYTES / 2);
+        // The player was shown, then recycled into the pool again.
+        mPreloadLimit.lift();
+        mPreloadLimit.limit();
+
+        readBytes(PreloadLimit.PRELOAD_BYTES);
+    }
+
+    @Test
+    public void testInterruptedReadFails() throws Exception {
+        mPreloadLimit.limit();
+        readBytes(PreloadLimit.PRELOAD_BYTES);
+
+        ReadThread thread = new ReadThread();
+        thread.start();
+        waitUntilBlocked(thread);
+        // The player was released, which cancels its load.
+        thread.interrupt();
+        thread.join(TIMEOUT_MS);
+        assertFalse(thread.mDone);
+        assertTrue(thread.mError.get() instanceof InterruptedIOException);
+    }
+
+    @Test
+    public void testLoadControlStopsAheadWhileLimited() {
+        LoadControl loadControl = mPreloadLimit.wrap(new LoadingLoadControl());
+        Object loader = new Object();
+        long aheadUs = PreloadLimit.PRELOAD_DURATION_MS * 1000;
+
+        assertTrue(loadControl.update(loader, 0, aheadUs, false));
+        mPreloadLimit.limit();
+        assertTrue(loadControl.update(loader, 0, aheadUs - 1, false));
+        assertFalse(loadControl.update(loader, 0, aheadUs, false));
+        // A loader with nothing left to load is not held back.
+        assertTrue(loadControl.update(loader, 0, -1, false));
+
+        mPreloadLimit.lift();
+        assertTrue(loadControl.update(loader, 0, aheadUs, false));
+    }
+
+    private void readBytes(long bytes) throws IOException {
+        for (long bytesRead = 0; bytesRead < bytes; ) {
+            bytesRead += mDataSource.read(mBuffer, 0, READ_SIZE);
+        }
+    }
+
+    private static void waitUntilBlocked(Thread thread) throws InterruptedException {
+        long deadlineMs = System.currentTimeMillis() + TIMEOUT_MS;
+        while (thread.getState() != Thread.State.WAITING
+                && System.currentTimeMillis() < deadlineMs) {
+            Thread.sleep(10);
+        }
+        assertEquals(Thread.State.WAITING, thread.getState());
+    }
+
+    /** Makes a single read, as the loader thread of a player would. */
+    private class ReadThread extends Thread {
+        final AtomicReference<IOException> mError = new AtomicReference<>();
+        volatile boolean mDone;
+
+        @Override
+        public void run() {
+            try {
+                mDataSource.read(new byte[READ_SIZE], 0, READ_SIZE);
+                mDone = true;
+            } catch (IOException e) {
+                mError.set(e);
+            }
+        }
+    }
+
+    /** A source which always fills the read. */
+    private static class EndlessDataSource implements DataSource {
+        @Override
+        public long open(DataSpec dataSpec) {
+            return C.LENGTH_UNBOUNDED;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) {
+            return readLength;
+        }
+
+        @Override
+        public void close() {
+            // Do nothing.
+        }
+    }
+
+    /** A load control which always wants to load. */
+    private static class LoadingLoadControl implements LoadControl {
+        @Override
+        public void register(Object loader, int bufferSizeContribution) {
+            // Do nothing.
+        }
+
+        @Override
+        public void unregister(Object loader) {
+            // Do nothing.
+        }
+
+        @Override
+        public Allocator getAllocator() {
+            return null;
+        }
+
+        @Override
+        public void trimAllocator() {
+            // Do nothing.
+        }
+
+        @Override
+        public boolean update(Object loader, long playbackPositionUs, long nextLoadPositionUs,
+                boolean loading) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sampletvinput.player;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.example.android.sampletvinput.BuildConfig;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/** Tests the averages, ratios and per-minute rates of {@link QoeCollector} snapshots. */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23,
+    manifest = "src/main/AndroidManifest.xml")
+public class QoeCollectorTest {
+    private static final String KEY = "channel/1";
+    private static final long INTERVAL_MS = 5 * 60 * 1000;
+    private static final long MS_PER_MINUTE = 60 * 1000;
+    private static final float DELTA = 0.0001f;
+
+    @Test
+    public void testRebufferRatio() {
+        // 3 minutes played and 1 minute rebuffering.
+        QoeCollector.Snapshot snapshot =
+                createSnapshot(1, 3 * MS_PER_MINUTE, MS_PER_MINUTE, 0, 0, 0);
+        assertEquals(0.25f, snapshot.getRebufferRatio(), DELTA);
+    }
+
+    @Test
+    public void testPerMinuteRates() {
+        QoeCollector.Snapshot snapshot = createSnapshot(1, 4 * MS_PER_MINUTE, 0, 10, 0, 2);
+        assertEquals(2.5f, snapshot.getDroppedFramesPerMinute(), DELTA);
+        assertEquals(0.5f, snapshot.getInternalErrorsPerMinute(), DELTA);
+
+        // Half a minute played counts twice per minute.
+        snapshot = createSnapshot(1, MS_PER_MINUTE / 2, 0, 3, 0, 1);
+        assertEquals(6f, snapshot.getDroppedFramesPerMinute(), DELTA);
+        assertEquals(2f, snapshot.getInternalErrorsPerMinute(), DELTA);
+    }
+
+    @Test
+    public void testFatalErrorRate() {
+        QoeCollector.Snapshot snapshot = createSnapshot(4, MS_PER_MINUTE, 0, 0, 1, 0);
+        assertEquals(0.25f, snapshot.getFatalErrorRate(), DELTA);
+    }
+
+    @Test
+    public void testNoPlayTime() {
+        // A playback which failed before it played anything.
+        QoeCollector.Snapshot snapshot = createSnapshot(1, 0, 0, 5, 1, 3);
+        assertEquals(0f, snapshot.getRebufferRatio(), DELTA);
+        assertEquals(0f, snapshot.getDroppedFramesPerMinute(), DELTA);
+        assertEquals(0f, snapshot.getInternalErrorsPerMinute(), DELTA);
+        assertEquals(1f, snapshot.getFatalErrorRate(), DELTA);
+
+        snapshot = createSnapshot(0, 0, 0, 0, 0, 0);
+        assertEquals(0f, snapshot.getFatalErrorRate(), DELTA);
+    }
+
+    @Test
+    public void testCountersAveraged() {
+        QoeCollector.Counters counters = new QoeCollector.Counters();
+        counters.playbacks.set(2);
+        counters.startups.set(2);
+        counters.startupTimeMs.set(1000 + 3000);
+        counters.playTimeMs.set(2 * MS_PER_MINUTE);
+        // 1 minute at 1 Mbps and 1 minute at 3 Mbps.
+        counters.playedBitrateMs.set(1000000 * MS_PER_MINUTE + 3000000 * MS_PER_MINUTE);
+        counters.bitrateTimeMs.set(2 * MS_PER_MINUTE);
+        counters.liveLatencySamples.set(4);
+        counters.liveLatencyMs.set(4 * 20000 + 4);
+
+        QoeCollector.Snapshot snapshot = counters.takeSnapshot(KEY, INTERVAL_MS);
+        assertEquals(KEY, snapshot.getKey());
+        assertEquals(INTERVAL_MS, snapshot.getIntervalMs());
+        assertEquals(2000, snapshot.getAverageStartupTimeMs());
+        assertEquals(2000000, snapshot.getAverageBitrate());
+        assertEquals(20001, snapshot.getAverageLiveLatencyMs());
+    }
+
+    @Test
+    public void testCountersWithoutSamples() {
+        QoeCollector.Counters counters = new QoeCollector.Counters();
+        // A playback which has not started yet, of content which is not live.
+        counters.playbacks.set(1);
+
+        QoeCollector.Snapshot snapshot = counters.takeSnapshot(KEY, INTERVAL_MS);
+        assertEquals(0, snapshot.getAverageStartupTimeMs());
+        assertEquals(0, snapshot.getAverageBitrate());
+        assertEquals(-1, snapshot.getAverageLiveLatencyMs());
+    }
+
+    @Test
+    public void testCountersResetBySnapshot() {
+        QoeCollector.Counters counters = new QoeCollector.Counters();
+        counters.playbacks.set(1);
+        counters.playTimeMs.set(MS_PER_MINUTE);
+        counters.droppedFrames.set(5);
+        counters.takeSnapshot(KEY, INTERVAL_MS);
+
+        // Nothing was played during the next interval.
+        assertNull(counters.takeSnapshot(KEY, INTERVAL_MS));
+
+        counters.rebufferTimeMs.set(1000);
+        QoeCollector.Snapshot snapshot = counters.takeSnapshot(KEY, INTERVAL_MS);
+        assertEquals(0, snapshot.getPlaybacks());
+        assertEquals(0, snapshot.getPlayTimeMs());
+        assertEquals(0f, snapshot.getDroppedFramesPerMinute(), DELTA);
+        assertEquals(1f, snapshot.getRebufferRatio(), DELTA);
+    }
+
+    private static QoeCollector.Snapshot createSnapshot(long playbacks, long playTimeMs,
+            long rebufferTimeMs, long droppedFrames, long fatalErrors, long internalErrors) {
+        return new QoeCollector.Snapshot(KEY, INTERVAL_MS, playbacks, 0, 0, rebufferTimeMs,
+                playTimeMs, 0, 0, droppedFrames, fatalErrors, internalErrors, -1);
+    }
+}
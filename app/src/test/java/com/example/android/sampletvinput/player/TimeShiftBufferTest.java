@@ -0,0 +1,256 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sampletvinput.player;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.example.android.sampletvinput.BuildConfig;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/** Tests that MPEG-TS streams can be read back from any segment of a {@link TimeShiftBuffer}. */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23,
+    manifest = "src/main/AndroidManifest.xml")
+public class TimeShiftBufferTest {
+    private static final int PACKET_SIZE = 188;
+    // Packets are received every 10 ms, with a program association table every 50 packets.
+    private static final long PACKET_INTERVAL_MS = 10;
+    private static final int PAT_INTERVAL = 50;
+    // Not a multiple of the packet size, so that writes end partway through packets.
+    private static final int WRITE_SIZE = 1000;
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private TimeShiftBuffer mBuffer;
+
+    @Before
+    public void setUp() throws IOException {
+        mBuffer = new TimeShiftBuffer(mFolder.newFolder("buffer"), 60000);
+    }
+
+    @After
+    public void tearDown() {
+        mBuffer.release();
+    }
+
+    @Test
+    public void testSegmentsStartAtProgramAssociationTable() throws IOException {
+        writePackets(mBuffer, 0, 2000);
+        mBuffer.finish();
+
+        long lastSequence = mBuffer.getSequenceForTime(Long.MAX_VALUE);
+        assertTrue(lastSequence > 1);
+        for (long sequence = 0; sequence <= lastSequence; sequence++) {
+            int firstPacket = readPacketIndex(mBuffer, sequence, 0);
+            assertEquals(0, firstPacket % PAT_INTERVAL);
+        }
+    }
+
+    @Test
+    public void testDropsPartialPacketAtEnd() throws IOException {
+        byte[] stream = createStream(0, 10);
+        mBuffer.write(stream, 0, stream.length - 100, 0);
+        mBuffer.finish();
+
+        assertEquals(9 * PACKET_SIZE, readToEnd(mBuffer, 0).length);
+    }
+
+    @Test
+    public void testRereadsFromSegment() throws IOException {
+        writePackets(mBuffer, 0, 2000);
+        mBuffer.finish();
+        long sequence = mBuffer.getSequenceForTime(5000);
+
+        byte[] first = readToEnd(mBuffer, sequence);
+        byte[] second = readToEnd(mBuffer, sequence);
+
+        assertEquals(ByteBuffer.wrap(first), ByteBuffer.wrap(second));
+        // The segment holds the rest of the stream from its first packet, with nothing missing.
+        int firstPacket = getPacketIndex(first, 0);
+        assertEquals((2000 - firstPacket) * PACKET_SIZE, first.length);
+        for (int i = 0; i < first.length / PACKET_SIZE; i++) {
+            assertEquals(firstPacket + i, getPacketIndex(first, i * PACKET_SIZE));
+        }
+    }
+
+    @Test
+    public void testConcurrentWriteAndRead() throws Exception {
+        final int packetCount = 3000;
+        final AtomicReference<byte[]> result = new AtomicReference<>();
+        final AtomicReference<Exception> error = new AtomicReference<>();
+        Thread reader =
+                new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            // Waits for the writer, which has not started yet.
+                            result.set(readToEnd(mBuffer, 0));
+                        } catch (IOException e) {
+                            error.set(e);
+                        }
+                    }
+                };
+        reader.start();
+        writePackets(mBuffer, 0, packetCount);
+        mBuffer.finish();
+        reader.join(10000);
+
+        if (error.get() != null) {
+            throw error.get();
+        }
+        assertEquals(
+                ByteBuffer.wrap(createStream(0, packetCount)), ByteBuffer.wrap(result.get()));
+    }
+
+    @Test
+    public void testEvictsOldestSegments() throws IOException {
+        TimeShiftBuffer buffer = new TimeShiftBuffer(mFolder.newFolder("small"), 4000);
+        try {
+            writePackets(buffer, 0, 2000);
+            buffer.finish();
+
+            try {
+                buffer.read(0, new byte[PACKET_SIZE], 0, PACKET_SIZE);
+                fail("Read evicted segment");
+            } catch (TimeShiftBuffer.SegmentEvictedException e) {
+                // Expected.
+            }
+            assertTrue(buffer.getStartTimeMs() > 4000);
+            // The oldest segment which is left can still be read.
+            long firstSequence = buffer.getSequenceForTime(0);
+            assertEquals(0, readPacketIndex(buffer, firstSequence, 0) % PAT_INTERVAL);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    @Test
+    public void testReadsPastBufferDuration() throws IOException {
+        final int packetCount = 2000;
+        final int batchPackets = 100;
+        TimeShiftBuffer buffer = new TimeShiftBuffer(mFolder.newFolder("live"), 4000);
+        try {
+            // A live viewer reads each batch as it is written, long after the segment it started
+            // at was evicted.
+            ByteBuffer result = ByteBuffer.allocate(packetCount * PACKET_SIZE);
+            writePackets(buffer, 0, batchPackets);
+            long streamPosition = buffer.getStreamOffset(0);
+            for (int packet = batchPackets; packet <= packetCount; packet += batchPackets) {
+                while (result.position() < packet * PACKET_SIZE) {
+                    int bytesRead = buffer.read(streamPosition, result.array(),
+                            result.position(), packet * PACKET_SIZE - result.position());
+                    assertTrue(bytesRead != TimeShiftBuffer.END_OF_STREAM);
+                    result.position(result.position() + bytesRead);
+                    streamPosition += bytesRead;
+                }
+                if (packet < packetCount) {
+                    writePackets(buffer, packet, batchPackets);
+                }
+            }
+            buffer.finish();
+
+            assertTrue(buffer.getStartTimeMs() > 4000);
+            assertEquals(TimeShiftBuffer.END_OF_STREAM,
+                    buffer.read(streamPosition, new byte[PACKET_SIZE], 0, PACKET_SIZE));
+            assertEquals(
+                    ByteBuffer.wrap(createStream(0, packetCount)), ByteBuffer.wrap(result.array()));
+        } finally {
+            buffer.release();
+        }
+    }
+
+    /** Writes packets in chunks which end partway through packets, as a network source would. */
+    private static void writePackets(TimeShiftBuffer buffer, int firstPacket, int packetCount)
+            throws IOException {
+        byte[] stream = createStream(firstPacket, packetCount);
+        for (int offset = 0; offset < stream.length; offset += WRITE_SIZE) {
+            int length = Math.min(WRITE_SIZE, stream.length - offset);
+            // The time at which the last packet of the chunk was received.
+            long nowMs = (firstPacket + (offset + length - 1) / PACKET_SIZE) * PACKET_INTERVAL_MS;
+            buffer.write(stream, offset, length, nowMs);
+        }
+    }
+
+    /**
+     * Creates MPEG-TS packets which carry their index in their payload, with a program
+     * association table on PID 0 every {@link #PAT_INTERVAL} packets.
+     */
+    private static byte[] createStream(int firstPacket, int packetCount) {
+        ByteBuffer stream = ByteBuffer.allocate(packetCount * PACKET_SIZE);
+        for (int index = firstPacket; index < firstPacket + packetCount; index++) {
+            boolean pat = index % PAT_INTERVAL == 0;
+            stream.put((byte) 0x47);
+            // Payload unit start and PID 0 for program association tables, or else PID 0x100.
+            stream.put((byte) (pat ? 0x40 : 0x01));
+            stream.put((byte) 0x00);
+            stream.put((byte) (0x10 | (index & 0x0F)));
+            stream.putInt(index);
+            stream.position(stream.position() + PACKET_SIZE - 8);
+        }
+        return stream.array();
+    }
+
+    private static int getPacketIndex(byte[] data, int offset) {
+        assertEquals(0x47, data[offset] & 0xFF);
+        return ByteBuffer.wrap(data, offset + 4, 4).getInt();
+    }
+
+    private static int readPacketIndex(TimeShiftBuffer buffer, long sequence, long position)
+            throws IOException {
+        long streamPosition = buffer.getStreamOffset(sequence) + position;
+        byte[] packet = new byte[PACKET_SIZE];
+        int offset = 0;
+        while (offset < PACKET_SIZE) {
+            int bytesRead =
+                    buffer.read(streamPosition + offset, packet, offset, PACKET_SIZE - offset);
+            assertTrue(bytesRead != TimeShiftBuffer.END_OF_STREAM);
+            offset += bytesRead;
+        }
+        return getPacketIndex(packet, 0);
+    }
+
+    private static byte[] readToEnd(TimeShiftBuffer buffer, long sequence) throws IOException {
+        ByteBuffer result = ByteBuffer.allocate(4 * 1024 * 1024);
+        byte[] chunk = new byte[4096];
+        long position = buffer.getStreamOffset(sequence);
+        while (true) {
+            int bytesRead = buffer.read(position, chunk, 0, chunk.length);
+            if (bytesRead == TimeShiftBuffer.END_OF_STREAM) {
+                break;
+            }
+            result.put(chunk, 0, bytesRead);
+            position += bytesRead;
+        }
+        byte[] data = new byte[result.position()];
+        System.arraycopy(result.array(), 0, data, 0, data.length);
+        return data;
+    }
+}
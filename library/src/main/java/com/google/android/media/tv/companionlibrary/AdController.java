@@ -17,11 +17,14 @@
 package com.google.android.media.tv.companionlibrary;
 
 import android.content.Context;
+import android.os.Handler;
 import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
 import android.util.Log;
 import android.view.ViewGroup;
 import android.widget.FrameLayout;
 import com.google.ads.interactivemedia.v3.api.AdDisplayContainer;
+import com.google.ads.interactivemedia.v3.api.AdError;
 import com.google.ads.interactivemedia.v3.api.AdErrorEvent;
 import com.google.ads.interactivemedia.v3.api.AdEvent;
 import com.google.ads.interactivemedia.v3.api.AdsLoader;
@@ -31,7 +34,9 @@ import com.google.ads.interactivemedia.v3.api.AdsRequest;
 import com.google.ads.interactivemedia.v3.api.ImaSdkFactory;
 import com.google.ads.interactivemedia.v3.api.player.VideoAdPlayer;
 import com.google.ads.interactivemedia.v3.api.player.VideoProgressUpdate;
+import com.google.android.media.tv.companionlibrary.ads.VastResponseCache;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -94,9 +99,56 @@ public class AdController
     // Callback used to define behavior of the ad.
     private AdControllerCallback mAdControllerCallback;
 
+    // Whether the ads should start playing as soon as they are loaded. This is false while ads
+    // are prefetched ahead of their break, until startAds() is called.
+    private boolean mStartRequested;
+
+    // Whether the ads have been loaded and are waiting for startAds() to be called.
+    private boolean mAdsLoaded;
+
+    // Whether an error occurred while prefetching, to be reported when the ads are started.
+    private boolean mPendingError;
+
+    // The ad tag of the current ads request, under which the ad decision is cached.
+    private String mAdRequestUrl;
+
+    // The ad player of the current ad break, when its ads are requested through IMA.
+    private VideoAdPlayerImpl mVideoAdPlayer;
+
+    // The ad player of the current ad break, when its ads are played from a cached ad decision.
+    private CachedAdsPlayer mCachedAdsPlayer;
+
+    private final Handler mHandler = new Handler();
+
+    // Loads the ads of a cached ad decision once requestAds() or prefetchAds() has returned, as
+    // it would for ads requested through IMA.
+    private final Runnable mLoadCachedAdsRunnable =
+            new Runnable() {
+                @Override
+                public void run() {
+                    if (mCachedAdsPlayer == null) {
+                        // The ad server returned no ads for this ad tag.
+                        notifyAdError();
+                    } else if (mStartRequested) {
+                        mCachedAdsPlayer.play();
+                    } else {
+                        mAdsLoaded = true;
+                    }
+                }
+            };
+
+    // Identifies the current ads request, so that events of a request made before this controller
+    // was reset are ignored.
+    private Object mRequestContext;
+
     public AdController(Context context) {
+        this(context, ImaSdkFactory.getInstance());
+    }
+
+    @VisibleForTesting
+    AdController(Context context, ImaSdkFactory sdkFactory) {
         // Create an AdsLoader.
-        mSdkFactory = ImaSdkFactory.getInstance();
+        mSdkFactory = sdkFactory;
         mAdsLoader = mSdkFactory.createAdsLoader(context);
         mAdsLoader.addAdErrorListener(this);
         mAdsLoader.addAdsLoadedListener(this);
@@ -111,43 +163,155 @@ public class AdController
      */
     public void requestAds(
             @NonNull String adRequestUrl, @NonNull AdControllerCallback adControllerCallback) {
+        mStartRequested = true;
+        sendAdsRequest(adRequestUrl, adControllerCallback);
+    }
+
+    /**
+     * Requests video ads from the given VAST ad tag without playing them. The ad decision is made
+     * and the ads are loaded in the background, and playback starts once {@link #startAds()} is
+     * called. Errors are not reported to the callback until then.
+     *
+     * @param adRequestUrl URL of the ad's VAST XML.
+     */
+    public void prefetchAds(
+            @NonNull String adRequestUrl, @NonNull AdControllerCallback adControllerCallback) {
+        mStartRequested = false;
+        sendAdsRequest(adRequestUrl, adControllerCallback);
+    }
+
+    /**
+     * Starts playing ads previously requested by {@link #prefetchAds(String,
+     * AdControllerCallback)}. If they are still loading, they will be played as soon as they are
+     * loaded.
+     */
+    public void startAds() {
+        mStartRequested = true;
+        if (mPendingError) {
+            mPendingError = false;
+            mAdControllerCallback.onAdError();
+        } else if (mAdsLoaded) {
+            mAdsLoaded = false;
+            if (mCachedAdsPlayer != null) {
+                mCachedAdsPlayer.play();
+            } else {
+                mAdsManager.start();
+            }
+        }
+    }
+
+    private void sendAdsRequest(String adRequestUrl, AdControllerCallback adControllerCallback) {
         mAdControllerCallback = adControllerCallback;
+        mAdRequestUrl = adRequestUrl;
+        mAdsLoaded = false;
+        mPendingError = false;
+
+        // Reuse the ad decision of a previous break with the same ad tag if it has not expired,
+        // rather than asking the ad server again.
+        VastResponseCache.Entry cachedDecision = VastResponseCache.getInstance().get(adRequestUrl);
+        if (cachedDecision != null) {
+            if (DEBUG) {
+                Log.d(TAG, "Using cached ad decision for " + adRequestUrl);
+            }
+            if (cachedDecision.hasAds()) {
+                mCachedAdsPlayer = new CachedAdsPlayer(cachedDecision.getMediaFileUrls());
+            }
+            mHandler.post(mLoadCachedAdsRunnable);
+            return;
+        }
 
+        mVideoAdPlayer = new VideoAdPlayerImpl();
         mAdDisplayContainer = mSdkFactory.createAdDisplayContainer();
-        mAdDisplayContainer.setPlayer(new VideoAdPlayerImpl());
+        mAdDisplayContainer.setPlayer(mVideoAdPlayer);
         mAdDisplayContainer.setAdContainer(mStubViewGroup);
 
-        // Create the ads request.
+        // Create the ads request. IMA expands the macros of the ad tag and follows its wrappers.
         AdsRequest request = mSdkFactory.createAdsRequest();
         request.setAdTagUrl(adRequestUrl);
         request.setAdDisplayContainer(mAdDisplayContainer);
+        mRequestContext = new Object();
+        request.setUserRequestContext(mRequestContext);
 
         // Request the ad. After the ad is loaded, onAdsManagerLoaded() will be called.
         mAdsLoader.requestAds(request);
     }
 
-    /** Releases related resources. */
+    /**
+     * Stops the current ad break, if any, so that this controller can be used to request ads
+     * again. The {@link AdsLoader} is kept, which saves creating a new one for every ad break.
+     */
+    public void reset() {
+        mHandler.removeCallbacks(mLoadCachedAdsRunnable);
+        destroyAdsManager();
+        if (mVideoAdPlayer != null) {
+            mVideoAdPlayer.release();
+            mVideoAdPlayer = null;
+        }
+        if (mCachedAdsPlayer != null) {
+            mCachedAdsPlayer.release();
+            mCachedAdsPlayer = null;
+        }
+        mAdDisplayContainer = null;
+        mAdControllerCallback = null;
+        mAdRequestUrl = null;
+        mRequestContext = null;
+        mStartRequested = false;
+        mAdsLoaded = false;
+        mPendingError = false;
+    }
+
+    /** Releases related resources. The controller cannot be used afterwards. */
     public void release() {
+        reset();
+        if (mAdsLoader != null) {
+            mAdsLoader.removeAdsLoadedListener(this);
+            mAdsLoader.removeAdErrorListener(this);
+        }
+    }
+
+    private void destroyAdsManager() {
         if (mAdsManager != null) {
             mAdsManager.destroy();
             mAdsManager = null;
         }
-        if (mAdsLoader != null) {
-            mAdsLoader.removeAdsLoadedListener(this);
-            mAdsLoader.removeAdErrorListener(this);
+    }
+
+    private void notifyAdError() {
+        if (mStartRequested) {
+            mAdControllerCallback.onAdError();
+        } else {
+            mPendingError = true;
         }
     }
 
+    private boolean isCurrentRequest(Object requestContext) {
+        // Events raised by an AdsManager may not carry the context of their request.
+        return mAdControllerCallback != null
+                && (requestContext == null || requestContext == mRequestContext);
+    }
+
     @Override
     public void onAdError(AdErrorEvent adErrorEvent) {
         Log.e(TAG, adErrorEvent.getError().getMessage());
-        mAdControllerCallback.onAdError();
-        release();
+        if (!isCurrentRequest(adErrorEvent.getUserRequestContext())) {
+            return;
+        }
+        if (adErrorEvent.getError().getErrorCode() == AdError.AdErrorCode.VAST_EMPTY_RESPONSE) {
+            // Later breaks with the same ad tag can skip asking the ad server for a while.
+            VastResponseCache.getInstance().put(mAdRequestUrl, Collections.<String>emptyList());
+        }
+        destroyAdsManager();
+        notifyAdError();
     }
 
     /** An event raised when ads are successfully loaded from the ad server via an AdsLoader. */
     @Override
     public void onAdsManagerLoaded(AdsManagerLoadedEvent adsManagerLoadedEvent) {
+        if (!isCurrentRequest(adsManagerLoadedEvent.getUserRequestContext())) {
+            // The request was made before this controller was reset.
+            adsManagerLoadedEvent.getAdsManager().destroy();
+            return;
+        }
         // Ads were successfully loaded, so get the AdsManager instance. AdsManager has
         // events for ad playback and errors.
         mAdsManager = adsManagerLoadedEvent.getAdsManager();
@@ -164,6 +328,10 @@ public class AdController
         if (DEBUG) {
             Log.d(TAG, "Event: " + adEvent.getType());
         }
+        if (mAdsManager == null || mAdControllerCallback == null) {
+            // The ad break has already been stopped.
+            return;
+        }
         // These are the suggested event types to handle. For full list of all ad event types,
         // see the documentation for AdEvent.AdEventType.
         switch (adEvent.getType()) {
@@ -171,26 +339,83 @@ public class AdController
                 // AdEventType.LOADED will be fired when ads are ready to be played.
                 // AdsManager.start() begins ad playback. This method is ignored for VMAP or ad
                 // rules playlists, as the SDK will automatically start executing the playlist.
-                mAdsManager.start();
+                if (mStartRequested) {
+                    mAdsManager.start();
+                } else {
+                    mAdsLoaded = true;
+                }
                 break;
             case COMPLETED:
                 // AdEventType.COMPLETED is fire when ad is completed, but before the fire of
                 // AdEventType.CONTENT_RESUME_REQUESTED.
+                destroyAdsManager();
+                if (!mVideoAdPlayer.mPlayedAdVideoUrls.isEmpty()) {
+                    VastResponseCache.getInstance()
+                            .put(mAdRequestUrl, mVideoAdPlayer.mPlayedAdVideoUrls);
+                }
                 mAdControllerCallback.onAdCompleted();
-                release();
                 break;
             default:
                 break;
         }
     }
 
+    /**
+     * Plays the media files of a cached ad decision one after the other, as IMA played them when
+     * the decision was made.
+     */
+    private class CachedAdsPlayer extends TvPlayer.Callback {
+        private final List<String> mAdVideoUrls;
+        private int mNextAdIndex;
+        private TvPlayer mTvPlayer;
+
+        CachedAdsPlayer(List<String> adVideoUrls) {
+            mAdVideoUrls = adVideoUrls;
+        }
+
+        /** Plays the next ad, or reports that the ad break completed if there is none left. */
+        void play() {
+            release();
+            if (mNextAdIndex == mAdVideoUrls.size()) {
+                mCachedAdsPlayer = null;
+                mAdControllerCallback.onAdCompleted();
+                return;
+            }
+            mTvPlayer = mAdControllerCallback.onAdReadyToPlay(mAdVideoUrls.get(mNextAdIndex++));
+            mTvPlayer.registerCallback(this);
+            mTvPlayer.play();
+        }
+
+        void release() {
+            if (mTvPlayer != null) {
+                mTvPlayer.unregisterCallback(this);
+                mTvPlayer = null;
+            }
+        }
+
+        @Override
+        public void onCompleted() {
+            play();
+        }
+
+        @Override
+        public void onError(Exception error) {
+            release();
+            mCachedAdsPlayer = null;
+            mAdControllerCallback.onAdError();
+        }
+    }
+
     private class VideoAdPlayerImpl extends TvPlayer.Callback implements VideoAdPlayer {
         String mAdVideoUrl;
         TvPlayer mTvPlayer;
         List<VideoAdPlayerCallback> mAdCallbacks;
+        // The media files IMA resolved for this ad break, to cache its ad decision.
+        List<String> mPlayedAdVideoUrls;
 
         VideoAdPlayerImpl() {
             mAdCallbacks = new ArrayList<>(1);
+            mPlayedAdVideoUrls = new ArrayList<>(1);
         }
 
         @Override
@@ -200,11 +425,20 @@ public class AdController
 
         @Override
         public void playAd() {
+            mPlayedAdVideoUrls.add(mAdVideoUrl);
             mTvPlayer = mAdControllerCallback.onAdReadyToPlay(mAdVideoUrl);
             mTvPlayer.registerCallback(this);
             mTvPlayer.play();
         }
 
+        void release() {
+            if (mTvPlayer != null) {
+                mTvPlayer.unregisterCallback(this);
+                mTvPlayer = null;
+            }
+            mAdCallbacks.clear();
+        }
+
         @Override
         public void stopAd() {
             // Do nothing.
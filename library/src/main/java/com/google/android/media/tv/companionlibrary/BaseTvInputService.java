@@ -36,12 +36,16 @@ import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Message;
+import android.support.annotation.Nullable;
 import android.support.annotation.RequiresApi;
+import android.support.annotation.VisibleForTesting;
 import android.util.Log;
 import android.util.LongSparseArray;
 import android.view.Surface;
+import com.google.android.media.tv.companionlibrary.ads.AdTimeline;
 import com.google.android.media.tv.companionlibrary.model.Advertisement;
 import com.google.android.media.tv.companionlibrary.model.Channel;
+import com.google.android.media.tv.companionlibrary.model.InternalProviderData;
 import com.google.android.media.tv.companionlibrary.model.ModelUtils;
 import com.google.android.media.tv.companionlibrary.model.Program;
 import com.google.android.media.tv.companionlibrary.model.RecordedProgram;
@@ -50,7 +54,6 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -72,6 +75,11 @@ public abstract class BaseTvInputService extends TvInputService {
 
     // For content ratings
     private static final List<Session> mSessions = new ArrayList<>();
+
+    // Ad controllers kept between ad breaks, so that a break does not have to create a new
+    // AdsLoader. Only accessed from the main thread.
+    private static final int MAX_POOLED_AD_CONTROLLERS = 2;
+    private static final List<AdController> mAdControllerPool = new ArrayList<>();
     private final BroadcastReceiver mParentalControlsBroadcastReceiver =
             new BroadcastReceiver() {
                 @Override
@@ -141,8 +149,47 @@ public abstract class BaseTvInputService extends TvInputService {
         super.onDestroy();
         unregisterReceiver(mParentalControlsBroadcastReceiver);
         mContentResolver.unregisterContentObserver(mChannelObserver);
-        mDbHandlerThread.quit();
+        // Let the sessions which were released finish freeing their resources.
+        mDbHandlerThread.quitSafely();
         mDbHandlerThread = null;
+        releaseAdControllers();
+    }
+
+    /**
+     * @param context The context of the session that will use the controller.
+     * @return A controller from the pool, or a new one if the pool is empty.
+     */
+    @VisibleForTesting
+    static AdController obtainAdController(Context context) {
+        if (!mAdControllerPool.isEmpty()) {
+            return mAdControllerPool.remove(mAdControllerPool.size() - 1);
+        }
+        // The controller may outlive the session, so it must not hold on to its context.
+        return new AdController(context.getApplicationContext());
+    }
+
+    /**
+     * Resets a controller which is no longer used by a session and returns it to the pool.
+     *
+     * @param adController The controller to recycle.
+     */
+    @VisibleForTesting
+    static void recycleAdController(AdController adController) {
+        if (mAdControllerPool.size() < MAX_POOLED_AD_CONTROLLERS) {
+            adController.reset();
+            mAdControllerPool.add(adController);
+        } else {
+            adController.release();
+        }
+    }
+
+    /** Releases the controllers in the pool and empties it. */
+    @VisibleForTesting
+    static void releaseAdControllers() {
+        for (AdController adController : mAdControllerPool) {
+            adController.release();
+        }
+        mAdControllerPool.clear();
     }
 
     /**
@@ -154,6 +201,8 @@ public abstract class BaseTvInputService extends TvInputService {
         private static final int MSG_PLAY_CONTENT = 1000;
         private static final int MSG_PLAY_AD = 1001;
         private static final int MSG_PLAY_RECORDED_CONTENT = 1002;
+        private static final int MSG_PREFETCH_AD = 1003;
+        private static final int MSG_PREPARE_NEXT_PROGRAM = 1004;
 
         /**
          * Minimum difference between playback time and system time in order for playback to be
@@ -188,12 +237,23 @@ public abstract class BaseTvInputService extends TvInputService {
         private final Handler mDbHandler;
         private final Handler mHandler;
         private GetCurrentProgramRunnable mGetCurrentProgramRunnable;
+        private final NextProgramScheduler mNextProgramScheduler;
 
         private long mMinimumOnTuneAdInterval = TimeUnit.MINUTES.toMillis(5);
+        private long mAdPrefetchLeadTime = TimeUnit.SECONDS.toMillis(5);
         private AdController mAdController;
+        // Index of the ads of mCurrentAdTimelineProgram, built from its internal provider data.
+        private AdTimeline mCurrentAdTimeline;
+        private Program mCurrentAdTimelineProgram;
+        // Ads requested ahead of their break, to be started by insertAd.
+        private AdController mPrefetchedAdController;
+        private Advertisement mPrefetchedAd;
         private Uri mChannelUri;
         private Surface mSurface;
         private float mVolume = 1.0f;
+        // Timeline of the last tune, until video is available.
+        private TuneLatencyTracker.TuneTimeline mTuneTimeline;
+        private TuneLatencyTracker.Listener mTuneLatencyListener;
 
         public Session(Context context, String inputId) {
             super(context);
@@ -202,6 +262,8 @@ public abstract class BaseTvInputService extends TvInputService {
             mLastBlockedRating = null;
             mDbHandler = new Handler(mDbHandlerThread.getLooper());
             mHandler = new Handler(this);
+            mNextProgramScheduler = new NextProgramScheduler(mDbHandler, mHandler,
+                    MSG_PREPARE_NEXT_PROGRAM, TimeUnit.SECONDS.toMillis(10));
         }
 
         @Override
@@ -209,6 +271,7 @@ public abstract class BaseTvInputService extends TvInputService {
             mDbHandler.removeCallbacksAndMessages(null);
             mHandler.removeCallbacksAndMessages(null);
             releaseAdController();
+            releasePrefetchedAdController();
             mSessions.remove(this);
         }
 
@@ -216,11 +279,20 @@ public abstract class BaseTvInputService extends TvInputService {
         public boolean handleMessage(Message msg) {
             switch (msg.what) {
                 case MSG_PLAY_CONTENT:
+                    markTuneStage(TuneLatencyTracker.STAGE_PLAY_CONTENT_DISPATCH);
                     mCurrentProgram = (Program) msg.obj;
                     playCurrentContent();
                     return true;
                 case MSG_PLAY_AD:
                     return insertAd((Advertisement) msg.obj);
+                case MSG_PREFETCH_AD:
+                    prefetchAd((Advertisement) msg.obj);
+                    return true;
+                case MSG_PREPARE_NEXT_PROGRAM:
+                    if (!mPlayingRecordedProgram) {
+                        onPrepareNextProgram((Program) msg.obj);
+                    }
+                    return true;
                 case MSG_PLAY_RECORDED_CONTENT:
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
                         mPlayingRecordedProgram = true;
@@ -259,6 +331,8 @@ public abstract class BaseTvInputService extends TvInputService {
 
         @Override
         public boolean onTune(Uri channelUri) {
+            mTuneTimeline = new TuneLatencyTracker.TuneTimeline(channelUri);
+            markTuneStage(TuneLatencyTracker.STAGE_TUNE);
             mNeedToCheckChannelAd = true;
 
             notifyVideoUnavailable(TvInputManager.VIDEO_UNAVAILABLE_REASON_TUNING);
@@ -266,17 +340,22 @@ public abstract class BaseTvInputService extends TvInputService {
             mChannelUri = channelUri;
             long channelId = ContentUris.parseId(channelUri);
             mCurrentChannel = mChannelMap.get(channelId);
+            markTuneStage(TuneLatencyTracker.STAGE_CHANNEL_LOOKUP);
 
             mTimeShiftedPlaybackPosition = TvInputManager.TIME_SHIFT_INVALID_TIME;
 
             // Release Ads assets
             releaseAdController();
-            mHandler.removeMessages(MSG_PLAY_AD);
+            releasePrefetchedAdController();
+            removeAdMessages();
+
+            mNextProgramScheduler.cancel();
 
             if (mDbHandler != null) {
                 mUnblockedRatingSet.clear();
                 mDbHandler.removeCallbacks(mGetCurrentProgramRunnable);
-                mGetCurrentProgramRunnable = new GetCurrentProgramRunnable(mChannelUri);
+                mGetCurrentProgramRunnable =
+                        new GetCurrentProgramRunnable(mChannelUri, mTuneTimeline);
                 mDbHandler.post(mGetCurrentProgramRunnable);
             }
             return true;
@@ -284,8 +363,10 @@ public abstract class BaseTvInputService extends TvInputService {
 
         @Override
         public void onTimeShiftPause() {
-            mHandler.removeMessages(MSG_PLAY_AD);
+            removeAdMessages();
+            // The next program is prepared again by scheduleNextProgram() on resume.
             mDbHandler.removeCallbacks(mGetCurrentProgramRunnable);
+            mNextProgramScheduler.cancel();
             mTimeShiftIsPaused = true;
             if (getTvPlayer() != null) {
                 getTvPlayer().pause();
@@ -303,38 +384,13 @@ public abstract class BaseTvInputService extends TvInputService {
             if (!mPlayingRecordedProgram) {
                 // If currently playing program content, past ad durations must be recalculated
                 // based on getTvPlayer.getCurrentPosition().
-                mElapsedAdsTime = 0;
                 mElapsedProgramTime = getTvPlayer().getCurrentPosition();
                 long elapsedProgramTimeAdjusted =
                         mElapsedProgramTime + mCurrentProgram.getStartTimeUtcMillis();
-                if (mCurrentProgram.getInternalProviderData() != null) {
-                    List<Advertisement> ads = mCurrentProgram.getInternalProviderData().getAds();
-                    // First, sort the ads in time order.
-                    TreeMap<Long, Long> scheduledAds = new TreeMap<>();
-                    for (Advertisement ad : ads) {
-                        scheduledAds.put(ad.getStartTimeUtcMillis(), ad.getStopTimeUtcMillis());
-                    }
-                    // Second, add up all ad times which should have played before the elapsed
-                    // program time.
-                    long programDurationPlayed = 0;
-                    long totalDurationPlayed = 0;
-                    for (Long adStartTime : scheduledAds.keySet()) {
-                        programDurationPlayed += adStartTime - totalDurationPlayed;
-                        if (programDurationPlayed < elapsedProgramTimeAdjusted) {
-                            long adDuration = scheduledAds.get(adStartTime) - adStartTime;
-                            mElapsedAdsTime += adDuration;
-                            totalDurationPlayed = programDurationPlayed + adDuration;
-                        } else {
-                            break;
-                        }
-                    }
-                } else {
-                    Log.w(
-                            TAG,
-                            "Failed to get program provider data for "
-                                    + mCurrentProgram.getTitle()
-                                    + ". Try to do an EPG sync.");
-                }
+                // Add up all ad times which should have played before the elapsed program time.
+                mElapsedAdsTime =
+                        getCurrentAdTimeline()
+                                .getDurationOfAdsBeforeContentTime(elapsedProgramTimeAdjusted);
 
                 mTimeShiftedPlaybackPosition = elapsedProgramTimeAdjusted + mElapsedAdsTime;
 
@@ -360,7 +416,7 @@ public abstract class BaseTvInputService extends TvInputService {
                 return;
             }
 
-            mHandler.removeMessages(MSG_PLAY_AD);
+            removeAdMessages();
             mDbHandler.removeCallbacks(mGetCurrentProgramRunnable);
 
             // Update our handler because we have changed the playback time.
@@ -458,8 +514,10 @@ public abstract class BaseTvInputService extends TvInputService {
         @Override
         public void onTimeShiftSetPlaybackParams(PlaybackParams params) {
             if (params.getSpeed() != 1.0f) {
-                mHandler.removeMessages(MSG_PLAY_AD);
+                removeAdMessages();
                 mDbHandler.removeCallbacks(mGetCurrentProgramRunnable);
+                // The next program is prepared again by scheduleNextProgram() on resume.
+                mNextProgramScheduler.cancel();
             }
 
             if (DEBUG) {
@@ -543,9 +601,12 @@ public abstract class BaseTvInputService extends TvInputService {
 
         private void scheduleNextProgram() {
             mDbHandler.removeCallbacks(mGetCurrentProgramRunnable);
-            mDbHandler.postDelayed(
-                    mGetCurrentProgramRunnable,
-                    mCurrentProgram.getEndTimeUtcMillis() - getCurrentTime());
+            long timeUntilNextProgram = mCurrentProgram.getEndTimeUtcMillis() - getCurrentTime();
+            mDbHandler.postDelayed(mGetCurrentProgramRunnable, timeUntilNextProgram);
+
+            mNextProgramScheduler.schedule(
+                    new GetNextProgramRunnable(mChannelUri, mCurrentProgram),
+                    timeUntilNextProgram);
         }
 
         private void playCurrentContent() {
@@ -553,6 +614,7 @@ public abstract class BaseTvInputService extends TvInputService {
                 scheduleNextProgram();
                 return;
             }
+            markTuneStage(TuneLatencyTracker.STAGE_PARENTAL_CHECK);
 
             if (mNeedToCheckChannelAd) {
                 playCurrentChannel();
@@ -571,26 +633,38 @@ public abstract class BaseTvInputService extends TvInputService {
 
         private void calculateElapsedTimesFromCurrentTime() {
             long currentTimeMs = getCurrentTime();
-            mElapsedAdsTime = 0;
-            mElapsedProgramTime = currentTimeMs - mCurrentProgram.getStartTimeUtcMillis();
-            if (mCurrentProgram.getInternalProviderData() != null) {
-                List<Advertisement> ads = mCurrentProgram.getInternalProviderData().getAds();
-                for (Advertisement ad : ads) {
-                    if (ad.getStopTimeUtcMillis() < (currentTimeMs + PAST_AD_BUFFER_MILLIS)) {
-                        // Subtract past ad playback time to seek to
-                        // the correct content playback position.
-                        long adDuration = ad.getStopTimeUtcMillis() - ad.getStartTimeUtcMillis();
-                        mElapsedAdsTime += adDuration;
-                        mElapsedProgramTime -= adDuration;
-                    }
+            // Subtract past ad playback time to seek to the correct content playback position.
+            mElapsedAdsTime =
+                    getCurrentAdTimeline()
+                            .getDurationOfAdsStoppingBefore(currentTimeMs + PAST_AD_BUFFER_MILLIS);
+            mElapsedProgramTime =
+                    currentTimeMs - mCurrentProgram.getStartTimeUtcMillis() - mElapsedAdsTime;
+        }
+
+        /**
+         * @return The ad timeline of {@link #mCurrentProgram}, which is only built again when the
+         *     current program changes.
+         */
+        private AdTimeline getCurrentAdTimeline() {
+            if (mCurrentAdTimeline == null || mCurrentAdTimelineProgram != mCurrentProgram) {
+                List<Advertisement> ads;
+                // Each call parses the internal provider data again.
+                InternalProviderData internalProviderData =
+                        mCurrentProgram.getInternalProviderData();
+                if (internalProviderData != null) {
+                    ads = internalProviderData.getAds();
+                } else {
+                    ads = new ArrayList<>();
+                    Log.w(
+                            TAG,
+                            "Failed to get program provider data for "
+                                    + mCurrentProgram.getTitle()
+                                    + ". Try to do an EPG sync.");
                 }
-            } else {
-                Log.w(
-                        TAG,
-                        "Failed to get program provider data for "
-                                + mCurrentProgram.getTitle()
-                                + ". Try to do an EPG sync.");
+                mCurrentAdTimeline = new AdTimeline(ads);
+                mCurrentAdTimelineProgram = mCurrentProgram;
             }
+            return mCurrentAdTimeline;
         }
 
         private boolean playCurrentProgram() {
@@ -601,57 +675,53 @@ public abstract class BaseTvInputService extends TvInputService {
                                 + mChannelUri
                                 + ". Try to do an "
                                 + "EPG sync.");
+                markTuneStage(TuneLatencyTracker.STAGE_PLAY_PROGRAM);
                 return onPlayProgram(null, 0);
             }
             calculateElapsedTimesFromCurrentTime();
             if (!scheduleNextAd()) {
                 return false;
             }
+            markTuneStage(TuneLatencyTracker.STAGE_PLAY_PROGRAM);
             return onPlayProgram(mCurrentProgram, mElapsedProgramTime);
         }
 
         private boolean scheduleNextAd() {
-            mHandler.removeMessages(MSG_PLAY_AD);
+            removeAdMessages();
             if (mPlayingRecordedProgram) {
                 return false;
             }
             long currentTimeMs = getCurrentTime();
-            if (mCurrentProgram.getInternalProviderData() != null) {
-                List<Advertisement> ads = mCurrentProgram.getInternalProviderData().getAds();
-                Advertisement adToPlay = null;
-                long timeTilAdToPlay = 0;
-                for (Advertisement ad : ads) {
-                    if (ad.getStopTimeUtcMillis() > currentTimeMs + PAST_AD_BUFFER_MILLIS) {
-                        long timeTilAd = ad.getStartTimeUtcMillis() - currentTimeMs;
-                        if (timeTilAd < 0) {
-                            // If tuning to the middle of a scheduled ad, the played portion
-                            // of the ad will be skipped by the AdControllerCallback.
-                            mHandler.sendMessage(mHandler.obtainMessage(MSG_PLAY_AD, ad));
-                            return false;
-                        } else if (adToPlay == null || timeTilAd < timeTilAdToPlay) {
-                            adToPlay = ad;
-                            timeTilAdToPlay = timeTilAd;
-                        }
-                    }
+            Advertisement adToPlay =
+                    getCurrentAdTimeline()
+                            .getFirstAdStoppingAfter(currentTimeMs + PAST_AD_BUFFER_MILLIS);
+            if (adToPlay == null || !adToPlay.equals(mPrefetchedAd)) {
+                releasePrefetchedAdController();
+            }
+            if (adToPlay != null) {
+                long timeTilAdToPlay = adToPlay.getStartTimeUtcMillis() - currentTimeMs;
+                if (timeTilAdToPlay < 0) {
+                    // If tuning to the middle of a scheduled ad, the played portion
+                    // of the ad will be skipped by the AdControllerCallback.
+                    mHandler.sendMessage(mHandler.obtainMessage(MSG_PLAY_AD, adToPlay));
+                    return false;
                 }
-
-                if (adToPlay != null) {
-                    Message pauseContentPlayAdMsg = mHandler.obtainMessage(MSG_PLAY_AD, adToPlay);
-                    mHandler.sendMessageDelayed(pauseContentPlayAdMsg, timeTilAdToPlay);
+                if (mAdPrefetchLeadTime > 0) {
+                    // Request the ad ahead of the break so it can start without delay.
+                    Message prefetchAdMsg = mHandler.obtainMessage(MSG_PREFETCH_AD, adToPlay);
+                    mHandler.sendMessageDelayed(
+                            prefetchAdMsg, Math.max(0, timeTilAdToPlay - mAdPrefetchLeadTime));
                 }
-            } else {
-                Log.w(
-                        TAG,
-                        "Failed to get program provider data for "
-                                + mCurrentProgram.getTitle()
-                                + ". Try to do an EPG sync.");
+                Message pauseContentPlayAdMsg = mHandler.obtainMessage(MSG_PLAY_AD, adToPlay);
+                mHandler.sendMessageDelayed(pauseContentPlayAdMsg, timeTilAdToPlay);
             }
             return true;
         }
 
         private void playCurrentChannel() {
             Message playAd = null;
-            if (mCurrentChannel.getInternalProviderData() != null) {
+            InternalProviderData internalProviderData = mCurrentChannel.getInternalProviderData();
+            if (internalProviderData != null) {
                 // Get the last played ad time for this channel.
                 long mostRecentOnTuneAdWatchedTime =
                         mContext.getSharedPreferences(
@@ -660,7 +730,7 @@ public abstract class BaseTvInputService extends TvInputService {
                                         Constants.SHARED_PREFERENCES_KEY_LAST_CHANNEL_AD_PLAY
                                                 + mCurrentChannel.getId(),
                                         0);
-                List<Advertisement> ads = mCurrentChannel.getInternalProviderData().getAds();
+                List<Advertisement> ads = internalProviderData.getAds();
                 if (!ads.isEmpty()
                         && System.currentTimeMillis() - mostRecentOnTuneAdWatchedTime
                                 > mMinimumOnTuneAdInterval) {
@@ -708,18 +778,53 @@ public abstract class BaseTvInputService extends TvInputService {
             }
 
             releaseAdController();
-            mAdController = new AdController(mContext);
-            mAdController.requestAds(ad.getRequestUrl(), new AdControllerCallbackImpl(ad));
+            if (mPrefetchedAdController != null && ad.equals(mPrefetchedAd)) {
+                mAdController = mPrefetchedAdController;
+                mPrefetchedAdController = null;
+                mPrefetchedAd = null;
+                mAdController.startAds();
+            } else {
+                releasePrefetchedAdController();
+                mAdController = obtainAdController(mContext);
+                mAdController.requestAds(ad.getRequestUrl(), new AdControllerCallbackImpl(ad));
+            }
             return true;
         }
 
+        private void prefetchAd(Advertisement ad) {
+            if (mPrefetchedAdController != null && ad.equals(mPrefetchedAd)) {
+                return;
+            }
+            if (DEBUG) {
+                Log.d(TAG, "Prefetch an ad");
+            }
+            releasePrefetchedAdController();
+            mPrefetchedAd = ad;
+            mPrefetchedAdController = obtainAdController(mContext);
+            mPrefetchedAdController.prefetchAds(
+                    ad.getRequestUrl(), new AdControllerCallbackImpl(ad));
+        }
+
+        private void removeAdMessages() {
+            mHandler.removeMessages(MSG_PLAY_AD);
+            mHandler.removeMessages(MSG_PREFETCH_AD);
+        }
+
         private void releaseAdController() {
             if (mAdController != null) {
-                mAdController.release();
+                recycleAdController(mAdController);
                 mAdController = null;
             }
         }
 
+        private void releasePrefetchedAdController() {
+            if (mPrefetchedAdController != null) {
+                recycleAdController(mPrefetchedAdController);
+                mPrefetchedAdController = null;
+            }
+            mPrefetchedAd = null;
+        }
+
         /** Return the current {@link TvPlayer}. */
         public abstract TvPlayer getTvPlayer();
 
@@ -735,6 +840,20 @@ public abstract class BaseTvInputService extends TvInputService {
          */
         public abstract boolean onPlayProgram(Program program, long startPosMs);
 
+        /**
+         * This method is called shortly before the current program ends, with the program that
+         * will follow it. Developers can override this to start loading the next program in the
+         * background, so that playback can switch to it without a gap when {@link
+         * #onPlayProgram(Program, long)} is called for it. The lead time is set by {@link
+         * #setNextProgramPrepareLeadTime(long)}.
+         *
+         * @param nextProgram The program that follows the current program, or {@code null} if
+         *     there is none in the EPG.
+         */
+        public void onPrepareNextProgram(Program nextProgram) {
+            // Do nothing.
+        }
+
         /**
          * This method is called when a particular recorded program is to begin playing. If the
          * program does not exist, the parameter will be {@code null}.
@@ -780,10 +899,83 @@ public abstract class BaseTvInputService extends TvInputService {
             mMinimumOnTuneAdInterval = minimumOnTuneAdInterval;
         }
 
+        /**
+         * Set how long before a scheduled program ad its ad request is sent. The ad decision and
+         * the loading of the ad then happen while the program is still playing, so the ad can
+         * start as soon as its break begins. A value of 0 disables prefetching. The default value
+         * is 5 seconds.
+         *
+         * @param adPrefetchLeadTime The time in milliseconds to request ads ahead of their start
+         */
+        public void setAdPrefetchLeadTime(long adPrefetchLeadTime) {
+            mAdPrefetchLeadTime = adPrefetchLeadTime;
+        }
+
+        /**
+         * Set how long before the end of the current program {@link
+         * #onPrepareNextProgram(Program)} is called. A value of 0 disables it. The default value
+         * is 10 seconds.
+         *
+         * @param nextProgramPrepareLeadTime The time in milliseconds to prepare the next program
+         *     ahead of its start
+         */
+        public void setNextProgramPrepareLeadTime(long nextProgramPrepareLeadTime) {
+            mNextProgramScheduler.setLeadTimeMs(nextProgramPrepareLeadTime);
+        }
+
         public Uri getCurrentChannelUri() {
             return mChannelUri;
         }
 
+        /** @return The channel tuned to, or {@code null} if it is not in the channel map. */
+        public Channel getCurrentChannel() {
+            return mCurrentChannel;
+        }
+
+        /**
+         * Set a listener which receives how long each stage of every tune of this session took,
+         * once video is available. The times are also added to the percentiles of {@link
+         * TuneLatencyTracker#getInstance()}, whether there is a listener or not.
+         *
+         * @param listener The listener, or {@code null} to remove it
+         */
+        public void setTuneLatencyListener(TuneLatencyTracker.Listener listener) {
+            mTuneLatencyListener = listener;
+        }
+
+        /**
+         * Developers should call this when they prepare their {@link TvPlayer} for the tuned
+         * content, or switch to a player which was already prepared, so the time spent before
+         * the player starts loading is told apart from the time it takes to buffer.
+         */
+        public void markPlayerPrepared() {
+            markTuneStage(TuneLatencyTracker.STAGE_PLAYER_PREPARE);
+        }
+
+        @Override
+        public void notifyVideoAvailable() {
+            super.notifyVideoAvailable();
+            if (mTuneTimeline == null) {
+                return;
+            }
+            TuneLatencyTracker.TuneTimeline timeline = mTuneTimeline;
+            mTuneTimeline = null;
+            timeline.mark(TuneLatencyTracker.STAGE_VIDEO_AVAILABLE);
+            TuneLatencyTracker.getInstance().addTimeline(timeline);
+            if (DEBUG) {
+                Log.d(TAG, "Tune completed: " + timeline);
+            }
+            if (mTuneLatencyListener != null) {
+                mTuneLatencyListener.onTuneCompleted(timeline);
+            }
+        }
+
+        private void markTuneStage(int stage) {
+            if (mTuneTimeline != null) {
+                mTuneTimeline.mark(stage);
+            }
+        }
+
         private boolean blockContentIfNeeded() {
             if (mCurrentContentRatingSet == null || !mTvInputManager.isParentalControlsEnabled()) {
                 // Content rating is invalid so we don't need to block anymore.
@@ -889,9 +1081,11 @@ public abstract class BaseTvInputService extends TvInputService {
 
         private class GetCurrentProgramRunnable implements Runnable {
             private final Uri mChannelUri;
+            private final TuneLatencyTracker.TuneTimeline mTimeline;
 
-            GetCurrentProgramRunnable(Uri channelUri) {
+            GetCurrentProgramRunnable(Uri channelUri, TuneLatencyTracker.TuneTimeline timeline) {
                 mChannelUri = channelUri;
+                mTimeline = timeline;
             }
 
             @Override
@@ -907,11 +1101,33 @@ public abstract class BaseTvInputService extends TvInputService {
                     mTimeShiftedPlaybackPosition = TvInputManager.TIME_SHIFT_INVALID_TIME;
                     program = ModelUtils.getCurrentProgram(resolver, mChannelUri);
                 }
+                if (mTimeline != null) {
+                    // Only the first run follows the tune, later ones are program changes.
+                    mTimeline.mark(TuneLatencyTracker.STAGE_PROGRAM_QUERY);
+                }
                 mHandler.removeMessages(MSG_PLAY_CONTENT);
                 mHandler.obtainMessage(MSG_PLAY_CONTENT, program).sendToTarget();
             }
         }
 
+        private class GetNextProgramRunnable implements Runnable {
+            private final Uri mChannelUri;
+            private final Program mProgram;
+
+            GetNextProgramRunnable(Uri channelUri, Program program) {
+                mChannelUri = channelUri;
+                mProgram = program;
+            }
+
+            @Override
+            public void run() {
+                Program nextProgram =
+                        ModelUtils.getNextProgram(
+                                mContext.getContentResolver(), mChannelUri, mProgram);
+                mHandler.obtainMessage(MSG_PREPARE_NEXT_PROGRAM, nextProgram).sendToTarget();
+            }
+        }
+
         private class GetRecordedProgramRunnable implements Runnable {
             private final Uri mRecordedProgramUri;
 
@@ -980,8 +1196,81 @@ public abstract class BaseTvInputService extends TvInputService {
         @Override
         public void onStartRecording(final Uri uri) {
             mProgramUri = uri;
+            // Run in the database thread, so this is handled before a later stop request.
+            mDbHandler.post(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            Program programToRecord = null;
+                            if (uri != null) {
+                                Cursor programCursor =
+                                        mContext.getContentResolver()
+                                                .query(uri, Program.PROJECTION, null, null, null);
+                                if (programCursor != null) {
+                                    try {
+                                        if (programCursor.moveToNext()) {
+                                            programToRecord = Program.fromCursor(programCursor);
+                                        }
+                                    } finally {
+                                        programCursor.close();
+                                    }
+                                }
+                            }
+                            if (programToRecord == null && mChannelUri != null) {
+                                programToRecord =
+                                        ModelUtils.getCurrentProgram(
+                                                mContext.getContentResolver(), mChannelUri);
+                            }
+                            onStartRecording(programToRecord);
+                        }
+                    });
+        }
+
+        /**
+         * Called on a background thread once the program to record has been looked up, after
+         * {@link #onStartRecording(Uri)}. A session which captures the stream of the program
+         * starts doing so here, such as with a {@link
+         * com.google.android.media.tv.companionlibrary.recording.RecordingEngine}. This is always
+         * called before {@link #onStopRecording(Program)} or {@link
+         * #onStopRecordingChannel(Channel)}. Does nothing by default.
+         *
+         * @param programToRecord The program set by the user to be recorded, or the current
+         *     program of the channel if the user records the channel, or {@code null} if there is
+         *     none.
+         */
+        public void onStartRecording(@Nullable Program programToRecord) {}
+
+        @Override
+        public void onRelease() {
+            // Run in the database thread, after the requests made before the release.
+            mDbHandler.post(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            onReleaseResources();
+                        }
+                    });
         }
 
+        /**
+         * Called on a background thread after {@link #onRelease()}, once the requests made before
+         * the release were handled. A session frees what it holds here, such as a recording it
+         * did not stop, which may take a while. Does nothing by default.
+         */
+        public void onReleaseResources() {}
+
+        /**
+         * Called on a background thread once {@link #notifyRecordingStopped(RecordedProgram)} has
+         * saved the recorded program. A session which keeps its recordings within a quota adds
+         * the recording to its {@link
+         * com.google.android.media.tv.companionlibrary.recording.RecordingStorageManager} and
+         * enforces the quota here. Does nothing by default.
+         *
+         * @param recordedProgramId The row ID of the recorded program.
+         * @param recordedProgram The recorded program.
+         */
+        public void onRecordingSaved(long recordedProgramId, RecordedProgram recordedProgram) {}
+
         @Override
         public void onStopRecording() {
             // Run in the database thread
@@ -1059,6 +1348,10 @@ public abstract class BaseTvInputService extends TvInputService {
                                                     TvContract.RecordedPrograms.CONTENT_URI,
                                                     recordedProgram.toContentValues());
                             notifyRecordingStopped(recordedProgramUri);
+                            if (recordedProgramUri != null) {
+                                onRecordingSaved(
+                                        ContentUris.parseId(recordedProgramUri), recordedProgram);
+                            }
                         }
                     });
         }
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary;
+
+import android.os.Handler;
+
+/**
+ * Schedules the query for the program which follows the current one of a {@link
+ * BaseTvInputService.Session}, a lead time before the current program ends.
+ *
+ * <p>The query runs on the database thread and hands the next program to the main thread in a
+ * message, so cancelling removes both the query and a message which was already sent, such as
+ * when the session tunes away or playback is paused or no longer at normal speed.
+ */
+final class NextProgramScheduler {
+    private final Handler mDbHandler;
+    private final Handler mHandler;
+    private final int mWhat;
+
+    private long mLeadTimeMs;
+    private Runnable mPendingQuery;
+
+    /**
+     * @param dbHandler The handler of the database thread, on which queries run.
+     * @param handler The handler of the main thread, to which queries send their result.
+     * @param what The code of the messages sent by queries to the main thread.
+     * @param leadTimeMs How long before the end of the current program to query the next one.
+     */
+    NextProgramScheduler(Handler dbHandler, Handler handler, int what, long leadTimeMs) {
+        mDbHandler = dbHandler;
+        mHandler = handler;
+        mWhat = what;
+        mLeadTimeMs = leadTimeMs;
+    }
+
+    /** @param leadTimeMs How long before the end of the current program to run the query. */
+    void setLeadTimeMs(long leadTimeMs) {
+        mLeadTimeMs = leadTimeMs;
+    }
+
+    /**
+     * Cancels the pending query, then schedules a new one unless the lead time is 0.
+     *
+     * @param query The query for the next program, which sends it to the main thread.
+     * @param timeUntilNextProgramMs The time until the current program ends.
+     */
+    void schedule(Runnable query, long timeUntilNextProgramMs) {
+        cancel();
+        if (mLeadTimeMs > 0) {
+            mPendingQuery = query;
+            mDbHandler.postDelayed(query, Math.max(0, timeUntilNextProgramMs - mLeadTimeMs));
+        }
+    }
+
+    /** Cancels the pending query, and drops its result if it was already sent. */
+    void cancel() {
+        if (mPendingQuery != null) {
+            mDbHandler.removeCallbacks(mPendingQuery);
+            mPendingQuery = null;
+        }
+        mHandler.removeMessages(mWhat);
+    }
+}
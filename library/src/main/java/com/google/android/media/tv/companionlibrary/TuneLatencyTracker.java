@@ -0,0 +1,212 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.annotation.VisibleForTesting;
+import java.util.Arrays;
+
+/**
+ * Keeps in memory how long the most recent channel changes of the process took, so percentiles
+ * of the channel change time can be compared between builds.
+ *
+ * <p>Each tune of a {@link BaseTvInputService.Session} is timed as a {@link TuneTimeline}, which
+ * holds when the tune reached each of its stages. Once video is available, the time since the
+ * tune of every stage is added to a rolling window of the last {@link #WINDOW_SIZE} tunes, and the
+ * timeline is passed to the {@link Listener} of the session, if there is one.
+ */
+public final class TuneLatencyTracker {
+    /** {@link BaseTvInputService.Session#onTune(Uri)} was called. */
+    public static final int STAGE_TUNE = 0;
+    /** The channel was looked up in the channel map. */
+    public static final int STAGE_CHANNEL_LOOKUP = 1;
+    /** The current program of the channel was read from the database. */
+    public static final int STAGE_PROGRAM_QUERY = 2;
+    /** The current program was handed to the main thread to be played. */
+    public static final int STAGE_PLAY_CONTENT_DISPATCH = 3;
+    /** The program passed the parental control checks. */
+    public static final int STAGE_PARENTAL_CHECK = 4;
+    /** {@link BaseTvInputService.Session#onPlayProgram} was called. */
+    public static final int STAGE_PLAY_PROGRAM = 5;
+    /**
+     * The session prepared its player, see {@link BaseTvInputService.Session#markPlayerPrepared}.
+     */
+    public static final int STAGE_PLAYER_PREPARE = 6;
+    /** The session notified that video is available for the first time since the tune. */
+    public static final int STAGE_VIDEO_AVAILABLE = 7;
+
+    /** The number of stages of a tune. */
+    public static final int STAGE_COUNT = 8;
+
+    /** The number of most recent tunes the percentiles are computed from. */
+    public static final int WINDOW_SIZE = 100;
+
+    private static final long NOT_REACHED = -1;
+
+    private static TuneLatencyTracker sInstance;
+
+    // For each stage, a ring buffer of the times since the tune of the last tunes.
+    private final long[][] mSamples = new long[STAGE_COUNT][WINDOW_SIZE];
+    private final int[] mSampleCounts = new int[STAGE_COUNT];
+    private final int[] mNextSampleIndexes = new int[STAGE_COUNT];
+
+    /** Receives the timeline of each tune once video is available. */
+    public interface Listener {
+        /**
+         * Called on the main thread when a tune has completed.
+         *
+         * @param timeline The times at which the tune reached each stage.
+         */
+        void onTuneCompleted(TuneTimeline timeline);
+    }
+
+    /** @return The tracker shared by all sessions of the process. */
+    public static synchronized TuneLatencyTracker getInstance() {
+        if (sInstance == null) {
+            sInstance = new TuneLatencyTracker();
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    TuneLatencyTracker() {}
+
+    /**
+     * Returns a percentile of the time it took the last tunes to reach a stage.
+     *
+     * @param stage One of the {@code STAGE_} constants.
+     * @param percentile The percentile, between 0 and 100, such as 50 for the median.
+     * @return The time since the tune in milliseconds, or -1 if no tune reached the stage.
+     */
+    public synchronized long getPercentileMs(int stage, int percentile) {
+        int count = mSampleCounts[stage];
+        if (count == 0) {
+            return NOT_REACHED;
+        }
+        long[] samples = Arrays.copyOf(mSamples[stage], count);
+        Arrays.sort(samples);
+        // Nearest rank.
+        int rank = (int) Math.ceil(percentile / 100.0 * count);
+        return samples[Math.max(0, Math.min(count, rank) - 1)];
+    }
+
+    /**
+     * @param stage One of the {@code STAGE_} constants.
+     * @return How many of the last tunes reached the stage.
+     */
+    public synchronized int getSampleCount(int stage) {
+        return mSampleCounts[stage];
+    }
+
+    /** Forgets all tunes, such as after a configuration change that should be measured apart. */
+    public synchronized void reset() {
+        Arrays.fill(mSampleCounts, 0);
+        Arrays.fill(mNextSampleIndexes, 0);
+    }
+
+    synchronized void addTimeline(TuneTimeline timeline) {
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            long timeSinceTuneMs = timeline.getTimeSinceTuneMs(stage);
+            if (timeSinceTuneMs == NOT_REACHED) {
+                continue;
+            }
+            mSamples[stage][mNextSampleIndexes[stage]] = timeSinceTuneMs;
+            mNextSampleIndexes[stage] = (mNextSampleIndexes[stage] + 1) % WINDOW_SIZE;
+            mSampleCounts[stage] = Math.min(mSampleCounts[stage] + 1, WINDOW_SIZE);
+        }
+    }
+
+    /**
+     * The times at which a single tune reached each of its stages. Stages are reached in the order
+     * of their constants, but some may be skipped, such as {@link #STAGE_PLAY_PROGRAM} when a
+     * channel ad plays first.
+     */
+    public static final class TuneTimeline {
+        private final Uri mChannelUri;
+        private final long[] mStageTimesMs = new long[STAGE_COUNT];
+        private boolean mCompleted;
+
+        TuneTimeline(Uri channelUri) {
+            mChannelUri = channelUri;
+            Arrays.fill(mStageTimesMs, NOT_REACHED);
+        }
+
+        /** @return The channel that was tuned to. */
+        public Uri getChannelUri() {
+            return mChannelUri;
+        }
+
+        /**
+         * @param stage One of the {@code STAGE_} constants.
+         * @return The time since the tune at which the stage was first reached, in milliseconds,
+         *     or -1 if it was not reached.
+         */
+        public synchronized long getTimeSinceTuneMs(int stage) {
+            if (mStageTimesMs[stage] == NOT_REACHED || mStageTimesMs[STAGE_TUNE] == NOT_REACHED) {
+                return NOT_REACHED;
+            }
+            return mStageTimesMs[stage] - mStageTimesMs[STAGE_TUNE];
+        }
+
+        /**
+         * @param stage One of the {@code STAGE_} constants.
+         * @return The time between the previous stage that was reached and the given stage, in
+         *     milliseconds, or -1 if the stage was not reached.
+         */
+        public synchronized long getStageDurationMs(int stage) {
+            if (mStageTimesMs[stage] == NOT_REACHED) {
+                return NOT_REACHED;
+            }
+            for (int previous = stage - 1; previous >= 0; previous--) {
+                if (mStageTimesMs[previous] != NOT_REACHED) {
+                    return mStageTimesMs[stage] - mStageTimesMs[previous];
+                }
+            }
+            return 0;
+        }
+
+        /** @return The time from the tune until video was available, or -1 if it never was. */
+        public long getTotalMs() {
+            return getTimeSinceTuneMs(STAGE_VIDEO_AVAILABLE);
+        }
+
+        /** Records that a stage was reached now, unless it was already or the tune completed. */
+        void mark(int stage) {
+            mark(stage, SystemClock.elapsedRealtime());
+        }
+
+        @VisibleForTesting
+        synchronized void mark(int stage, long timeMs) {
+            if (mCompleted || mStageTimesMs[stage] != NOT_REACHED) {
+                return;
+            }
+            mStageTimesMs[stage] = timeMs;
+            if (stage == STAGE_VIDEO_AVAILABLE) {
+                mCompleted = true;
+            }
+        }
+
+        @Override
+        public synchronized String toString() {
+            StringBuilder builder = new StringBuilder("TuneTimeline{channel=").append(mChannelUri);
+            for (int stage = 0; stage < STAGE_COUNT; stage++) {
+                builder.append(", ").append(stage).append('=').append(getStageDurationMs(stage));
+            }
+            return builder.append('}').toString();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.media.tv.companionlibrary.ads;
+
+import android.support.annotation.NonNull;
+import com.google.android.media.tv.companionlibrary.model.Advertisement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An index of the advertisements of a program, built once so that questions about the ads around
+ * a playback position can be answered in logarithmic time instead of by walking every ad.
+ *
+ * @hide
+ */
+public final class AdTimeline {
+    /** Ads sorted by stop time. */
+    private final Advertisement[] mAdsByStop;
+    private final long[] mStopTimesMs;
+    /** mStopDurationPrefixMs[i] is the total duration of the first i ads by stop time. */
+    private final long[] mStopDurationPrefixMs;
+    /** Index of the earliest starting ad among mAdsByStop[i..]. */
+    private final int[] mEarliestStartFrom;
+
+    /**
+     * The start of every ad on the content timeline, which excludes the time taken by the ads
+     * before it, in start time order.
+     */
+    private final long[] mContentStartTimesMs;
+    /** mStartDurationPrefixMs[i] is the total duration of the first i ads by start time. */
+    private final long[] mStartDurationPrefixMs;
+
+    /** @param ads The advertisements of a program, in any order. */
+    public AdTimeline(@NonNull List<Advertisement> ads) {
+        int count = ads.size();
+
+        List<Advertisement> adsByStart = new ArrayList<>(ads);
+        Collections.sort(adsByStart);
+        mContentStartTimesMs = new long[count];
+        mStartDurationPrefixMs = new long[count + 1];
+        for (int i = 0; i < count; i++) {
+            Advertisement ad = adsByStart.get(i);
+            mContentStartTimesMs[i] = ad.getStartTimeUtcMillis() - mStartDurationPrefixMs[i];
+            mStartDurationPrefixMs[i + 1] = mStartDurationPrefixMs[i] + getDurationMs(ad);
+        }
+
+        List<Advertisement> adsByStop = new ArrayList<>(ads);
+        Collections.sort(
+                adsByStop,
+                new Comparator<Advertisement>() {
+                    @Override
+                    public int compare(Advertisement a, Advertisement b) {
+                        return Long.compare(a.getStopTimeUtcMillis(), b.getStopTimeUtcMillis());
+                    }
+                });
+        mAdsByStop = adsByStop.toArray(new Advertisement[count]);
+        mStopTimesMs = new long[count];
+        mStopDurationPrefixMs = new long[count + 1];
+        for (int i = 0; i < count; i++) {
+            mStopTimesMs[i] = mAdsByStop[i].getStopTimeUtcMillis();
+            mStopDurationPrefixMs[i + 1] = mStopDurationPrefixMs[i] + getDurationMs(mAdsByStop[i]);
+        }
+        mEarliestStartFrom = new int[count];
+        for (int i = count - 1; i >= 0; i--) {
+            mEarliestStartFrom[i] = i;
+            if (i + 1 < count
+                    && mAdsByStop[mEarliestStartFrom[i + 1]].getStartTimeUtcMillis()
+                            < mAdsByStop[i].getStartTimeUtcMillis()) {
+                mEarliestStartFrom[i] = mEarliestStartFrom[i + 1];
+            }
+        }
+    }
+
+    /** @return Whether the program has no advertisements. */
+    public boolean isEmpty() {
+        return mAdsByStop.length == 0;
+    }
+
+    /**
+     * @param timeMs Epoch time in milliseconds.
+     * @return The total duration of the ads which stop before the given time.
+     */
+    public long getDurationOfAdsStoppingBefore(long timeMs) {
+        return mStopDurationPrefixMs[countLessThan(mStopTimesMs, timeMs)];
+    }
+
+    /**
+     * @param timeMs Epoch time in milliseconds.
+     * @return The earliest starting ad among the ads which stop after the given time, or {@code
+     *     null} if there is none. The ad may have started before the given time.
+     */
+    public Advertisement getFirstAdStoppingAfter(long timeMs) {
+        int index = countLessThan(mStopTimesMs, timeMs + 1);
+        if (index == mAdsByStop.length) {
+            return null;
+        }
+        return mAdsByStop[mEarliestStartFrom[index]];
+    }
+
+    /**
+     * Returns how much ad time has passed when content playback reaches a given position. Ads are
+     * expected not to overlap.
+     *
+     * @param contentTimeMs The program start time plus the duration of program content played,
+     *     excluding the ads.
+     * @return The total duration of the ads which start before that point of the content.
+     */
+    public long getDurationOfAdsBeforeContentTime(long contentTimeMs) {
+        return mStartDurationPrefixMs[countLessThan(mContentStartTimesMs, contentTimeMs)];
+    }
+
+    private static long getDurationMs(Advertisement ad) {
+        return ad.getStopTimeUtcMillis() - ad.getStartTimeUtcMillis();
+    }
+
+    /** @return The number of values in the sorted array which are less than the given value. */
+    private static int countLessThan(long[] sortedValues, long value) {
+        int low = 0;
+        int high = sortedValues.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortedValues[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -24,6 +24,7 @@ import com.google.android.media.tv.companionlibrary.model.InternalProviderData;
 import com.google.android.media.tv.companionlibrary.model.Program;
 import com.google.android.media.tv.companionlibrary.sync.EpgSyncJobService;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /** EpgSyncJobService that inserts ads and repeats programs */
@@ -81,6 +82,7 @@ public abstract class EpgSyncWithAdsJobService extends EpgSyncJobService {
         // If repeat-programs is on, schedule the programs sequentially in a loop. To make every
         // device play the same program in a given channel and time, we assumes the loop started
         // from the epoch time.
+        final int programCount = programs.size();
         long totalDurationMs = 0;
         for (Program program : programs) {
             totalDurationMs += (program.getEndTimeUtcMillis() - program.getStartTimeUtcMillis());
@@ -90,65 +92,121 @@ public abstract class EpgSyncWithAdsJobService extends EpgSyncJobService {
                     "The duration of all programs must be greater " + "than 0ms.");
         }
 
-        long programStartTimeMs = startTimeMs - startTimeMs % totalDurationMs;
-        int i = 0;
-        final int programCount = programs.size();
-        while (programStartTimeMs < endTimeMs) {
-            Program programInfo = programs.get(i++ % programCount);
-            long programEndTimeMs = programStartTimeMs + totalDurationMs;
-            if (programInfo.getEndTimeUtcMillis() > -1
-                    && programInfo.getStartTimeUtcMillis() > -1) {
-                programEndTimeMs =
-                        programStartTimeMs
-                                + (programInfo.getEndTimeUtcMillis()
-                                        - programInfo.getStartTimeUtcMillis());
-            }
-            if (programEndTimeMs < startTimeMs) {
-                programStartTimeMs = programEndTimeMs;
-                continue;
+        // durationPrefixMs[i] is the offset of the i-th program from the start of the loop, so the
+        // first program overlapping the requested range can be found directly instead of walking
+        // every program that ends before it.
+        long[] durationPrefixMs = new long[programCount + 1];
+        List<RepeatedProgramTemplate> templates = new ArrayList<>(programCount);
+        for (int i = 0; i < programCount; i++) {
+            Program program = programs.get(i);
+            long durationMs = totalDurationMs;
+            if (program.getEndTimeUtcMillis() > -1 && program.getStartTimeUtcMillis() > -1) {
+                durationMs = program.getEndTimeUtcMillis() - program.getStartTimeUtcMillis();
             }
-            // Shift advertisement time to match current program time.
-            InternalProviderData updateInternalProviderData = programInfo.getInternalProviderData();
-            shiftAdsTimeWithProgram(
-                    updateInternalProviderData,
-                    programInfo.getStartTimeUtcMillis(),
-                    programStartTimeMs);
-            programForGivenTime.add(
-                    new Program.Builder(programInfo)
-                            .setChannelId(channel.getId())
-                            .setStartTimeUtcMillis(programStartTimeMs)
-                            .setEndTimeUtcMillis(programEndTimeMs)
-                            .setInternalProviderData(updateInternalProviderData)
-                            .build());
-            programStartTimeMs = programEndTimeMs;
+            durationPrefixMs[i + 1] = durationPrefixMs[i] + durationMs;
+            templates.add(new RepeatedProgramTemplate(program, channel.getId(), durationMs));
+        }
+
+        long loopStartTimeMs = startTimeMs - startTimeMs % totalDurationMs;
+        int i = findFirstProgramEndingAtOrAfter(durationPrefixMs, startTimeMs - loopStartTimeMs);
+        long programStartTimeMs = loopStartTimeMs + durationPrefixMs[i];
+        while (programStartTimeMs < endTimeMs) {
+            Program program = templates.get(i).createProgram(programStartTimeMs);
+            programForGivenTime.add(program);
+            programStartTimeMs = program.getEndTimeUtcMillis();
+            i = (i + 1) % programCount;
         }
         return programForGivenTime;
     }
 
+    /**
+     * Finds the first program in the loop that ends at or after the given offset.
+     *
+     * @param durationPrefixMs Start offsets of every program in the loop, followed by the length
+     *     of the loop.
+     * @param offsetMs An offset from the start of the loop, smaller than the length of the loop.
+     * @return The index of the program.
+     */
+    private static int findFirstProgramEndingAtOrAfter(long[] durationPrefixMs, long offsetMs) {
+        int low = 0;
+        int high = durationPrefixMs.length - 2;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (durationPrefixMs[mid + 1] < offsetMs) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
     /**
      * Shift advertisement time to match program playback time. For channels with repeated program,
      * the time for current program may vary from what it was defined previously.
      *
-     * @param oldProgramStartTimeMs Outdated program start time.
-     * @param newProgramStartTimeMs Updated program start time.
+     * @param ads The advertisements to shift.
+     * @param timeShiftMs The time to add to the start and stop time of every advertisement.
+     * @return The shifted advertisements.
      */
-    private static void shiftAdsTimeWithProgram(
-            InternalProviderData internalProviderData,
-            long oldProgramStartTimeMs,
-            long newProgramStartTimeMs) {
-        if (internalProviderData == null) {
-            return;
-        }
-        long timeShift = newProgramStartTimeMs - oldProgramStartTimeMs;
-        List<Advertisement> oldAds = internalProviderData.getAds();
-        List<Advertisement> newAds = new ArrayList<>();
-        for (Advertisement oldAd : oldAds) {
-            newAds.add(
-                    new Advertisement.Builder(oldAd)
-                            .setStartTimeUtcMillis(oldAd.getStartTimeUtcMillis() + timeShift)
-                            .setStopTimeUtcMillis(oldAd.getStopTimeUtcMillis() + timeShift)
+    private static List<Advertisement> shiftAds(List<Advertisement> ads, long timeShiftMs) {
+        List<Advertisement> shiftedAds = new ArrayList<>(ads.size());
+        for (Advertisement ad : ads) {
+            shiftedAds.add(
+                    new Advertisement.Builder(ad)
+                            .setStartTimeUtcMillis(ad.getStartTimeUtcMillis() + timeShiftMs)
+                            .setStopTimeUtcMillis(ad.getStopTimeUtcMillis() + timeShiftMs)
                             .build());
         }
-        internalProviderData.setAds(newAds);
+        return shiftedAds;
+    }
+
+    /**
+     * Everything needed to place one of the original programs anywhere in the loop. It is created
+     * once per original program and shared by all of its repetitions, so the cost of repeating a
+     * program grows with the number of original programs rather than the number of repetitions.
+     */
+    private static final class RepeatedProgramTemplate {
+        private final Program mProgram;
+        private final long mDurationMs;
+        /** The ads of the program, with times relative to the start of the program. */
+        private final List<Advertisement> mRelativeAds;
+        /** Serializes the internal provider data of the program, parsed only once. */
+        private final InternalProviderData.AdsSerializer mAdsSerializer;
+
+        RepeatedProgramTemplate(Program program, long channelId, long durationMs) {
+            mProgram = new Program.Builder(program).setChannelId(channelId).build();
+            mDurationMs = durationMs;
+            InternalProviderData internalProviderData = program.getInternalProviderData();
+            if (internalProviderData == null) {
+                mRelativeAds = Collections.emptyList();
+                mAdsSerializer = null;
+            } else {
+                mRelativeAds =
+                        Collections.unmodifiableList(
+                                shiftAds(
+                                        internalProviderData.getAds(),
+                                        -program.getStartTimeUtcMillis()));
+                mAdsSerializer = internalProviderData.newAdsSerializer();
+            }
+        }
+
+        /**
+         * @param startTimeMs The start time of this repetition of the program.
+         * @return The program starting at the given time, with its ads moved along with it.
+         */
+        Program createProgram(long startTimeMs) {
+            Program.Builder builder =
+                    new Program.Builder(mProgram)
+                            .setStartTimeUtcMillis(startTimeMs)
+                            .setEndTimeUtcMillis(startTimeMs + mDurationMs);
+            if (!mRelativeAds.isEmpty()) {
+                // Only programs with ads need their own internal provider data. The others share
+                // the bytes of the original program.
+                builder.setInternalProviderData(
+                        mAdsSerializer.serialize(mRelativeAds, startTimeMs).getBytes());
+            }
+            return builder.build();
+        }
     }
 }
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.media.tv.companionlibrary.ads;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+import android.util.LruCache;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the ad decisions made for <a
+ * href="http://www.iab.com/guidelines/digital-video-ad-serving-template-vast-3-0/">VAST</a> ad
+ * request URLs, so that ad breaks which reuse the same ad tag within the lifetime of a decision
+ * do not make another request to the ad server.
+ *
+ * <p>The ad server is always asked through IMA, which expands the macros of the ad tag, follows
+ * wrappers and picks the media files to play. The cache keeps the media file URLs IMA resolved,
+ * or that the ad server returned no ads, for a fixed lifetime, since IMA does not expose the
+ * caching headers of the responses. Breaks played from the cache do not report impressions to
+ * the ad server, so the lifetime should not exceed how long the ad server allows an ad decision
+ * to be reused.
+ *
+ * @hide
+ */
+public class VastResponseCache {
+    /** The default lifetime of an ad decision. */
+    public static final long DEFAULT_TTL_MS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final int DEFAULT_MAX_ENTRIES = 16;
+
+    private static VastResponseCache sInstance;
+
+    private final LruCache<String, Entry> mEntries;
+    private final long mTtlMs;
+
+    /** @return The cache shared by all ad requests of this process. */
+    public static synchronized VastResponseCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new VastResponseCache(DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MS);
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param maxEntries The maximum number of ad request URLs to keep decisions for.
+     * @param ttlMs The lifetime of an ad decision.
+     */
+    public VastResponseCache(int maxEntries, long ttlMs) {
+        mEntries = new LruCache<>(maxEntries);
+        mTtlMs = ttlMs;
+    }
+
+    /**
+     * Returns the cached ad decision for the given ad request URL, if it has not expired yet.
+     *
+     * @param adRequestUrl URL of the ad's VAST XML.
+     * @return The cached decision, or {@code null} if there is none.
+     */
+    public Entry get(@NonNull String adRequestUrl) {
+        Entry entry = mEntries.get(adRequestUrl);
+        if (entry != null && entry.getExpiryTimeMs() <= currentTimeMillis()) {
+            mEntries.remove(adRequestUrl);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Caches the ad decision IMA made for the given ad request URL.
+     *
+     * @param adRequestUrl URL of the ad's VAST XML.
+     * @param mediaFileUrls The URLs of the media files IMA resolved, in the order they were
+     *     played, or an empty list if the ad server returned no ads.
+     * @return The cached decision.
+     */
+    public Entry put(@NonNull String adRequestUrl, @NonNull List<String> mediaFileUrls) {
+        Entry entry = new Entry(mediaFileUrls, currentTimeMillis() + mTtlMs);
+        if (mTtlMs > 0) {
+            mEntries.put(adRequestUrl, entry);
+        }
+        return entry;
+    }
+
+    /** Removes all cached decisions. */
+    public void clear() {
+        mEntries.evictAll();
+    }
+
+    @VisibleForTesting
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /** An ad decision of the ad server, as resolved by IMA. */
+    public static final class Entry {
+        private final List<String> mMediaFileUrls;
+        private final long mExpiryTimeMs;
+
+        private Entry(List<String> mediaFileUrls, long expiryTimeMs) {
+            mMediaFileUrls = Collections.unmodifiableList(new ArrayList<>(mediaFileUrls));
+            mExpiryTimeMs = expiryTimeMs;
+        }
+
+        /** @return The URLs of the media files to play, which is empty if there are no ads. */
+        public List<String> getMediaFileUrls() {
+            return mMediaFileUrls;
+        }
+
+        /** @return Whether the ad server returned any ads. */
+        public boolean hasAds() {
+            return !mMediaFileUrls.isEmpty();
+        }
+
+        /** @return Epoch time in milliseconds after which the decision must not be reused. */
+        public long getExpiryTimeMs() {
+            return mExpiryTimeMs;
+        }
+    }
+}
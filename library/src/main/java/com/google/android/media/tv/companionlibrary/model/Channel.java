@@ -19,6 +19,7 @@ package com.google.android.media.tv.companionlibrary.model;
 import android.content.ContentValues;
 import android.content.Intent;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.media.tv.TvContract;
 import android.os.Build;
 import android.text.TextUtils;
@@ -345,76 +346,13 @@ public final class Channel {
      * Creates a Channel object from a cursor including the fields defined in {@link
      * TvContract.Channels}.
      *
-     * @param cursor A row from the TV Input Framework database.
+     * @param cursor A row from the TV Input Framework database, with the columns of {@link
+     *     #PROJECTION} in that order.
      * @return A channel with the values taken from the cursor.
      * @hide
      */
     public static Channel fromCursor(Cursor cursor) {
-        Builder builder = new Builder();
-        int index = 0;
-        if (!cursor.isNull(index)) {
-            builder.setId(cursor.getLong(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setDescription(cursor.getString(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setDisplayName(cursor.getString(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setDisplayNumber(cursor.getString(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setInputId(cursor.getString(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setInternalProviderData(cursor.getBlob(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setNetworkAffiliation(cursor.getString(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setOriginalNetworkId(cursor.getLong(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setPackageName(cursor.getString(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setSearchable(cursor.getInt(index) == IS_SEARCHABLE);
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setServiceId(cursor.getInt(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setServiceType(cursor.getString(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setTransportStreamId(cursor.getInt(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setType(cursor.getString(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setVideoFormat(cursor.getString(index));
-        }
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            if (!cursor.isNull(++index)) {
-                builder.setAppLinkColor(cursor.getInt(index));
-            }
-            if (!cursor.isNull(++index)) {
-                builder.setAppLinkIconUri(cursor.getString(index));
-            }
-            if (!cursor.isNull(++index)) {
-                builder.setAppLinkIntentUri(cursor.getString(index));
-            }
-            if (!cursor.isNull(++index)) {
-                builder.setAppLinkPosterArtUri(cursor.getString(index));
-            }
-            if (!cursor.isNull(++index)) {
-                builder.setAppLinkText(cursor.getString(index));
-            }
-        }
-        return builder.build();
+        return CursorReader.PROJECTION_READER.read(cursor);
     }
 
     private static String[] getProjection() {
@@ -450,6 +388,160 @@ public final class Channel {
         return baseColumns;
     }
 
+    /**
+     * Reads {@link Channel} objects from the rows of a cursor. Column indices and the API level
+     * dependent layout are resolved once when the reader is created, so use a single reader for
+     * every row of a cursor. {@link #fromCursor(Cursor)} reads cursors with the columns of {@link
+     * #PROJECTION} with a reader shared by the process.
+     *
+     * @hide
+     */
+    public static final class CursorReader {
+        // Reads cursors whose columns are those of PROJECTION, without looking up their indices.
+        private static final CursorReader PROJECTION_READER =
+                new CursorReader(new MatrixCursor(PROJECTION));
+
+        private final Cursor mCursor;
+        private final int mIdIndex;
+        private final int mDescriptionIndex;
+        private final int mDisplayNameIndex;
+        private final int mDisplayNumberIndex;
+        private final int mInputIdIndex;
+        private final int mInternalProviderDataIndex;
+        private final int mNetworkAffiliationIndex;
+        private final int mOriginalNetworkIdIndex;
+        private final int mPackageNameIndex;
+        private final int mSearchableIndex;
+        private final int mServiceIdIndex;
+        private final int mServiceTypeIndex;
+        private final int mTransportStreamIdIndex;
+        private final int mTypeIndex;
+        private final int mVideoFormatIndex;
+        private final int mAppLinkColorIndex;
+        private final int mAppLinkIconUriIndex;
+        private final int mAppLinkIntentUriIndex;
+        private final int mAppLinkPosterArtUriIndex;
+        private final int mAppLinkTextIndex;
+
+        /**
+         * @param cursor A cursor whose columns include those of {@link #PROJECTION}. Columns
+         *     missing from the cursor are left unset on the channels read from it.
+         */
+        public CursorReader(Cursor cursor) {
+            mCursor = cursor;
+            mIdIndex = cursor.getColumnIndex(TvContract.Channels._ID);
+            mDescriptionIndex = cursor.getColumnIndex(TvContract.Channels.COLUMN_DESCRIPTION);
+            mDisplayNameIndex = cursor.getColumnIndex(TvContract.Channels.COLUMN_DISPLAY_NAME);
+            mDisplayNumberIndex = cursor.getColumnIndex(TvContract.Channels.COLUMN_DISPLAY_NUMBER);
+            mInputIdIndex = cursor.getColumnIndex(TvContract.Channels.COLUMN_INPUT_ID);
+            mInternalProviderDataIndex =
+                    cursor.getColumnIndex(TvContract.Channels.COLUMN_INTERNAL_PROVIDER_DATA);
+            mNetworkAffiliationIndex =
+                    cursor.getColumnIndex(TvContract.Channels.COLUMN_NETWORK_AFFILIATION);
+            mOriginalNetworkIdIndex =
+                    cursor.getColumnIndex(TvContract.Channels.COLUMN_ORIGINAL_NETWORK_ID);
+            mPackageNameIndex = cursor.getColumnIndex(TvContract.Channels.COLUMN_PACKAGE_NAME);
+            mSearchableIndex = cursor.getColumnIndex(TvContract.Channels.COLUMN_SEARCHABLE);
+            mServiceIdIndex = cursor.getColumnIndex(TvContract.Channels.COLUMN_SERVICE_ID);
+            mServiceTypeIndex = cursor.getColumnIndex(TvContract.Channels.COLUMN_SERVICE_TYPE);
+            mTransportStreamIdIndex =
+                    cursor.getColumnIndex(TvContract.Channels.COLUMN_TRANSPORT_STREAM_ID);
+            mTypeIndex = cursor.getColumnIndex(TvContract.Channels.COLUMN_TYPE);
+            mVideoFormatIndex = cursor.getColumnIndex(TvContract.Channels.COLUMN_VIDEO_FORMAT);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                mAppLinkColorIndex =
+                        cursor.getColumnIndex(TvContract.Channels.COLUMN_APP_LINK_COLOR);
+                mAppLinkIconUriIndex =
+                        cursor.getColumnIndex(TvContract.Channels.COLUMN_APP_LINK_ICON_URI);
+                mAppLinkIntentUriIndex =
+                        cursor.getColumnIndex(TvContract.Channels.COLUMN_APP_LINK_INTENT_URI);
+                mAppLinkPosterArtUriIndex =
+                        cursor.getColumnIndex(TvContract.Channels.COLUMN_APP_LINK_POSTER_ART_URI);
+                mAppLinkTextIndex = cursor.getColumnIndex(TvContract.Channels.COLUMN_APP_LINK_TEXT);
+            } else {
+                mAppLinkColorIndex = -1;
+                mAppLinkIconUriIndex = -1;
+                mAppLinkIntentUriIndex = -1;
+                mAppLinkPosterArtUriIndex = -1;
+                mAppLinkTextIndex = -1;
+            }
+        }
+
+        /** @return A Channel with the values taken from the current row of the cursor. */
+        public Channel read() {
+            return read(mCursor);
+        }
+
+        private Channel read(Cursor cursor) {
+            Builder builder = new Builder();
+            if (hasValue(cursor, mIdIndex)) {
+                builder.setId(cursor.getLong(mIdIndex));
+            }
+            if (hasValue(cursor, mDescriptionIndex)) {
+                builder.setDescription(cursor.getString(mDescriptionIndex));
+            }
+            if (hasValue(cursor, mDisplayNameIndex)) {
+                builder.setDisplayName(cursor.getString(mDisplayNameIndex));
+            }
+            if (hasValue(cursor, mDisplayNumberIndex)) {
+                builder.setDisplayNumber(cursor.getString(mDisplayNumberIndex));
+            }
+            if (hasValue(cursor, mInputIdIndex)) {
+                builder.setInputId(cursor.getString(mInputIdIndex));
+            }
+            if (hasValue(cursor, mInternalProviderDataIndex)) {
+                builder.setInternalProviderData(cursor.getBlob(mInternalProviderDataIndex));
+            }
+            if (hasValue(cursor, mNetworkAffiliationIndex)) {
+                builder.setNetworkAffiliation(cursor.getString(mNetworkAffiliationIndex));
+            }
+            if (hasValue(cursor, mOriginalNetworkIdIndex)) {
+                builder.setOriginalNetworkId(cursor.getLong(mOriginalNetworkIdIndex));
+            }
+            if (hasValue(cursor, mPackageNameIndex)) {
+                builder.setPackageName(cursor.getString(mPackageNameIndex));
+            }
+            if (hasValue(cursor, mSearchableIndex)) {
+                builder.setSearchable(cursor.getInt(mSearchableIndex) == IS_SEARCHABLE);
+            }
+            if (hasValue(cursor, mServiceIdIndex)) {
+                builder.setServiceId(cursor.getInt(mServiceIdIndex));
+            }
+            if (hasValue(cursor, mServiceTypeIndex)) {
+                builder.setServiceType(cursor.getString(mServiceTypeIndex));
+            }
+            if (hasValue(cursor, mTransportStreamIdIndex)) {
+                builder.setTransportStreamId(cursor.getInt(mTransportStreamIdIndex));
+            }
+            if (hasValue(cursor, mTypeIndex)) {
+                builder.setType(cursor.getString(mTypeIndex));
+            }
+            if (hasValue(cursor, mVideoFormatIndex)) {
+                builder.setVideoFormat(cursor.getString(mVideoFormatIndex));
+            }
+            if (hasValue(cursor, mAppLinkColorIndex)) {
+                builder.setAppLinkColor(cursor.getInt(mAppLinkColorIndex));
+            }
+            if (hasValue(cursor, mAppLinkIconUriIndex)) {
+                builder.setAppLinkIconUri(cursor.getString(mAppLinkIconUriIndex));
+            }
+            if (hasValue(cursor, mAppLinkIntentUriIndex)) {
+                builder.setAppLinkIntentUri(cursor.getString(mAppLinkIntentUriIndex));
+            }
+            if (hasValue(cursor, mAppLinkPosterArtUriIndex)) {
+                builder.setAppLinkPosterArtUri(cursor.getString(mAppLinkPosterArtUriIndex));
+            }
+            if (hasValue(cursor, mAppLinkTextIndex)) {
+                builder.setAppLinkText(cursor.getString(mAppLinkTextIndex));
+            }
+            return builder.build();
+        }
+
+        private static boolean hasValue(Cursor cursor, int index) {
+            return index >= 0 && !cursor.isNull(index);
+        }
+    }
+
     /** The builder class that makes it easy to chain setters to create a {@link Channel} object. */
     public static final class Builder {
         private final Channel mChannel;
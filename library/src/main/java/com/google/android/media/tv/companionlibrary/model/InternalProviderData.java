@@ -24,6 +24,7 @@ import java.util.List;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONStringer;
 
 /**
  * This is a serialized class used for storing and retrieving serialized data from {@link
@@ -378,6 +379,82 @@ public class InternalProviderData {
         }
     }
 
+    /**
+     * Creates a serializer for copies of this data which differ only in their advertisements.
+     *
+     * @return A serializer that holds everything but the advertisements of this data, already
+     *     serialized.
+     * @hide
+     */
+    public AdsSerializer newAdsSerializer() {
+        JSONObject jsonWithoutAds = new JSONObject();
+        Iterator<String> keys = mJsonObject.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            if (!KEY_ADVERTISEMENTS.equals(key)) {
+                try {
+                    jsonWithoutAds.put(key, mJsonObject.get(key));
+                } catch (JSONException ignored) {
+                }
+            }
+        }
+        return new AdsSerializer(jsonWithoutAds.toString());
+    }
+
+    /**
+     * Serializes copies of an InternalProviderData with different advertisements, without
+     * serializing the rest of the data again for every copy. The result is the same data that
+     * {@link #setAds(List)} followed by {@link #toString()} would produce, apart from the order of
+     * the keys.
+     *
+     * @hide
+     */
+    public static final class AdsSerializer {
+        private final String mJsonWithoutAds;
+        /** The JSON without advertisements, up to where the list of advertisements goes. */
+        private final String mPrefix;
+
+        private AdsSerializer(String jsonWithoutAds) {
+            mJsonWithoutAds = jsonWithoutAds;
+            String prefix = jsonWithoutAds.substring(0, jsonWithoutAds.length() - 1);
+            if (!"{}".equals(jsonWithoutAds)) {
+                prefix += ",";
+            }
+            mPrefix = prefix + JSONObject.quote(KEY_ADVERTISEMENTS) + ":";
+        }
+
+        /**
+         * @param ads The advertisements of the copy.
+         * @param timeShiftMs The time to add to the start and stop time of every advertisement.
+         * @return The serialized copy, in the format of {@link #toString()}.
+         */
+        public String serialize(List<Advertisement> ads, long timeShiftMs) {
+            if (ads == null || ads.isEmpty()) {
+                return mJsonWithoutAds;
+            }
+            try {
+                JSONStringer adsJson = new JSONStringer().array();
+                for (Advertisement ad : ads) {
+                    adsJson.object()
+                            .key(KEY_ADVERTISEMENT_START)
+                            .value(ad.getStartTimeUtcMillis() + timeShiftMs)
+                            .key(KEY_ADVERTISEMENT_STOP)
+                            .value(ad.getStopTimeUtcMillis() + timeShiftMs)
+                            .key(KEY_ADVERTISEMENT_TYPE)
+                            .value(ad.getType());
+                    if (ad.getRequestUrl() != null) {
+                        adsJson.key(KEY_ADVERTISEMENT_REQUEST_URL).value(ad.getRequestUrl());
+                    }
+                    adsJson.endObject();
+                }
+                return mPrefix + adsJson.endArray() + "}";
+            } catch (JSONException e) {
+                // Only longs, ints and strings are written, which are always valid JSON values.
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
     /**
      * This exception is thrown when an error occurs in getting or setting data for the
      * InternalProviderData.
@@ -23,12 +23,11 @@ import android.database.Cursor;
 import android.media.tv.TvContract;
 import android.media.tv.TvContract.Channels;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.support.annotation.NonNull;
 import android.text.TextUtils;
 import android.util.Log;
 import android.util.LongSparseArray;
-import com.google.android.media.tv.companionlibrary.utils.TvContractUtils.InsertLogosTask;
+import com.google.android.media.tv.companionlibrary.utils.ChannelLogoLoader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -125,7 +124,7 @@ public final class ModelUtils {
             }
         }
         if (!logos.isEmpty()) {
-            new InsertLogosTask(context).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, logos);
+            ChannelLogoLoader.getInstance(context).insertLogosAsync(logos);
         }
 
         // Deletes channels which don't exist in the new feed.
@@ -175,8 +174,9 @@ public final class ModelUtils {
                 return null;
             }
 
+            Channel.CursorReader reader = new Channel.CursorReader(cursor);
             while (cursor.moveToNext()) {
-                Channel nextChannel = Channel.fromCursor(cursor);
+                Channel nextChannel = reader.read();
                 channelMap.put(nextChannel.getId(), nextChannel);
             }
         } catch (Exception e) {
@@ -205,8 +205,9 @@ public final class ModelUtils {
             if (cursor == null || cursor.getCount() == 0) {
                 return channels;
             }
+            Channel.CursorReader reader = new Channel.CursorReader(cursor);
             while (cursor.moveToNext()) {
-                channels.add(Channel.fromCursor(cursor));
+                channels.add(reader.read());
             }
         } catch (Exception e) {
             Log.w(TAG, "Unable to get channels", e);
@@ -267,8 +268,9 @@ public final class ModelUtils {
             if (cursor == null || cursor.getCount() == 0) {
                 return programs;
             }
+            Program.CursorReader reader = new Program.CursorReader(cursor);
             while (cursor.moveToNext()) {
-                programs.add(Program.fromCursor(cursor));
+                programs.add(reader.read());
             }
         } catch (Exception e) {
             Log.w(TAG, "Unable to get programs for " + channelUri, e);
@@ -18,6 +18,7 @@ package com.google.android.media.tv.companionlibrary.model;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.media.tv.TvContentRating;
 import android.media.tv.TvContract;
 import android.os.Build;
@@ -61,6 +62,11 @@ public final class Program implements Comparable<Program> {
     private int mSearchable;
     private String mSeasonTitle;
 
+    // Programs are immutable once built, so the hash and the database representation only need
+    // to be computed once. Neither is carried over by copyFrom().
+    private int mHashCode;
+    private volatile ContentValues mContentValues;
+
     private Program() {
         mChannelId = INVALID_LONG_VALUE;
         mId = INVALID_LONG_VALUE;
@@ -218,6 +224,10 @@ public final class Program implements Comparable<Program> {
 
     @Override
     public int hashCode() {
+        return mHashCode;
+    }
+
+    private int computeHashCode() {
         return Objects.hash(
                 mChannelId,
                 mStartTimeUtcMillis,
@@ -241,7 +251,14 @@ public final class Program implements Comparable<Program> {
         if (!(other instanceof Program)) {
             return false;
         }
+        if (this == other) {
+            return true;
+        }
         Program program = (Program) other;
+        if (mHashCode != program.mHashCode) {
+            // Every field in the hash is also compared below, so this can only be a mismatch.
+            return false;
+        }
         return mChannelId == program.mChannelId
                 && mStartTimeUtcMillis == program.mStartTimeUtcMillis
                 && mEndTimeUtcMillis == program.mEndTimeUtcMillis
@@ -340,6 +357,16 @@ public final class Program implements Comparable<Program> {
      * @hide
      */
     public ContentValues toContentValues() {
+        ContentValues values = mContentValues;
+        if (values == null) {
+            values = buildContentValues();
+            mContentValues = values;
+        }
+        // Callers are free to modify the returned values, so hand out a copy of the cached ones.
+        return new ContentValues(values);
+    }
+
+    private ContentValues buildContentValues() {
         ContentValues values = new ContentValues();
         if (mId != INVALID_LONG_VALUE) {
             values.put(TvContract.Programs._ID, mId);
@@ -464,97 +491,13 @@ public final class Program implements Comparable<Program> {
      * Creates a Program object from a cursor including the fields defined in {@link
      * TvContract.Programs}.
      *
-     * @param cursor A row from the TV Input Framework database.
+     * @param cursor A row from the TV Input Framework database, with the columns of {@link
+     *     #PROJECTION} in that order.
      * @return A Program with the values taken from the cursor.
      * @hide
      */
     public static Program fromCursor(Cursor cursor) {
-        Builder builder = new Builder();
-        int index = 0;
-        if (!cursor.isNull(index)) {
-            builder.setId(cursor.getLong(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setChannelId(cursor.getLong(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setTitle(cursor.getString(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setEpisodeTitle(cursor.getString(index));
-        }
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-            if (!cursor.isNull(++index)) {
-                builder.setSeasonNumber(cursor.getString(index), INVALID_INT_VALUE);
-            }
-        } else {
-            if (!cursor.isNull(++index)) {
-                builder.setSeasonNumber(cursor.getInt(index));
-            }
-        }
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-            if (!cursor.isNull(++index)) {
-                builder.setEpisodeNumber(cursor.getString(index), INVALID_INT_VALUE);
-            }
-        } else {
-            if (!cursor.isNull(++index)) {
-                builder.setEpisodeNumber(cursor.getInt(index));
-            }
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setDescription(cursor.getString(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setLongDescription(cursor.getString(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setPosterArtUri(cursor.getString(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setThumbnailUri(cursor.getString(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setAudioLanguages(cursor.getString(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setBroadcastGenres(TvContract.Programs.Genres.decode(cursor.getString(index)));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setCanonicalGenres(TvContract.Programs.Genres.decode(cursor.getString(index)));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setContentRatings(
-                    TvContractUtils.stringToContentRatings(cursor.getString(index)));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setStartTimeUtcMillis(cursor.getLong(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setEndTimeUtcMillis(cursor.getLong(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setVideoWidth((int) cursor.getLong(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setVideoHeight((int) cursor.getLong(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setInternalProviderData(cursor.getBlob(index));
-        }
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            if (!cursor.isNull(++index)) {
-                builder.setSearchable(cursor.getInt(index) == IS_SEARCHABLE);
-            }
-        }
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-            if (!cursor.isNull(++index)) {
-                builder.setSeasonTitle(cursor.getString(index));
-            }
-            if (!cursor.isNull(++index)) {
-                builder.setRecordingProhibited(cursor.getInt(index) == IS_RECORDING_PROHIBITED);
-            }
-        }
-        return builder.build();
+        return CursorReader.PROJECTION_READER.read(cursor);
     }
 
     private static String[] getProjection() {
@@ -600,6 +543,197 @@ public final class Program implements Comparable<Program> {
         return baseColumns;
     }
 
+    /**
+     * Reads {@link Program} objects from the rows of a cursor. Column indices and the API level
+     * dependent layout are resolved once when the reader is created, so use a single reader for
+     * every row of a cursor. {@link #fromCursor(Cursor)} reads cursors with the columns of {@link
+     * #PROJECTION} with a reader shared by the process.
+     *
+     * @hide
+     */
+    public static final class CursorReader {
+        // Reads cursors whose columns are those of PROJECTION, without looking up their indices.
+        private static final CursorReader PROJECTION_READER =
+                new CursorReader(new MatrixCursor(PROJECTION));
+
+        private final Cursor mCursor;
+        private final boolean mHasDisplayNumbers;
+        private final int mIdIndex;
+        private final int mChannelIdIndex;
+        private final int mTitleIndex;
+        private final int mEpisodeTitleIndex;
+        private final int mSeasonNumberIndex;
+        private final int mEpisodeNumberIndex;
+        private final int mDescriptionIndex;
+        private final int mLongDescriptionIndex;
+        private final int mPosterArtUriIndex;
+        private final int mThumbnailUriIndex;
+        private final int mAudioLanguageIndex;
+        private final int mBroadcastGenreIndex;
+        private final int mCanonicalGenreIndex;
+        private final int mContentRatingIndex;
+        private final int mStartTimeIndex;
+        private final int mEndTimeIndex;
+        private final int mVideoWidthIndex;
+        private final int mVideoHeightIndex;
+        private final int mInternalProviderDataIndex;
+        private final int mSearchableIndex;
+        private final int mSeasonTitleIndex;
+        private final int mRecordingProhibitedIndex;
+
+        /**
+         * @param cursor A cursor whose columns include those of {@link #PROJECTION}. Columns
+         *     missing from the cursor are left unset on the programs read from it.
+         */
+        public CursorReader(Cursor cursor) {
+            mCursor = cursor;
+            mHasDisplayNumbers = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N;
+            mIdIndex = cursor.getColumnIndex(TvContract.Programs._ID);
+            mChannelIdIndex = cursor.getColumnIndex(TvContract.Programs.COLUMN_CHANNEL_ID);
+            mTitleIndex = cursor.getColumnIndex(TvContract.Programs.COLUMN_TITLE);
+            mEpisodeTitleIndex = cursor.getColumnIndex(TvContract.Programs.COLUMN_EPISODE_TITLE);
+            mSeasonNumberIndex =
+                    cursor.getColumnIndex(
+                            mHasDisplayNumbers
+                                    ? TvContract.Programs.COLUMN_SEASON_DISPLAY_NUMBER
+                                    : TvContract.Programs.COLUMN_SEASON_NUMBER);
+            mEpisodeNumberIndex =
+                    cursor.getColumnIndex(
+                            mHasDisplayNumbers
+                                    ? TvContract.Programs.COLUMN_EPISODE_DISPLAY_NUMBER
+                                    : TvContract.Programs.COLUMN_EPISODE_NUMBER);
+            mDescriptionIndex =
+                    cursor.getColumnIndex(TvContract.Programs.COLUMN_SHORT_DESCRIPTION);
+            mLongDescriptionIndex =
+                    cursor.getColumnIndex(TvContract.Programs.COLUMN_LONG_DESCRIPTION);
+            mPosterArtUriIndex = cursor.getColumnIndex(TvContract.Programs.COLUMN_POSTER_ART_URI);
+            mThumbnailUriIndex = cursor.getColumnIndex(TvContract.Programs.COLUMN_THUMBNAIL_URI);
+            mAudioLanguageIndex =
+                    cursor.getColumnIndex(TvContract.Programs.COLUMN_AUDIO_LANGUAGE);
+            mBroadcastGenreIndex =
+                    cursor.getColumnIndex(TvContract.Programs.COLUMN_BROADCAST_GENRE);
+            mCanonicalGenreIndex =
+                    cursor.getColumnIndex(TvContract.Programs.COLUMN_CANONICAL_GENRE);
+            mContentRatingIndex =
+                    cursor.getColumnIndex(TvContract.Programs.COLUMN_CONTENT_RATING);
+            mStartTimeIndex =
+                    cursor.getColumnIndex(TvContract.Programs.COLUMN_START_TIME_UTC_MILLIS);
+            mEndTimeIndex = cursor.getColumnIndex(TvContract.Programs.COLUMN_END_TIME_UTC_MILLIS);
+            mVideoWidthIndex = cursor.getColumnIndex(TvContract.Programs.COLUMN_VIDEO_WIDTH);
+            mVideoHeightIndex = cursor.getColumnIndex(TvContract.Programs.COLUMN_VIDEO_HEIGHT);
+            mInternalProviderDataIndex =
+                    cursor.getColumnIndex(TvContract.Programs.COLUMN_INTERNAL_PROVIDER_DATA);
+            mSearchableIndex =
+                    Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+                            ? cursor.getColumnIndex(TvContract.Programs.COLUMN_SEARCHABLE)
+                            : -1;
+            mSeasonTitleIndex =
+                    mHasDisplayNumbers
+                            ? cursor.getColumnIndex(TvContract.Programs.COLUMN_SEASON_TITLE)
+                            : -1;
+            mRecordingProhibitedIndex =
+                    mHasDisplayNumbers
+                            ? cursor.getColumnIndex(
+                                    TvContract.Programs.COLUMN_RECORDING_PROHIBITED)
+                            : -1;
+        }
+
+        /** @return A Program with the values taken from the current row of the cursor. */
+        public Program read() {
+            return read(mCursor);
+        }
+
+        private Program read(Cursor cursor) {
+            Builder builder = new Builder();
+            if (hasValue(cursor, mIdIndex)) {
+                builder.setId(cursor.getLong(mIdIndex));
+            }
+            if (hasValue(cursor, mChannelIdIndex)) {
+                builder.setChannelId(cursor.getLong(mChannelIdIndex));
+            }
+            if (hasValue(cursor, mTitleIndex)) {
+                builder.setTitle(cursor.getString(mTitleIndex));
+            }
+            if (hasValue(cursor, mEpisodeTitleIndex)) {
+                builder.setEpisodeTitle(cursor.getString(mEpisodeTitleIndex));
+            }
+            if (hasValue(cursor, mSeasonNumberIndex)) {
+                if (mHasDisplayNumbers) {
+                    builder.setSeasonNumber(
+                            cursor.getString(mSeasonNumberIndex), INVALID_INT_VALUE);
+                } else {
+                    builder.setSeasonNumber(cursor.getInt(mSeasonNumberIndex));
+                }
+            }
+            if (hasValue(cursor, mEpisodeNumberIndex)) {
+                if (mHasDisplayNumbers) {
+                    builder.setEpisodeNumber(
+                            cursor.getString(mEpisodeNumberIndex), INVALID_INT_VALUE);
+                } else {
+                    builder.setEpisodeNumber(cursor.getInt(mEpisodeNumberIndex));
+                }
+            }
+            if (hasValue(cursor, mDescriptionIndex)) {
+                builder.setDescription(cursor.getString(mDescriptionIndex));
+            }
+            if (hasValue(cursor, mLongDescriptionIndex)) {
+                builder.setLongDescription(cursor.getString(mLongDescriptionIndex));
+            }
+            if (hasValue(cursor, mPosterArtUriIndex)) {
+                builder.setPosterArtUri(cursor.getString(mPosterArtUriIndex));
+            }
+            if (hasValue(cursor, mThumbnailUriIndex)) {
+                builder.setThumbnailUri(cursor.getString(mThumbnailUriIndex));
+            }
+            if (hasValue(cursor, mAudioLanguageIndex)) {
+                builder.setAudioLanguages(cursor.getString(mAudioLanguageIndex));
+            }
+            if (hasValue(cursor, mBroadcastGenreIndex)) {
+                builder.setBroadcastGenres(
+                        TvContract.Programs.Genres.decode(cursor.getString(mBroadcastGenreIndex)));
+            }
+            if (hasValue(cursor, mCanonicalGenreIndex)) {
+                builder.setCanonicalGenres(
+                        TvContract.Programs.Genres.decode(cursor.getString(mCanonicalGenreIndex)));
+            }
+            if (hasValue(cursor, mContentRatingIndex)) {
+                builder.setContentRatings(
+                        TvContractUtils.stringToContentRatings(
+                                cursor.getString(mContentRatingIndex)));
+            }
+            if (hasValue(cursor, mStartTimeIndex)) {
+                builder.setStartTimeUtcMillis(cursor.getLong(mStartTimeIndex));
+            }
+            if (hasValue(cursor, mEndTimeIndex)) {
+                builder.setEndTimeUtcMillis(cursor.getLong(mEndTimeIndex));
+            }
+            if (hasValue(cursor, mVideoWidthIndex)) {
+                builder.setVideoWidth((int) cursor.getLong(mVideoWidthIndex));
+            }
+            if (hasValue(cursor, mVideoHeightIndex)) {
+                builder.setVideoHeight((int) cursor.getLong(mVideoHeightIndex));
+            }
+            if (hasValue(cursor, mInternalProviderDataIndex)) {
+                builder.setInternalProviderData(cursor.getBlob(mInternalProviderDataIndex));
+            }
+            if (hasValue(cursor, mSearchableIndex)) {
+                builder.setSearchable(cursor.getInt(mSearchableIndex) == IS_SEARCHABLE);
+            }
+            if (hasValue(cursor, mSeasonTitleIndex)) {
+                builder.setSeasonTitle(cursor.getString(mSeasonTitleIndex));
+            }
+            if (hasValue(cursor, mRecordingProhibitedIndex)) {
+                builder.setRecordingProhibited(
+                        cursor.getInt(mRecordingProhibitedIndex) == IS_RECORDING_PROHIBITED);
+            }
+            return builder.build();
+        }
+
+        private static boolean hasValue(Cursor cursor, int index) {
+            return index >= 0 && !cursor.isNull(index);
+        }
+    }
+
     /** This Builder class simplifies the creation of a {@link Program} object. */
     public static final class Builder {
         private final Program mProgram;
@@ -958,6 +1092,7 @@ public final class Program implements Comparable<Program> {
                 throw new IllegalArgumentException(
                         "This program must have defined start and end " + "times");
             }
+            program.mHashCode = program.computeHashCode();
             return program;
         }
     }
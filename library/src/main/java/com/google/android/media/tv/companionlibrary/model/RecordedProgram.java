@@ -18,6 +18,7 @@ package com.google.android.media.tv.companionlibrary.model;
 import android.annotation.TargetApi;
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.media.tv.TvContentRating;
 import android.media.tv.TvContract;
 import android.media.tv.TvInputService;
@@ -577,98 +578,223 @@ public class RecordedProgram {
      * Creates a RecordedProgram object from a cursor including the fields defined in {@link
      * TvContract.RecordedPrograms}.
      *
-     * @param cursor A row from the TV Input Framework database.
+     * @param cursor A row from the TV Input Framework database, with the columns of {@link
+     *     #PROJECTION} in that order.
      * @return A RecordedProgram with the values taken from the cursor.
      * @hide
      */
     public static RecordedProgram fromCursor(Cursor cursor) {
-        Builder builder = new Builder();
-        int index = 0;
-        if (!cursor.isNull(index)) {
-            builder.setId(cursor.getInt(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setAudioLanguages(cursor.getString(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setBroadcastGenres(TvContract.Programs.Genres.decode(cursor.getString(index)));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setCanonicalGenres(TvContract.Programs.Genres.decode(cursor.getString(index)));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setChannelId(cursor.getInt(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setContentRatings(
-                    TvContractUtils.stringToContentRatings(cursor.getString(index)));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setEndTimeUtcMillis(cursor.getLong(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setEpisodeDisplayNumber(
-                    cursor.getString(index), Integer.parseInt(cursor.getString(index)));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setEpisodeTitle(cursor.getString(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setInputId(cursor.getString(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setInternalProviderData(cursor.getBlob(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setLongDescription(cursor.getString(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setPosterArtUri(cursor.getString(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setRecordingDataBytes(cursor.getLong(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setRecordingDataUri(cursor.getString(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setRecordingDurationMillis(cursor.getLong(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setRecordingExpireTimeUtcMillis(cursor.getLong(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setSearchable(cursor.getInt(index) == IS_SEARCHABLE);
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setSeasonDisplayNumber(
-                    cursor.getString(index), Integer.parseInt(cursor.getString(index)));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setSeasonTitle(cursor.getString(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setShortDescription(cursor.getString(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setStartTimeUtcMillis(cursor.getLong(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setThumbnailUri(cursor.getString(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setTitle(cursor.getString(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setVersionNumber(cursor.getInt(index));
-        }
-        if (!cursor.isNull(++index)) {
-            builder.setVideoHeight(cursor.getInt(index));
+        return CursorReader.PROJECTION_READER.read(cursor);
+    }
+
+    /**
+     * Reads {@link RecordedProgram} objects from the rows of a cursor. Column indices are
+     * resolved once when the reader is created, so use a single reader for every row of a cursor.
+     * {@link #fromCursor(Cursor)} reads cursors with the columns of {@link #PROJECTION} with a
+     * reader shared by the process.
+     *
+     * @hide
+     */
+    public static final class CursorReader {
+        // Reads cursors whose columns are those of PROJECTION, without looking up their indices.
+        private static final CursorReader PROJECTION_READER =
+                new CursorReader(new MatrixCursor(PROJECTION));
+
+        private final Cursor mCursor;
+        private final int mIdIndex;
+        private final int mAudioLanguageIndex;
+        private final int mBroadcastGenreIndex;
+        private final int mCanonicalGenreIndex;
+        private final int mChannelIdIndex;
+        private final int mContentRatingIndex;
+        private final int mEndTimeIndex;
+        private final int mEpisodeDisplayNumberIndex;
+        private final int mEpisodeTitleIndex;
+        private final int mInputIdIndex;
+        private final int mInternalProviderDataIndex;
+        private final int mLongDescriptionIndex;
+        private final int mPosterArtUriIndex;
+        private final int mRecordingDataBytesIndex;
+        private final int mRecordingDataUriIndex;
+        private final int mRecordingDurationIndex;
+        private final int mRecordingExpireTimeIndex;
+        private final int mSearchableIndex;
+        private final int mSeasonDisplayNumberIndex;
+        private final int mSeasonTitleIndex;
+        private final int mShortDescriptionIndex;
+        private final int mStartTimeIndex;
+        private final int mThumbnailUriIndex;
+        private final int mTitleIndex;
+        private final int mVersionNumberIndex;
+        private final int mVideoHeightIndex;
+        private final int mVideoWidthIndex;
+
+        /**
+         * @param cursor A cursor whose columns include those of {@link #PROJECTION}. Columns
+         *     missing from the cursor are left unset on the programs read from it.
+         */
+        public CursorReader(Cursor cursor) {
+            mCursor = cursor;
+            mIdIndex = cursor.getColumnIndex(TvContract.RecordedPrograms._ID);
+            mAudioLanguageIndex =
+                    cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_AUDIO_LANGUAGE);
+            mBroadcastGenreIndex =
+                    cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_BROADCAST_GENRE);
+            mCanonicalGenreIndex =
+                    cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_CANONICAL_GENRE);
+            mChannelIdIndex = cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_CHANNEL_ID);
+            mContentRatingIndex =
+                    cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_CONTENT_RATING);
+            mEndTimeIndex =
+                    cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_END_TIME_UTC_MILLIS);
+            mEpisodeDisplayNumberIndex =
+                    cursor.getColumnIndex(
+                            TvContract.RecordedPrograms.COLUMN_EPISODE_DISPLAY_NUMBER);
+            mEpisodeTitleIndex =
+                    cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_EPISODE_TITLE);
+            mInputIdIndex = cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_INPUT_ID);
+            mInternalProviderDataIndex =
+                    cursor.getColumnIndex(
+                            TvContract.RecordedPrograms.COLUMN_INTERNAL_PROVIDER_DATA);
+            mLongDescriptionIndex =
+                    cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_LONG_DESCRIPTION);
+            mPosterArtUriIndex =
+                    cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_POSTER_ART_URI);
+            mRecordingDataBytesIndex =
+                    cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_RECORDING_DATA_BYTES);
+            mRecordingDataUriIndex =
+                    cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_RECORDING_DATA_URI);
+            mRecordingDurationIndex =
+                    cursor.getColumnIndex(
+                            TvContract.RecordedPrograms.COLUMN_RECORDING_DURATION_MILLIS);
+            mRecordingExpireTimeIndex =
+                    cursor.getColumnIndex(
+                            TvContract.RecordedPrograms.COLUMN_RECORDING_EXPIRE_TIME_UTC_MILLIS);
+            mSearchableIndex = cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_SEARCHABLE);
+            mSeasonDisplayNumberIndex =
+                    cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_SEASON_DISPLAY_NUMBER);
+            mSeasonTitleIndex =
+                    cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_SEASON_TITLE);
+            mShortDescriptionIndex =
+                    cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_SHORT_DESCRIPTION);
+            mStartTimeIndex =
+                    cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_START_TIME_UTC_MILLIS);
+            mThumbnailUriIndex =
+                    cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_THUMBNAIL_URI);
+            mTitleIndex = cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_TITLE);
+            mVersionNumberIndex =
+                    cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_VERSION_NUMBER);
+            mVideoHeightIndex =
+                    cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_VIDEO_HEIGHT);
+            mVideoWidthIndex =
+                    cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_VIDEO_WIDTH);
+        }
+
+        /** @return A RecordedProgram with the values taken from the current row of the cursor. */
+        public RecordedProgram read() {
+            return read(mCursor);
+        }
+
+        private RecordedProgram read(Cursor cursor) {
+            Builder builder = new Builder();
+            if (hasValue(cursor, mIdIndex)) {
+                builder.setId(cursor.getInt(mIdIndex));
+            }
+            if (hasValue(cursor, mAudioLanguageIndex)) {
+                builder.setAudioLanguages(cursor.getString(mAudioLanguageIndex));
+            }
+            if (hasValue(cursor, mBroadcastGenreIndex)) {
+                builder.setBroadcastGenres(
+                        TvContract.Programs.Genres.decode(
+                                cursor.getString(mBroadcastGenreIndex)));
+            }
+            if (hasValue(cursor, mCanonicalGenreIndex)) {
+                builder.setCanonicalGenres(
+                        TvContract.Programs.Genres.decode(
+                                cursor.getString(mCanonicalGenreIndex)));
+            }
+            if (hasValue(cursor, mChannelIdIndex)) {
+                builder.setChannelId(cursor.getInt(mChannelIdIndex));
+            }
+            if (hasValue(cursor, mContentRatingIndex)) {
+                builder.setContentRatings(
+                        TvContractUtils.stringToContentRatings(
+                                cursor.getString(mContentRatingIndex)));
+            }
+            if (hasValue(cursor, mEndTimeIndex)) {
+                builder.setEndTimeUtcMillis(cursor.getLong(mEndTimeIndex));
+            }
+            if (hasValue(cursor, mEpisodeDisplayNumberIndex)) {
+                String episodeDisplayNumber = cursor.getString(mEpisodeDisplayNumberIndex);
+                builder.setEpisodeDisplayNumber(
+                                episodeDisplayNumber, Integer.parseInt(episodeDisplayNumber));
+            }
+            if (hasValue(cursor, mEpisodeTitleIndex)) {
+                builder.setEpisodeTitle(cursor.getString(mEpisodeTitleIndex));
+            }
+            if (hasValue(cursor, mInputIdIndex)) {
+                builder.setInputId(cursor.getString(mInputIdIndex));
+            }
+            if (hasValue(cursor, mInternalProviderDataIndex)) {
+                builder.setInternalProviderData(cursor.getBlob(mInternalProviderDataIndex));
+            }
+            if (hasValue(cursor, mLongDescriptionIndex)) {
+                builder.setLongDescription(cursor.getString(mLongDescriptionIndex));
+            }
+            if (hasValue(cursor, mPosterArtUriIndex)) {
+                builder.setPosterArtUri(cursor.getString(mPosterArtUriIndex));
+            }
+            if (hasValue(cursor, mRecordingDataBytesIndex)) {
+                builder.setRecordingDataBytes(cursor.getLong(mRecordingDataBytesIndex));
+            }
+            if (hasValue(cursor, mRecordingDataUriIndex)) {
+                builder.setRecordingDataUri(cursor.getString(mRecordingDataUriIndex));
+            }
+            if (hasValue(cursor, mRecordingDurationIndex)) {
+                builder.setRecordingDurationMillis(cursor.getLong(mRecordingDurationIndex));
+            }
+            if (hasValue(cursor, mRecordingExpireTimeIndex)) {
+                builder.setRecordingExpireTimeUtcMillis(
+                                cursor.getLong(mRecordingExpireTimeIndex));
+            }
+            if (hasValue(cursor, mSearchableIndex)) {
+                builder.setSearchable(cursor.getInt(mSearchableIndex) == IS_SEARCHABLE);
+            }
+            if (hasValue(cursor, mSeasonDisplayNumberIndex)) {
+                String seasonDisplayNumber = cursor.getString(mSeasonDisplayNumberIndex);
+                builder.setSeasonDisplayNumber(
+                                seasonDisplayNumber, Integer.parseInt(seasonDisplayNumber));
+            }
+            if (hasValue(cursor, mSeasonTitleIndex)) {
+                builder.setSeasonTitle(cursor.getString(mSeasonTitleIndex));
+            }
+            if (hasValue(cursor, mShortDescriptionIndex)) {
+                builder.setShortDescription(cursor.getString(mShortDescriptionIndex));
+            }
+            if (hasValue(cursor, mStartTimeIndex)) {
+                builder.setStartTimeUtcMillis(cursor.getLong(mStartTimeIndex));
+            }
+            if (hasValue(cursor, mThumbnailUriIndex)) {
+                builder.setThumbnailUri(cursor.getString(mThumbnailUriIndex));
+            }
+            if (hasValue(cursor, mTitleIndex)) {
+                builder.setTitle(cursor.getString(mTitleIndex));
+            }
+            if (hasValue(cursor, mVersionNumberIndex)) {
+                builder.setVersionNumber(cursor.getInt(mVersionNumberIndex));
+            }
+            if (hasValue(cursor, mVideoHeightIndex)) {
+                builder.setVideoHeight(cursor.getInt(mVideoHeightIndex));
+            }
+            if (hasValue(cursor, mVideoWidthIndex)) {
+                builder.setVideoWidth(cursor.getInt(mVideoWidthIndex));
+            }
+            return builder.build();
         }
-        if (!cursor.isNull(++index)) {
-            builder.setVideoWidth(cursor.getInt(index));
+
+        private static boolean hasValue(Cursor cursor, int index) {
+            return index >= 0 && !cursor.isNull(index);
         }
-        return builder.build();
     }
 
     /** This Builder class simplifies the creation of a {@link RecordedProgram} object. */
@@ -0,0 +1,474 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.media.tv.companionlibrary.recording;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.media.tv.TvInputInfo;
+import android.media.tv.TvInputManager;
+import android.net.Uri;
+import android.os.Build;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Captures live streams to app storage, for the recording sessions of TV inputs.
+ *
+ * <p>Each recording is captured on its own thread into a directory of segment files, with a
+ * {@link RecordingIndex} listing them. The stream is stored as it is received, such as an MPEG
+ * transport stream, so no remuxing is needed to play it back. Local sources are copied with
+ * {@link FileChannel#transferTo}, which lets the kernel move the data without it passing through
+ * the app. Network sources are not: their input stream is read into a byte array, which is copied
+ * into a single buffer per recording and written from there to the segment files.
+ *
+ * <p>A TV input has as many recordings at a time as it has tuners, as set by {@code
+ * android:tunerCount} in its {@link TvInputInfo}. A recording holds its tuner until it is stopped,
+ * even if its stream ended before.
+ */
+public class RecordingEngine {
+    private static final String TAG = "RecordingEngine";
+    private static final boolean DEBUG = false;
+
+    private static final String RECORDINGS_DIRECTORY = "recordings";
+    private static final long DEFAULT_SEGMENT_SIZE_BYTES = 32 * 1024 * 1024;
+    private static final int TRANSFER_SIZE_BYTES = 256 * 1024;
+    private static final int TIMEOUT_MS = (int) TimeUnit.SECONDS.toMillis(10);
+    // How long stopping a recording waits for its thread to write out the last segment.
+    private static final long STOP_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(5);
+
+    private static RecordingEngine sInstance;
+
+    private final Context mContext;
+    private final File mDirectory;
+    private final long mSegmentSizeBytes;
+    private final List<Recording> mActiveRecordings = new ArrayList<>();
+
+    /**
+     * @param context The {@link Context} to use.
+     * @return The engine of the app, which stores recordings in its files directory.
+     */
+    public static synchronized RecordingEngine getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            sInstance =
+                    new RecordingEngine(
+                            appContext,
+                            new File(appContext.getFilesDir(), RECORDINGS_DIRECTORY),
+                            DEFAULT_SEGMENT_SIZE_BYTES);
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    RecordingEngine(Context context, File directory, long segmentSizeBytes) {
+        mContext = context;
+        mDirectory = directory;
+        mSegmentSizeBytes = segmentSizeBytes;
+    }
+
+    /** @return The directory which holds the directories of all recordings. */
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    /**
+     * Starts capturing a stream, if the TV input has a free tuner.
+     *
+     * @param inputId The ID of the TV input which records.
+     * @param sourceUri The URI of the stream, such as an {@code http} or {@code file} URI.
+     * @return The recording, or {@code null} if all tuners of the input are recording already or
+     *     storage for the recording cannot be created.
+     */
+    @Nullable
+    public synchronized Recording startRecording(String inputId, Uri sourceUri) {
+        int recordingCount = 0;
+        for (Recording recording : mActiveRecordings) {
+            if (recording.mInputId.equals(inputId)) {
+                recordingCount++;
+            }
+        }
+        if (recordingCount >= getTunerCount(inputId)) {
+            Log.w(TAG, "All tuners of " + inputId + " are recording");
+            return null;
+        }
+        File directory = createRecordingDirectory();
+        if (directory == null) {
+            return null;
+        }
+        Recording recording = new Recording(inputId, sourceUri, directory);
+        mActiveRecordings.add(recording);
+        recording.mThread.start();
+        return recording;
+    }
+
+    /**
+     * Deletes the files of a recording.
+     *
+     * @param dataUri The recording data URI of the recorded program.
+     * @return The number of bytes freed.
+     */
+    public long deleteRecording(Uri dataUri) {
+        if (!RecordingIndex.isIndexUri(dataUri)) {
+            return 0;
+        }
+        File directory = new File(dataUri.getPath()).getParentFile();
+        if (!directory.getParentFile().equals(mDirectory)) {
+            Log.w(TAG, "Not deleting " + directory + ", which is not a recording");
+            return 0;
+        }
+        return deleteDirectory(directory);
+    }
+
+    @VisibleForTesting
+    int getTunerCount(String inputId) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            TvInputManager tvInputManager =
+                    (TvInputManager) mContext.getSystemService(Context.TV_INPUT_SERVICE);
+            TvInputInfo info =
+                    tvInputManager == null ? null : tvInputManager.getTvInputInfo(inputId);
+            if (info != null && info.getTunerCount() > 0) {
+                return info.getTunerCount();
+            }
+        }
+        return 1;
+    }
+
+    private synchronized void onRecordingStopped(Recording recording) {
+        mActiveRecordings.remove(recording);
+    }
+
+    private File createRecordingDirectory() {
+        long timeMs = System.currentTimeMillis();
+        for (int attempt = 0; attempt < 100; attempt++) {
+            File directory =
+                    new File(mDirectory, String.format(Locale.US, "%d-%02d", timeMs, attempt));
+            if (directory.mkdirs()) {
+                return directory;
+            }
+        }
+        Log.e(TAG, "Cannot create a recording directory in " + mDirectory);
+        return null;
+    }
+
+    private static long deleteDirectory(File directory) {
+        long bytes = 0;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                long length = file.length();
+                if (file.delete()) {
+                    bytes += length;
+                } else {
+                    Log.w(TAG, "Failed to delete " + file);
+                }
+            }
+        }
+        if (!directory.delete()) {
+            Log.w(TAG, "Failed to delete " + directory);
+        }
+        return bytes;
+    }
+
+    /** A stream being captured, or captured already, by the engine. */
+    public final class Recording implements Runnable {
+        private final String mInputId;
+        private final Uri mSourceUri;
+        private final File mRecordingDirectory;
+        private final File mIndexFile;
+        private final Thread mThread;
+        private final long mStartTimeMs;
+
+        private volatile boolean mStopRequested;
+        private volatile URLConnection mConnection;
+        private volatile long mBytes;
+        private volatile IOException mError;
+        private long mStopTimeMs;
+        private boolean mStopped;
+        // Whether the files are to be deleted, and whether they were.
+        private boolean mDiscarded;
+        private boolean mDeleted;
+
+        private Recording(String inputId, Uri sourceUri, File directory) {
+            mInputId = inputId;
+            mSourceUri = sourceUri;
+            mRecordingDirectory = directory;
+            mIndexFile = new File(directory, RecordingIndex.FILE_NAME);
+            mThread = new Thread(this, TAG + "-" + directory.getName());
+            mStartTimeMs = System.currentTimeMillis();
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (ContentResolver.SCHEME_FILE.equals(mSourceUri.getScheme())) {
+                    captureFile();
+                } else {
+                    captureConnection();
+                }
+            } catch (IOException e) {
+                if (!mStopRequested) {
+                    Log.w(TAG, "Failed to capture " + mSourceUri, e);
+                    mError = e;
+                }
+            }
+            if (DEBUG) {
+                Log.d(TAG, "Captured " + mBytes + " bytes of " + mSourceUri);
+            }
+            // A capture which did not stop in time deletes the files of a discarded recording
+            // itself, once it is done writing them.
+            deleteFilesIfDiscarded();
+        }
+
+        private void captureFile() throws IOException {
+            FileInputStream input = new FileInputStream(mSourceUri.getPath());
+            try {
+                FileChannel source = input.getChannel();
+                SegmentWriter writer = new SegmentWriter();
+                try {
+                    while (!mStopRequested) {
+                        long transferred =
+                                source.transferTo(
+                                        source.position(),
+                                        writer.getRemaining(TRANSFER_SIZE_BYTES),
+                                        writer.getChannel());
+                        if (transferred <= 0) {
+                            break;
+                        }
+                        source.position(source.position() + transferred);
+                        writer.onWritten(transferred);
+                    }
+                } finally {
+                    writer.close();
+                }
+            } finally {
+                input.close();
+            }
+        }
+
+        private void captureConnection() throws IOException {
+            URLConnection connection = new URL(mSourceUri.toString()).openConnection();
+            connection.setConnectTimeout(TIMEOUT_MS);
+            connection.setReadTimeout(TIMEOUT_MS);
+            mConnection = connection;
+            if (mStopRequested) {
+                return;
+            }
+            if (connection instanceof HttpURLConnection) {
+                int responseCode = ((HttpURLConnection) connection).getResponseCode();
+                if (responseCode != HttpURLConnection.HTTP_OK) {
+                    throw new IOException("HTTP " + responseCode + " for " + mSourceUri);
+                }
+            }
+            ReadableByteChannel source = Channels.newChannel(connection.getInputStream());
+            try {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(TRANSFER_SIZE_BYTES);
+                SegmentWriter writer = new SegmentWriter();
+                try {
+                    while (!mStopRequested) {
+                        buffer.clear();
+                        buffer.limit((int) writer.getRemaining(TRANSFER_SIZE_BYTES));
+                        if (source.read(buffer) == -1) {
+                            break;
+                        }
+                        buffer.flip();
+                        int length = buffer.remaining();
+                        while (buffer.hasRemaining()) {
+                            writer.getChannel().write(buffer);
+                        }
+                        writer.onWritten(length);
+                    }
+                } finally {
+                    writer.close();
+                }
+            } finally {
+                source.close();
+            }
+        }
+
+        /**
+         * Stops capturing the stream and writes out the last segment, and frees the tuner of the
+         * recording. Does nothing but wait if the recording was stopped already. This blocks for
+         * up to 5 seconds, so it should not be called on the main thread.
+         *
+         * @return Whether the capture is over. If it is not, the capture is still writing the
+         *     files of the recording, which must then be discarded rather than saved.
+         */
+        public boolean stop() {
+            boolean stopped;
+            synchronized (this) {
+                stopped = mStopped;
+                if (!stopped) {
+                    mStopped = true;
+                    mStopTimeMs = System.currentTimeMillis();
+                }
+            }
+            if (stopped) {
+                return awaitCapture();
+            }
+            mStopRequested = true;
+            URLConnection connection = mConnection;
+            if (connection instanceof HttpURLConnection) {
+                // Unblocks a read which waits for the network.
+                ((HttpURLConnection) connection).disconnect();
+            }
+            boolean captureOver = awaitCapture();
+            if (!captureOver) {
+                Log.w(TAG, "The capture of " + mSourceUri + " did not stop in time");
+            }
+            onRecordingStopped(this);
+            return captureOver;
+        }
+
+        private boolean awaitCapture() {
+            try {
+                mThread.join(STOP_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return !mThread.isAlive();
+        }
+
+        /**
+         * Stops the recording and deletes its files, such as when it cannot be saved. If the
+         * capture does not stop in time, the files are deleted as soon as it does.
+         */
+        public void discard() {
+            synchronized (this) {
+                mDiscarded = true;
+            }
+            if (stop()) {
+                deleteFilesIfDiscarded();
+            }
+        }
+
+        private void deleteFilesIfDiscarded() {
+            synchronized (this) {
+                if (!mDiscarded || mDeleted) {
+                    return;
+                }
+                mDeleted = true;
+            }
+            deleteDirectory(mRecordingDirectory);
+        }
+
+        /** @return The URI of the index of the recording, for the recorded program. */
+        public Uri getDataUri() {
+            return Uri.fromFile(mIndexFile);
+        }
+
+        /** @return The number of bytes captured so far. */
+        public long getBytes() {
+            return mBytes;
+        }
+
+        /** @return The time the recording started. */
+        public long getStartTimeMs() {
+            return mStartTimeMs;
+        }
+
+        /** @return The time the recording was stopped, or 0 if it was not stopped yet. */
+        public synchronized long getStopTimeMs() {
+            return mStopTimeMs;
+        }
+
+        /** @return The error which ended the capture early, or {@code null} if there was none. */
+        @Nullable
+        public IOException getError() {
+            return mError;
+        }
+
+        /**
+         * Writes a stream to segment files of at most the segment size, and adds each segment to
+         * the index once it is complete.
+         */
+        private final class SegmentWriter {
+            private int mSegmentCount;
+            private RandomAccessFile mFile;
+            private FileChannel mChannel;
+            private String mFileName;
+            private long mSegmentStartTimeMs;
+            private long mSegmentLength;
+
+            /**
+             * @param maxBytes The most bytes to write at once.
+             * @return How many bytes to write next, so as not to overrun the current segment.
+             */
+            long getRemaining(long maxBytes) throws IOException {
+                if (mChannel == null || mSegmentLength >= mSegmentSizeBytes) {
+                    startSegment();
+                }
+                return Math.min(maxBytes, mSegmentSizeBytes - mSegmentLength);
+            }
+
+            /** @return The channel of the current segment, positioned at its end. */
+            FileChannel getChannel() {
+                return mChannel;
+            }
+
+            void onWritten(long length) {
+                mSegmentLength += length;
+                mBytes += length;
+            }
+
+            private void startSegment() throws IOException {
+                closeSegment();
+                mFileName = String.format(Locale.US, "segment-%05d.ts", mSegmentCount++);
+                mFile = new RandomAccessFile(new File(mRecordingDirectory, mFileName), "rw");
+                mChannel = mFile.getChannel();
+                mSegmentStartTimeMs = System.currentTimeMillis();
+                mSegmentLength = 0;
+            }
+
+            private void closeSegment() throws IOException {
+                if (mFile == null) {
+                    return;
+                }
+                mFile.close();
+                mFile = null;
+                mChannel = null;
+                if (mSegmentLength > 0) {
+                    RecordingIndex.append(
+                            mIndexFile,
+                            new RecordingIndex.Segment(
+                                    mFileName, mSegmentStartTimeMs, mSegmentLength));
+                } else if (!new File(mRecordingDirectory, mFileName).delete()) {
+                    Log.w(TAG, "Failed to delete the empty segment " + mFileName);
+                }
+            }
+
+            void close() throws IOException {
+                closeSegment();
+            }
+        }
+    }
+}
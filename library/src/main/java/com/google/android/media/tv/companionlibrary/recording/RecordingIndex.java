@@ -0,0 +1,163 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.media.tv.companionlibrary.recording;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The index of the segment files of a recording made by the {@link RecordingEngine}.
+ *
+ * <p>The index is a text file next to the segments, with a line per segment holding the name of
+ * its file, the time its capture started and its length in bytes, separated by tabs. A line is
+ * appended each time a segment is completed, so an index always lists the segments in the order
+ * of the stream.
+ */
+public final class RecordingIndex {
+    /** The name of the index file in the directory of a recording. */
+    public static final String FILE_NAME = "index";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String SEPARATOR = "\t";
+
+    /** A segment file of a recording. */
+    public static final class Segment {
+        private final String mFileName;
+        private final long mStartTimeMs;
+        private final long mLength;
+
+        Segment(String fileName, long startTimeMs, long length) {
+            mFileName = fileName;
+            mStartTimeMs = startTimeMs;
+            mLength = length;
+        }
+
+        /** @return The name of the segment file, in the directory of the recording. */
+        public String getFileName() {
+            return mFileName;
+        }
+
+        /** @return The time the capture of the segment started. */
+        public long getStartTimeMs() {
+            return mStartTimeMs;
+        }
+
+        /** @return The length of the segment, in bytes. */
+        public long getLength() {
+            return mLength;
+        }
+    }
+
+    private final File mDirectory;
+    private final List<Segment> mSegments;
+
+    private RecordingIndex(File directory, List<Segment> segments) {
+        mDirectory = directory;
+        mSegments = Collections.unmodifiableList(segments);
+    }
+
+    /**
+     * @param dataUri The recording data URI of a recorded program.
+     * @return Whether the URI is the index of a recording made by the {@link RecordingEngine},
+     *     rather than a reference to the stream the program was recorded from.
+     */
+    public static boolean isIndexUri(Uri dataUri) {
+        return dataUri != null
+                && ContentResolver.SCHEME_FILE.equals(dataUri.getScheme())
+                && FILE_NAME.equals(dataUri.getLastPathSegment());
+    }
+
+    /**
+     * Reads the index of a recording.
+     *
+     * @param indexFile The index file.
+     * @return The index.
+     * @throws IOException If the index cannot be read or is malformed.
+     */
+    public static RecordingIndex read(File indexFile) throws IOException {
+        List<Segment> segments = new ArrayList<>();
+        BufferedReader reader =
+                new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(SEPARATOR);
+                if (fields.length != 3) {
+                    throw new IOException("Malformed index line: " + line);
+                }
+                segments.add(
+                        new Segment(
+                                fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed index " + indexFile, e);
+        } finally {
+            reader.close();
+        }
+        return new RecordingIndex(indexFile.getParentFile(), segments);
+    }
+
+    /** Appends a completed segment to an index file, creating the file if needed. */
+    static void append(File indexFile, Segment segment) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(indexFile, true), UTF_8);
+        try {
+            writer.write(
+                    segment.getFileName()
+                            + SEPARATOR
+                            + segment.getStartTimeMs()
+                            + SEPARATOR
+                            + segment.getLength()
+                            + "\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    /** @return The segments of the recording, in the order of the stream. */
+    public List<Segment> getSegments() {
+        return mSegments;
+    }
+
+    /**
+     * @param segment A segment of the recording.
+     * @return The segment file.
+     */
+    public File getFile(Segment segment) {
+        return new File(mDirectory, segment.getFileName());
+    }
+
+    /** @return The total length of the recording, in bytes. */
+    public long getLength() {
+        long length = 0;
+        for (Segment segment : mSegments) {
+            length += segment.getLength();
+        }
+        return length;
+    }
+}
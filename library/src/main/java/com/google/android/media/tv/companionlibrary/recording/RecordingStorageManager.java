@@ -0,0 +1,496 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.media.tv.companionlibrary.recording;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.media.tv.TvContract;
+import android.net.Uri;
+import android.os.Build;
+import android.os.RemoteException;
+import android.support.annotation.RequiresApi;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+import android.util.LongSparseArray;
+import com.google.android.media.tv.companionlibrary.model.RecordedProgram;
+import com.google.android.media.tv.companionlibrary.utils.Constants;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the recordings of the {@link RecordingEngine} within a storage quota.
+ *
+ * <p>Only recordings made by the engine, whose data URI is the index of a recording as checked by
+ * {@link RecordingIndex#isIndexUri(Uri)}, are managed. Other recorded programs of the app are
+ * never evicted. The library does not enforce the quota by itself: an app which wants it calls
+ * {@link #enforce()}, such as before a recording starts and after one is saved.
+ *
+ * <p>Recordings are evicted when they expire, as set by {@link
+ * RecordedProgram#getRecordingExpireTimeUtcMillis()}, and when they take more than the quota or
+ * leave less than the minimum free space on the storage. The eviction policy decides which
+ * recordings go first in the latter case: the oldest ones, or the ones which were watched. An
+ * evicted recording has its files deleted along with its row in {@link
+ * TvContract.RecordedPrograms}, in batches.
+ *
+ * <p>The manager reads the recorded programs of the app once, and keeps an index of them ordered
+ * by expiry and by age, along with their sizes. The index is updated as recordings are saved and
+ * evicted, so that enforcing the quota does not scan the table again. Only the IDs of the rows
+ * are read again, to drop the recordings which were deleted by someone else, such as the TV app.
+ *
+ * <p>Recordings which are being played are never evicted.
+ *
+ * <p>The methods of the manager access the disk and the TV provider, so they should not be called
+ * on the main thread, except for {@link #markWatched}, {@link #onPlaybackStarted} and {@link
+ * #onPlaybackStopped}, which only note what is played for the next time the quota is enforced.
+ */
+@RequiresApi(api = Build.VERSION_CODES.N)
+public class RecordingStorageManager {
+    private static final String TAG = "RecordingStorageManager";
+    private static final boolean DEBUG = false;
+
+    /** Evict the oldest recordings first. */
+    public static final int POLICY_OLDEST_FIRST = 0;
+    /** Evict the recordings which were watched first, oldest first, and then the oldest ones. */
+    public static final int POLICY_WATCHED_FIRST = 1;
+
+    /** Unlimited quota. */
+    public static final long QUOTA_UNLIMITED = Long.MAX_VALUE;
+
+    private static final long DEFAULT_MIN_FREE_BYTES = 500L * 1024 * 1024;
+    @VisibleForTesting static final int DELETE_BATCH_SIZE = 100;
+
+    private static final String[] ID_PROJECTION = {TvContract.RecordedPrograms._ID};
+
+    private static final String[] PROJECTION = {
+        TvContract.RecordedPrograms._ID,
+        TvContract.RecordedPrograms.COLUMN_START_TIME_UTC_MILLIS,
+        TvContract.RecordedPrograms.COLUMN_RECORDING_EXPIRE_TIME_UTC_MILLIS,
+        TvContract.RecordedPrograms.COLUMN_RECORDING_DATA_URI,
+        TvContract.RecordedPrograms.COLUMN_RECORDING_DATA_BYTES
+    };
+
+    private static final Comparator<Entry> EXPIRY_COMPARATOR =
+            new Comparator<Entry>() {
+                @Override
+                public int compare(Entry a, Entry b) {
+                    int result = Long.compare(a.mExpireTimeMs, b.mExpireTimeMs);
+                    return result != 0 ? result : Long.compare(a.mId, b.mId);
+                }
+            };
+
+    private static final Comparator<Entry> AGE_COMPARATOR =
+            new Comparator<Entry>() {
+                @Override
+                public int compare(Entry a, Entry b) {
+                    int result = Long.compare(a.mStartTimeMs, b.mStartTimeMs);
+                    return result != 0 ? result : Long.compare(a.mId, b.mId);
+                }
+            };
+
+    private static RecordingStorageManager sInstance;
+
+    private final Context mContext;
+    private final RecordingEngine mEngine;
+    private final SharedPreferences mPreferences;
+
+    // The index of the recorded programs, loaded on first use.
+    private LongSparseArray<Entry> mEntries;
+    // Recordings which expire, ordered by expiry.
+    private final TreeSet<Entry> mByExpiry = new TreeSet<>(EXPIRY_COMPARATOR);
+    // Recordings which take space, and the watched ones among them, ordered by age.
+    private final TreeSet<Entry> mByAge = new TreeSet<>(AGE_COMPARATOR);
+    private final TreeSet<Entry> mWatchedByAge = new TreeSet<>(AGE_COMPARATOR);
+    private long mUsedBytes;
+    // Updated from the main thread without the lock of the manager, which is held during I/O.
+    private final Set<String> mWatchedIds =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    // The number of sessions playing each recording, guarded by itself.
+    private final Map<Long, Integer> mPlaybackCounts = new HashMap<>();
+
+    private long mQuotaBytes = QUOTA_UNLIMITED;
+    private long mMinFreeBytes = DEFAULT_MIN_FREE_BYTES;
+    private int mEvictionPolicy = POLICY_WATCHED_FIRST;
+
+    /**
+     * @param context The {@link Context} to use.
+     * @return The manager of the recordings of {@link RecordingEngine#getInstance(Context)}.
+     */
+    public static synchronized RecordingStorageManager getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance =
+                    new RecordingStorageManager(
+                            context.getApplicationContext(), RecordingEngine.getInstance(context));
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    RecordingStorageManager(Context context, RecordingEngine engine) {
+        mContext = context;
+        mEngine = engine;
+        mPreferences =
+                context.getSharedPreferences(Constants.PREFERENCES_FILE_KEY, Context.MODE_PRIVATE);
+        mWatchedIds.addAll(
+                mPreferences.getStringSet(
+                        Constants.SHARED_PREFERENCES_KEY_WATCHED_RECORDINGS,
+                        new HashSet<String>()));
+    }
+
+    /**
+     * Sets the most bytes all recordings may take together.
+     *
+     * @param quotaBytes The quota, or {@link #QUOTA_UNLIMITED}.
+     */
+    public synchronized void setQuotaBytes(long quotaBytes) {
+        mQuotaBytes = quotaBytes;
+    }
+
+    /**
+     * Sets how much space to leave free on the storage of the recordings. 500 MB by default.
+     *
+     * @param minFreeBytes The free space, in bytes.
+     */
+    public synchronized void setMinFreeBytes(long minFreeBytes) {
+        mMinFreeBytes = minFreeBytes;
+    }
+
+    /**
+     * Sets which recordings to evict first when over the quota or short of free space. {@link
+     * #POLICY_WATCHED_FIRST} by default.
+     *
+     * @param evictionPolicy {@link #POLICY_OLDEST_FIRST} or {@link #POLICY_WATCHED_FIRST}.
+     */
+    public synchronized void setEvictionPolicy(int evictionPolicy) {
+        if (evictionPolicy != POLICY_OLDEST_FIRST && evictionPolicy != POLICY_WATCHED_FIRST) {
+            throw new IllegalArgumentException("Unknown eviction policy " + evictionPolicy);
+        }
+        mEvictionPolicy = evictionPolicy;
+    }
+
+    /** @return The number of bytes taken by all recordings. */
+    public synchronized long getUsedBytes() {
+        ensureIndexLoaded();
+        return mUsedBytes;
+    }
+
+    /**
+     * Adds a recording which was just saved to the TV provider to the index.
+     *
+     * @param recordedProgramId The row ID of the recorded program.
+     * @param recordedProgram The recorded program.
+     */
+    public synchronized void onRecordingSaved(long recordedProgramId,
+            RecordedProgram recordedProgram) {
+        ensureIndexLoaded();
+        addEntry(
+                new Entry(
+                        recordedProgramId,
+                        recordedProgram.getStartTimeUtcMillis(),
+                        recordedProgram.getRecordingExpireTimeUtcMillis(),
+                        recordedProgram.getRecordingDataUri(),
+                        recordedProgram.getRecordingDataBytes()));
+    }
+
+    /**
+     * Notes that a recording was watched, which makes it evicted first under {@link
+     * #POLICY_WATCHED_FIRST}. This does not wait for the quota to be enforced, so it may be called
+     * on the main thread.
+     *
+     * @param recordedProgramId The row ID of the recorded program.
+     */
+    public void markWatched(long recordedProgramId) {
+        if (mWatchedIds.add(String.valueOf(recordedProgramId))) {
+            saveWatchedIds();
+        }
+    }
+
+    /**
+     * Notes that a session started playing a recording, which keeps it from being evicted until
+     * {@link #onPlaybackStopped} is called for it. This may be called on the main thread.
+     *
+     * @param recordedProgramId The row ID of the recorded program.
+     */
+    public void onPlaybackStarted(long recordedProgramId) {
+        synchronized (mPlaybackCounts) {
+            Integer count = mPlaybackCounts.get(recordedProgramId);
+            mPlaybackCounts.put(recordedProgramId, count == null ? 1 : count + 1);
+        }
+    }
+
+    /**
+     * Notes that a session stopped playing a recording. This may be called on the main thread.
+     *
+     * @param recordedProgramId The row ID of the recorded program.
+     */
+    public void onPlaybackStopped(long recordedProgramId) {
+        synchronized (mPlaybackCounts) {
+            Integer count = mPlaybackCounts.get(recordedProgramId);
+            if (count == null || count <= 1) {
+                mPlaybackCounts.remove(recordedProgramId);
+            } else {
+                mPlaybackCounts.put(recordedProgramId, count - 1);
+            }
+        }
+    }
+
+    private boolean isPlaying(long recordedProgramId) {
+        synchronized (mPlaybackCounts) {
+            return mPlaybackCounts.containsKey(recordedProgramId);
+        }
+    }
+
+    /**
+     * Evicts the recordings which expired, and then as many more as needed to keep within the
+     * quota and the minimum free space.
+     *
+     * @return The number of recordings evicted.
+     */
+    public synchronized int enforce() {
+        if (mEntries == null) {
+            ensureIndexLoaded();
+        } else {
+            reconcileIndex();
+        }
+        updateWatchedEntries();
+        long nowMs = System.currentTimeMillis();
+        List<Entry> evicted = new ArrayList<>();
+        List<Entry> expired = new ArrayList<>();
+        for (Entry entry : mByExpiry) {
+            if (entry.mExpireTimeMs > nowMs) {
+                break;
+            }
+            if (!isPlaying(entry.mId)) {
+                expired.add(entry);
+            }
+        }
+        for (Entry entry : expired) {
+            evicted.add(evict(entry));
+        }
+        long freeBytes = getFreeBytes();
+        if (mEvictionPolicy == POLICY_WATCHED_FIRST) {
+            freeBytes = evictUntilWithinLimits(mWatchedByAge, freeBytes, evicted);
+        }
+        evictUntilWithinLimits(mByAge, freeBytes, evicted);
+        deleteRows(evicted);
+        if (DEBUG && !evicted.isEmpty()) {
+            Log.d(TAG, "Evicted " + evicted.size() + " recordings, " + mUsedBytes + " bytes left");
+        }
+        return evicted.size();
+    }
+
+    /** @return The free space on the storage of the recordings, in bytes. */
+    @VisibleForTesting
+    long getFreeBytes() {
+        return mEngine.getDirectory().getUsableSpace();
+    }
+
+    /**
+     * Evicts recordings in the given order, skipping the ones being played, until the recordings
+     * are within the quota and the minimum free space.
+     *
+     * @return The free space after the evictions, in bytes.
+     */
+    private long evictUntilWithinLimits(TreeSet<Entry> entries, long freeBytes,
+            List<Entry> evicted) {
+        if (mUsedBytes <= mQuotaBytes && freeBytes >= mMinFreeBytes) {
+            return freeBytes;
+        }
+        for (Entry entry : new ArrayList<>(entries)) {
+            if (mUsedBytes <= mQuotaBytes && freeBytes >= mMinFreeBytes) {
+                break;
+            }
+            if (!isPlaying(entry.mId)) {
+                evicted.add(evict(entry));
+                freeBytes += entry.mBytes;
+            }
+        }
+        return freeBytes;
+    }
+
+    /** Adds the recordings which were marked as watched since last time to mWatchedByAge. */
+    private void updateWatchedEntries() {
+        for (String watchedId : mWatchedIds) {
+            Entry entry = mEntries.get(Long.parseLong(watchedId));
+            if (entry != null && entry.mBytes > 0) {
+                mWatchedByAge.add(entry);
+            }
+        }
+    }
+
+    /**
+     * Drops the recordings whose rows were deleted by someone else from the index, along with
+     * their files. Only the IDs of the rows are read.
+     */
+    private void reconcileIndex() {
+        Cursor cursor =
+                mContext.getContentResolver()
+                        .query(TvContract.RecordedPrograms.CONTENT_URI, ID_PROJECTION, null, null,
+                                null);
+        if (cursor == null) {
+            return;
+        }
+        Set<Long> ids = new HashSet<>();
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        List<Entry> deleted = new ArrayList<>();
+        for (int i = 0; i < mEntries.size(); i++) {
+            Entry entry = mEntries.valueAt(i);
+            // A recording being played keeps its files until the next time.
+            if (!ids.contains(entry.mId) && !isPlaying(entry.mId)) {
+                deleted.add(entry);
+            }
+        }
+        for (Entry entry : deleted) {
+            evict(entry);
+        }
+        if (DEBUG && !deleted.isEmpty()) {
+            Log.d(TAG, "Dropped " + deleted.size() + " recordings deleted from the TV provider");
+        }
+    }
+
+    private Entry evict(Entry entry) {
+        removeEntry(entry);
+        if (entry.mDataUri != null) {
+            mEngine.deleteRecording(Uri.parse(entry.mDataUri));
+        }
+        if (mWatchedIds.remove(String.valueOf(entry.mId))) {
+            saveWatchedIds();
+        }
+        return entry;
+    }
+
+    private void deleteRows(List<Entry> entries) {
+        ContentResolver resolver = mContext.getContentResolver();
+        ArrayList<ContentProviderOperation> ops = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i++) {
+            ops.add(
+                    ContentProviderOperation.newDelete(
+                                    TvContract.buildRecordedProgramUri(entries.get(i).mId))
+                            .build());
+            if (ops.size() == DELETE_BATCH_SIZE || i == entries.size() - 1) {
+                try {
+                    resolver.applyBatch(TvContract.AUTHORITY, ops);
+                } catch (RemoteException | OperationApplicationException e) {
+                    Log.e(TAG, "Failed to delete recorded programs", e);
+                }
+                ops = new ArrayList<>();
+            }
+        }
+    }
+
+    private void ensureIndexLoaded() {
+        if (mEntries != null) {
+            return;
+        }
+        mEntries = new LongSparseArray<>();
+        Cursor cursor =
+                mContext.getContentResolver()
+                        .query(TvContract.RecordedPrograms.CONTENT_URI, PROJECTION, null, null,
+                                null);
+        if (cursor == null) {
+            return;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                addEntry(
+                        new Entry(
+                                cursor.getLong(0),
+                                cursor.getLong(1),
+                                cursor.isNull(2) ? 0 : cursor.getLong(2),
+                                cursor.getString(3),
+                                cursor.isNull(4) ? 0 : cursor.getLong(4)));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void addEntry(Entry entry) {
+        Entry previous = mEntries.get(entry.mId);
+        if (previous != null) {
+            removeEntry(previous);
+        }
+        if (entry.mDataUri == null || !RecordingIndex.isIndexUri(Uri.parse(entry.mDataUri))) {
+            // Recordings which were not made by the engine are left alone.
+            return;
+        }
+        mEntries.put(entry.mId, entry);
+        if (entry.mExpireTimeMs > 0) {
+            mByExpiry.add(entry);
+        }
+        // Recordings which captured nothing take no space, so they only expire.
+        if (entry.mBytes > 0) {
+            mByAge.add(entry);
+            if (mWatchedIds.contains(String.valueOf(entry.mId))) {
+                mWatchedByAge.add(entry);
+            }
+        }
+        mUsedBytes += entry.mBytes;
+    }
+
+    private void removeEntry(Entry entry) {
+        mEntries.remove(entry.mId);
+        mByAge.remove(entry);
+        mByExpiry.remove(entry);
+        mWatchedByAge.remove(entry);
+        mUsedBytes -= entry.mBytes;
+    }
+
+    private void saveWatchedIds() {
+        mPreferences
+                .edit()
+                .putStringSet(
+                        Constants.SHARED_PREFERENCES_KEY_WATCHED_RECORDINGS,
+                        new HashSet<>(mWatchedIds))
+                .apply();
+    }
+
+    /** A recorded program in the index. */
+    private static final class Entry {
+        final long mId;
+        final long mStartTimeMs;
+        // 0 if the recording does not expire.
+        final long mExpireTimeMs;
+        final String mDataUri;
+        final long mBytes;
+
+        Entry(long id, long startTimeMs, long expireTimeMs, String dataUri, long bytes) {
+            mId = id;
+            mStartTimeMs = startTimeMs;
+            mExpireTimeMs = expireTimeMs;
+            mDataUri = dataUri;
+            mBytes = Math.max(0, bytes);
+        }
+    }
+}
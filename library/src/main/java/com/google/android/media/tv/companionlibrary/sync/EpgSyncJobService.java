@@ -619,18 +619,38 @@ public abstract class EpgSyncJobService extends JobService {
                     runningChangeCount.addCount++;
                 }
                 // Throttle the batch operation not to cause TransactionTooLargeException.
-                if (ops.size() > BATCH_OPERATION_COUNT
-                        || newProgramsIndex >= fetchedProgramsCount) {
-                    try {
-                        mContext.getContentResolver().applyBatch(TvContract.AUTHORITY, ops);
-                    } catch (RemoteException | OperationApplicationException e) {
-                        Log.e(TAG, "Failed to insert programs.", e);
-                        broadcastError(ERROR_DATABASE_INSERT);
-                        return;
-                    }
-                    ops.clear();
+                if (ops.size() > BATCH_OPERATION_COUNT && !applyProgramOperations(ops)) {
+                    return;
+                }
+            }
+            // Every new program is placed, so the old programs which are left and start before
+            // the last new program ends were replaced. Later ones are kept.
+            long newProgramsEndTimeMs =
+                    newPrograms.get(fetchedProgramsCount - 1).getEndTimeUtcMillis();
+            for (; oldProgramsIndex < oldPrograms.size(); oldProgramsIndex++) {
+                Program oldProgram = oldPrograms.get(oldProgramsIndex);
+                if (oldProgram.getStartTimeUtcMillis() >= newProgramsEndTimeMs) {
+                    break;
                 }
+                ops.add(
+                        ContentProviderOperation.newDelete(
+                                        TvContract.buildProgramUri(oldProgram.getId()))
+                                .build());
+                runningChangeCount.deleteCount++;
+            }
+            applyProgramOperations(ops);
+        }
+
+        private boolean applyProgramOperations(ArrayList<ContentProviderOperation> ops) {
+            try {
+                mContext.getContentResolver().applyBatch(TvContract.AUTHORITY, ops);
+            } catch (RemoteException | OperationApplicationException e) {
+                Log.e(TAG, "Failed to insert programs.", e);
+                broadcastError(ERROR_DATABASE_INSERT);
+                return false;
             }
+            ops.clear();
+            return true;
         }
     }
 
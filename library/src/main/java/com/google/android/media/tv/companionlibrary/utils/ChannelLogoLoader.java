@@ -0,0 +1,384 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.media.tv.companionlibrary.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloads channel logos and writes them to the TV provider.
+ *
+ * <p>Logos are downloaded a few at a time on the loader's own threads, and a logo shared by
+ * several channels is only downloaded once. A hash of the last logo written for each channel is
+ * kept, so that a logo is only written again when its content has changed.
+ *
+ * <p>The {@code ETag} and {@code Last-Modified} headers of each logo are kept as well. When every
+ * channel already has the latest version of a logo, it is requested conditionally, and a {@code
+ * 304 Not Modified} response ends the work for that logo. Logos larger than the TV app shows them
+ * are downscaled before they are written.
+ *
+ * @hide
+ */
+public class ChannelLogoLoader {
+    private static final String TAG = "ChannelLogoLoader";
+    private static final boolean DEBUG = false;
+
+    private static final String PREFS_NAME = "channel_logos";
+    private static final String KEY_HASH_PREFIX = "hash:";
+    private static final String KEY_ETAG_PREFIX = "etag:";
+    private static final String KEY_LAST_MODIFIED_PREFIX = "last_modified:";
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HASH_ALGORITHM = "SHA-1";
+    private static final int MAX_PARALLEL_DOWNLOADS = 4;
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int TIMEOUT_MS = (int) TimeUnit.SECONDS.toMillis(10);
+    // Larger than channel logos are shown by TV apps, even on a 4K screen's program guide.
+    private static final int MAX_LOGO_SIZE_PX = 320;
+
+    private static ChannelLogoLoader sInstance;
+
+    private final Context mContext;
+    private final ExecutorService mExecutor;
+    // The hash of the logo written to each channel logo URI, and the hash and cache validators
+    // of the last download of each logo URL.
+    private final SharedPreferences mPreferences;
+
+    /** @return The loader shared by all syncs of this process. */
+    public static synchronized ChannelLogoLoader getInstance(@NonNull Context context) {
+        if (sInstance == null) {
+            ThreadPoolExecutor executor =
+                    new ThreadPoolExecutor(
+                            MAX_PARALLEL_DOWNLOADS,
+                            MAX_PARALLEL_DOWNLOADS,
+                            30,
+                            TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<Runnable>());
+            executor.allowCoreThreadTimeOut(true);
+            sInstance = new ChannelLogoLoader(context.getApplicationContext(), executor);
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    ChannelLogoLoader(Context context, ExecutorService executor) {
+        mContext = context;
+        mExecutor = executor;
+        mPreferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Downloads logos and writes them to the TV provider in the background.
+     *
+     * @param logos The URL of the logo to write to each channel logo URI.
+     */
+    public void insertLogosAsync(@NonNull Map<Uri, String> logos) {
+        submit(logos);
+    }
+
+    /**
+     * Downloads logos and writes them to the TV provider, waiting until all logos are written.
+     * This must not be called on the main thread.
+     *
+     * @param logos The URL of the logo to write to each channel logo URI.
+     * @throws InterruptedException If the calling thread was interrupted while waiting.
+     */
+    public void insertLogos(@NonNull Map<Uri, String> logos) throws InterruptedException {
+        for (Future<?> future : submit(logos)) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                Log.e(TAG, "Failed to insert logo", e.getCause());
+            }
+        }
+    }
+
+    private List<Future<?>> submit(Map<Uri, String> logos) {
+        // Group the channels by logo, so each logo is downloaded once.
+        Map<String, List<Uri>> logoUris = new HashMap<>();
+        for (Map.Entry<Uri, String> entry : logos.entrySet()) {
+            List<Uri> uris = logoUris.get(entry.getValue());
+            if (uris == null) {
+                uris = new ArrayList<>();
+                logoUris.put(entry.getValue(), uris);
+            }
+            uris.add(entry.getKey());
+        }
+        List<Future<?>> futures = new ArrayList<>(logoUris.size());
+        for (final Map.Entry<String, List<Uri>> entry : logoUris.entrySet()) {
+            futures.add(
+                    mExecutor.submit(
+                            new Runnable() {
+                                @Override
+                                public void run() {
+                                    insertLogo(entry.getKey(), entry.getValue());
+                                }
+                            }));
+        }
+        return futures;
+    }
+
+    private void insertLogo(String logoUrl, List<Uri> logoUris) {
+        // Only ask whether the logo has changed if every channel has its last download.
+        String lastHash = mPreferences.getString(KEY_HASH_PREFIX + logoUrl, null);
+        boolean conditional = lastHash != null;
+        for (Uri logoUri : logoUris) {
+            if (conditional && !isWritten(logoUri, lastHash)) {
+                conditional = false;
+            }
+        }
+        Response response;
+        try {
+            response = download(logoUrl, conditional);
+        } catch (IOException e) {
+            Log.e(TAG, "Can't load " + logoUrl, e);
+            return;
+        }
+        if (response == null) {
+            if (DEBUG) {
+                Log.d(TAG, logoUrl + " is not modified");
+            }
+            return;
+        }
+        String hash = hash(response.mContent);
+        mPreferences
+                .edit()
+                .putString(KEY_HASH_PREFIX + logoUrl, hash)
+                .putString(KEY_ETAG_PREFIX + logoUrl, response.mETag)
+                .putLong(KEY_LAST_MODIFIED_PREFIX + logoUrl, response.mLastModified)
+                .apply();
+        byte[] logo = null;
+        for (Uri logoUri : logoUris) {
+            if (isWritten(logoUri, hash)) {
+                if (DEBUG) {
+                    Log.d(TAG, "Logo of " + logoUri + " is unchanged");
+                }
+                continue;
+            }
+            if (logo == null) {
+                logo = downscale(response.mContent);
+            }
+            String key = logoUri.toString();
+            if (write(logoUri, logo)) {
+                mPreferences.edit().putString(key, hash).apply();
+            } else {
+                mPreferences.edit().remove(key).apply();
+            }
+        }
+    }
+
+    /** @return Whether the logo with the given hash was written to the channel logo URI. */
+    private boolean isWritten(Uri logoUri, String hash) {
+        return hash.equals(mPreferences.getString(logoUri.toString(), null)) && hasLogo(logoUri);
+    }
+
+    /**
+     * @param conditional Whether to send the cache validators of the last download.
+     * @return The downloaded logo, or {@code null} if it has not been modified.
+     */
+    private Response download(String logoUrl, boolean conditional) throws IOException {
+        URLConnection connection = new URL(logoUrl).openConnection();
+        connection.setConnectTimeout(TIMEOUT_MS);
+        connection.setReadTimeout(TIMEOUT_MS);
+        if (conditional) {
+            String eTag = mPreferences.getString(KEY_ETAG_PREFIX + logoUrl, null);
+            if (eTag != null) {
+                connection.setRequestProperty(HEADER_IF_NONE_MATCH, eTag);
+            }
+            connection.setIfModifiedSince(
+                    mPreferences.getLong(KEY_LAST_MODIFIED_PREFIX + logoUrl, 0));
+        }
+        if (connection instanceof HttpURLConnection) {
+            HttpURLConnection httpConnection = (HttpURLConnection) connection;
+            int responseCode = httpConnection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                httpConnection.disconnect();
+                return null;
+            }
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                httpConnection.disconnect();
+                throw new IOException("Unexpected response " + responseCode);
+            }
+        }
+        InputStream is = connection.getInputStream();
+        try {
+            int contentLength = connection.getContentLength();
+            ByteArrayOutputStream os =
+                    new ByteArrayOutputStream(contentLength > 0 ? contentLength : BUFFER_SIZE);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int len;
+            while ((len = is.read(buffer)) != -1) {
+                os.write(buffer, 0, len);
+            }
+            return new Response(
+                    os.toByteArray(),
+                    connection.getHeaderField(HEADER_ETAG),
+                    connection.getLastModified());
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * @return The logo scaled down to fit {@link #MAX_LOGO_SIZE_PX} and compressed as a PNG, or
+     *     the given logo if it is small enough or cannot be decoded.
+     */
+    private static byte[] downscale(byte[] logo) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(logo, 0, logo.length, options);
+        int width = options.outWidth;
+        int height = options.outHeight;
+        if (width <= 0 || height <= 0 || Math.max(width, height) <= MAX_LOGO_SIZE_PX) {
+            return logo;
+        }
+        // Decode at the largest power of two subsampling which keeps the logo large enough.
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = 1;
+        while (Math.max(width, height) / (options.inSampleSize * 2) >= MAX_LOGO_SIZE_PX) {
+            options.inSampleSize *= 2;
+        }
+        Bitmap bitmap = BitmapFactory.decodeByteArray(logo, 0, logo.length, options);
+        if (bitmap == null) {
+            return logo;
+        }
+        float scale = (float) MAX_LOGO_SIZE_PX / Math.max(bitmap.getWidth(), bitmap.getHeight());
+        Bitmap scaledBitmap =
+                Bitmap.createScaledBitmap(
+                        bitmap,
+                        Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                        Math.max(1, Math.round(bitmap.getHeight() * scale)),
+                        true);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        // PNG keeps the transparency logos usually have.
+        scaledBitmap.compress(Bitmap.CompressFormat.PNG, 100, os);
+        if (scaledBitmap != bitmap) {
+            scaledBitmap.recycle();
+        }
+        bitmap.recycle();
+        return os.toByteArray();
+    }
+
+    private static String hash(byte[] logo) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        StringBuilder builder = new StringBuilder();
+        for (byte b : digest.digest(logo)) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+
+    /** @return Whether the logo was written. */
+    private boolean write(Uri logoUri, byte[] logo) {
+        if (DEBUG) {
+            Log.d(TAG, "Writing " + logo.length + " bytes to " + logoUri);
+        }
+        OutputStream os = null;
+        try {
+            os = openOutputStream(logoUri);
+            os.write(logo);
+            return true;
+        } catch (IOException ioe) {
+            Log.e(TAG, "Failed to write logo to " + logoUri, ioe);
+            return false;
+        } finally {
+            if (os != null) {
+                try {
+                    os.close();
+                } catch (IOException e) {
+                    // Ignore exception.
+                }
+            }
+        }
+    }
+
+    @VisibleForTesting
+    OutputStream openOutputStream(Uri logoUri) throws IOException {
+        OutputStream os = mContext.getContentResolver().openOutputStream(logoUri);
+        if (os == null) {
+            throw new FileNotFoundException("Can't open " + logoUri);
+        }
+        return os;
+    }
+
+    /**
+     * Checks that the TV provider still has a logo for the channel, in case the channel was
+     * deleted and its row ID reused since the logo was written.
+     */
+    @VisibleForTesting
+    boolean hasLogo(Uri logoUri) {
+        ParcelFileDescriptor fd = null;
+        try {
+            fd = mContext.getContentResolver().openFileDescriptor(logoUri, "r");
+            return fd != null && fd.getStatSize() > 0;
+        } catch (FileNotFoundException | SecurityException e) {
+            return false;
+        } finally {
+            if (fd != null) {
+                try {
+                    fd.close();
+                } catch (IOException e) {
+                    // Ignore exception.
+                }
+            }
+        }
+    }
+
+    private static final class Response {
+        private final byte[] mContent;
+        private final String mETag;
+        private final long mLastModified;
+
+        private Response(byte[] content, String eTag, long lastModified) {
+            mContent = content;
+            mETag = eTag;
+            mLastModified = lastModified;
+        }
+    }
+}
@@ -35,4 +35,11 @@ public class Constants {
      */
     public static final String SHARED_PREFERENCES_KEY_LAST_CHANNEL_AD_PLAY =
             "last_program_ad_time_ms";
+    /**
+     * Key of the set of IDs of the recorded programs which have been played.
+     *
+     * @hide
+     */
+    public static final String SHARED_PREFERENCES_KEY_WATCHED_RECORDINGS =
+            "watched_recorded_program_ids";
 }
@@ -23,12 +23,11 @@ import android.net.Uri;
 import android.os.AsyncTask;
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.LruCache;
 import android.util.SparseArray;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 /** Static helper methods for working with {@link android.media.tv.TvContract}. */
@@ -51,6 +50,14 @@ public final class TvContractUtils {
     private static final String TAG = "TvContractUtils";
     private static final boolean DEBUG = false;
     private static final SparseArray<String> VIDEO_HEIGHT_TO_FORMAT_MAP = new SparseArray<>();
+    private static final char CONTENT_RATING_DELIMITER = ',';
+    // Content rating strings have very few distinct values, so parsed and flattened ratings are
+    // shared across the process. LruCache is thread safe.
+    private static final int CONTENT_RATING_CACHE_SIZE = 64;
+    private static final LruCache<String, TvContentRating[]> STRING_TO_CONTENT_RATINGS =
+            new LruCache<>(CONTENT_RATING_CACHE_SIZE);
+    private static final LruCache<List<TvContentRating>, String> CONTENT_RATINGS_TO_STRING =
+            new LruCache<>(CONTENT_RATING_CACHE_SIZE);
 
     static {
         VIDEO_HEIGHT_TO_FORMAT_MAP.put(480, TvContract.Channels.VIDEO_FORMAT_480P);
@@ -61,44 +68,6 @@ public final class TvContractUtils {
         VIDEO_HEIGHT_TO_FORMAT_MAP.put(4320, TvContract.Channels.VIDEO_FORMAT_4320P);
     }
 
-    private static void insertUrl(Context context, Uri contentUri, URL sourceUrl) {
-        if (DEBUG) {
-            Log.d(TAG, "Inserting " + sourceUrl + " to " + contentUri);
-        }
-        InputStream is = null;
-        OutputStream os = null;
-        try {
-            is = sourceUrl.openStream();
-            os = context.getContentResolver().openOutputStream(contentUri);
-            copy(is, os);
-        } catch (IOException ioe) {
-            Log.e(TAG, "Failed to write " + sourceUrl + "  to " + contentUri, ioe);
-        } finally {
-            if (is != null) {
-                try {
-                    is.close();
-                } catch (IOException e) {
-                    // Ignore exception.
-                }
-            }
-            if (os != null) {
-                try {
-                    os.close();
-                } catch (IOException e) {
-                    // Ignore exception.
-                }
-            }
-        }
-    }
-
-    private static void copy(InputStream is, OutputStream os) throws IOException {
-        byte[] buffer = new byte[1024];
-        int len;
-        while ((len = is.read(buffer)) != -1) {
-            os.write(buffer, 0, len);
-        }
-    }
-
     /**
      * Parses a string of comma-separated ratings into an array of {@link TvContentRating}.
      *
@@ -110,12 +79,41 @@ public final class TvContractUtils {
         if (TextUtils.isEmpty(commaSeparatedRatings)) {
             return null;
         }
-        String[] ratings = commaSeparatedRatings.split("\\s*,\\s*");
-        TvContentRating[] contentRatings = new TvContentRating[ratings.length];
-        for (int i = 0; i < contentRatings.length; ++i) {
-            contentRatings[i] = TvContentRating.unflattenFromString(ratings[i]);
+        TvContentRating[] contentRatings = STRING_TO_CONTENT_RATINGS.get(commaSeparatedRatings);
+        if (contentRatings == null) {
+            contentRatings = parseContentRatings(commaSeparatedRatings);
+            STRING_TO_CONTENT_RATINGS.put(commaSeparatedRatings, contentRatings);
         }
-        return contentRatings;
+        // The cached array is shared, so callers get their own copy.
+        return contentRatings.clone();
+    }
+
+    private static TvContentRating[] parseContentRatings(String commaSeparatedRatings) {
+        List<TvContentRating> contentRatings = new ArrayList<>();
+        int length = commaSeparatedRatings.length();
+        int tokenStart = 0;
+        while (tokenStart <= length) {
+            int tokenEnd = commaSeparatedRatings.indexOf(CONTENT_RATING_DELIMITER, tokenStart);
+            if (tokenEnd == -1) {
+                tokenEnd = length;
+            }
+            // Trim the whitespace around each rating without allocating intermediate strings.
+            int start = tokenStart;
+            int end = tokenEnd;
+            while (start < end && Character.isWhitespace(commaSeparatedRatings.charAt(start))) {
+                start++;
+            }
+            while (end > start && Character.isWhitespace(commaSeparatedRatings.charAt(end - 1))) {
+                end--;
+            }
+            if (start < end) {
+                contentRatings.add(
+                        TvContentRating.unflattenFromString(
+                                commaSeparatedRatings.substring(start, end)));
+            }
+            tokenStart = tokenEnd + 1;
+        }
+        return contentRatings.toArray(new TvContentRating[contentRatings.size()]);
     }
 
     /**
@@ -129,18 +127,27 @@ public final class TvContractUtils {
         if (contentRatings == null || contentRatings.length == 0) {
             return null;
         }
-        final String DELIMITER = ",";
-        StringBuilder ratings = new StringBuilder(contentRatings[0].flattenToString());
-        for (int i = 1; i < contentRatings.length; ++i) {
-            ratings.append(DELIMITER);
-            ratings.append(contentRatings[i].flattenToString());
+        String ratings = CONTENT_RATINGS_TO_STRING.get(Arrays.asList(contentRatings));
+        if (ratings == null) {
+            StringBuilder builder = new StringBuilder(contentRatings[0].flattenToString());
+            for (int i = 1; i < contentRatings.length; ++i) {
+                builder.append(CONTENT_RATING_DELIMITER);
+                builder.append(contentRatings[i].flattenToString());
+            }
+            ratings = builder.toString();
+            // Copy the key so later changes to the caller's array cannot corrupt the cache.
+            CONTENT_RATINGS_TO_STRING.put(Arrays.asList(contentRatings.clone()), ratings);
         }
-        return ratings.toString();
+        return ratings;
     }
 
     private TvContractUtils() {}
 
-    /** AsyncTask to insert logos. */
+    /**
+     * AsyncTask to insert logos.
+     *
+     * @see ChannelLogoLoader
+     */
     public static class InsertLogosTask extends AsyncTask<Map<Uri, String>, Void, Void> {
         private final Context mContext;
 
@@ -150,13 +157,14 @@ public final class TvContractUtils {
 
         @Override
         public Void doInBackground(Map<Uri, String>... logosList) {
+            ChannelLogoLoader loader = ChannelLogoLoader.getInstance(mContext);
             for (Map<Uri, String> logos : logosList) {
-                for (Uri uri : logos.keySet()) {
-                    try {
-                        insertUrl(mContext, uri, new URL(logos.get(uri)));
-                    } catch (MalformedURLException e) {
-                        Log.e(TAG, "Can't load " + logos.get(uri), e);
-                    }
+                try {
+                    loader.insertLogos(logos);
+                } catch (InterruptedException e) {
+                    Log.w(TAG, "Interrupted while inserting logos", e);
+                    Thread.currentThread().interrupt();
+                    break;
                 }
             }
             return null;
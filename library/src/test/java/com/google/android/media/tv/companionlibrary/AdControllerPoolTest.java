@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary;
+
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/** Tests that the sessions of {@link BaseTvInputService} share reset {@link AdController}s. */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23,
+    manifest = "src/main/AndroidManifest.xml")
+public class AdControllerPoolTest {
+    @After
+    public void tearDown() {
+        BaseTvInputService.releaseAdControllers();
+    }
+
+    @Test
+    public void testRecycledControllerIsResetAndReused() {
+        AdController adController = mock(AdController.class);
+        BaseTvInputService.recycleAdController(adController);
+        verify(adController).reset();
+        verify(adController, never()).release();
+
+        assertSame(adController, obtainAdController());
+    }
+
+    @Test
+    public void testLastRecycledControllerReusedFirst() {
+        AdController first = mock(AdController.class);
+        AdController second = mock(AdController.class);
+        BaseTvInputService.recycleAdController(first);
+        BaseTvInputService.recycleAdController(second);
+
+        assertSame(second, obtainAdController());
+        assertSame(first, obtainAdController());
+    }
+
+    @Test
+    public void testControllersBeyondPoolSizeReleased() {
+        AdController first = mock(AdController.class);
+        AdController second = mock(AdController.class);
+        AdController third = mock(AdController.class);
+        BaseTvInputService.recycleAdController(first);
+        BaseTvInputService.recycleAdController(second);
+        BaseTvInputService.recycleAdController(third);
+
+        verify(third, never()).reset();
+        verify(third).release();
+        assertSame(second, obtainAdController());
+        assertSame(first, obtainAdController());
+    }
+
+    @Test
+    public void testReleaseEmptiesPool() {
+        AdController adController = mock(AdController.class);
+        BaseTvInputService.recycleAdController(adController);
+
+        BaseTvInputService.releaseAdControllers();
+        verify(adController).release();
+        // Recycling after the service is gone starts a new pool.
+        AdController next = mock(AdController.class);
+        BaseTvInputService.recycleAdController(next);
+        assertSame(next, obtainAdController());
+    }
+
+    private static AdController obtainAdController() {
+        return BaseTvInputService.obtainAdController(RuntimeEnvironment.application);
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+import com.google.ads.interactivemedia.v3.api.AdDisplayContainer;
+import com.google.ads.interactivemedia.v3.api.AdError;
+import com.google.ads.interactivemedia.v3.api.AdErrorEvent;
+import com.google.ads.interactivemedia.v3.api.AdEvent;
+import com.google.ads.interactivemedia.v3.api.AdsLoader;
+import com.google.ads.interactivemedia.v3.api.AdsManager;
+import com.google.ads.interactivemedia.v3.api.AdsManagerLoadedEvent;
+import com.google.ads.interactivemedia.v3.api.AdsRequest;
+import com.google.ads.interactivemedia.v3.api.ImaSdkFactory;
+import com.google.android.media.tv.companionlibrary.ads.VastResponseCache;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/**
+ * Tests that prefetched ads are only played, or their errors reported, once they are started, and
+ * that a reset controller forgets its previous request.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23,
+    manifest = "src/main/AndroidManifest.xml")
+public class AdControllerTest {
+    private static final String AD_TAG_URL = "http://example.com/ads";
+    private static final String AD_VIDEO_URL = "http://example.com/ad.mp4";
+
+    private AdsLoader mAdsLoader;
+    private AdsRequest mAdsRequest;
+    private AdsManager mAdsManager;
+    private AdController.AdControllerCallback mCallback;
+    private AdController mAdController;
+
+    @Before
+    public void setUp() {
+        ImaSdkFactory sdkFactory = mock(ImaSdkFactory.class);
+        mAdsLoader = mock(AdsLoader.class);
+        mAdsRequest = mock(AdsRequest.class);
+        mAdsManager = mock(AdsManager.class);
+        when(sdkFactory.createAdsLoader(any(Context.class))).thenReturn(mAdsLoader);
+        when(sdkFactory.createAdDisplayContainer()).thenReturn(mock(AdDisplayContainer.class));
+        when(sdkFactory.createAdsRequest()).thenReturn(mAdsRequest);
+        mCallback = mock(AdController.AdControllerCallback.class);
+        mAdController = new AdController(RuntimeEnvironment.application, sdkFactory);
+        VastResponseCache.getInstance().clear();
+    }
+
+    @After
+    public void tearDown() {
+        mAdController.release();
+        VastResponseCache.getInstance().clear();
+    }
+
+    @Test
+    public void testRequestedAdsStartWhenLoaded() {
+        mAdController.requestAds(AD_TAG_URL, mCallback);
+        loadAdsManager();
+        verify(mAdsManager).init();
+
+        sendAdEvent(AdEvent.AdEventType.LOADED);
+        verify(mAdsManager).start();
+    }
+
+    @Test
+    public void testPrefetchedAdsWaitForStart() {
+        mAdController.prefetchAds(AD_TAG_URL, mCallback);
+        verify(mAdsLoader).requestAds(mAdsRequest);
+        loadAdsManager();
+        sendAdEvent(AdEvent.AdEventType.LOADED);
+        verify(mAdsManager, never()).start();
+
+        mAdController.startAds();
+        verify(mAdsManager).start();
+    }
+
+    @Test
+    public void testAdsStartedWhileLoadingStartWhenLoaded() {
+        mAdController.prefetchAds(AD_TAG_URL, mCallback);
+        loadAdsManager();
+        mAdController.startAds();
+        verify(mAdsManager, never()).start();
+
+        sendAdEvent(AdEvent.AdEventType.LOADED);
+        verify(mAdsManager).start();
+    }
+
+    @Test
+    public void testPrefetchErrorReportedOnStart() {
+        mAdController.prefetchAds(AD_TAG_URL, mCallback);
+        sendAdError(AdError.AdErrorCode.VAST_LOAD_TIMEOUT);
+        verify(mCallback, never()).onAdError();
+
+        mAdController.startAds();
+        verify(mCallback).onAdError();
+    }
+
+    @Test
+    public void testCompletedAdsReported() {
+        mAdController.prefetchAds(AD_TAG_URL, mCallback);
+        loadAdsManager();
+        sendAdEvent(AdEvent.AdEventType.LOADED);
+        mAdController.startAds();
+
+        sendAdEvent(AdEvent.AdEventType.COMPLETED);
+        verify(mAdsManager).destroy();
+        verify(mCallback).onAdCompleted();
+    }
+
+    @Test
+    public void testPrefetchedCachedAdsWaitForStart() {
+        VastResponseCache.getInstance().put(AD_TAG_URL, Collections.singletonList(AD_VIDEO_URL));
+        TvPlayer tvPlayer = mock(TvPlayer.class);
+        when(mCallback.onAdReadyToPlay(AD_VIDEO_URL)).thenReturn(tvPlayer);
+
+        mAdController.prefetchAds(AD_TAG_URL, mCallback);
+        runMainLooper();
+        verify(mAdsLoader, never()).requestAds(any(AdsRequest.class));
+        verify(mCallback, never()).onAdReadyToPlay(AD_VIDEO_URL);
+
+        mAdController.startAds();
+        verify(tvPlayer).play();
+        ArgumentCaptor<TvPlayer.Callback> playerCallback =
+                ArgumentCaptor.forClass(TvPlayer.Callback.class);
+        verify(tvPlayer).registerCallback(playerCallback.capture());
+        playerCallback.getValue().onCompleted();
+        verify(mCallback).onAdCompleted();
+    }
+
+    @Test
+    public void testPrefetchedCachedNoAdsReportedOnStart() {
+        VastResponseCache.getInstance().put(AD_TAG_URL, Collections.<String>emptyList());
+
+        mAdController.prefetchAds(AD_TAG_URL, mCallback);
+        runMainLooper();
+        verify(mCallback, never()).onAdError();
+
+        mAdController.startAds();
+        verify(mCallback).onAdError();
+    }
+
+    @Test
+    public void testResetDestroysAdsManager() {
+        mAdController.prefetchAds(AD_TAG_URL, mCallback);
+        loadAdsManager();
+        sendAdEvent(AdEvent.AdEventType.LOADED);
+
+        mAdController.reset();
+        verify(mAdsManager).destroy();
+        // The loaded ads are forgotten, so starting them does nothing.
+        mAdController.startAds();
+        verify(mAdsManager, never()).start();
+    }
+
+    @Test
+    public void testResetIgnoresPreviousRequest() {
+        mAdController.prefetchAds(AD_TAG_URL, mCallback);
+        Object requestContext = getRequestContext();
+        mAdController.reset();
+
+        AdsManager staleAdsManager = mock(AdsManager.class);
+        AdsManagerLoadedEvent event = mock(AdsManagerLoadedEvent.class);
+        when(event.getAdsManager()).thenReturn(staleAdsManager);
+        when(event.getUserRequestContext()).thenReturn(requestContext);
+        mAdController.onAdsManagerLoaded(event);
+        verify(staleAdsManager, never()).init();
+        verify(staleAdsManager).destroy();
+
+        AdErrorEvent errorEvent = mock(AdErrorEvent.class);
+        when(errorEvent.getError())
+                .thenReturn(
+                        new AdError(
+                                AdError.AdErrorType.LOAD,
+                                AdError.AdErrorCode.VAST_LOAD_TIMEOUT,
+                                "Ad error"));
+        when(errorEvent.getUserRequestContext()).thenReturn(requestContext);
+        mAdController.onAdError(errorEvent);
+        verify(mCallback, never()).onAdError();
+    }
+
+    @Test
+    public void testResetControllerReportsToNewCallback() {
+        mAdController.requestAds(AD_TAG_URL, mCallback);
+        sendAdError(AdError.AdErrorCode.VAST_LOAD_TIMEOUT);
+        mAdController.reset();
+
+        AdController.AdControllerCallback callback = mock(AdController.AdControllerCallback.class);
+        mAdController.requestAds(AD_TAG_URL, callback);
+        loadAdsManager();
+        sendAdEvent(AdEvent.AdEventType.LOADED);
+        verify(mAdsManager).start();
+        sendAdEvent(AdEvent.AdEventType.COMPLETED);
+        verify(callback).onAdCompleted();
+        verify(callback, never()).onAdError();
+        verify(mCallback, never()).onAdCompleted();
+    }
+
+    /** Hands the ads manager of the last ads request to the controller. */
+    private void loadAdsManager() {
+        AdsManagerLoadedEvent event = mock(AdsManagerLoadedEvent.class);
+        when(event.getAdsManager()).thenReturn(mAdsManager);
+        when(event.getUserRequestContext()).thenReturn(getRequestContext());
+        mAdController.onAdsManagerLoaded(event);
+    }
+
+    private void sendAdEvent(AdEvent.AdEventType type) {
+        AdEvent event = mock(AdEvent.class);
+        when(event.getType()).thenReturn(type);
+        mAdController.onAdEvent(event);
+    }
+
+    private void sendAdError(AdError.AdErrorCode errorCode) {
+        AdErrorEvent event = mock(AdErrorEvent.class);
+        when(event.getError())
+                .thenReturn(new AdError(AdError.AdErrorType.LOAD, errorCode, "Ad error"));
+        when(event.getUserRequestContext()).thenReturn(getRequestContext());
+        mAdController.onAdError(event);
+    }
+
+    private Object getRequestContext() {
+        // The request object is shared by all requests, so its last context is the current one.
+        ArgumentCaptor<Object> requestContext = ArgumentCaptor.forClass(Object.class);
+        verify(mAdsRequest, atLeastOnce()).setUserRequestContext(requestContext.capture());
+        return requestContext.getValue();
+    }
+
+    private static void runMainLooper() {
+        Robolectric.getForegroundThreadScheduler().advanceBy(0, TimeUnit.MILLISECONDS);
+    }
+}
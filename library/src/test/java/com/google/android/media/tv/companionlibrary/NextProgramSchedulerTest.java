@@ -0,0 +1,138 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary;
+
+import static org.junit.Assert.assertEquals;
+
+import android.os.Handler;
+import android.os.Message;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/** Tests when the next program is queried, and that cancelling drops the query and its result. */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23,
+    manifest = "src/main/AndroidManifest.xml")
+public class NextProgramSchedulerTest {
+    private static final int MSG_PREPARE_NEXT_PROGRAM = 1;
+    private static final long LEAD_TIME_MS = 10000;
+
+    private Handler mHandler;
+    private NextProgramScheduler mScheduler;
+    private int mQueryCount;
+    private int mPrepareCount;
+
+    @Before
+    public void setUp() {
+        // Both threads are the main looper of the test, which only runs when the clock advances.
+        mHandler = new Handler(new Handler.Callback() {
+            @Override
+            public boolean handleMessage(Message msg) {
+                mPrepareCount++;
+                return true;
+            }
+        });
+        mScheduler = new NextProgramScheduler(mHandler, mHandler, MSG_PREPARE_NEXT_PROGRAM,
+                LEAD_TIME_MS);
+    }
+
+    @Test
+    public void testQueriesLeadTimeBeforeEnd() {
+        mScheduler.schedule(new QueryRunnable(), 60000);
+
+        advanceBy(60000 - LEAD_TIME_MS - 1);
+        assertEquals(0, mQueryCount);
+        advanceBy(1);
+        assertEquals(1, mQueryCount);
+        assertEquals(1, mPrepareCount);
+    }
+
+    @Test
+    public void testQueriesAtOnceWhenEndIsWithinLeadTime() {
+        mScheduler.schedule(new QueryRunnable(), LEAD_TIME_MS / 2);
+
+        advanceBy(0);
+        assertEquals(1, mPrepareCount);
+    }
+
+    @Test
+    public void testNoLeadTimeDisablesQuery() {
+        mScheduler.setLeadTimeMs(0);
+        mScheduler.schedule(new QueryRunnable(), 60000);
+
+        advanceBy(60000);
+        assertEquals(0, mQueryCount);
+    }
+
+    @Test
+    public void testCancelDropsPendingQuery() {
+        mScheduler.schedule(new QueryRunnable(), 60000);
+        advanceBy(30000);
+        // Playback is paused.
+        mScheduler.cancel();
+
+        advanceBy(60000);
+        assertEquals(0, mQueryCount);
+        assertEquals(0, mPrepareCount);
+    }
+
+    @Test
+    public void testCancelDropsSentResult() {
+        mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                mQueryCount++;
+                // Sent with a delay, as the main thread could be busy when the query ends.
+                mHandler.sendEmptyMessageDelayed(MSG_PREPARE_NEXT_PROGRAM, 100);
+            }
+        }, LEAD_TIME_MS);
+        advanceBy(0);
+        assertEquals(1, mQueryCount);
+        mScheduler.cancel();
+
+        advanceBy(100);
+        assertEquals(0, mPrepareCount);
+    }
+
+    @Test
+    public void testScheduleReplacesPendingQuery() {
+        mScheduler.schedule(new QueryRunnable(), 60000);
+        // The viewer seeks, so the current program now ends later.
+        mScheduler.schedule(new QueryRunnable(), 120000);
+
+        advanceBy(60000);
+        assertEquals(0, mQueryCount);
+        advanceBy(60000);
+        assertEquals(1, mQueryCount);
+    }
+
+    private static void advanceBy(long ms) {
+        Robolectric.getForegroundThreadScheduler().advanceBy(ms, TimeUnit.MILLISECONDS);
+    }
+
+    private class QueryRunnable implements Runnable {
+        @Override
+        public void run() {
+            mQueryCount++;
+            mHandler.sendEmptyMessage(MSG_PREPARE_NEXT_PROGRAM);
+        }
+    }
+}
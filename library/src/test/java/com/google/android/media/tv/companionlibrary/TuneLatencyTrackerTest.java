@@ -0,0 +1,94 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary;
+
+import static org.junit.Assert.assertEquals;
+
+import android.media.tv.TvContract;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/** Tests the stage durations of a tune and the percentiles of the last tunes. */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23,
+    manifest = "src/main/AndroidManifest.xml")
+public class TuneLatencyTrackerTest {
+    private static final long TUNE_TIME_MS = 5000;
+
+    @Test
+    public void testStageDurations() {
+        TuneLatencyTracker.TuneTimeline timeline = createTimeline(300);
+        // A channel ad played instead of the program.
+        assertEquals(-1, timeline.getStageDurationMs(TuneLatencyTracker.STAGE_PLAY_PROGRAM));
+        assertEquals(
+                20, timeline.getStageDurationMs(TuneLatencyTracker.STAGE_PLAYER_PREPARE));
+        assertEquals(
+                250, timeline.getStageDurationMs(TuneLatencyTracker.STAGE_VIDEO_AVAILABLE));
+        assertEquals(300, timeline.getTotalMs());
+    }
+
+    @Test
+    public void testStagesOnlyRecordedOnce() {
+        TuneLatencyTracker.TuneTimeline timeline = createTimeline(300);
+        // The current program is queried again when the program ends.
+        timeline.mark(TuneLatencyTracker.STAGE_PROGRAM_QUERY, TUNE_TIME_MS + 60000);
+        timeline.mark(TuneLatencyTracker.STAGE_VIDEO_AVAILABLE, TUNE_TIME_MS + 60100);
+        assertEquals(10, timeline.getTimeSinceTuneMs(TuneLatencyTracker.STAGE_PROGRAM_QUERY));
+        assertEquals(300, timeline.getTotalMs());
+    }
+
+    @Test
+    public void testPercentiles() {
+        TuneLatencyTracker tracker = new TuneLatencyTracker();
+        assertEquals(-1, tracker.getPercentileMs(TuneLatencyTracker.STAGE_VIDEO_AVAILABLE, 50));
+        for (int totalMs = 100; totalMs >= 1; totalMs--) {
+            tracker.addTimeline(createTimeline(totalMs * 10));
+        }
+        assertEquals(500, tracker.getPercentileMs(TuneLatencyTracker.STAGE_VIDEO_AVAILABLE, 50));
+        assertEquals(950, tracker.getPercentileMs(TuneLatencyTracker.STAGE_VIDEO_AVAILABLE, 95));
+        assertEquals(0, tracker.getSampleCount(TuneLatencyTracker.STAGE_PLAY_PROGRAM));
+    }
+
+    @Test
+    public void testPercentilesOfLastTunesOnly() {
+        TuneLatencyTracker tracker = new TuneLatencyTracker();
+        for (int i = 0; i < TuneLatencyTracker.WINDOW_SIZE; i++) {
+            tracker.addTimeline(createTimeline(10000));
+        }
+        for (int i = 0; i < TuneLatencyTracker.WINDOW_SIZE; i++) {
+            tracker.addTimeline(createTimeline(100));
+        }
+        assertEquals(
+                TuneLatencyTracker.WINDOW_SIZE,
+                tracker.getSampleCount(TuneLatencyTracker.STAGE_VIDEO_AVAILABLE));
+        assertEquals(100, tracker.getPercentileMs(TuneLatencyTracker.STAGE_VIDEO_AVAILABLE, 95));
+    }
+
+    private static TuneLatencyTracker.TuneTimeline createTimeline(long totalMs) {
+        TuneLatencyTracker.TuneTimeline timeline =
+                new TuneLatencyTracker.TuneTimeline(TvContract.buildChannelUri(1));
+        timeline.mark(TuneLatencyTracker.STAGE_TUNE, TUNE_TIME_MS);
+        timeline.mark(TuneLatencyTracker.STAGE_CHANNEL_LOOKUP, TUNE_TIME_MS + 1);
+        timeline.mark(TuneLatencyTracker.STAGE_PROGRAM_QUERY, TUNE_TIME_MS + 10);
+        timeline.mark(TuneLatencyTracker.STAGE_PLAY_CONTENT_DISPATCH, TUNE_TIME_MS + 20);
+        timeline.mark(TuneLatencyTracker.STAGE_PARENTAL_CHECK, TUNE_TIME_MS + 30);
+        timeline.mark(TuneLatencyTracker.STAGE_PLAYER_PREPARE, TUNE_TIME_MS + 50);
+        timeline.mark(TuneLatencyTracker.STAGE_VIDEO_AVAILABLE, TUNE_TIME_MS + totalMs);
+        return timeline;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary.ads;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.media.tv.companionlibrary.BuildConfig;
+import com.google.android.media.tv.companionlibrary.model.Advertisement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/** Tests that the ad timeline of a program answers queries like a scan of all its ads. */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23,
+    manifest = "src/main/AndroidManifest.xml")
+public class AdTimelineTest {
+    private static final long PROGRAM_START_MS = 1000000;
+
+    @Test
+    public void testEmptyTimeline() {
+        AdTimeline timeline = new AdTimeline(new ArrayList<Advertisement>());
+        assertTrue(timeline.isEmpty());
+        assertNull(timeline.getFirstAdStoppingAfter(PROGRAM_START_MS));
+        assertEquals(0, timeline.getDurationOfAdsStoppingBefore(PROGRAM_START_MS));
+        assertEquals(0, timeline.getDurationOfAdsBeforeContentTime(PROGRAM_START_MS));
+    }
+
+    @Test
+    public void testQueriesMatchLinearScan() {
+        // Ads given out of order, as they may be stored in the internal provider data.
+        List<Advertisement> ads =
+                Arrays.asList(
+                        createAd(PROGRAM_START_MS + 600, 100),
+                        createAd(PROGRAM_START_MS + 100, 50),
+                        createAd(PROGRAM_START_MS + 300, 200),
+                        createAd(PROGRAM_START_MS + 1000, 10));
+        AdTimeline timeline = new AdTimeline(ads);
+        assertFalse(timeline.isEmpty());
+
+        for (long timeMs = PROGRAM_START_MS - 10; timeMs < PROGRAM_START_MS + 1100; timeMs++) {
+            long durationStoppingBefore = 0;
+            Advertisement firstStoppingAfter = null;
+            for (Advertisement ad : ads) {
+                if (ad.getStopTimeUtcMillis() < timeMs) {
+                    durationStoppingBefore +=
+                            ad.getStopTimeUtcMillis() - ad.getStartTimeUtcMillis();
+                } else if (ad.getStopTimeUtcMillis() > timeMs
+                        && (firstStoppingAfter == null
+                                || ad.getStartTimeUtcMillis()
+                                        < firstStoppingAfter.getStartTimeUtcMillis())) {
+                    firstStoppingAfter = ad;
+                }
+            }
+            assertEquals(durationStoppingBefore, timeline.getDurationOfAdsStoppingBefore(timeMs));
+            assertEquals(firstStoppingAfter, timeline.getFirstAdStoppingAfter(timeMs));
+        }
+    }
+
+    @Test
+    public void testDurationOfAdsBeforeContentTime() {
+        AdTimeline timeline =
+                new AdTimeline(
+                        Arrays.asList(
+                                createAd(PROGRAM_START_MS + 100, 50),
+                                createAd(PROGRAM_START_MS + 300, 200),
+                                createAd(PROGRAM_START_MS + 600, 100)));
+        // On the content timeline, the ads start at 100, 250 and 350 ms into the program.
+        assertEquals(0, timeline.getDurationOfAdsBeforeContentTime(PROGRAM_START_MS + 100));
+        assertEquals(50, timeline.getDurationOfAdsBeforeContentTime(PROGRAM_START_MS + 101));
+        assertEquals(50, timeline.getDurationOfAdsBeforeContentTime(PROGRAM_START_MS + 250));
+        assertEquals(250, timeline.getDurationOfAdsBeforeContentTime(PROGRAM_START_MS + 251));
+        assertEquals(250, timeline.getDurationOfAdsBeforeContentTime(PROGRAM_START_MS + 350));
+        assertEquals(350, timeline.getDurationOfAdsBeforeContentTime(PROGRAM_START_MS + 351));
+    }
+
+    private static Advertisement createAd(long startTimeMs, long durationMs) {
+        return new Advertisement.Builder()
+                .setStartTimeUtcMillis(startTimeMs)
+                .setStopTimeUtcMillis(startTimeMs + durationMs)
+                .setType(Advertisement.TYPE_VAST)
+                .setRequestUrl("http://example.com/vast")
+                .build();
+    }
+}
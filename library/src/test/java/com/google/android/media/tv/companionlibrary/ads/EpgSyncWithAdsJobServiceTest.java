@@ -0,0 +1,161 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary.ads;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.media.tv.companionlibrary.BuildConfig;
+import com.google.android.media.tv.companionlibrary.model.Advertisement;
+import com.google.android.media.tv.companionlibrary.model.Channel;
+import com.google.android.media.tv.companionlibrary.model.InternalProviderData;
+import com.google.android.media.tv.companionlibrary.model.Program;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/** Tests that repeatable channels are scheduled in a loop with their ads shifted accordingly. */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23,
+    manifest = "src/main/AndroidManifest.xml")
+public class EpgSyncWithAdsJobServiceTest {
+    private static final long MINUTE_MS = 1000 * 60;
+    private static final long HOUR_MS = MINUTE_MS * 60;
+    private static final String AD_REQUEST_URL = "http://example.com/vast";
+
+    @Test
+    public void testRepeatedScheduleStartsInsideLoop() {
+        Channel channel = createChannel(true);
+        // The loop is 60 minutes long: 10, 20 and 30 minute programs.
+        List<Program> programs =
+                Arrays.asList(
+                        createProgram("A", 0, 10 * MINUTE_MS, 2 * MINUTE_MS),
+                        createProgram("B", 10 * MINUTE_MS, 30 * MINUTE_MS, -1),
+                        createProgram("C", 30 * MINUTE_MS, HOUR_MS, 35 * MINUTE_MS));
+        long startMs = 100 * HOUR_MS + 15 * MINUTE_MS;
+        long endMs = startMs + 2 * HOUR_MS;
+
+        List<Program> repeated =
+                EpgSyncWithAdsJobService.repeatAndInsertAds(channel, programs, startMs, endMs);
+
+        // The first program overlapping the range is B, which started 5 minutes before it.
+        assertEquals("B", repeated.get(0).getTitle());
+        assertEquals(100 * HOUR_MS + 10 * MINUTE_MS, repeated.get(0).getStartTimeUtcMillis());
+        String[] expectedTitles = {"B", "C", "A", "B", "C", "A", "B"};
+        assertEquals(expectedTitles.length, repeated.size());
+        for (int i = 0; i < repeated.size(); i++) {
+            Program program = repeated.get(i);
+            assertEquals(expectedTitles[i], program.getTitle());
+            assertEquals(channel.getId(), program.getChannelId());
+            if (i > 0) {
+                assertEquals(
+                        repeated.get(i - 1).getEndTimeUtcMillis(),
+                        program.getStartTimeUtcMillis());
+            }
+        }
+        assertTrue(repeated.get(repeated.size() - 1).getEndTimeUtcMillis() >= endMs);
+
+        // Ads keep their offset from the start of the program they belong to.
+        Program c = repeated.get(1);
+        List<Advertisement> ads = c.getInternalProviderData().getAds();
+        assertEquals(1, ads.size());
+        assertEquals(c.getStartTimeUtcMillis() + 5 * MINUTE_MS, ads.get(0).getStartTimeUtcMillis());
+        assertEquals(c.getStartTimeUtcMillis() + 6 * MINUTE_MS, ads.get(0).getStopTimeUtcMillis());
+        assertEquals(0, repeated.get(0).getInternalProviderData().getAds().size());
+        // Repetitions of a program without ads share its internal provider data.
+        assertSame(
+                programs.get(1).getInternalProviderDataByteArray(),
+                repeated.get(3).getInternalProviderDataByteArray());
+        // The original programs are left untouched.
+        assertEquals(
+                35 * MINUTE_MS,
+                programs.get(2).getInternalProviderData().getAds().get(0).getStartTimeUtcMillis());
+    }
+
+    @Test
+    public void testRepeatedScheduleStartsOnProgramBoundary() {
+        Channel channel = createChannel(true);
+        List<Program> programs =
+                Arrays.asList(
+                        createProgram("A", 0, 10 * MINUTE_MS, -1),
+                        createProgram("B", 10 * MINUTE_MS, 30 * MINUTE_MS, -1));
+        long startMs = 100 * MINUTE_MS;
+
+        List<Program> repeated =
+                EpgSyncWithAdsJobService.repeatAndInsertAds(
+                        channel, programs, startMs, startMs + 30 * MINUTE_MS);
+
+        // A ends exactly at the start of the range, so it is still part of the schedule.
+        assertEquals(3, repeated.size());
+        assertEquals("A", repeated.get(0).getTitle());
+        assertEquals(90 * MINUTE_MS, repeated.get(0).getStartTimeUtcMillis());
+        assertEquals("B", repeated.get(1).getTitle());
+        assertEquals("A", repeated.get(2).getTitle());
+    }
+
+    @Test
+    public void testNonRepeatableChannelIsFiltered() {
+        Channel channel = createChannel(false);
+        List<Program> programs =
+                Arrays.asList(
+                        createProgram("A", 0, HOUR_MS, -1),
+                        createProgram("B", HOUR_MS, 2 * HOUR_MS, -1),
+                        createProgram("C", 2 * HOUR_MS, 3 * HOUR_MS, -1));
+
+        List<Program> filtered =
+                EpgSyncWithAdsJobService.repeatAndInsertAds(
+                        channel, programs, HOUR_MS + MINUTE_MS, 2 * HOUR_MS - MINUTE_MS);
+
+        assertEquals(1, filtered.size());
+        assertEquals("B", filtered.get(0).getTitle());
+    }
+
+    private static Channel createChannel(boolean repeatable) {
+        InternalProviderData internalProviderData = new InternalProviderData();
+        internalProviderData.setRepeatable(repeatable);
+        return new Channel.Builder()
+                .setDisplayName("Test Channel")
+                .setInternalProviderData(internalProviderData)
+                .build();
+    }
+
+    /** Creates a program, with a one minute ad at {@code adStartMs} unless it is negative. */
+    private static Program createProgram(String title, long startMs, long endMs, long adStartMs) {
+        InternalProviderData internalProviderData = new InternalProviderData();
+        if (adStartMs >= 0) {
+            List<Advertisement> ads = new ArrayList<>();
+            ads.add(
+                    new Advertisement.Builder()
+                            .setStartTimeUtcMillis(adStartMs)
+                            .setStopTimeUtcMillis(adStartMs + MINUTE_MS)
+                            .setType(Advertisement.TYPE_VAST)
+                            .setRequestUrl(AD_REQUEST_URL)
+                            .build());
+            internalProviderData.setAds(ads);
+        }
+        return new Program.Builder()
+                .setTitle(title)
+                .setStartTimeUtcMillis(startMs)
+                .setEndTimeUtcMillis(endMs)
+                .setInternalProviderData(internalProviderData)
+                .build();
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary.ads;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.media.tv.companionlibrary.BuildConfig;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/** Tests that ad decisions are cached for their lifetime. */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23,
+    manifest = "src/main/AndroidManifest.xml")
+public class VastResponseCacheTest {
+    private static final String AD_TAG_URL = "http://example.com/ads?correlator=[timestamp]";
+    private static final List<String> MEDIA_FILE_URLS =
+            Arrays.asList("http://example.com/ad1.mp4", "http://example.com/ad2.mp4");
+    private static final int MAX_ENTRIES = 2;
+
+    private long mCurrentTimeMs = 1000000;
+    private VastResponseCache mCache;
+
+    @Before
+    public void setUp() {
+        mCache =
+                new VastResponseCache(MAX_ENTRIES, VastResponseCache.DEFAULT_TTL_MS) {
+                    @Override
+                    long currentTimeMillis() {
+                        return mCurrentTimeMs;
+                    }
+                };
+    }
+
+    @Test
+    public void testDecisionCachedForTtl() {
+        assertNull(mCache.get(AD_TAG_URL));
+        VastResponseCache.Entry entry = mCache.put(AD_TAG_URL, MEDIA_FILE_URLS);
+        assertTrue(entry.hasAds());
+        assertEquals(MEDIA_FILE_URLS, entry.getMediaFileUrls());
+        assertEquals(mCurrentTimeMs + VastResponseCache.DEFAULT_TTL_MS, entry.getExpiryTimeMs());
+
+        mCurrentTimeMs += VastResponseCache.DEFAULT_TTL_MS - 1;
+        assertEquals(entry, mCache.get(AD_TAG_URL));
+        mCurrentTimeMs += 1;
+        assertNull(mCache.get(AD_TAG_URL));
+    }
+
+    @Test
+    public void testDecisionWithoutAdsCached() {
+        mCache.put(AD_TAG_URL, Collections.<String>emptyList());
+
+        VastResponseCache.Entry entry = mCache.get(AD_TAG_URL);
+        assertNotNull(entry);
+        assertFalse(entry.hasAds());
+        assertTrue(entry.getMediaFileUrls().isEmpty());
+    }
+
+    @Test
+    public void testMediaFileUrlsCopied() {
+        List<String> mediaFileUrls = new ArrayList<>(MEDIA_FILE_URLS);
+        mCache.put(AD_TAG_URL, mediaFileUrls);
+        // The ad player keeps adding the ads it plays to its own list.
+        mediaFileUrls.add("http://example.com/ad3.mp4");
+
+        assertEquals(MEDIA_FILE_URLS, mCache.get(AD_TAG_URL).getMediaFileUrls());
+    }
+
+    @Test
+    public void testNoTtlDisablesCache() {
+        VastResponseCache cache = new VastResponseCache(MAX_ENTRIES, 0);
+        assertNotNull(cache.put(AD_TAG_URL, MEDIA_FILE_URLS));
+        assertNull(cache.get(AD_TAG_URL));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedDecisionEvicted() {
+        mCache.put("http://example.com/a", MEDIA_FILE_URLS);
+        mCache.put("http://example.com/b", MEDIA_FILE_URLS);
+        mCache.get("http://example.com/a");
+        mCache.put("http://example.com/c", MEDIA_FILE_URLS);
+
+        assertNotNull(mCache.get("http://example.com/a"));
+        assertNull(mCache.get("http://example.com/b"));
+        assertNotNull(mCache.get("http://example.com/c"));
+    }
+
+    @Test
+    public void testClear() {
+        mCache.put(AD_TAG_URL, MEDIA_FILE_URLS);
+        mCache.clear();
+        assertNull(mCache.get(AD_TAG_URL));
+    }
+}
@@ -16,6 +16,8 @@
 package com.google.android.media.tv.companionlibrary.model;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import android.content.ContentValues;
@@ -114,6 +116,34 @@ public class ChannelTest {
         compareChannel(fullyPopulatedChannel, clonedFullyPopulatedChannel);
     }
 
+    @Test
+    public void testCursorReader() {
+        // Tests reading several rows with a single reader, which should produce the same channels
+        // as reading each row separately.
+        Channel channelA = new Channel.Builder()
+                .setDisplayName("Channel A")
+                .setDisplayNumber("1")
+                .setInputId("TestInputService")
+                .setOriginalNetworkId(1)
+                .setType(TvContract.Channels.TYPE_OTHER)
+                .build();
+        Channel channelB = new Channel.Builder(channelA)
+                .setDisplayName("Channel B")
+                .setDisplayNumber("2")
+                .setOriginalNetworkId(2)
+                .build();
+        MatrixCursor cursor = new MatrixCursor(Channel.PROJECTION);
+        addChannelRow(cursor, channelA.toContentValues());
+        addChannelRow(cursor, channelB.toContentValues());
+
+        Channel.CursorReader reader = new Channel.CursorReader(cursor);
+        assertTrue(cursor.moveToNext());
+        compareChannel(channelA, reader.read());
+        assertTrue(cursor.moveToNext());
+        compareChannel(channelB, reader.read());
+        assertFalse(cursor.moveToNext());
+    }
+
     private static void compareChannel(Channel channelA, Channel channelB) {
         assertEquals(channelA.getAppLinkColor(), channelB.getAppLinkColor());
         assertEquals(channelA.getAppLinkIconUri(), channelB.getAppLinkIconUri());
@@ -140,15 +170,18 @@ public class ChannelTest {
     }
 
     private static MatrixCursor getChannelCursor(ContentValues contentValues) {
-        String[] rows = Channel.PROJECTION;
-        MatrixCursor cursor = new MatrixCursor(rows);
+        MatrixCursor cursor = new MatrixCursor(Channel.PROJECTION);
+        addChannelRow(cursor, contentValues);
+        cursor.moveToFirst();
+        return cursor;
+    }
+
+    private static void addChannelRow(MatrixCursor cursor, ContentValues contentValues) {
         MatrixCursor.RowBuilder builder = cursor.newRow();
-        for(String row: rows) {
+        for(String row: Channel.PROJECTION) {
             if (row != null) {
                 builder.add(row, contentValues.get(row));
             }
         }
-        cursor.moveToFirst();
-        return cursor;
     }
 }
@@ -138,6 +138,40 @@ public class InternalProviderDataTest {
                 internalProviderData.getAds().get(2).getType());
     }
 
+    @Test
+    public void testAdsSerializer() throws InternalProviderData.ParseException {
+        InternalProviderData internalProviderData = new InternalProviderData();
+        internalProviderData.setRepeatable(true);
+        internalProviderData.put(KEY_SPLASHSCREEN, SPLASHSCREEN_URL);
+        ArrayList<Advertisement> ads = new ArrayList<>();
+        ads.add(
+                new Advertisement.Builder()
+                        .setRequestUrl("http://example.com/ad?a=\"1\"&b=/2")
+                        .setStartTimeUtcMillis(1000)
+                        .setStopTimeUtcMillis(2000)
+                        .setType(Advertisement.TYPE_VAST)
+                        .build());
+        internalProviderData.setAds(ads);
+        InternalProviderData.AdsSerializer serializer = internalProviderData.newAdsSerializer();
+
+        InternalProviderData shifted = new InternalProviderData(serializer.serialize(ads, 500));
+        assertEquals(1, shifted.getAds().size());
+        assertEquals(1500, shifted.getAds().get(0).getStartTimeUtcMillis());
+        assertEquals(2500, shifted.getAds().get(0).getStopTimeUtcMillis());
+        assertEquals(ads.get(0).getRequestUrl(), shifted.getAds().get(0).getRequestUrl());
+        assertTrue(shifted.isRepeatable());
+        assertEquals(SPLASHSCREEN_URL, shifted.get(KEY_SPLASHSCREEN));
+
+        InternalProviderData withoutAds = new InternalProviderData(serializer.serialize(null, 0));
+        assertTrue(withoutAds.getAds().isEmpty());
+        assertTrue(withoutAds.isRepeatable());
+
+        InternalProviderData.AdsSerializer emptySerializer =
+                new InternalProviderData().newAdsSerializer();
+        InternalProviderData empty = new InternalProviderData(emptySerializer.serialize(ads, 0));
+        assertEquals(ads, empty.getAds());
+    }
+
     @Test
     public void testCustomDataMethods() throws InternalProviderData.ParseException {
         // Test custom data methods
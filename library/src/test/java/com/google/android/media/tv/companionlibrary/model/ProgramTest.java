@@ -16,6 +16,7 @@
 package com.google.android.media.tv.companionlibrary.model;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -116,6 +117,66 @@ public class ProgramTest {
         compareProgram(fullyPopulatedProgram, clonedFullyPopulatedProgram);
     }
 
+    @Test
+    public void testCursorReader() {
+        // Tests reading several rows with a single reader, which should produce the same programs
+        // as reading each row separately, each with arrays of its own.
+        Program programA = new Program.Builder()
+                .setTitle("Program A")
+                .setChannelId(3)
+                .setCanonicalGenres(new String[] {TvContract.Programs.Genres.MOVIES})
+                .setContentRatings(new TvContentRating[] {TvContentRating.UNRATED})
+                .setStartTimeUtcMillis(0)
+                .setEndTimeUtcMillis(1000)
+                .build();
+        Program programB = new Program.Builder(programA)
+                .setTitle("Program B")
+                .setStartTimeUtcMillis(1000)
+                .setEndTimeUtcMillis(2000)
+                .build();
+        MatrixCursor cursor = new MatrixCursor(Program.PROJECTION);
+        addProgramRow(cursor, programA.toContentValues());
+        addProgramRow(cursor, programB.toContentValues());
+
+        Program.CursorReader reader = new Program.CursorReader(cursor);
+        assertTrue(cursor.moveToNext());
+        Program readProgramA = reader.read();
+        compareProgram(programA, readProgramA);
+        assertTrue(cursor.moveToNext());
+        Program readProgramB = reader.read();
+        compareProgram(programB, readProgramB);
+        // Changing the arrays of one program does not change the other.
+        readProgramA.getContentRatings()[0] = null;
+        readProgramA.getCanonicalGenres()[0] = null;
+        compareProgram(programB, readProgramB);
+    }
+
+    @Test
+    public void testCachedHashCodeAndContentValues() {
+        // Tests that the cached hash and database representation match a freshly built program
+        // and cannot be altered by callers.
+        Program program = new Program.Builder()
+                .setTitle("Program Title")
+                .setChannelId(3)
+                .setStartTimeUtcMillis(0)
+                .setEndTimeUtcMillis(1000)
+                .build();
+        Program sameProgram = new Program.Builder(program).build();
+        Program laterProgram = new Program.Builder(program)
+                .setStartTimeUtcMillis(1000)
+                .setEndTimeUtcMillis(2000)
+                .build();
+        assertEquals(program.hashCode(), sameProgram.hashCode());
+        assertEquals(program, sameProgram);
+        assertFalse(program.equals(laterProgram));
+
+        ContentValues contentValues = program.toContentValues();
+        contentValues.put(TvContract.Programs.COLUMN_TITLE, "Modified Title");
+        assertEquals("Program Title",
+                program.toContentValues().getAsString(TvContract.Programs.COLUMN_TITLE));
+        assertEquals(sameProgram.toContentValues(), program.toContentValues());
+    }
+
     private static void compareProgram(Program programA, Program programB) {
         assertTrue(Objects.equals(programA.getAudioLanguages(), programB.getAudioLanguages()));
         assertTrue(Arrays.deepEquals(programA.getBroadcastGenres(), programB.getBroadcastGenres()));
@@ -148,15 +209,18 @@ public class ProgramTest {
     }
 
     private static MatrixCursor getProgramCursor(ContentValues contentValues) {
-        String[] rows = Program.PROJECTION;
-        MatrixCursor cursor = new MatrixCursor(rows);
+        MatrixCursor cursor = new MatrixCursor(Program.PROJECTION);
+        addProgramRow(cursor, contentValues);
+        cursor.moveToFirst();
+        return cursor;
+    }
+
+    private static void addProgramRow(MatrixCursor cursor, ContentValues contentValues) {
         MatrixCursor.RowBuilder builder = cursor.newRow();
-        for(String row: rows) {
+        for(String row: Program.PROJECTION) {
             if (row != null) {
                 builder.add(row, contentValues.get(row));
             }
         }
-        cursor.moveToFirst();
-        return cursor;
     }
 }
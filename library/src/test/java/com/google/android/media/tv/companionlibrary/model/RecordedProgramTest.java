@@ -16,6 +16,7 @@
 package com.google.android.media.tv.companionlibrary.model;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -118,6 +119,48 @@ public class RecordedProgramTest {
         compareRecordedProgram(fullyPopulatedProgram, clonedFullyPopulatedProgram);
     }
 
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    @Test
+    public void testCursorReader() {
+        // Tests reading several rows with a single reader, which should produce the same recorded
+        // programs as reading each row separately, each with arrays of its own.
+        RecordedProgram programA = new RecordedProgram.Builder()
+                .setBroadcastGenres(new String[]{"Sports"})
+                .setCanonicalGenres(new String[]{TvContract.Programs.Genres.SPORTS})
+                .setContentRatings(new TvContentRating[]{TvContentRating.UNRATED})
+                .setInputId(TEST_INPUT_ID)
+                .setTitle("Recording A")
+                .setStartTimeUtcMillis(0)
+                .setEndTimeUtcMillis(1000)
+                .setRecordingDataBytes(1024)
+                .setRecordingDataUri("file://sdcard/a.ts")
+                .setRecordingDurationMillis(1000)
+                .build();
+        RecordedProgram programB = new RecordedProgram.Builder(programA)
+                .setTitle("Recording B")
+                .setStartTimeUtcMillis(1000)
+                .setEndTimeUtcMillis(2000)
+                .setRecordingDataUri("file://sdcard/b.ts")
+                .build();
+        MatrixCursor cursor = new MatrixCursor(RecordedProgram.PROJECTION);
+        addRecordedProgramRow(cursor, programA.toContentValues());
+        addRecordedProgramRow(cursor, programB.toContentValues());
+
+        RecordedProgram.CursorReader reader = new RecordedProgram.CursorReader(cursor);
+        assertTrue(cursor.moveToNext());
+        RecordedProgram readProgramA = reader.read();
+        compareRecordedProgram(programA, readProgramA);
+        assertTrue(cursor.moveToNext());
+        RecordedProgram readProgramB = reader.read();
+        compareRecordedProgram(programB, readProgramB);
+        assertFalse(cursor.moveToNext());
+
+        // Changing the arrays of one recorded program does not change the other.
+        readProgramA.getBroadcastGenres()[0] = null;
+        readProgramA.getContentRatings()[0] = null;
+        compareRecordedProgram(programB, readProgramB);
+    }
+
     private static void compareRecordedProgram(RecordedProgram programA, RecordedProgram programB) {
         assertEquals(programA.getAudioLanguages(), programB.getAudioLanguages());
         assertTrue(Arrays.deepEquals(programA.getBroadcastGenres(), programB.getBroadcastGenres()));
@@ -144,13 +187,16 @@ public class RecordedProgramTest {
     }
 
     private static MatrixCursor getRecordedProgramCursor(ContentValues contentValues) {
-        String[] rows = RecordedProgram.PROJECTION;
-        MatrixCursor cursor = new MatrixCursor(rows);
+        MatrixCursor cursor = new MatrixCursor(RecordedProgram.PROJECTION);
+        addRecordedProgramRow(cursor, contentValues);
+        cursor.moveToFirst();
+        return cursor;
+    }
+
+    private static void addRecordedProgramRow(MatrixCursor cursor, ContentValues contentValues) {
         MatrixCursor.RowBuilder builder = cursor.newRow();
-        for (String row : rows) {
+        for (String row : RecordedProgram.PROJECTION) {
             builder.add(row, contentValues.get(row));
         }
-        cursor.moveToFirst();
-        return cursor;
     }
 }
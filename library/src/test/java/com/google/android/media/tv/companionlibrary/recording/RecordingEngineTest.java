@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary.recording;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.net.Uri;
+import com.google.android.media.tv.companionlibrary.BuildConfig;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/** Tests capturing streams into segment files, and the tuner limit of the engine. */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23,
+    manifest = "src/main/AndroidManifest.xml")
+public class RecordingEngineTest {
+    private static final String INPUT_ID = "input";
+    private static final int SEGMENT_SIZE_BYTES = 1000;
+    private static final long CAPTURE_TIMEOUT_MS = 5000;
+
+    private File mDirectory;
+    private RecordingEngine mEngine;
+    private byte[] mSourceData;
+    private Uri mSourceUri;
+
+    @Before
+    public void setUp() throws IOException {
+        File cacheDir = RuntimeEnvironment.application.getCacheDir();
+        mDirectory = new File(cacheDir, "recordings");
+        mEngine = new RecordingEngine(RuntimeEnvironment.application, mDirectory,
+                SEGMENT_SIZE_BYTES) {
+            @Override
+            int getTunerCount(String inputId) {
+                return 1;
+            }
+        };
+        mSourceData = new byte[2500];
+        for (int i = 0; i < mSourceData.length; i++) {
+            mSourceData[i] = (byte) i;
+        }
+        File source = new File(cacheDir, "source.ts");
+        OutputStream output = new FileOutputStream(source);
+        output.write(mSourceData);
+        output.close();
+        mSourceUri = Uri.fromFile(source);
+    }
+
+    @Test
+    public void testCapturesStreamInSegments() throws Exception {
+        RecordingEngine.Recording recording = mEngine.startRecording(INPUT_ID, mSourceUri);
+        assertNotNull(recording);
+        waitForBytes(recording, mSourceData.length);
+        assertTrue(recording.stop());
+
+        assertTrue(RecordingIndex.isIndexUri(recording.getDataUri()));
+        RecordingIndex index = RecordingIndex.read(new File(recording.getDataUri().getPath()));
+        assertEquals(3, index.getSegments().size());
+        assertEquals(1000, index.getSegments().get(0).getLength());
+        assertEquals(500, index.getSegments().get(2).getLength());
+        assertEquals(mSourceData.length, index.getLength());
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        for (RecordingIndex.Segment segment : index.getSegments()) {
+            InputStream input = new FileInputStream(index.getFile(segment));
+            byte[] buffer = new byte[SEGMENT_SIZE_BYTES];
+            int bytesRead;
+            while ((bytesRead = input.read(buffer)) != -1) {
+                captured.write(buffer, 0, bytesRead);
+            }
+            input.close();
+        }
+        assertArrayEquals(mSourceData, captured.toByteArray());
+        assertNull(recording.getError());
+    }
+
+    @Test
+    public void testRecordingsLimitedByTunerCount() throws Exception {
+        RecordingEngine.Recording recording = mEngine.startRecording(INPUT_ID, mSourceUri);
+        assertNotNull(recording);
+        // The tuner is held until the recording is stopped, even though the stream ended.
+        waitForBytes(recording, mSourceData.length);
+        assertNull(mEngine.startRecording(INPUT_ID, mSourceUri));
+        assertNotNull(mEngine.startRecording("otherInput", mSourceUri));
+
+        recording.stop();
+        assertNotNull(mEngine.startRecording(INPUT_ID, mSourceUri));
+    }
+
+    @Test
+    public void testDeleteRecording() throws Exception {
+        RecordingEngine.Recording recording = mEngine.startRecording(INPUT_ID, mSourceUri);
+        waitForBytes(recording, mSourceData.length);
+        recording.stop();
+
+        File recordingDirectory = new File(recording.getDataUri().getPath()).getParentFile();
+        assertTrue(recordingDirectory.exists());
+        // The segments and the index are freed.
+        assertTrue(mEngine.deleteRecording(recording.getDataUri()) > mSourceData.length);
+        assertFalse(recordingDirectory.exists());
+        // Only recordings of the engine are deleted.
+        assertEquals(0, mEngine.deleteRecording(mSourceUri));
+    }
+
+    private static void waitForBytes(RecordingEngine.Recording recording, long bytes)
+            throws InterruptedException {
+        long deadlineMs = System.currentTimeMillis() + CAPTURE_TIMEOUT_MS;
+        while (recording.getBytes() < bytes && System.currentTimeMillis() < deadlineMs) {
+            Thread.sleep(10);
+        }
+        assertEquals(bytes, recording.getBytes());
+    }
+}
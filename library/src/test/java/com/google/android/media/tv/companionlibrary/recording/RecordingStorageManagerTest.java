@@ -0,0 +1,191 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary.recording;
+
+import static org.junit.Assert.assertEquals;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.content.ContentProviderOperation;
+import android.media.tv.TvContract;
+import android.net.Uri;
+import android.os.Build;
+import com.google.android.media.tv.companionlibrary.BuildConfig;
+import com.google.android.media.tv.companionlibrary.model.RecordedProgram;
+import java.io.File;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/** Tests which recordings are evicted to keep within the quota and the free space. */
+@RunWith(RobolectricTestRunner.class)
+// Recorded programs need Android N.
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.N,
+    manifest = "src/main/AndroidManifest.xml")
+public class RecordingStorageManagerTest {
+    private static final String INPUT_ID = "input";
+    private static final long RECORDING_BYTES = 1000;
+    private static final long PLENTY_OF_SPACE_BYTES = Long.MAX_VALUE / 2;
+
+    private RecordingStorageManager mManager;
+    private File mDirectory;
+    private long mFreeBytes = PLENTY_OF_SPACE_BYTES;
+
+    @Before
+    public void setUp() {
+        mDirectory = new File(RuntimeEnvironment.application.getFilesDir(), "recordings");
+        RecordingEngine engine = new RecordingEngine(RuntimeEnvironment.application, mDirectory,
+                1000);
+        mManager = new RecordingStorageManager(RuntimeEnvironment.application, engine) {
+            @Override
+            long getFreeBytes() {
+                return mFreeBytes;
+            }
+        };
+    }
+
+    @Test
+    public void testEvictsExpiredRecordings() {
+        long nowMs = System.currentTimeMillis();
+        mManager.onRecordingSaved(1, createRecording(1, nowMs - 1000));
+        mManager.onRecordingSaved(2, createRecording(2, nowMs + 60000));
+        mManager.onRecordingSaved(3, createRecording(3, 0));
+
+        assertEquals(1, mManager.enforce());
+        assertEquals(2 * RECORDING_BYTES, mManager.getUsedBytes());
+        assertDeleted(1);
+    }
+
+    @Test
+    public void testOtherRecordingsKept() {
+        long nowMs = System.currentTimeMillis();
+        mManager.setQuotaBytes(0);
+        // Recordings which only refer to their source were not made by the engine.
+        mManager.onRecordingSaved(1, new RecordedProgram.Builder(createRecording(1, nowMs - 1000))
+                .setRecordingDataUri("http://example.com/video.mp4")
+                .build());
+        mManager.onRecordingSaved(2, createRecording(2, 0));
+
+        assertEquals(1, mManager.enforce());
+        assertDeleted(2);
+        assertEquals(1, getDeleteOperations().size());
+    }
+
+    @Test
+    public void testOldestFirst() {
+        mManager.setEvictionPolicy(RecordingStorageManager.POLICY_OLDEST_FIRST);
+        mManager.setQuotaBytes(2 * RECORDING_BYTES + RECORDING_BYTES / 2);
+        saveRecordings(3);
+        mManager.markWatched(3);
+
+        assertEquals(1, mManager.enforce());
+        assertEquals(2 * RECORDING_BYTES, mManager.getUsedBytes());
+        assertDeleted(1);
+    }
+
+    @Test
+    public void testWatchedFirst() {
+        mManager.setQuotaBytes(RECORDING_BYTES);
+        saveRecordings(3);
+        mManager.markWatched(2);
+
+        // The watched recording goes first, even though it is not the oldest.
+        assertEquals(2, mManager.enforce());
+        assertEquals(RECORDING_BYTES, mManager.getUsedBytes());
+        assertDeleted(1);
+        assertEquals(0, mManager.enforce());
+    }
+
+    @Test
+    public void testPlayingRecordingsKept() {
+        long nowMs = System.currentTimeMillis();
+        mManager.setQuotaBytes(RECORDING_BYTES);
+        mManager.onRecordingSaved(1, createRecording(1, nowMs - 1000));
+        mManager.onRecordingSaved(2, createRecording(2, 0));
+        mManager.onRecordingSaved(3, createRecording(3, 0));
+        mManager.markWatched(2);
+        mManager.onPlaybackStarted(1);
+        mManager.onPlaybackStarted(2);
+
+        // Neither the expired recording nor the watched one go while they are played.
+        assertEquals(1, mManager.enforce());
+        assertDeleted(3);
+
+        mManager.onPlaybackStopped(1);
+        mManager.onPlaybackStopped(2);
+        assertEquals(1, mManager.enforce());
+        assertDeleted(1);
+        assertEquals(RECORDING_BYTES, mManager.getUsedBytes());
+    }
+
+    @Test
+    public void testMinFreeBytes() {
+        mManager.setMinFreeBytes(RECORDING_BYTES + RECORDING_BYTES / 2);
+        saveRecordings(3);
+        mFreeBytes = 100;
+
+        // Each eviction frees the bytes of the recording.
+        assertEquals(2, mManager.enforce());
+        assertEquals(RECORDING_BYTES, mManager.getUsedBytes());
+    }
+
+    @Test
+    public void testDeletesRowsInBatches() {
+        int count = RecordingStorageManager.DELETE_BATCH_SIZE + 10;
+        for (int i = 1; i <= count; i++) {
+            mManager.onRecordingSaved(i, createRecording(i, 1));
+        }
+
+        assertEquals(count, mManager.enforce());
+        assertEquals(0, mManager.getUsedBytes());
+        // The last batch holds the rest of the rows.
+        assertEquals(10, getDeleteOperations().size());
+    }
+
+    private void saveRecordings(int count) {
+        for (int i = 1; i <= count; i++) {
+            mManager.onRecordingSaved(i, createRecording(i, 0));
+        }
+    }
+
+    private RecordedProgram createRecording(long startTimeMs, long expireTimeMs) {
+        File indexFile = new File(new File(mDirectory, String.valueOf(startTimeMs)),
+                RecordingIndex.FILE_NAME);
+        return new RecordedProgram.Builder()
+                .setRecordingDataUri(Uri.fromFile(indexFile).toString())
+                .setInputId(INPUT_ID)
+                .setTitle("Recording " + startTimeMs)
+                .setStartTimeUtcMillis(startTimeMs)
+                .setEndTimeUtcMillis(startTimeMs + 1)
+                .setRecordingDataBytes(RECORDING_BYTES)
+                .setRecordingExpireTimeUtcMillis(expireTimeMs)
+                .build();
+    }
+
+    private static List<ContentProviderOperation> getDeleteOperations() {
+        return shadowOf(RuntimeEnvironment.application.getContentResolver())
+                .getContentProviderOperations(TvContract.AUTHORITY);
+    }
+
+    private static void assertDeleted(long recordedProgramId) {
+        List<ContentProviderOperation> operations = getDeleteOperations();
+        assertEquals(TvContract.buildRecordedProgramUri(recordedProgramId),
+                operations.get(operations.size() - 1).getUri());
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.media.tv.companionlibrary.sync;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.app.job.JobParameters;
+import android.media.tv.TvContract;
+import android.net.Uri;
+import android.os.PersistableBundle;
+import com.google.android.media.tv.companionlibrary.BuildConfig;
+import com.google.android.media.tv.companionlibrary.model.Channel;
+import com.google.android.media.tv.companionlibrary.model.Program;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Drives {@link EpgSyncJobService.EpgSyncTask} against a synthetic lineup in a {@link
+ * FakeTvProvider}, and reports how long the sync takes, the provider operations it makes and the
+ * memory it uses.
+ *
+ * <p>The lineup is small by default so that the test suite stays fast, and the reports are only
+ * printed when one of the {@code epgLoadTest.*} properties is set. Pass {@code
+ * -DepgLoadTest.channels=1000 -DepgLoadTest.programsPerChannel=100} to Gradle to sync 100k
+ * programs like a large cable lineup, or {@code -DepgLoadTest.report=true} to print the reports of
+ * the default lineup. Allocations are only reported on JVMs which count them per thread, such as
+ * HotSpot.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23,
+    manifest = "src/main/AndroidManifest.xml")
+public class EpgSyncLoadTest {
+    private static final String INPUT_ID = "com.example.android.sampletvinput/.LoadTestInput";
+    private static final int CHANNEL_COUNT = Integer.getInteger("epgLoadTest.channels", 50);
+    private static final int PROGRAMS_PER_CHANNEL =
+            Integer.getInteger("epgLoadTest.programsPerChannel", 100);
+    private static final long PROGRAM_DURATION_MS = 1000 * 60 * 30;
+    private static final boolean REPORT =
+            Boolean.getBoolean("epgLoadTest.report")
+                    || System.getProperty("epgLoadTest.channels") != null
+                    || System.getProperty("epgLoadTest.programsPerChannel") != null;
+
+    private FakeTvProvider mProvider;
+    private SyntheticEpgSyncJobService mService;
+
+    @Before
+    public void setUp() {
+        mProvider =
+                Robolectric.buildContentProvider(FakeTvProvider.class)
+                        .create(TvContract.AUTHORITY)
+                        .get();
+        mService = Robolectric.setupService(SyntheticEpgSyncJobService.class);
+        // Start with the program on air, so that the sync does not skip any as past programs.
+        long startMs = System.currentTimeMillis() / PROGRAM_DURATION_MS * PROGRAM_DURATION_MS;
+        mService.createLineup(CHANNEL_COUNT, PROGRAMS_PER_CHANNEL, startMs);
+    }
+
+    @Test
+    public void testInitialSync() {
+        Report report = sync("initial sync");
+
+        int programCount = CHANNEL_COUNT * PROGRAMS_PER_CHANNEL;
+        assertEquals(CHANNEL_COUNT, mProvider.getChannelCount());
+        assertEquals(programCount, mProvider.getProgramCount());
+        assertEquals(CHANNEL_COUNT + programCount, report.mInserts);
+        assertEquals(0, report.mUpdates);
+        assertEquals(0, report.mDeletes);
+    }
+
+    @Test
+    public void testUnchangedResync() {
+        sync("initial sync");
+        Report report = sync("unchanged resync");
+
+        // Channels are always rewritten, but programs which did not change are left alone.
+        assertEquals(0, report.mInserts);
+        assertEquals(CHANNEL_COUNT, report.mUpdates);
+        assertEquals(0, report.mDeletes);
+        assertEquals(CHANNEL_COUNT * PROGRAMS_PER_CHANNEL, mProvider.getProgramCount());
+    }
+
+    @Test
+    public void testChangedResync() {
+        sync("initial sync");
+        mService.renamePrograms();
+        Report report = sync("changed resync");
+
+        // Renamed programs no longer match by title, so each is replaced.
+        int programCount = CHANNEL_COUNT * PROGRAMS_PER_CHANNEL;
+        assertEquals(programCount, report.mInserts);
+        assertEquals(CHANNEL_COUNT, report.mUpdates);
+        assertEquals(programCount, report.mDeletes);
+        assertEquals(programCount, mProvider.getProgramCount());
+    }
+
+    private Report sync(String name) {
+        PersistableBundle extras = new PersistableBundle();
+        extras.putString(EpgSyncJobService.BUNDLE_KEY_INPUT_ID, INPUT_ID);
+        JobParameters params = mock(JobParameters.class);
+        when(params.getExtras()).thenReturn(extras);
+        EpgSyncJobService.EpgSyncTask task = mService.new EpgSyncTask(params);
+
+        mProvider.resetCounts();
+        Report report = new Report(name);
+        report.start();
+        task.doInBackground();
+        report.stop(mProvider, CHANNEL_COUNT * PROGRAMS_PER_CHANNEL);
+        if (REPORT) {
+            System.out.println(report);
+        }
+        return report;
+    }
+
+    /** Measures one sync. The sync runs on the calling thread, so allocations are its own. */
+    private static class Report {
+        private final String mName;
+        private long mStartNs;
+        private long mStartAllocatedBytes;
+        private long mStartHeapBytes;
+
+        private long mWallTimeMs;
+        private long mPeakHeapBytes;
+        private long mAllocatedBytes = -1;
+        private int mProgramCount;
+        private int mQueries;
+        private int mQueriedRows;
+        private int mInserts;
+        private int mUpdates;
+        private int mDeletes;
+        private int mBatches;
+        private int mBatchOperations;
+
+        Report(String name) {
+            mName = name;
+        }
+
+        void start() {
+            System.gc();
+            mStartHeapBytes = 0;
+            for (MemoryPoolMXBean pool : getHeapPools()) {
+                pool.resetPeakUsage();
+                mStartHeapBytes += pool.getUsage().getUsed();
+            }
+            mStartAllocatedBytes = getAllocatedBytes();
+            mStartNs = System.nanoTime();
+        }
+
+        void stop(FakeTvProvider provider, int programCount) {
+            mWallTimeMs = (System.nanoTime() - mStartNs) / 1000000;
+            long allocatedBytes = getAllocatedBytes();
+            if (allocatedBytes >= 0 && mStartAllocatedBytes >= 0) {
+                mAllocatedBytes = allocatedBytes - mStartAllocatedBytes;
+            }
+            // Pools peak at different times, so the sum slightly overestimates the peak heap.
+            mPeakHeapBytes = 0;
+            for (MemoryPoolMXBean pool : getHeapPools()) {
+                mPeakHeapBytes += pool.getPeakUsage().getUsed();
+            }
+            mProgramCount = programCount;
+            mQueries = provider.getQueryCount();
+            mQueriedRows = provider.getQueriedRowCount();
+            mInserts = provider.getInsertCount();
+            mUpdates = provider.getUpdateCount();
+            mDeletes = provider.getDeleteCount();
+            mBatches = provider.getBatchCount();
+            mBatchOperations = provider.getBatchOperationCount();
+        }
+
+        private static List<MemoryPoolMXBean> getHeapPools() {
+            List<MemoryPoolMXBean> pools = new ArrayList<>();
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                    pools.add(pool);
+                }
+            }
+            return pools;
+        }
+
+        /** @return The bytes allocated by this thread so far, or -1 if the JVM does not know. */
+        private static long getAllocatedBytes() {
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+                return -1;
+            }
+            com.sun.management.ThreadMXBean hotSpotThreads =
+                    (com.sun.management.ThreadMXBean) threads;
+            if (!hotSpotThreads.isThreadAllocatedMemorySupported()
+                    || !hotSpotThreads.isThreadAllocatedMemoryEnabled()) {
+                return -1;
+            }
+            return hotSpotThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+
+        @Override
+        public String toString() {
+            return "EpgSyncLoadTest " + mName + ": " + mProgramCount + " programs"
+                    + "\n  wall time: " + mWallTimeMs + " ms"
+                    + "\n  provider: " + mQueries + " queries (" + mQueriedRows + " rows), "
+                    + mInserts + " inserts, " + mUpdates + " updates, " + mDeletes + " deletes, "
+                    + mBatches + " batches (" + mBatchOperations + " operations)"
+                    + "\n  heap: " + mStartHeapBytes / 1024 + " KB before, peak "
+                    + mPeakHeapBytes / 1024 + " KB"
+                    + "\n  allocations: "
+                    + (mAllocatedBytes < 0
+                            ? "unknown"
+                            : mAllocatedBytes / 1024 + " KB, "
+                                    + mAllocatedBytes / Math.max(1, mProgramCount)
+                                    + " bytes per program");
+        }
+    }
+
+    /**
+     * Serves a lineup built ahead of the sync, so that building it is not counted against the
+     * sync.
+     */
+    public static class SyntheticEpgSyncJobService extends EpgSyncJobService {
+        private final List<Channel> mChannels = new ArrayList<>();
+        private final List<List<Program>> mPrograms = new ArrayList<>();
+
+        void createLineup(int channelCount, int programsPerChannel, long startMs) {
+            for (int i = 0; i < channelCount; i++) {
+                mChannels.add(
+                        new Channel.Builder()
+                                .setDisplayName("Channel " + i)
+                                .setDisplayNumber(String.valueOf(i + 1))
+                                .setOriginalNetworkId(i)
+                                .build());
+                List<Program> programs = new ArrayList<>(programsPerChannel);
+                for (int j = 0; j < programsPerChannel; j++) {
+                    long programStartMs = startMs + j * PROGRAM_DURATION_MS;
+                    programs.add(
+                            new Program.Builder()
+                                    .setTitle("Program " + j + " on channel " + i)
+                                    .setDescription("Description of program " + j)
+                                    .setLongDescription("Long description of program " + j)
+                                    .setStartTimeUtcMillis(programStartMs)
+                                    .setEndTimeUtcMillis(programStartMs + PROGRAM_DURATION_MS)
+                                    .build());
+                }
+                mPrograms.add(programs);
+            }
+        }
+
+        void renamePrograms() {
+            for (List<Program> programs : mPrograms) {
+                for (int j = 0; j < programs.size(); j++) {
+                    Program program = programs.get(j);
+                    programs.set(
+                            j,
+                            new Program.Builder(program)
+                                    .setTitle(program.getTitle() + " (renamed)")
+                                    .build());
+                }
+            }
+        }
+
+        @Override
+        public List<Channel> getChannels() {
+            return mChannels;
+        }
+
+        @Override
+        public List<Program> getProgramsForChannel(
+                Uri channelUri, Channel channel, long startMs, long endMs) {
+            // The sync sets the channel IDs in the list it is given, so hand out a copy.
+            return new ArrayList<>(mPrograms.get((int) channel.getOriginalNetworkId()));
+        }
+    }
+}
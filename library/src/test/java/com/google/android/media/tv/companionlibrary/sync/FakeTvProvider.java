@@ -0,0 +1,320 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.media.tv.companionlibrary.sync;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.media.tv.TvContract;
+import android.net.Uri;
+import com.google.android.media.tv.companionlibrary.model.Channel;
+import com.google.android.media.tv.companionlibrary.model.Program;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An in-memory stand-in for the system TvProvider, which supports the channels and programs
+ * queries and writes of {@link EpgSyncJobService} and counts every call it receives.
+ *
+ * <p>Programs are returned in chronological order for each channel, like TvProvider does. Columns
+ * are stored as given and never validated.
+ */
+public class FakeTvProvider extends ContentProvider {
+    // TvContract keeps the names of its query parameters hidden.
+    private static final String PARAM_INPUT = "input";
+    private static final String PARAM_CHANNEL = "channel";
+
+    private static final int MATCH_CHANNEL = 1;
+    private static final int MATCH_CHANNEL_ID = 2;
+    private static final int MATCH_PROGRAM = 3;
+    private static final int MATCH_PROGRAM_ID = 4;
+
+    private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
+
+    static {
+        sUriMatcher.addURI(TvContract.AUTHORITY, "channel", MATCH_CHANNEL);
+        sUriMatcher.addURI(TvContract.AUTHORITY, "channel/#", MATCH_CHANNEL_ID);
+        sUriMatcher.addURI(TvContract.AUTHORITY, "program", MATCH_PROGRAM);
+        sUriMatcher.addURI(TvContract.AUTHORITY, "program/#", MATCH_PROGRAM_ID);
+    }
+
+    private static final Comparator<ContentValues> START_TIME_COMPARATOR =
+            new Comparator<ContentValues>() {
+                @Override
+                public int compare(ContentValues a, ContentValues b) {
+                    return Long.compare(
+                            a.getAsLong(TvContract.Programs.COLUMN_START_TIME_UTC_MILLIS),
+                            b.getAsLong(TvContract.Programs.COLUMN_START_TIME_UTC_MILLIS));
+                }
+            };
+
+    private final Map<Long, ContentValues> mChannels = new LinkedHashMap<>();
+    private final Map<Long, ContentValues> mPrograms = new HashMap<>();
+    private final Map<Long, Map<Long, ContentValues>> mProgramsByChannel = new HashMap<>();
+    private long mNextId = 1;
+
+    private int mQueryCount;
+    private int mQueriedRowCount;
+    private int mInsertCount;
+    private int mUpdateCount;
+    private int mDeleteCount;
+    private int mBatchCount;
+    private int mBatchOperationCount;
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return null;
+    }
+
+    @Override
+    public synchronized Cursor query(
+            Uri uri,
+            String[] projection,
+            String selection,
+            String[] selectionArgs,
+            String sortOrder) {
+        mQueryCount++;
+        List<ContentValues> rows = new ArrayList<>();
+        switch (sUriMatcher.match(uri)) {
+            case MATCH_CHANNEL:
+                String inputId = uri.getQueryParameter(PARAM_INPUT);
+                for (ContentValues channel : mChannels.values()) {
+                    if (inputId == null
+                            || inputId.equals(
+                                    channel.getAsString(TvContract.Channels.COLUMN_INPUT_ID))) {
+                        rows.add(channel);
+                    }
+                }
+                projection = projection != null ? projection : Channel.PROJECTION;
+                break;
+            case MATCH_CHANNEL_ID:
+                addIfPresent(rows, mChannels.get(ContentUris.parseId(uri)));
+                projection = projection != null ? projection : Channel.PROJECTION;
+                break;
+            case MATCH_PROGRAM:
+                String channelId = uri.getQueryParameter(PARAM_CHANNEL);
+                if (channelId == null) {
+                    rows.addAll(mPrograms.values());
+                } else {
+                    Map<Long, ContentValues> programs =
+                            mProgramsByChannel.get(Long.parseLong(channelId));
+                    if (programs != null) {
+                        rows.addAll(programs.values());
+                    }
+                }
+                Collections.sort(rows, START_TIME_COMPARATOR);
+                projection = projection != null ? projection : Program.PROJECTION;
+                break;
+            case MATCH_PROGRAM_ID:
+                addIfPresent(rows, mPrograms.get(ContentUris.parseId(uri)));
+                projection = projection != null ? projection : Program.PROJECTION;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, rows.size());
+        for (ContentValues row : rows) {
+            MatrixCursor.RowBuilder builder = cursor.newRow();
+            for (String column : projection) {
+                builder.add(row.get(column));
+            }
+        }
+        mQueriedRowCount += rows.size();
+        return cursor;
+    }
+
+    @Override
+    public synchronized Uri insert(Uri uri, ContentValues values) {
+        mInsertCount++;
+        long id = mNextId++;
+        ContentValues row = new ContentValues(values);
+        row.put(TvContract.BaseTvColumns._ID, id);
+        switch (sUriMatcher.match(uri)) {
+            case MATCH_CHANNEL:
+                mChannels.put(id, row);
+                return TvContract.buildChannelUri(id);
+            case MATCH_PROGRAM:
+                mPrograms.put(id, row);
+                getProgramsOfChannel(row).put(id, row);
+                return TvContract.buildProgramUri(id);
+            default:
+                throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+    }
+
+    @Override
+    public synchronized int update(
+            Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        mUpdateCount++;
+        long id = ContentUris.parseId(uri);
+        switch (sUriMatcher.match(uri)) {
+            case MATCH_CHANNEL_ID:
+                ContentValues channel = mChannels.get(id);
+                if (channel == null) {
+                    return 0;
+                }
+                channel.putAll(values);
+                channel.put(TvContract.BaseTvColumns._ID, id);
+                return 1;
+            case MATCH_PROGRAM_ID:
+                ContentValues program = mPrograms.get(id);
+                if (program == null) {
+                    return 0;
+                }
+                getProgramsOfChannel(program).remove(id);
+                program.putAll(values);
+                program.put(TvContract.BaseTvColumns._ID, id);
+                getProgramsOfChannel(program).put(id, program);
+                return 1;
+            default:
+                throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+    }
+
+    @Override
+    public synchronized int delete(Uri uri, String selection, String[] selectionArgs) {
+        mDeleteCount++;
+        long id = ContentUris.parseId(uri);
+        switch (sUriMatcher.match(uri)) {
+            case MATCH_CHANNEL_ID:
+                if (mChannels.remove(id) == null) {
+                    return 0;
+                }
+                // TvProvider deletes the programs of a channel along with it.
+                Map<Long, ContentValues> programs = mProgramsByChannel.remove(id);
+                if (programs != null) {
+                    mPrograms.keySet().removeAll(programs.keySet());
+                }
+                return 1;
+            case MATCH_PROGRAM_ID:
+                ContentValues program = mPrograms.remove(id);
+                if (program == null) {
+                    return 0;
+                }
+                getProgramsOfChannel(program).remove(id);
+                return 1;
+            default:
+                throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+    }
+
+    @Override
+    public synchronized ContentProviderResult[] applyBatch(
+            ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        mBatchCount++;
+        mBatchOperationCount += operations.size();
+        return super.applyBatch(operations);
+    }
+
+    /** @return The number of channels in the provider. */
+    public synchronized int getChannelCount() {
+        return mChannels.size();
+    }
+
+    /** @return The number of programs in the provider, across all channels. */
+    public synchronized int getProgramCount() {
+        return mPrograms.size();
+    }
+
+    /** @return The number of queries since the last {@link #resetCounts()}. */
+    public synchronized int getQueryCount() {
+        return mQueryCount;
+    }
+
+    /** @return The number of rows returned by queries since the last {@link #resetCounts()}. */
+    public synchronized int getQueriedRowCount() {
+        return mQueriedRowCount;
+    }
+
+    /**
+     * @return The number of inserts since the last {@link #resetCounts()}, including those
+     *     applied in batches.
+     */
+    public synchronized int getInsertCount() {
+        return mInsertCount;
+    }
+
+    /**
+     * @return The number of updates since the last {@link #resetCounts()}, including those
+     *     applied in batches.
+     */
+    public synchronized int getUpdateCount() {
+        return mUpdateCount;
+    }
+
+    /**
+     * @return The number of deletes since the last {@link #resetCounts()}, including those
+     *     applied in batches.
+     */
+    public synchronized int getDeleteCount() {
+        return mDeleteCount;
+    }
+
+    /** @return The number of batches applied since the last {@link #resetCounts()}. */
+    public synchronized int getBatchCount() {
+        return mBatchCount;
+    }
+
+    /** @return The number of operations in those batches. */
+    public synchronized int getBatchOperationCount() {
+        return mBatchOperationCount;
+    }
+
+    /** Resets every counter, leaving the channels and programs in place. */
+    public synchronized void resetCounts() {
+        mQueryCount = 0;
+        mQueriedRowCount = 0;
+        mInsertCount = 0;
+        mUpdateCount = 0;
+        mDeleteCount = 0;
+        mBatchCount = 0;
+        mBatchOperationCount = 0;
+    }
+
+    private Map<Long, ContentValues> getProgramsOfChannel(ContentValues program) {
+        Long channelId = program.getAsLong(TvContract.Programs.COLUMN_CHANNEL_ID);
+        Map<Long, ContentValues> programs = mProgramsByChannel.get(channelId);
+        if (programs == null) {
+            programs = new HashMap<>();
+            mProgramsByChannel.put(channelId, programs);
+        }
+        return programs;
+    }
+
+    private static void addIfPresent(List<ContentValues> rows, ContentValues row) {
+        if (row != null) {
+            rows.add(row);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2017 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import android.media.tv.TvContract;
+import android.net.Uri;
+import com.google.android.media.tv.companionlibrary.BuildConfig;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/**
+ * Tests that channel logos are downloaded once, revalidated with their ETag, and only written when
+ * they change.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23,
+    manifest = "src/main/AndroidManifest.xml")
+public class ChannelLogoLoaderTest {
+    private static final Uri LOGO_URI_1 = TvContract.buildChannelLogoUri(1);
+    private static final Uri LOGO_URI_2 = TvContract.buildChannelLogoUri(2);
+
+    private HttpServer mLogoServer;
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mNotModifiedCount = new AtomicInteger();
+    private volatile byte[] mLogo = {1, 2, 3};
+    private ExecutorService mExecutor;
+    private final Map<Uri, byte[]> mWrittenLogos = new ConcurrentHashMap<>();
+    private final AtomicInteger mWriteCount = new AtomicInteger();
+    private ChannelLogoLoader mLoader;
+
+    @Before
+    public void setUp() throws IOException {
+        // A local stand-in for the server hosting the logos.
+        mLogoServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mLogoServer.createContext(
+                "/logo",
+                new HttpHandler() {
+                    @Override
+                    public void handle(HttpExchange exchange) throws IOException {
+                        mRequestCount.incrementAndGet();
+                        byte[] logo = mLogo;
+                        String eTag = "\"" + Arrays.hashCode(logo) + "\"";
+                        if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                            mNotModifiedCount.incrementAndGet();
+                            exchange.sendResponseHeaders(304, -1);
+                            exchange.close();
+                            return;
+                        }
+                        exchange.getResponseHeaders().add("ETag", eTag);
+                        exchange.sendResponseHeaders(200, logo.length);
+                        OutputStream os = exchange.getResponseBody();
+                        os.write(logo);
+                        os.close();
+                    }
+                });
+        mLogoServer.start();
+        mExecutor = Executors.newFixedThreadPool(2);
+        mLoader =
+                new ChannelLogoLoader(RuntimeEnvironment.application, mExecutor) {
+                    @Override
+                    OutputStream openOutputStream(final Uri logoUri) {
+                        mWriteCount.incrementAndGet();
+                        return new ByteArrayOutputStream() {
+                            @Override
+                            public void close() {
+                                mWrittenLogos.put(logoUri, toByteArray());
+                            }
+                        };
+                    }
+
+                    @Override
+                    boolean hasLogo(Uri logoUri) {
+                        return mWrittenLogos.containsKey(logoUri);
+                    }
+                };
+    }
+
+    @After
+    public void tearDown() {
+        mLogoServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testSharedLogoDownloadedOnce() throws InterruptedException {
+        mLoader.insertLogos(getLogos());
+
+        assertEquals(1, mRequestCount.get());
+        assertArrayEquals(mLogo, mWrittenLogos.get(LOGO_URI_1));
+        assertArrayEquals(mLogo, mWrittenLogos.get(LOGO_URI_2));
+    }
+
+    @Test
+    public void testUnchangedLogoNotWrittenAgain() throws InterruptedException {
+        mLoader.insertLogos(getLogos());
+        mLoader.insertLogos(getLogos());
+
+        assertEquals(2, mWriteCount.get());
+    }
+
+    @Test
+    public void testUnchangedLogoRevalidated() throws InterruptedException {
+        mLoader.insertLogos(getLogos());
+        mLoader.insertLogos(getLogos());
+
+        assertEquals(2, mRequestCount.get());
+        assertEquals(1, mNotModifiedCount.get());
+    }
+
+    @Test
+    public void testChangedLogoWrittenAgain() throws InterruptedException {
+        mLoader.insertLogos(getLogos());
+        mLogo = new byte[] {4, 5, 6};
+        mLoader.insertLogos(getLogos());
+
+        assertEquals(4, mWriteCount.get());
+        assertArrayEquals(mLogo, mWrittenLogos.get(LOGO_URI_1));
+    }
+
+    @Test
+    public void testMissingLogoWrittenAgain() throws InterruptedException {
+        mLoader.insertLogos(getLogos());
+        // The channel was deleted and its row ID reused.
+        mWrittenLogos.remove(LOGO_URI_2);
+        mLoader.insertLogos(getLogos());
+
+        // The logo is downloaded again instead of revalidated, since a channel needs it.
+        assertEquals(0, mNotModifiedCount.get());
+        assertEquals(3, mWriteCount.get());
+        assertArrayEquals(mLogo, mWrittenLogos.get(LOGO_URI_2));
+    }
+
+    private Map<Uri, String> getLogos() {
+        String logoUrl = "http://127.0.0.1:" + mLogoServer.getAddress().getPort() + "/logo";
+        Map<Uri, String> logos = new HashMap<>();
+        logos.put(LOGO_URI_1, logoUrl);
+        logos.put(LOGO_URI_2, logoUrl);
+        return logos;
+    }
+}
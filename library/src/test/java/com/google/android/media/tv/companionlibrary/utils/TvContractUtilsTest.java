@@ -0,0 +1,84 @@
+/*
+ * Copyright 2016 The Android Open Source Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import android.media.tv.TvContentRating;
+import com.google.android.media.tv.companionlibrary.BuildConfig;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Tests that content ratings are correctly converted to and from the comma-separated format stored
+ * in the database.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23,
+    manifest = "src/main/AndroidManifest.xml")
+public class TvContractUtilsTest {
+    private static final TvContentRating RATING_PG =
+            TvContentRating.createRating("com.android.tv", "US_TV", "US_TV_PG");
+    private static final TvContentRating RATING_Y7 =
+            TvContentRating.createRating("com.android.tv", "US_TV", "US_TV_Y7", "US_TV_FV");
+
+    @Test
+    public void testContentRatingsRoundTrip() {
+        TvContentRating[] ratings = new TvContentRating[] {RATING_PG, RATING_Y7};
+        String flattened = TvContractUtils.contentRatingsToString(ratings);
+        assertEquals(RATING_PG.flattenToString() + "," + RATING_Y7.flattenToString(), flattened);
+        assertArrayEquals(ratings, TvContractUtils.stringToContentRatings(flattened));
+        // A second conversion is served from the cache and must give the same result.
+        assertEquals(flattened, TvContractUtils.contentRatingsToString(ratings));
+        assertArrayEquals(ratings, TvContractUtils.stringToContentRatings(flattened));
+    }
+
+    @Test
+    public void testStringToContentRatingsTrimsWhitespace() {
+        String flattened = " " + RATING_PG.flattenToString() + " ,\t"
+                + RATING_Y7.flattenToString() + ",";
+        assertArrayEquals(new TvContentRating[] {RATING_PG, RATING_Y7},
+                TvContractUtils.stringToContentRatings(flattened));
+    }
+
+    @Test
+    public void testCachedContentRatingsAreCopied() {
+        String flattened = RATING_PG.flattenToString();
+        TvContentRating[] first = TvContractUtils.stringToContentRatings(flattened);
+        first[0] = RATING_Y7;
+        TvContentRating[] second = TvContractUtils.stringToContentRatings(flattened);
+        assertNotSame(first, second);
+        assertEquals(RATING_PG, second[0]);
+
+        TvContentRating[] ratings = new TvContentRating[] {RATING_PG};
+        TvContractUtils.contentRatingsToString(ratings);
+        ratings[0] = RATING_Y7;
+        assertEquals(RATING_Y7.flattenToString(), TvContractUtils.contentRatingsToString(ratings));
+    }
+
+    @Test
+    public void testEmptyContentRatings() {
+        assertNull(TvContractUtils.stringToContentRatings(null));
+        assertNull(TvContractUtils.stringToContentRatings(""));
+        assertNull(TvContractUtils.contentRatingsToString(null));
+        assertNull(TvContractUtils.contentRatingsToString(new TvContentRating[0]));
+    }
+}